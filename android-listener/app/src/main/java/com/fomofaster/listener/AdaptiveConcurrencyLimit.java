@@ -0,0 +1,100 @@
+package com.fomofaster.listener;
+
+// How many backend requests may be on the network at once, adjusted from what the responses look like
+// (AIMD: additive increase, multiplicative decrease).
+//
+// Round trips are smoothed like TCP's SRTT (1/8 per sample) so one odd response neither sets the
+// baseline nor triggers a cut. The baseline is the lowest smoothed round trip seen recently - what a
+// request costs when nothing queues up in front of it. While the smoothed round trip stays within
+// latencyTolerance of that baseline and the limit is
+// actually being used, it grows by one per limit's worth of responses (about +1 per round trip). A
+// response that is much slower than the baseline, an overload status (5xx, 429) or a network failure
+// cuts it by backoffRatio. Only requests started after the last cut can cause the next one, so a
+// single slow burst lowers the limit once rather than once per request in it.
+//
+// The baseline is re-taken from scratch every BASELINE_WINDOW samples so it can also move up, e.g.
+// when the backend fails over to a farther host.
+public class AdaptiveConcurrencyLimit {
+    private static final int BASELINE_WINDOW = 250;
+    // Extra latency never counted as queueing, so a 2ms -> 5ms wobble on a LAN doesn't cut the limit
+    private static final long LATENCY_SLACK_NANOS = 20_000_000L;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+
+    private double limit;
+    private volatile int currentLimit;
+    private long smoothedNanos;
+    private long baselineNanos;
+    private long windowMinNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    private long lastDecreaseNanos;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double latencyTolerance, double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(this.minLimit, Math.min(initialLimit, this.maxLimit));
+        this.currentLimit = (int) limit;
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    public int getLimit() {
+        return currentLimit;
+    }
+
+    // Lowest recent smoothed round trip, 0 until the first successful response
+    public synchronized long getBaselineNanos() {
+        return baselineNanos;
+    }
+
+    // Successful (or at least not overloaded) response. inFlight counts every request on the network
+    // when this one finished, this one included. Batch responses should go to onOverload only, their
+    // round trip grows with the batch size rather than with queueing.
+    public synchronized void onResponse(long startNanos, long endNanos, int inFlight) {
+        long rttNanos = endNanos - startNanos;
+        smoothedNanos = smoothedNanos == 0 ? rttNanos : smoothedNanos + (rttNanos - smoothedNanos) / 8;
+        updateBaseline(smoothedNanos);
+
+        if (smoothedNanos > baselineNanos * latencyTolerance + LATENCY_SLACK_NANOS) {
+            decrease(startNanos, endNanos);
+        } else if (inFlight * 2 >= limit) {
+            // Only grow a limit that is being used, an idle one says nothing about the backend
+            setLimit(limit + 1.0 / limit);
+        }
+    }
+
+    // 5xx, 429 or a network failure
+    public synchronized void onOverload(long startNanos, long endNanos) {
+        decrease(startNanos, endNanos);
+    }
+
+    private void decrease(long startNanos, long endNanos) {
+        if (startNanos - lastDecreaseNanos < 0) {
+            // Already in flight when the limit was last cut
+            return;
+        }
+        lastDecreaseNanos = endNanos;
+        setLimit(limit * backoffRatio);
+    }
+
+    private void setLimit(double newLimit) {
+        limit = Math.max(minLimit, Math.min(newLimit, maxLimit));
+        currentLimit = (int) limit;
+    }
+
+    private void updateBaseline(long rttNanos) {
+        windowMinNanos = Math.min(windowMinNanos, rttNanos);
+        if (baselineNanos == 0 || rttNanos < baselineNanos) {
+            baselineNanos = rttNanos;
+        }
+        if (++windowSamples >= BASELINE_WINDOW) {
+            baselineNanos = windowMinNanos;
+            windowMinNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.fomofaster.listener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import okhttp3.HttpUrl;
+
+// One configured backend plus the health it has shown recently (fed by real sends and by
+// ConnectionWarmer's /health probes). BackendPool ranks endpoints by this.
+public class BackendEndpoint {
+    // Consecutive failures after which the endpoint is ranked behind every healthy one
+    private static final int UNHEALTHY_AFTER_FAILURES = 3;
+    private static final double LATENCY_ALPHA = 0.2;
+    private static final double ERROR_ALPHA = 0.1;
+    // Assumed latency until the first measurement comes in
+    private static final double INITIAL_LATENCY_MS = 100;
+
+    private final int order;
+    private final String baseUrl;
+    public final HttpUrl notificationsUrl;
+    public final HttpUrl batchUrl;
+    public final HttpUrl healthUrl;
+    public final HttpUrl streamUrl;
+    public final HttpUrl heartbeatUrl;
+    // No-op endpoint for LatencyProbe
+    public final HttpUrl probeUrl;
+
+    // Request latencies of successful sends/probes, used for the hedging threshold
+    final LatencyHistogram latency;
+
+    private double ewmaLatencyMs = INITIAL_LATENCY_MS;
+    private double ewmaErrorRate;
+    private int consecutiveFailures;
+
+    // Returns null if baseUrl isn't a valid http(s) URL
+    public static BackendEndpoint create(int order, String baseUrl) {
+        HttpUrl base = HttpUrl.parse(baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+        if (base == null) {
+            return null;
+        }
+        return new BackendEndpoint(order, baseUrl, base);
+    }
+
+    private BackendEndpoint(int order, String baseUrl, HttpUrl base) {
+        this.order = order;
+        this.baseUrl = baseUrl;
+        this.notificationsUrl = base.resolve("api/notifications");
+        this.batchUrl = base.resolve("api/notifications/batch");
+        this.healthUrl = base.resolve("health");
+        this.streamUrl = base.resolve("api/notifications/stream");
+        this.heartbeatUrl = base.resolve("api/notifications/heartbeat");
+        this.probeUrl = base.resolve("api/notifications/probe");
+        this.latency = new LatencyHistogram(baseUrl);
+    }
+
+    // backend_url holds one or more base URLs separated by commas or whitespace, in priority order
+    public static List<String> splitUrls(String value) {
+        List<String> urls = new ArrayList<>();
+        if (value == null) {
+            return urls;
+        }
+        for (String part : value.split("[,\\s]+")) {
+            if (!part.isEmpty()) {
+                urls.add(part);
+            }
+        }
+        return urls;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public synchronized void recordSuccess(long latencyNanos) {
+        latency.recordNanos(latencyNanos);
+        ewmaLatencyMs += LATENCY_ALPHA * (latencyNanos / 1_000_000.0 - ewmaLatencyMs);
+        ewmaErrorRate -= ERROR_ALPHA * ewmaErrorRate;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        ewmaErrorRate += ERROR_ALPHA * (1 - ewmaErrorRate);
+        consecutiveFailures++;
+    }
+
+    public synchronized boolean isHealthy() {
+        return consecutiveFailures < UNHEALTHY_AFTER_FAILURES;
+    }
+
+    // Lower is better: smoothed latency inflated by the recent error rate, with a small bias towards
+    // the configured order so a backup only takes over when it is clearly better
+    public synchronized double score() {
+        return ewmaLatencyMs * (1 + 4 * ewmaErrorRate) * (1 + 0.25 * order);
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US, "%s  %s  %.0fms  err %.0f%%  p95 %.0fms",
+                baseUrl, isHealthy() ? "up" : "DOWN", ewmaLatencyMs, ewmaErrorRate * 100,
+                latency.percentileMicros(95) / 1000.0);
+    }
+}
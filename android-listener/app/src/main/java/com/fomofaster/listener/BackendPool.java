@@ -0,0 +1,115 @@
+package com.fomofaster.listener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Ordered set of backends, ranked by health. Healthy endpoints come first (lowest score first),
+// endpoints with repeated failures after them, so sends fail over as soon as the primary misbehaves
+// and move back once it recovers.
+public class BackendPool {
+    // Hedge threshold bounds and the value used before enough latencies have been seen
+    private static final long MIN_HEDGE_DELAY_MS = 50;
+    private static final long MAX_HEDGE_DELAY_MS = 2000;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 300;
+    private static final long MIN_SAMPLES_FOR_P95 = 20;
+
+    // Health snapshot taken before sorting, since the live stats can change mid-sort
+    private static final class Rank {
+        final BackendEndpoint endpoint;
+        final boolean healthy;
+        final double score;
+
+        Rank(BackendEndpoint endpoint) {
+            this.endpoint = endpoint;
+            this.healthy = endpoint.isHealthy();
+            this.score = endpoint.score();
+        }
+
+        boolean betterThan(Rank other) {
+            if (healthy != other.healthy) {
+                return healthy;
+            }
+            if (score != other.score) {
+                return score < other.score;
+            }
+            return endpoint.getOrder() < other.endpoint.getOrder();
+        }
+    }
+
+    private static final Comparator<Rank> BEST_FIRST = new Comparator<Rank>() {
+        @Override
+        public int compare(Rank a, Rank b) {
+            return a.betterThan(b) ? -1 : (b.betterThan(a) ? 1 : 0);
+        }
+    };
+
+    private final List<BackendEndpoint> endpoints;
+
+    public BackendPool(List<String> baseUrls) {
+        List<BackendEndpoint> parsed = new ArrayList<>();
+        for (String url : baseUrls) {
+            BackendEndpoint endpoint = BackendEndpoint.create(parsed.size(), url);
+            if (endpoint != null) {
+                parsed.add(endpoint);
+            }
+        }
+        endpoints = Collections.unmodifiableList(parsed);
+    }
+
+    public boolean isEmpty() {
+        return endpoints.isEmpty();
+    }
+
+    public List<BackendEndpoint> all() {
+        return endpoints;
+    }
+
+    // Best endpoint first
+    public List<BackendEndpoint> ranked() {
+        List<Rank> ranks = new ArrayList<>(endpoints.size());
+        for (BackendEndpoint endpoint : endpoints) {
+            ranks.add(new Rank(endpoint));
+        }
+        Collections.sort(ranks, BEST_FIRST);
+
+        List<BackendEndpoint> ranked = new ArrayList<>(ranks.size());
+        for (Rank rank : ranks) {
+            ranked.add(rank.endpoint);
+        }
+        return ranked;
+    }
+
+    // Null if no backend URL is valid
+    public BackendEndpoint primary() {
+        Rank best = null;
+        for (BackendEndpoint endpoint : endpoints) {
+            Rank rank = new Rank(endpoint);
+            if (best == null || rank.betterThan(best)) {
+                best = rank;
+            }
+        }
+        return best != null ? best.endpoint : null;
+    }
+
+    // p95 of the endpoint's latency: a request that hasn't answered by then is in the slow tail
+    public long hedgeDelayMs(BackendEndpoint endpoint) {
+        if (endpoint.latency.count() < MIN_SAMPLES_FOR_P95) {
+            return DEFAULT_HEDGE_DELAY_MS;
+        }
+        long p95Ms = endpoint.latency.percentileMicros(95) / 1000;
+        return Math.max(MIN_HEDGE_DELAY_MS, Math.min(MAX_HEDGE_DELAY_MS, p95Ms));
+    }
+
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (BackendEndpoint endpoint : ranked()) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(endpoint.summary());
+        }
+        return sb.toString();
+    }
+}
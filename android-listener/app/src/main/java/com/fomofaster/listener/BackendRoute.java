@@ -0,0 +1,27 @@
+package com.fomofaster.listener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Where one filter rule's notifications go: its own backends, with their own circuit breaker so a
+// dead route doesn't park the others' traffic. The default route is used by rules without a backend.
+public class BackendRoute {
+    public static final String DEFAULT = "";
+
+    final String name;
+    final BackendPool pool;
+    final BackendRouter router;
+    final CircuitBreaker breaker;
+    // Requests started on this route and not finished yet, so a replaced route can be drained
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    BackendRoute(String name, BackendPool pool, BackendRouter router, CircuitBreaker breaker) {
+        this.name = name;
+        this.pool = pool;
+        this.router = router;
+        this.breaker = breaker;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+}
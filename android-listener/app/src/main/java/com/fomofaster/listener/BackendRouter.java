@@ -0,0 +1,215 @@
+package com.fomofaster.listener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Sends a request to the best-ranked backend in the BackendPool and fails over to the next one.
+//
+// Failover: if the primary fails (network error or a retryable status), the same request goes to the
+// next-best backend straight away instead of waiting for the retry backoff.
+// Hedging (optional): if the primary hasn't answered within its p95 latency, the same request - same
+// idempotency key - is also sent to the next-best backend. The first usable answer wins, the other
+// call is cancelled. Either way the caller's Callback is invoked exactly once, with the winning call.
+// If no request could be built (RequestFactory threw), that counts as a failed call and the Callback
+// gets onFailure with a null call.
+public class BackendRouter {
+    public interface RequestFactory {
+        Request build(BackendEndpoint endpoint) throws IOException;
+    }
+
+    private final OkHttpClient client;
+    private final BackendPool pool;
+    private final ScheduledExecutorService scheduler;
+    private final boolean hedgingEnabled;
+
+    public BackendRouter(OkHttpClient client, BackendPool pool, ScheduledExecutorService scheduler, boolean hedgingEnabled) {
+        this.client = client;
+        this.pool = pool;
+        this.scheduler = scheduler;
+        this.hedgingEnabled = hedgingEnabled;
+    }
+
+    public BackendPool getPool() {
+        return pool;
+    }
+
+    public void enqueue(RequestFactory factory, Callback callback) throws IOException {
+        List<BackendEndpoint> ranked = pool.ranked();
+        if (ranked.isEmpty()) {
+            throw new IOException("No valid backend URL configured");
+        }
+
+        Exchange exchange = new Exchange(factory, callback, ranked.size() > 1 ? ranked.get(1) : null);
+        exchange.launch(ranked.get(0));
+        if (hedgingEnabled && exchange.backup != null) {
+            scheduler.schedule(exchange::launchBackup, pool.hedgeDelayMs(ranked.get(0)), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // One logical send: the primary call plus, possibly, a failover/hedge call to the backup
+    private final class Exchange {
+        private final RequestFactory factory;
+        private final Callback callback;
+        final BackendEndpoint backup;
+
+        private final List<Call> calls = new ArrayList<>(2);
+        private boolean backupLaunched;
+        private boolean finished;
+        private int outstanding;
+
+        // Most recent unusable outcome, delivered if every call ends up failing
+        private Call failedCall;
+        private Response failedResponse;
+        private IOException failure;
+
+        Exchange(RequestFactory factory, Callback callback, BackendEndpoint backup) {
+            this.factory = factory;
+            this.callback = callback;
+            this.backup = backup;
+        }
+
+        void launch(final BackendEndpoint endpoint) {
+            Call built = null;
+            IOException buildFailure = null;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                outstanding++;
+                try {
+                    built = client.newCall(factory.build(endpoint));
+                    calls.add(built);
+                } catch (IOException e) {
+                    buildFailure = e;
+                } catch (RuntimeException e) {
+                    buildFailure = new IOException("Could not build request for " + endpoint.getBaseUrl(), e);
+                }
+            }
+            if (buildFailure != null) {
+                // Same path as a call that failed: fail over or deliver, so the caller always hears back.
+                // Not held against the endpoint, which never saw a request.
+                onUnusable(null, null, buildFailure);
+                return;
+            }
+
+            final Call call = built;
+
+            final long startNanos = System.nanoTime();
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    if (!call.isCanceled()) {
+                        endpoint.recordFailure();
+                    }
+                    onUnusable(call, null, e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    int code = response.code();
+                    if (response.isSuccessful() || !RetryPolicy.isRetryableStatus(code)) {
+                        // A 4xx still means the backend is up and answering
+                        endpoint.recordSuccess(System.nanoTime() - startNanos);
+                        onUsable(call, response);
+                    } else {
+                        endpoint.recordFailure();
+                        onUnusable(call, response, null);
+                    }
+                }
+            });
+        }
+
+        void launchBackup() {
+            synchronized (this) {
+                if (finished || backupLaunched || backup == null) {
+                    return;
+                }
+                backupLaunched = true;
+            }
+            launch(backup);
+        }
+
+        private void onUsable(Call call, Response response) throws IOException {
+            List<Call> losers;
+            Response staleFailure;
+            synchronized (this) {
+                if (finished) {
+                    response.close();
+                    return;
+                }
+                finished = true;
+                outstanding--;
+                losers = new ArrayList<>(calls);
+                losers.remove(call);
+                staleFailure = failedResponse;
+                failedResponse = null;
+            }
+            for (Call loser : losers) {
+                loser.cancel();
+            }
+            if (staleFailure != null) {
+                staleFailure.close();
+            }
+            callback.onResponse(call, response);
+        }
+
+        private void onUnusable(Call call, Response response, IOException e) {
+            boolean failOver;
+            boolean deliver;
+            synchronized (this) {
+                if (finished) {
+                    if (response != null) {
+                        response.close();
+                    }
+                    return;
+                }
+                outstanding--;
+                // call is null when the request couldn't even be built; an earlier backend's answer is
+                // more useful to the caller than that, so it only counts if nothing else failed yet
+                if (call != null || (failedCall == null && failure == null)) {
+                    if (failedResponse != null) {
+                        failedResponse.close();
+                    }
+                    failedCall = call;
+                    failedResponse = response;
+                    failure = e;
+                }
+
+                failOver = !backupLaunched && backup != null;
+                deliver = !failOver && outstanding == 0;
+                if (deliver) {
+                    finished = true;
+                }
+            }
+
+            if (failOver) {
+                launchBackup();
+                return;
+            }
+            if (deliver) {
+                deliverFailure();
+            }
+        }
+
+        private void deliverFailure() {
+            try {
+                if (failedResponse != null) {
+                    callback.onResponse(failedCall, failedResponse);
+                } else {
+                    callback.onFailure(failedCall, failure != null ? failure : new IOException("All backends failed"));
+                }
+            } catch (IOException e) {
+                callback.onFailure(failedCall, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.fomofaster.listener;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+// Long-lived WebSocket to api/notifications/stream.
+//
+// Each notification is pushed as one text frame {"id", "message"} and the backend answers with
+// {"ack", "statusCode", "body"} on the same socket once it has processed it. While the socket is
+// down send() returns false so the caller can fall back to HTTP, and every frame still waiting for
+// an ack is handed back through Listener.onUnacked() so nothing is lost with the connection.
+//
+// A socket can also stay up while acks never come (backend stuck on a frame, or an ack it sent that
+// can't be matched to a frame). Every frame has an ack deadline; frames past it are taken back and
+// handed to Listener.onAckTimeout() to go through the normal retry path. An ack that turns up after
+// that is ignored - the retry carries the same idempotency key.
+//
+// close() is for shutdown: frames still waiting for an ack are simply forgotten, not handed back, because
+// the sender and outbox are being torn down too. They are still in the outbox and get replayed on the
+// next start. closeAndHandBack() is for replacing the socket while the sender keeps running: those
+// frames go to Listener.onUnacked() right away, as after a disconnect.
+public class BackendSocket {
+
+    public interface Listener {
+        void onConnected();
+
+        void onAck(OutboxEntry entry, int statusCode, String body);
+
+        void onUnacked(List<OutboxEntry> entries, String reason);
+
+        void onAckTimeout(List<OutboxEntry> entries, String reason);
+    }
+
+    private static final long MIN_RECONNECT_DELAY_MS = 500;
+    private static final long MAX_RECONNECT_DELAY_MS = 30_000;
+    private static final long DEFAULT_ACK_TIMEOUT_MS = 15_000;
+    // Deadlines are checked this often, so a frame is taken back at most this much after its deadline
+    private static final long ACK_SWEEP_INTERVAL_MS = 1_000;
+
+    private static final class AwaitingAck {
+        final OutboxEntry entry;
+        final long sentAtNanos = System.nanoTime();
+
+        AwaitingAck(OutboxEntry entry) {
+            this.entry = entry;
+        }
+    }
+
+    private final OkHttpClient client;
+    private final String url;
+    private final ScheduledExecutorService scheduler;
+    private final Listener listener;
+    private final long ackTimeoutMs;
+
+    // ConcurrentHashMap, not Map: remove(key, value) is only a Map method from API 24
+    private final ConcurrentHashMap<Long, AwaitingAck> awaitingAck = new ConcurrentHashMap<>();
+    private volatile WebSocket socket;
+    private volatile boolean open;
+    private volatile boolean closed;
+    private long reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
+    private ScheduledFuture<?> ackSweep;
+
+    public BackendSocket(OkHttpClient client, String url, ScheduledExecutorService scheduler, Listener listener) {
+        this(client, url, scheduler, listener, DEFAULT_ACK_TIMEOUT_MS);
+    }
+
+    BackendSocket(OkHttpClient client, String url, ScheduledExecutorService scheduler, Listener listener,
+                  long ackTimeoutMs) {
+        // Pings keep NAT mappings alive and detect a dead backend without waiting on a read timeout
+        this.client = client.newBuilder()
+                .pingInterval(15, TimeUnit.SECONDS)
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        this.url = url;
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.ackTimeoutMs = ackTimeoutMs;
+    }
+
+    public synchronized void connect() {
+        if (closed) {
+            return;
+        }
+        if (ackSweep == null && !scheduler.isShutdown()) {
+            ackSweep = scheduler.scheduleWithFixedDelay(this::takeBackOverdueFrames,
+                    ACK_SWEEP_INTERVAL_MS, ACK_SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        Request request = new Request.Builder().url(url).build();
+        socket = client.newWebSocket(request, new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                open = true;
+                reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
+                listener.onConnected();
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                handleAck(text);
+            }
+
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                webSocket.close(1000, null);
+                onDisconnected(webSocket, "Closed by backend: " + code + " " + reason);
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                onDisconnected(webSocket, "Socket failure: " + t.getMessage());
+            }
+        });
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    // Pushes the entry as a frame. Returns false (without taking ownership) if the socket isn't usable.
+    public boolean send(OutboxEntry entry) {
+        WebSocket current = socket;
+        if (!open || current == null) {
+            return false;
+        }
+
+        String frame;
+        try {
+            JSONObject json = entry.toJSON();
+            json.put("id", entry.getId());
+            frame = json.toString();
+        } catch (Exception e) {
+            return false;
+        }
+
+        // Registered before sending so an ack can never arrive for an unknown id
+        awaitingAck.put(entry.getId(), new AwaitingAck(entry));
+        if (!open) {
+            // Closed meanwhile: if the close already took the frame it owns it now, otherwise it's the caller's
+            return awaitingAck.remove(entry.getId()) == null;
+        }
+        if (!current.send(frame)) {
+            awaitingAck.remove(entry.getId());
+            return false;
+        }
+        return true;
+    }
+
+    // For shutdown - frames awaiting an ack are dropped here and replayed from the outbox on the next start
+    public void close() {
+        stop("Listener stopped");
+        awaitingAck.clear();
+    }
+
+    // For replacing this socket with another one: frames awaiting an ack are handed to
+    // Listener.onUnacked() on the calling thread before this returns
+    public void closeAndHandBack(String reason) {
+        stop(reason);
+        List<OutboxEntry> unacked = takeAllAwaiting();
+        if (!unacked.isEmpty()) {
+            listener.onUnacked(unacked, reason);
+        }
+    }
+
+    private void stop(String reason) {
+        closed = true;
+        open = false;
+        synchronized (this) {
+            if (ackSweep != null) {
+                ackSweep.cancel(false);
+                ackSweep = null;
+            }
+        }
+        WebSocket current = socket;
+        if (current != null) {
+            current.close(1000, reason);
+        }
+    }
+
+    private List<OutboxEntry> takeAllAwaiting() {
+        List<OutboxEntry> entries = new ArrayList<>();
+        for (Long id : new ArrayList<>(awaitingAck.keySet())) {
+            AwaitingAck awaiting = awaitingAck.remove(id);
+            if (awaiting != null) {
+                entries.add(awaiting.entry);
+            }
+        }
+        return entries;
+    }
+
+    private void handleAck(String text) {
+        try {
+            JSONObject json = new JSONObject(text);
+            AwaitingAck awaiting = awaitingAck.remove(json.getLong("ack"));
+            if (awaiting != null && !closed) {
+                listener.onAck(awaiting.entry, json.optInt("statusCode", 500), String.valueOf(json.opt("body")));
+            }
+        } catch (Exception e) {
+            // Not an ack we can match to a frame (the backend answers 0 for a frame it couldn't read) -
+            // whichever frame it was for is taken back when its deadline passes
+        }
+    }
+
+    private void takeBackOverdueFrames() {
+        long now = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+        List<OutboxEntry> overdue = new ArrayList<>();
+        for (Map.Entry<Long, AwaitingAck> frame : awaitingAck.entrySet()) {
+            AwaitingAck awaiting = frame.getValue();
+            // remove(key, value) loses to an ack that arrives at the same moment
+            if (now - awaiting.sentAtNanos > timeoutNanos && awaitingAck.remove(frame.getKey(), awaiting)) {
+                overdue.add(awaiting.entry);
+            }
+        }
+        if (!overdue.isEmpty()) {
+            listener.onAckTimeout(overdue, "No stream ack within " + ackTimeoutMs + " ms");
+        }
+    }
+
+    private void onDisconnected(WebSocket webSocket, String reason) {
+        // onClosing and onFailure can both fire for the same socket - only handle the first one
+        synchronized (this) {
+            if (webSocket != socket) {
+                return;
+            }
+            socket = null;
+            open = false;
+        }
+
+        List<OutboxEntry> unacked = takeAllAwaiting();
+        // After a close the close frame's own onClosing/onFailure still lands here; the close already
+        // dealt with the frames, and after close() the sender is shutting down and must not get any back
+        if (!unacked.isEmpty() && !closed) {
+            listener.onUnacked(unacked, reason);
+        }
+
+        if (!closed && !scheduler.isShutdown()) {
+            long delay = reconnectDelayMs;
+            reconnectDelayMs = Math.min(reconnectDelayMs * 2, MAX_RECONNECT_DELAY_MS);
+            scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
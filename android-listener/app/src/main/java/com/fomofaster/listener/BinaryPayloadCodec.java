@@ -0,0 +1,159 @@
+package com.fomofaster.listener;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.MediaType;
+
+// Compact length-prefixed binary encoding (decoded by BinaryNotificationInputFormatter on the backend).
+//
+// All integers are little-endian, strings are [varint byteLength][UTF-8 bytes].
+// Notification: [byte version][byte flags][long postTime][long idempotencyKey][string message]
+//               then, if FLAG_STRUCTURED: [byte side][string trader]? [string ticker]? [long marketCap][double amount]
+//               then, if FLAG_ORIGIN: [long deviceId][long sequence][long clockOffsetMs (Long.MIN_VALUE: unknown)]
+// Batch:        [byte version][varint count] followed by count notifications
+//
+// Encoding goes through a per-thread scratch buffer, so the only allocations are the UTF-8 bytes of
+// the strings and the final array handed to OkHttp.
+public class BinaryPayloadCodec implements PayloadCodec {
+    public static final MediaType BINARY_TYPE = MediaType.get("application/x-fomofaster-notification");
+
+    private static final byte VERSION = 1;
+    private static final int FLAG_STRUCTURED = 1;
+    private static final int FLAG_TRADER = 2;
+    private static final int FLAG_TICKER = 4;
+    private static final int FLAG_ORIGIN = 8;
+
+    // Ordinals of the backend's NotificationType enum
+    private static final String[] SIDES = {
+            ParsedTrade.SIDE_BUY, ParsedTrade.SIDE_SELL, ParsedTrade.SIDE_DEPOSIT,
+            ParsedTrade.SIDE_THESIS, ParsedTrade.SIDE_VERIFIED, ParsedTrade.SIDE_UNKNOWN,
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(INITIAL_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    };
+
+    @Override
+    public MediaType mediaType() {
+        return BINARY_TYPE;
+    }
+
+    @Override
+    public byte[] encode(OutboxEntry entry) {
+        ByteBuffer buffer = scratch(estimateSize(entry));
+        buffer.put(VERSION);
+        writeEntry(buffer, entry);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    @Override
+    public byte[] encodeBatch(List<OutboxEntry> entries) {
+        int estimate = 8;
+        for (OutboxEntry entry : entries) {
+            estimate += estimateSize(entry);
+        }
+        ByteBuffer buffer = scratch(estimate);
+        buffer.put(VERSION);
+        writeVarint(buffer, entries.size());
+        for (OutboxEntry entry : entries) {
+            writeEntry(buffer, entry);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static void writeEntry(ByteBuffer buffer, OutboxEntry entry) {
+        ParsedTrade trade = entry.trade;
+        long deviceId = entry.deviceId;
+        int flags = 0;
+        if (trade != null) {
+            flags |= FLAG_STRUCTURED;
+            if (trade.getTrader() != null) {
+                flags |= FLAG_TRADER;
+            }
+            if (trade.getTicker() != null) {
+                flags |= FLAG_TICKER;
+            }
+        }
+        if (deviceId != 0) {
+            flags |= FLAG_ORIGIN;
+        }
+
+        buffer.put((byte) flags);
+        buffer.putLong(entry.getPostTime());
+        buffer.putLong(entry.getIdempotencyKey());
+        writeString(buffer, entry.getMessage());
+
+        if (trade != null) {
+            buffer.put((byte) sideOrdinal(trade.getSide()));
+            if (trade.getTrader() != null) {
+                writeString(buffer, trade.getTrader());
+            }
+            if (trade.getTicker() != null) {
+                writeString(buffer, trade.getTicker());
+            }
+            buffer.putLong(trade.getMarketCap());
+            buffer.putDouble(trade.getAmount());
+        }
+
+        if ((flags & FLAG_ORIGIN) != 0) {
+            buffer.putLong(deviceId);
+            buffer.putLong(entry.getSequence());
+            buffer.putLong(entry.clockOffsetMs);
+        }
+    }
+
+    private static int sideOrdinal(String side) {
+        for (int i = 0; i < SIDES.length; i++) {
+            if (SIDES[i].equals(side)) {
+                return i;
+            }
+        }
+        return SIDES.length - 1;
+    }
+
+    private static void writeString(ByteBuffer buffer, String value) {
+        byte[] bytes = (value != null ? value : "").getBytes(UTF_8);
+        writeVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static void writeVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    // Upper bound: UTF-8 needs at most 3 bytes per UTF-16 char
+    private static int estimateSize(OutboxEntry entry) {
+        int size = 2 + 16 + 5 + 24 + 3 * entry.getMessage().length();
+        ParsedTrade trade = entry.trade;
+        if (trade != null) {
+            size += 1 + 16 + 10;
+            size += trade.getTrader() != null ? 3 * trade.getTrader().length() : 0;
+            size += trade.getTicker() != null ? 3 * trade.getTicker().length() : 0;
+        }
+        return size;
+    }
+
+    private static ByteBuffer scratch(int minCapacity) {
+        ByteBuffer buffer = SCRATCH.get();
+        if (buffer.capacity() < minCapacity) {
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(minCapacity) << 1).order(ByteOrder.LITTLE_ENDIAN);
+            SCRATCH.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+}
@@ -0,0 +1,74 @@
+package com.fomofaster.listener;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Dns;
+
+// Keeps resolved backend addresses in memory so a send never waits on a DNS lookup.
+//
+// Entries are refreshed in the background by ConnectionWarmer well before they go stale. If a refresh
+// fails the previous addresses are kept, since a backend that was reachable a minute ago is a better
+// bet than failing the send. clear() drops everything when the device switches networks.
+public class CachingDns implements Dns {
+    private static class CachedLookup {
+        final List<InetAddress> addresses;
+        final long resolvedAtNanos;
+
+        CachedLookup(List<InetAddress> addresses, long resolvedAtNanos) {
+            this.addresses = addresses;
+            this.resolvedAtNanos = resolvedAtNanos;
+        }
+    }
+
+    private final Dns delegate;
+    private final long ttlNanos;
+    private final Map<String, CachedLookup> cache = new ConcurrentHashMap<>();
+
+    public CachingDns(Dns delegate, long ttlMs) {
+        this.delegate = delegate;
+        this.ttlNanos = ttlMs * 1_000_000L;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        CachedLookup cached = cache.get(hostname);
+        if (cached != null && System.nanoTime() - cached.resolvedAtNanos < ttlNanos) {
+            ConnectionStats.DNS_CACHE_HITS.increment();
+            return cached.addresses;
+        }
+
+        ConnectionStats.DNS_LOOKUPS.increment();
+        try {
+            return resolve(hostname);
+        } catch (UnknownHostException e) {
+            if (cached != null) {
+                // Stale but probably still right
+                return cached.addresses;
+            }
+            throw e;
+        }
+    }
+
+    // Re-resolves the hostname now, keeping the old addresses if the lookup fails
+    public void refresh(String hostname) {
+        try {
+            resolve(hostname);
+        } catch (UnknownHostException e) {
+            // Keep whatever we had
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private List<InetAddress> resolve(String hostname) throws UnknownHostException {
+        List<InetAddress> addresses = delegate.lookup(hostname);
+        cache.put(hostname, new CachedLookup(addresses, System.nanoTime()));
+        return addresses;
+    }
+}
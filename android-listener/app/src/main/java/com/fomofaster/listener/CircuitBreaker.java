@@ -0,0 +1,92 @@
+package com.fomofaster.listener;
+
+// Stops sending while the backend is down instead of hammering it with every new notification.
+//
+// CLOSED: requests flow normally, consecutive failures are counted.
+// OPEN: after failureThreshold consecutive failures nothing is sent until the open period has passed.
+// HALF_OPEN: a single probe request is let through - success closes the circuit, failure re-opens it
+// with a doubled open period (capped at maxOpenMs).
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long minOpenMs;
+    private final long maxOpenMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMs;
+    private long openUntilNanos;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(int failureThreshold, long minOpenMs, long maxOpenMs) {
+        this.failureThreshold = failureThreshold;
+        this.minOpenMs = minOpenMs;
+        this.maxOpenMs = maxOpenMs;
+        this.openMs = minOpenMs;
+    }
+
+    // Whether a request may be sent now. In HALF_OPEN only the first caller gets to probe.
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openUntilNanos < 0) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMs = minOpenMs;
+        probeInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openMs = Math.min(openMs * 2, maxOpenMs);
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    // The request allowRequest() let through was dropped before it reached the backend (shed or gone
+    // stale in its lane): it says nothing about the backend, but a HALF_OPEN probe must not stay
+    // claimed forever or nothing would ever be let through again.
+    public synchronized void onAbandoned() {
+        probeInFlight = false;
+    }
+
+    // Something external says the backend may be reachable again (e.g. the network came back):
+    // allow a probe right away instead of waiting out the open period.
+    public synchronized void reset() {
+        if (state != State.CLOSED) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        probeInFlight = false;
+        openUntilNanos = System.nanoTime() + openMs * 1_000_000L;
+    }
+}
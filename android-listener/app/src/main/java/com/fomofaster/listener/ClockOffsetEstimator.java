@@ -0,0 +1,62 @@
+package com.fomofaster.listener;
+
+// How far the device clock is from the backend's, estimated NTP-style from heartbeat round trips.
+//
+// The backend answers each heartbeat with its own clock. Assuming the request and the response took
+// equally long, the server read its clock halfway through the round trip, so
+// offset = serverTime - (sentAt + rtt / 2), and the error is at most rtt / 2. Like NTP's clock filter
+// only the sample with the shortest round trip among the last WINDOW is used: a slow round trip is
+// usually one direction being slow, which skews the midpoint.
+//
+// The listener adds the offset to every notification, so the backend can put post times from several
+// devices on its own clock. All backends are assumed to run NTP-synced clocks; samples from every
+// backend go into the same filter.
+public class ClockOffsetEstimator {
+    private static final int WINDOW = 8;
+
+    private final long[] offsetsMs = new long[WINDOW];
+    private final long[] rttsNanos = new long[WINDOW];
+    private int samples;
+    private int next;
+
+    private volatile boolean known;
+    private volatile long offsetMs;
+    private volatile long rttNanos;
+
+    // sentAtMs: device clock when the request went out, rttNanos: until its response arrived,
+    // serverTimeMs: the backend clock in that response
+    public synchronized void addSample(long sentAtMs, long rttNanos, long serverTimeMs) {
+        if (rttNanos < 0 || serverTimeMs <= 0) {
+            return;
+        }
+        offsetsMs[next] = serverTimeMs - (sentAtMs + rttNanos / 2_000_000L);
+        rttsNanos[next] = rttNanos;
+        next = (next + 1) % WINDOW;
+        samples = Math.min(samples + 1, WINDOW);
+
+        int best = 0;
+        for (int i = 1; i < samples; i++) {
+            if (rttsNanos[i] < rttsNanos[best]) {
+                best = i;
+            }
+        }
+        offsetMs = offsetsMs[best];
+        this.rttNanos = rttsNanos[best];
+        known = true;
+    }
+
+    // False until the first heartbeat came back
+    public boolean isKnown() {
+        return known;
+    }
+
+    // Backend clock minus device clock: devicePostTime + offset = post time on the backend's clock
+    public long offsetMs() {
+        return offsetMs;
+    }
+
+    // Round trip of the sample the offset came from; the offset is good to within half of it
+    public long rttNanos() {
+        return rttNanos;
+    }
+}
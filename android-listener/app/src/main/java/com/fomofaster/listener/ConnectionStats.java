@@ -0,0 +1,51 @@
+package com.fomofaster.listener;
+
+import java.util.Locale;
+
+// Process-wide connection reuse counters, filled in by SendTrace's event listener and ConnectionWarmer.
+// MainActivity renders summary() next to the latency percentiles.
+public final class ConnectionStats {
+    // Notification sends that went out on a pooled connection vs. ones that had to connect first
+    public static final StripedCounter SENDS_REUSED = new StripedCounter();
+    public static final StripedCounter SENDS_NEW_CONNECTION = new StripedCounter();
+
+    public static final StripedCounter DNS_CACHE_HITS = new StripedCounter();
+    public static final StripedCounter DNS_LOOKUPS = new StripedCounter();
+
+    public static final StripedCounter PROBES_SENT = new StripedCounter();
+    public static final StripedCounter PROBES_FAILED = new StripedCounter();
+    public static final StripedCounter PROBES_SKIPPED = new StripedCounter();
+
+    // System.nanoTime() of the last notification send that got a connection (0 = none yet)
+    public static volatile long lastSendNanos;
+
+    // Backends of the running listener service; their health is appended to summary() when there are several
+    public static volatile BackendPool backendPool;
+
+    private ConnectionStats() {
+    }
+
+    public static String summary() {
+        BackendPool pool = backendPool;
+        long reused = SENDS_REUSED.sum();
+        long fresh = SENDS_NEW_CONNECTION.sum();
+        long sends = reused + fresh;
+        return String.format(Locale.US,
+                "sends reused conn  %d / %d (%.0f%%)\nsends new conn     %d\ndns cache hits     %d (lookups %d)\nkeep-alive probes  %d (failed %d, skipped %d)",
+                reused, sends, sends == 0 ? 0.0 : reused * 100.0 / sends,
+                fresh,
+                DNS_CACHE_HITS.sum(), DNS_LOOKUPS.sum(),
+                PROBES_SENT.sum(), PROBES_FAILED.sum(), PROBES_SKIPPED.sum())
+                + (pool != null && pool.all().size() > 1 ? "\n" + pool.summary() : "");
+    }
+
+    public static void reset() {
+        SENDS_REUSED.reset();
+        SENDS_NEW_CONNECTION.reset();
+        DNS_CACHE_HITS.reset();
+        DNS_LOOKUPS.reset();
+        PROBES_SENT.reset();
+        PROBES_FAILED.reset();
+        PROBES_SKIPPED.reset();
+    }
+}
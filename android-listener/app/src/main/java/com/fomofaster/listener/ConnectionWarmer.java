@@ -0,0 +1,123 @@
+package com.fomofaster.listener;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Keeps a connection to every backend open and its address resolved through long quiet periods,
+// so the first trade after idle doesn't pay for DNS + TCP (+ TLS) setup.
+//
+// Every probe interval it re-resolves each backend host into CachingDns and sends a GET /health over the
+// shared client, which keeps the pooled connections from hitting the server's (or a NAT's) idle timeout.
+// Probe results also feed the BackendPool's health ranking, so a dead standby is known before it's needed.
+// The primary isn't probed while real notifications are flowing, since those keep it warm anyway.
+// The scheduler should be dedicated to warming - a slow DNS lookup blocks it.
+public class ConnectionWarmer {
+    private static final String TAG = "ConnectionWarmer";
+
+    private final OkHttpClient client;
+    private final CachingDns dns;
+    private final ScheduledExecutorService scheduler;
+    private final BackendPool pool;
+    private final long probeIntervalMs;
+
+    private ScheduledFuture<?> probeTask;
+
+    public ConnectionWarmer(OkHttpClient client, CachingDns dns, ScheduledExecutorService scheduler,
+                            BackendPool pool, long probeIntervalMs) {
+        this.client = client;
+        this.dns = dns;
+        this.scheduler = scheduler;
+        this.pool = pool;
+        this.probeIntervalMs = probeIntervalMs;
+    }
+
+    public synchronized void start() {
+        if (pool.isEmpty()) {
+            Log.e(TAG, "No valid backend URL, connection warming disabled");
+            return;
+        }
+        scheduler.execute(this::warmAll);
+        if (probeIntervalMs > 0) {
+            probeTask = scheduler.scheduleWithFixedDelay(this::probeIfIdle, probeIntervalMs, probeIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (probeTask != null) {
+            probeTask.cancel(false);
+            probeTask = null;
+        }
+    }
+
+    // Network changed: re-resolve and open connections on it right away. Pooled sockets from the old
+    // network are left to OkHttp, which drops them when they turn out to be dead.
+    public void onNetworkChanged() {
+        dns.clear();
+        if (!pool.isEmpty() && !scheduler.isShutdown()) {
+            scheduler.execute(this::warmAll);
+        }
+    }
+
+    private void probeIfIdle() {
+        long sinceLastSendMs = (System.nanoTime() - ConnectionStats.lastSendNanos) / 1_000_000L;
+        boolean sendsFlowing = ConnectionStats.lastSendNanos != 0 && sinceLastSendMs < probeIntervalMs;
+        BackendEndpoint primary = pool.primary();
+
+        for (BackendEndpoint endpoint : pool.all()) {
+            if (sendsFlowing && endpoint == primary) {
+                // Connection is warm already, but keep the cached address fresh
+                dns.refresh(endpoint.healthUrl.host());
+                ConnectionStats.PROBES_SKIPPED.increment();
+                continue;
+            }
+            warm(endpoint);
+        }
+    }
+
+    private void warmAll() {
+        for (BackendEndpoint endpoint : pool.all()) {
+            warm(endpoint);
+        }
+    }
+
+    private void warm(final BackendEndpoint endpoint) {
+        dns.refresh(endpoint.healthUrl.host());
+
+        Request request = new Request.Builder()
+                .url(endpoint.healthUrl)
+                .get()
+                .build();
+        ConnectionStats.PROBES_SENT.increment();
+        final long startNanos = System.nanoTime();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                ConnectionStats.PROBES_FAILED.increment();
+                endpoint.recordFailure();
+                Log.d(TAG, "Keep-alive probe to " + endpoint.getBaseUrl() + " failed: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (response.code() < 500) {
+                    endpoint.recordSuccess(System.nanoTime() - startNanos);
+                } else {
+                    ConnectionStats.PROBES_FAILED.increment();
+                    endpoint.recordFailure();
+                }
+                // Body has to be consumed for the connection to go back into the pool
+                response.close();
+            }
+        });
+    }
+}
@@ -0,0 +1,77 @@
+package com.fomofaster.listener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Idempotency keys of the notifications the backend has acknowledged, kept across process restarts.
+//
+// When the listener reconnects it rescans whatever is still in the shade, and this is what tells it
+// which of those notifications already went out. Keys go into a memory-mapped ring (same idea as
+// LogRingFile), so recording a delivery is one 8-byte write and the oldest key is overwritten once
+// the ring is full. Lookups go through a RecentKeyCache loaded from the ring on open.
+//
+// Header: [int magic][int capacity][long nextSlot]
+// Slot:   [long idempotencyKey] (0 = empty)
+public class DeliveryIndex {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int MAGIC = 0x46444C56; // "FDLV"
+    private static final int HEADER_SIZE = 16;
+    private static final int NEXT_SLOT_OFFSET = 8;
+
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+    private final RecentKeyCache keys;
+    private long nextSlot;
+
+    public DeliveryIndex(File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * 8);
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+        this.capacity = capacity;
+        keys = new RecentKeyCache(capacity);
+
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == capacity) {
+            nextSlot = buffer.getLong(NEXT_SLOT_OFFSET);
+            // Oldest first, so the cache evicts in the same order the ring does
+            long first = Math.max(0, nextSlot - capacity);
+            for (long slot = first; slot < nextSlot; slot++) {
+                keys.add(buffer.getLong(slotOffset(slot)));
+            }
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, capacity);
+            nextSlot = 0;
+            buffer.putLong(NEXT_SLOT_OFFSET, nextSlot);
+        }
+    }
+
+    public boolean contains(long idempotencyKey) {
+        return keys.contains(idempotencyKey);
+    }
+
+    public synchronized void add(long idempotencyKey) {
+        if (!keys.add(idempotencyKey)) {
+            return;
+        }
+        buffer.putLong(slotOffset(nextSlot), idempotencyKey);
+        nextSlot++;
+        buffer.putLong(NEXT_SLOT_OFFSET, nextSlot);
+    }
+
+    public int size() {
+        return (int) Math.min(nextSlot, capacity);
+    }
+
+    private int slotOffset(long slot) {
+        return HEADER_SIZE + (int) (slot % capacity) * 8;
+    }
+}
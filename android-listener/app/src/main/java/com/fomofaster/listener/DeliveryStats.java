@@ -0,0 +1,81 @@
+package com.fomofaster.listener;
+
+// Process-wide counters of the notification pipeline, filled in by the listener and NotificationSender.
+// Reported to the backend by HeartbeatReporter and scraped from MetricsServer. All of them are
+// StripedCounters since they're bumped from the binder thread and OkHttp's callback threads at once.
+public final class DeliveryStats {
+    // Every notification the listener was handed, and the ones no filter rule matched
+    public static final StripedCounter NOTIFICATIONS_SEEN = new StripedCounter();
+    public static final StripedCounter NOTIFICATIONS_FILTERED = new StripedCounter();
+
+    public static final StripedCounter DELIVERED = new StripedCounter();
+    public static final StripedCounter RETRIES = new StripedCounter();
+    // Left in the outbox while the circuit was open
+    public static final StripedCounter PARKED = new StripedCounter();
+    // Dropped: past the TTL, or refused by the backend with a non-retryable status
+    public static final StripedCounter EXPIRED = new StripedCounter();
+    public static final StripedCounter REJECTED = new StripedCounter();
+    public static final StripedCounter DUPLICATES = new StripedCounter();
+    // Shed under load: pushed out of a full dispatch lane, replaced by a newer trade for the same
+    // trader/token, or older than the freshness TTL
+    public static final StripedCounter SHED_QUEUE_FULL = new StripedCounter();
+    public static final StripedCounter SHED_COALESCED = new StripedCounter();
+    public static final StripedCounter SHED_STALE = new StripedCounter();
+
+    // Send results by outcome and attempt number (1, 2, 3+ like PipelineMetrics.attempt)
+    public static final int OUTCOME_SUCCESS = 0;
+    public static final int OUTCOME_RETRYABLE = 1;
+    public static final int OUTCOME_REJECTED = 2;
+    public static final int OUTCOME_NETWORK_ERROR = 3;
+    public static final String[] OUTCOME_NAMES = {"success", "retryable", "rejected", "network_error"};
+    public static final String[] ATTEMPT_NAMES = {"1", "2", "3+"};
+
+    private static final StripedCounter[][] SENDS = new StripedCounter[OUTCOME_NAMES.length][ATTEMPT_NAMES.length];
+
+    static {
+        for (StripedCounter[] byAttempt : SENDS) {
+            for (int i = 0; i < byAttempt.length; i++) {
+                byAttempt[i] = new StripedCounter();
+            }
+        }
+    }
+
+    private DeliveryStats() {
+    }
+
+    // attempt is 0-based, as passed around in NotificationSender
+    public static void recordSend(int outcome, int attempt) {
+        SENDS[outcome][Math.min(attempt, ATTEMPT_NAMES.length - 1)].increment();
+    }
+
+    public static long sends(int outcome, int attemptIndex) {
+        return SENDS[outcome][attemptIndex].sum();
+    }
+
+    // Outcome of a backend response status, for recordSend
+    public static int outcomeOf(int statusCode) {
+        if (statusCode >= 200 && statusCode < 300) {
+            return OUTCOME_SUCCESS;
+        }
+        return RetryPolicy.isRetryableStatus(statusCode) ? OUTCOME_RETRYABLE : OUTCOME_REJECTED;
+    }
+
+    public static void reset() {
+        NOTIFICATIONS_SEEN.reset();
+        NOTIFICATIONS_FILTERED.reset();
+        DELIVERED.reset();
+        RETRIES.reset();
+        PARKED.reset();
+        EXPIRED.reset();
+        REJECTED.reset();
+        DUPLICATES.reset();
+        SHED_QUEUE_FULL.reset();
+        SHED_COALESCED.reset();
+        SHED_STALE.reset();
+        for (StripedCounter[] byAttempt : SENDS) {
+            for (StripedCounter counter : byAttempt) {
+                counter.reset();
+            }
+        }
+    }
+}
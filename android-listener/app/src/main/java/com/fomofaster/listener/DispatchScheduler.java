@@ -0,0 +1,247 @@
+package com.fomofaster.listener;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Decides which backend request goes to the network next, so fresh trades never wait behind old traffic.
+//
+// Requests are queued in one of three lanes - first attempts of new notifications, retries, and
+// replay/catch-up of older backlog - each with its own concurrency limit. When a slot frees up the
+// lanes are served in that order, and within a lane higher-priority requests (big trades, followed
+// traders) go first, oldest first among equals. Because every lane has its own slots, a retry storm
+// during an outage can use up the retry lane but never the slots reserved for new notifications.
+//
+// On top of the per-lane limits, an optional AdaptiveConcurrencyLimit caps all lanes together; when it
+// is reached the next free slot still goes to the highest lane with work waiting.
+//
+// Each lane's queue is bounded. When a lane is full the least valuable request goes - the lowest
+// priority, oldest first, which may be the new one if everything queued outranks it - or, with
+// COALESCE, a queued request for the same trader/token is replaced by the newer one first. Dropped
+// requests hear about it through Job.shed instead of being started.
+//
+// A job must call `done` exactly once when its request has finished (successfully or not).
+public class DispatchScheduler {
+    public enum Lane {
+        FRESH, RETRY, REPLAY
+    }
+
+    public enum Overflow {
+        DROP_OLDEST, COALESCE
+    }
+
+    public interface Job {
+        void start(Runnable done);
+
+        // Dropped without being started: superseded by a newer job with the same coalesce key, or
+        // pushed out of a full lane
+        void shed(boolean superseded);
+    }
+
+    private static final class Pending {
+        final Job job;
+        final int priority;
+        final String coalesceKey;
+        final long sequence;
+        final long submittedNanos = System.nanoTime();
+
+        Pending(Job job, int priority, String coalesceKey, long sequence) {
+            this.job = job;
+            this.priority = priority;
+            this.coalesceKey = coalesceKey;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Pending> ORDER = new Comparator<Pending>() {
+        @Override
+        public int compare(Pending a, Pending b) {
+            if (a.priority != b.priority) {
+                return a.priority > b.priority ? -1 : 1;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    private final Lane[] lanes = Lane.values();
+    private final int[] limits = new int[lanes.length];
+    private int capacity = Integer.MAX_VALUE;
+    private Overflow overflow = Overflow.DROP_OLDEST;
+    private final int[] running = new int[lanes.length];
+    private int totalRunning;
+    private AdaptiveConcurrencyLimit totalLimit;
+    private final List<PriorityQueue<Pending>> queues = new ArrayList<>(lanes.length);
+    private long nextSequence;
+
+    // Only one thread starts jobs at a time; others that free a slot meanwhile just ask it to look again
+    private boolean pumping;
+    private boolean pumpAgain;
+
+    public DispatchScheduler(int freshLimit, int retryLimit, int replayLimit) {
+        for (int i = 0; i < lanes.length; i++) {
+            queues.add(new PriorityQueue<>(16, ORDER));
+        }
+        setLimits(freshLimit, retryLimit, replayLimit);
+    }
+
+    public void setLimits(int freshLimit, int retryLimit, int replayLimit) {
+        synchronized (this) {
+            limits[Lane.FRESH.ordinal()] = Math.max(1, freshLimit);
+            limits[Lane.RETRY.ordinal()] = Math.max(1, retryLimit);
+            limits[Lane.REPLAY.ordinal()] = Math.max(1, replayLimit);
+        }
+        pump();
+    }
+
+    // null: only the per-lane limits apply
+    public void setTotalLimit(AdaptiveConcurrencyLimit totalLimit) {
+        synchronized (this) {
+            this.totalLimit = totalLimit;
+        }
+        pump();
+    }
+
+    // Most requests each lane may hold waiting for a slot (<= 0 for unbounded), and what to drop when one is full
+    public synchronized void setCapacity(int capacity, Overflow overflow) {
+        this.capacity = capacity > 0 ? capacity : Integer.MAX_VALUE;
+        this.overflow = overflow;
+    }
+
+    // coalesceKey may be null for jobs that must never be merged with another
+    public void submit(Lane lane, int priority, String coalesceKey, Job job) {
+        Pending victim = null;
+        boolean superseded = false;
+        synchronized (this) {
+            Pending pending = new Pending(job, priority, coalesceKey, nextSequence++);
+            PriorityQueue<Pending> queue = queues.get(lane.ordinal());
+            if (queue.size() >= capacity) {
+                if (overflow == Overflow.COALESCE && coalesceKey != null) {
+                    victim = oldestWithKey(queue, coalesceKey);
+                    superseded = victim != null;
+                }
+                if (victim == null) {
+                    victim = leastValuable(queue, pending);
+                }
+                queue.remove(victim);
+            }
+            if (victim != pending) {
+                queue.add(pending);
+            }
+        }
+        if (victim != null) {
+            victim.job.shed(superseded);
+        }
+        pump();
+    }
+
+    public synchronized int queued(Lane lane) {
+        return queues.get(lane.ordinal()).size();
+    }
+
+    public synchronized int running(Lane lane) {
+        return running[lane.ordinal()];
+    }
+
+    public synchronized int limit(Lane lane) {
+        return limits[lane.ordinal()];
+    }
+
+    // Requests on the network across all lanes
+    public synchronized int inFlight() {
+        return totalRunning;
+    }
+
+    private static Pending oldestWithKey(PriorityQueue<Pending> queue, String coalesceKey) {
+        Pending oldest = null;
+        for (Pending queued : queue) {
+            if (coalesceKey.equals(queued.coalesceKey) && (oldest == null || queued.sequence < oldest.sequence)) {
+                oldest = queued;
+            }
+        }
+        return oldest;
+    }
+
+    // Lowest priority, then oldest; the incoming job only loses if everything queued outranks it
+    private static Pending leastValuable(PriorityQueue<Pending> queue, Pending incoming) {
+        Pending least = incoming;
+        for (Pending queued : queue) {
+            if (queued.priority < least.priority
+                    || (queued.priority == least.priority && queued.sequence < least.sequence)) {
+                least = queued;
+            }
+        }
+        return least;
+    }
+
+    private void pump() {
+        synchronized (this) {
+            if (pumping) {
+                pumpAgain = true;
+                return;
+            }
+            pumping = true;
+        }
+
+        while (true) {
+            final int lane;
+            Pending next = null;
+            synchronized (this) {
+                int chosen = -1;
+                if (totalLimit == null || totalRunning < totalLimit.getLimit()) {
+                    for (int i = 0; i < lanes.length; i++) {
+                        if (running[i] < limits[i] && !queues.get(i).isEmpty()) {
+                            chosen = i;
+                            break;
+                        }
+                    }
+                }
+                if (chosen >= 0) {
+                    next = queues.get(chosen).poll();
+                    running[chosen]++;
+                    totalRunning++;
+                } else if (pumpAgain) {
+                    pumpAgain = false;
+                    continue;
+                } else {
+                    pumping = false;
+                    return;
+                }
+                lane = chosen;
+            }
+            try {
+                start(next, lane);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    pumping = false;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void start(Pending pending, final int lane) {
+        PipelineMetrics.queueWait(lanes[lane]).recordNanos(System.nanoTime() - pending.submittedNanos);
+        final boolean[] released = {false};
+        Runnable done = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DispatchScheduler.this) {
+                    if (released[0]) {
+                        return;
+                    }
+                    released[0] = true;
+                    running[lane]--;
+                    totalRunning--;
+                }
+                pump();
+            }
+        };
+        try {
+            pending.job.start(done);
+        } catch (RuntimeException e) {
+            done.run();
+            throw e;
+        }
+    }
+}
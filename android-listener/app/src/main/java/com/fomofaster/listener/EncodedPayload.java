@@ -0,0 +1,63 @@
+package com.fomofaster.listener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+// A request body produced by a PayloadCodec, gzipped when compression is on and the payload is big
+// enough for it to pay off (small single notifications usually grow under gzip).
+public final class EncodedPayload {
+    public final RequestBody body;
+    public final boolean gzipped;
+    public final int rawBytes;
+
+    private EncodedPayload(RequestBody body, boolean gzipped, int rawBytes) {
+        this.body = body;
+        this.gzipped = gzipped;
+        this.rawBytes = rawBytes;
+    }
+
+    public static EncodedPayload of(PayloadCodec codec, OutboxEntry entry, int gzipThresholdBytes) throws IOException {
+        return wrap(codec.encode(entry), codec.mediaType(), gzipThresholdBytes);
+    }
+
+    public static EncodedPayload ofBatch(PayloadCodec codec, List<OutboxEntry> entries, int gzipThresholdBytes) throws IOException {
+        return wrap(codec.encodeBatch(entries), codec.mediaType(), gzipThresholdBytes);
+    }
+
+    // Sets the body (and Content-Encoding when gzipped) as a POST
+    public Request.Builder applyTo(Request.Builder builder) {
+        builder.post(body);
+        if (gzipped) {
+            builder.header("Content-Encoding", "gzip");
+        }
+        return builder;
+    }
+
+    // gzipThresholdBytes < 0 disables compression
+    private static EncodedPayload wrap(byte[] bytes, MediaType mediaType, int gzipThresholdBytes) throws IOException {
+        if (gzipThresholdBytes >= 0 && bytes.length >= gzipThresholdBytes) {
+            byte[] compressed = gzip(bytes);
+            if (compressed.length < bytes.length) {
+                return new EncodedPayload(RequestBody.create(compressed, mediaType), true, bytes.length);
+            }
+        }
+        return new EncodedPayload(RequestBody.create(bytes, mediaType), false, bytes.length);
+    }
+
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 32);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        try {
+            gzip.write(bytes);
+        } finally {
+            gzip.close();
+        }
+        return out.toByteArray();
+    }
+}
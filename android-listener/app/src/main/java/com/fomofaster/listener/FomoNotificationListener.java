@@ -1,214 +1,694 @@
 package com.fomofaster.listener;
 
 import android.app.Notification;
+import android.content.ComponentName;
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Build;
 import android.os.Bundle;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
 import android.util.Log;
 
-import org.json.JSONObject;
-
+import java.io.File;
 import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
 
 public class FomoNotificationListener extends NotificationListenerService {
     private static final String TAG = "FomoListener";
-    private static final String FOMO_PACKAGE_NAME = "family.fomo.app";
-    private static final String PREFS_NAME = "FomoFasterPrefs";
-    private static final String BACKEND_URL_KEY = "backend_url";
-
-    public static final String LOG_BROADCAST_ACTION = "com.fomofaster.listener.LOG_ENTRY";
-    public static final String EXTRA_STATUS = "status";
-    public static final String EXTRA_NOTIFICATION_TEXT = "notification_text";
-    public static final String EXTRA_RESPONSE = "response";
-
-    private static final int MAX_RETRIES = 3;
-    private static final long[] RETRY_DELAYS_MS = {200, 500, 1000};
+    public static final String PREFS_NAME = "FomoFasterPrefs";
+    public static final String BACKEND_URL_KEY = "backend_url";
+
+    public static final String LOG_RING_FILE_NAME = "notification_log.ring";
+
+    // Optional micro-batching of notification bursts (configured from MainActivity)
+    public static final String BATCHING_ENABLED_KEY = "batching_enabled";
+    public static final String BATCH_LINGER_MS_KEY = "batch_linger_ms";
+    public static final String BATCH_MAX_SIZE_KEY = "batch_max_size";
+    public static final int DEFAULT_BATCH_LINGER_MS = 10;
+    public static final int DEFAULT_BATCH_MAX_SIZE = 20;
+
+    // Optional persistent WebSocket transport (falls back to HTTP POST while the socket is down)
+    public static final String STREAMING_ENABLED_KEY = "streaming_enabled";
+
+    // Filter rules (JSON array, see NotificationRule) deciding which apps' notifications are forwarded where
+    public static final String FILTER_RULES_KEY = "filter_rules";
+
+    // Optional on-device extraction of trader/ticker/amount, sent alongside the raw message
+    public static final String STRUCTURED_ENABLED_KEY = "structured_enabled";
+
+    // Wire format for HTTP sends ("json" or "binary") and optional gzip of large payloads
+    public static final String PAYLOAD_CODEC_KEY = "payload_codec";
+    public static final String PAYLOAD_CODEC_JSON = "json";
+    public static final String PAYLOAD_CODEC_BINARY = "binary";
+    public static final String GZIP_ENABLED_KEY = "gzip_enabled";
+    private static final int GZIP_THRESHOLD_BYTES = 512;
+
+    // Connection warming: how long idle pooled connections are kept and how often the backend is probed
+    public static final String POOL_KEEP_ALIVE_SECONDS_KEY = "pool_keep_alive_s";
+    public static final String KEEP_ALIVE_PROBE_SECONDS_KEY = "keep_alive_probe_s";
+    // Send a duplicate request to the second-best backend when the first one is slower than its p95
+    public static final String HEDGING_ENABLED_KEY = "hedging_enabled";
+    public static final int DEFAULT_POOL_KEEP_ALIVE_SECONDS = 600;
+    public static final int DEFAULT_KEEP_ALIVE_PROBE_SECONDS = 60;
+
+    // Health heartbeat to the backend (0 disables it)
+    public static final String HEARTBEAT_INTERVAL_SECONDS_KEY = "heartbeat_interval_s";
+    public static final int DEFAULT_HEARTBEAT_INTERVAL_SECONDS = 10;
+
+    // Prometheus endpoint on 127.0.0.1 for scraping through adb forward
+    public static final String METRICS_SERVER_ENABLED_KEY = "metrics_server_enabled";
+    public static final String METRICS_PORT_KEY = "metrics_port";
+    public static final int DEFAULT_METRICS_PORT = 9464;
+
+    // Dispatch lanes: how many requests each lane may have on the network at once
+    public static final String LANE_FRESH_CONCURRENCY_KEY = "lane_fresh_concurrency";
+    public static final String LANE_RETRY_CONCURRENCY_KEY = "lane_retry_concurrency";
+    public static final String LANE_REPLAY_CONCURRENCY_KEY = "lane_replay_concurrency";
+    // Trades by these traders (comma separated) or of at least this many USD go first within their lane
+    public static final String PRIORITY_TRADERS_KEY = "priority_traders";
+    public static final String PRIORITY_MIN_AMOUNT_KEY = "priority_min_amount";
+    // Load shedding: per-lane queue bound, what goes when a lane is full, and how old a trade may get
+    // before it's not worth sending (0 = only the retry TTL applies)
+    public static final String QUEUE_CAPACITY_KEY = "queue_capacity";
+    public static final String OVERFLOW_POLICY_KEY = "overflow_policy";
+    public static final String OVERFLOW_DROP_OLDEST = "drop_oldest";
+    public static final String OVERFLOW_COALESCE = "coalesce";
+    public static final String FRESHNESS_TTL_SECONDS_KEY = "freshness_ttl_s";
+    public static final int DEFAULT_FRESHNESS_TTL_SECONDS = 0;
+    // Latency-driven limit on concurrent backend requests across all lanes (AdaptiveConcurrencyLimit)
+    public static final String ADAPTIVE_CONCURRENCY_ENABLED_KEY = "adaptive_concurrency_enabled";
+    private static final int CONCURRENCY_INITIAL_LIMIT = 4;
+    private static final int CONCURRENCY_MIN_LIMIT = 1;
+    private static final double CONCURRENCY_LATENCY_TOLERANCE = 2.0;
+    private static final double CONCURRENCY_BACKOFF_RATIO = 0.9;
+    // Random id generated on first start, so the backend can tell several listeners forwarding the
+    // same notifications apart (Build.MODEL is the same on every emulator)
+    public static final String DEVICE_ID_KEY = "device_id";
+
+    // Retries back off exponentially (with jitter) until the notification is older than its TTL
+    private static final long RETRY_BASE_DELAY_MS = 200;
+    private static final long RETRY_MAX_DELAY_MS = 30_000;
+    private static final long NOTIFICATION_TTL_MS = 10 * 60 * 1000;
+
+    // Circuit opens after this many consecutive failures, for 1s doubling up to 30s while the backend stays down
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long BREAKER_MIN_OPEN_MS = 1000;
+    private static final long BREAKER_MAX_OPEN_MS = 30_000;
+
+    // Outbox fsync batching interval and how often undelivered entries are replayed
+    private static final long OUTBOX_SYNC_INTERVAL_MS = 100;
+    private static final long OUTBOX_DRAIN_INTERVAL_MS = 2000;
+
+    // How many recently accepted idempotency keys are remembered for local duplicate suppression
+    private static final int RECENT_KEYS_CAPACITY = 4096;
+    // How many expanded lines are remembered for diffing updates of InboxStyle/MessagingStyle notifications
+    private static final int SENT_LINES_CAPACITY = 4096;
+
+    // After a backend change, how long requests still running against the old one are waited for
+    private static final long ROUTE_DRAIN_TIMEOUT_MS = 30_000;
+    private static final long ROUTE_DRAIN_POLL_MS = 250;
+
+    // Unbind/rebind bookkeeping: when the listener last lost its binding, and the gaps seen so far
+    public static final String LISTENER_DISCONNECTED_AT_KEY = "listener_disconnected_at";
+    public static final String LISTENER_GAP_COUNT_KEY = "listener_gap_count";
+    public static final String LISTENER_GAP_TOTAL_MS_KEY = "listener_gap_total_ms";
+    public static final String LISTENER_GAP_MAX_MS_KEY = "listener_gap_max_ms";
 
     private OkHttpClient httpClient;
-    private String backendUrl;
+    private volatile NotificationFilter notificationFilter;
+    private final LineDiffTracker lineDiffTracker = new LineDiffTracker(SENT_LINES_CAPACITY);
+    // Rules without a backend of their own share the default route
+    private BackendRoute defaultRoute;
+    private Map<String, BackendRoute> routes = new HashMap<>();
     private ScheduledExecutorService retryExecutor;
+    private NotificationOutbox outbox;
+    private NotificationSender sender;
+    private DeliveryIndex deliveryIndex;
+    private HeartbeatReporter heartbeatReporter;
+    private MetricsServer metricsServer;
+    private volatile boolean destroyed;
+    private LogRingFile logRing;
+    private CachingDns dns;
+    private ScheduledExecutorService warmExecutor;
+    private final List<ConnectionWarmer> connectionWarmers = new CopyOnWriteArrayList<>();
+    private Transport transport;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private final ClockOffsetEstimator clock = new ClockOffsetEstimator();
 
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "FomoNotificationListener service created");
 
-        // Initialize HTTP client with timeouts
-        httpClient = new OkHttpClient.Builder()
-                .connectTimeout(10, TimeUnit.SECONDS)
-                .writeTimeout(10, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .build();
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        // Same client (pool, dispatcher, cached DNS) as MainActivity
+        transport = Transport.get(this);
+        httpClient = transport.client();
+        dns = transport.dns();
 
         retryExecutor = Executors.newSingleThreadScheduledExecutor();
 
-        // Load backend URL from preferences
-        loadBackendUrl();
+        // Backend URLs and filter rules; saving new ones swaps the routes in place (transportListener)
+        loadRoutes(transport.config());
+
+        // Open the durable outbox - anything left over from a previous run gets replayed by the drain loop
+        try {
+            outbox = new NotificationOutbox(new File(getFilesDir(), "outbox"));
+            Log.d(TAG, "Outbox opened with " + outbox.size() + " undelivered notification(s)");
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open outbox, notifications will only be kept in memory", e);
+        }
+
+        // Which notifications the backend already has, so the reconnect scan doesn't resend them
+        try {
+            deliveryIndex = new DeliveryIndex(new File(getFilesDir(), "delivered"), DeliveryIndex.DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open delivery index, reconnect scans will rely on backend dedup", e);
+        }
+
+        sender = new NotificationSender(retryExecutor, outbox, defaultRoute, routes,
+                new RetryPolicy(RETRY_BASE_DELAY_MS, RETRY_MAX_DELAY_MS, NOTIFICATION_TTL_MS),
+                new RecentKeyCache(RECENT_KEYS_CAPACITY), senderEvents);
+        sender.setStructuredEnabled(prefs.getBoolean(STRUCTURED_ENABLED_KEY, false));
+        loadPayloadConfig(prefs);
+        loadBatchingConfig();
+        loadDispatchConfig(prefs);
+        long deviceId = loadDeviceId(prefs);
+        sender.setDeviceOrigin(deviceId, clock);
+        sender.recoverOutbox();
+
+        connectStreamIfEnabled();
+        warmExecutor = Executors.newSingleThreadScheduledExecutor();
+        startConnectionWarmers(prefs);
+        registerNetworkCallback();
+
+        int heartbeatSeconds = prefs.getInt(HEARTBEAT_INTERVAL_SECONDS_KEY, DEFAULT_HEARTBEAT_INTERVAL_SECONDS);
+        heartbeatReporter = new HeartbeatReporter(httpClient, retryExecutor, defaultRoute.pool, sender, heartbeatSeconds * 1000L,
+                deviceId, clock);
+        heartbeatReporter.start();
+
+        if (prefs.getBoolean(METRICS_SERVER_ENABLED_KEY, false)) {
+            metricsServer = new MetricsServer(prefs.getInt(METRICS_PORT_KEY, DEFAULT_METRICS_PORT), new MetricsExporter(sender));
+            metricsServer.start();
+        }
+
+        openLogRing();
+        transport.addListener(transportListener);
+
+        retryExecutor.scheduleWithFixedDelay(sender::syncOutbox, OUTBOX_SYNC_INTERVAL_MS, OUTBOX_SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        retryExecutor.scheduleWithFixedDelay(sender::drainOutbox, OUTBOX_DRAIN_INTERVAL_MS, OUTBOX_DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
-    private void loadBackendUrl() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        backendUrl = prefs.getString(BACKEND_URL_KEY, "http://10.0.2.2:8000");
-        Log.d(TAG, "Backend URL loaded: " + backendUrl);
+    private final NotificationSender.Events senderEvents = new NotificationSender.Events() {
+        @Override
+        public void onDelivered(OutboxEntry entry) {
+            if (deliveryIndex != null) {
+                deliveryIndex.add(entry.getIdempotencyKey());
+            }
+            try {
+                cancelNotification(entry.getNotificationKey());
+                Log.d(TAG, "Dismissed notification from tray: " + entry.getNotificationKey());
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to dismiss notification", e);
+            }
+        }
+
+        @Override
+        public void onLogEntry(String status, String message, String detail) {
+            publishLogEntry(status, message, detail);
+        }
+
+        @Override
+        public void debug(String message) {
+            Log.d(TAG, message);
+        }
+
+        @Override
+        public void error(String message, Throwable t) {
+            Log.e(TAG, message, t);
+        }
+    };
+
+    // The URL setting can hold several backends (comma separated), in order of preference.
+    // Filter rules that name their own backend get a separate route; the rest use the default one.
+    private void loadRoutes(Transport.Config config) {
+        defaultRoute = newRoute(BackendRoute.DEFAULT, config.backendUrls, config.hedging);
+        ConnectionStats.backendPool = defaultRoute.pool;
+        Log.d(TAG, "Backend URLs loaded: " + config.backendUrls + " (" + defaultRoute.pool.all().size() + " valid"
+                + (config.hedging ? ", hedging" : "") + ")");
+
+        NotificationFilter filter;
+        try {
+            filter = NotificationFilter.parse(config.filterRulesJson);
+        } catch (Exception e) {
+            Log.e(TAG, "Invalid filter rules, forwarding FOMO notifications only", e);
+            filter = NotificationFilter.defaults();
+        }
+        Map<String, BackendRoute> ruleRoutes = new HashMap<>();
+        for (NotificationRule rule : filter.getRules()) {
+            if (!rule.getBackend().isEmpty()) {
+                ruleRoutes.put(rule.getName(), newRoute(rule.getName(), rule.getBackend(), config.hedging));
+            }
+            Log.d(TAG, "Filter rule " + rule.getName() + ": " + rule.getPackageName()
+                    + (rule.getBackend().isEmpty() ? "" : " -> " + rule.getBackend()));
+        }
+        routes = ruleRoutes;
+        notificationFilter = filter;
     }
 
-    @Override
-    public void onNotificationPosted(StatusBarNotification sbn) {
-        String packageName = sbn.getPackageName();
+    // Backend URLs, hedging or filter rules were saved in MainActivity
+    private final Transport.ConfigListener transportListener = new Transport.ConfigListener() {
+        @Override
+        public void onTransportConfigChanged(Transport.Config previous, Transport.Config current) {
+            if (!retryExecutor.isShutdown()) {
+                retryExecutor.execute(() -> reloadRoutes(current));
+            }
+        }
+    };
 
-        // Filter for FOMO app notifications only
-        if (!FOMO_PACKAGE_NAME.equals(packageName)) {
+    // Switches to the new routes without restarting the service. Requests already on the network finish
+    // against the old backends; once they have (or ROUTE_DRAIN_TIMEOUT_MS passed) idle connections are
+    // closed and warming starts over for the new backends.
+    private void reloadRoutes(Transport.Config config) {
+        if (destroyed) {
             return;
         }
+        List<BackendRoute> replaced = new ArrayList<>(routes.values());
+        replaced.add(defaultRoute);
 
-        Log.d(TAG, "FOMO notification detected!");
+        loadRoutes(config);
+        sender.setRoutes(defaultRoute, routes);
+        heartbeatReporter.setPool(defaultRoute.pool);
+        sender.restartStreaming(httpClient);
+        publishLogEntry("RELOADED", "Backend: " + config.backendUrls, defaultRoute.pool.summary());
 
-        // Extract notification data
-        Notification notification = sbn.getNotification();
-        Bundle extras = notification.extras;
+        drainReplacedRoutes(replaced, System.currentTimeMillis() + ROUTE_DRAIN_TIMEOUT_MS);
+    }
 
-        String title = extras.getString(Notification.EXTRA_TITLE, "");
-        String text = extras.getCharSequence(Notification.EXTRA_TEXT, "").toString();
-        long timestamp = sbn.getPostTime();
+    private void drainReplacedRoutes(List<BackendRoute> replaced, long deadline) {
+        int inFlight = 0;
+        for (BackendRoute route : replaced) {
+            inFlight += route.inFlight();
+        }
+        if (inFlight > 0 && System.currentTimeMillis() < deadline && !retryExecutor.isShutdown()) {
+            retryExecutor.schedule(() -> drainReplacedRoutes(replaced, deadline), ROUTE_DRAIN_POLL_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (destroyed) {
+            return;
+        }
+        Log.d(TAG, "Replaced routes drained" + (inFlight > 0 ? " (" + inFlight + " request(s) still open at the deadline)" : ""));
+        // Only idle connections go, anything the new routes have in use stays open
+        httpClient.connectionPool().evictAll();
+        stopConnectionWarmers();
+        startConnectionWarmers(getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
 
-        Log.d(TAG, "Title: " + title);
-        Log.d(TAG, "Text: " + text);
-        Log.d(TAG, "Timestamp: " + timestamp);
+    private BackendRoute newRoute(String name, String backendUrls, boolean hedging) {
+        BackendPool pool = new BackendPool(BackendEndpoint.splitUrls(backendUrls));
+        return new BackendRoute(name, pool,
+                new BackendRouter(httpClient, pool, retryExecutor, hedging),
+                new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_MIN_OPEN_MS, BREAKER_MAX_OPEN_MS));
+    }
 
-        // Combine title and text into single message
-        String message = title + " " + text;
+    private void loadPayloadConfig(SharedPreferences prefs) {
+        String codec = prefs.getString(PAYLOAD_CODEC_KEY, PAYLOAD_CODEC_JSON);
+        PayloadCodec payloadCodec = PAYLOAD_CODEC_BINARY.equals(codec) ? new BinaryPayloadCodec() : new JsonPayloadCodec();
+        int gzipThresholdBytes = prefs.getBoolean(GZIP_ENABLED_KEY, false) ? GZIP_THRESHOLD_BYTES : -1;
+        sender.setPayloadCodec(payloadCodec, gzipThresholdBytes);
+        Log.d(TAG, "Payload codec: " + codec + (gzipThresholdBytes >= 0 ? " + gzip" : ""));
+    }
+
+    private void loadBatchingConfig() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!prefs.getBoolean(BATCHING_ENABLED_KEY, false)) {
+            return;
+        }
 
-        // Send to backend immediately, pass the notification key for dismissal
-        sendToBackendWithRetry(message, timestamp, sbn.getKey(), 0);
+        int lingerMs = prefs.getInt(BATCH_LINGER_MS_KEY, DEFAULT_BATCH_LINGER_MS);
+        int maxBatchSize = prefs.getInt(BATCH_MAX_SIZE_KEY, DEFAULT_BATCH_MAX_SIZE);
+        sender.enableBatching(lingerMs, maxBatchSize);
+        Log.d(TAG, "Batching enabled: linger " + lingerMs + "ms, max " + maxBatchSize + " per request");
     }
 
-    private void sendToBackendWithRetry(String message, long timestamp, String notificationKey, int attempt) {
+    private long loadDeviceId(SharedPreferences prefs) {
+        long deviceId = prefs.getLong(DEVICE_ID_KEY, 0);
+        if (deviceId == 0) {
+            SecureRandom random = new SecureRandom();
+            while (deviceId == 0) {
+                deviceId = random.nextLong();
+            }
+            prefs.edit().putLong(DEVICE_ID_KEY, deviceId).apply();
+        }
+        Log.d(TAG, "Device id: " + Long.toHexString(deviceId));
+        return deviceId;
+    }
+
+    private void loadDispatchConfig(SharedPreferences prefs) {
+        int fresh = prefs.getInt(LANE_FRESH_CONCURRENCY_KEY, NotificationSender.DEFAULT_FRESH_CONCURRENCY);
+        int retry = prefs.getInt(LANE_RETRY_CONCURRENCY_KEY, NotificationSender.DEFAULT_RETRY_CONCURRENCY);
+        int replay = prefs.getInt(LANE_REPLAY_CONCURRENCY_KEY, NotificationSender.DEFAULT_REPLAY_CONCURRENCY);
+        sender.setLaneConcurrency(fresh, retry, replay);
+        boolean adaptive = prefs.getBoolean(ADAPTIVE_CONCURRENCY_ENABLED_KEY, true);
+        if (adaptive) {
+            sender.setConcurrencyLimit(new AdaptiveConcurrencyLimit(CONCURRENCY_INITIAL_LIMIT, CONCURRENCY_MIN_LIMIT,
+                    Transport.MAX_REQUESTS_PER_HOST, CONCURRENCY_LATENCY_TOLERANCE, CONCURRENCY_BACKOFF_RATIO));
+        }
+
+        NotificationPriority priority = NotificationPriority.parse(prefs.getString(PRIORITY_TRADERS_KEY, ""),
+                prefs.getFloat(PRIORITY_MIN_AMOUNT_KEY, 0f));
+        sender.setPriority(priority);
+        Log.d(TAG, "Dispatch lanes: fresh " + fresh + ", retry " + retry + ", replay " + replay
+                + (adaptive ? ", adaptive total limit" : "") + (priority.isEnabled() ? ", content priority on" : ""));
+
+        int queueCapacity = prefs.getInt(QUEUE_CAPACITY_KEY, NotificationSender.DEFAULT_QUEUE_CAPACITY);
+        DispatchScheduler.Overflow overflow = OVERFLOW_COALESCE.equals(prefs.getString(OVERFLOW_POLICY_KEY, OVERFLOW_DROP_OLDEST))
+                ? DispatchScheduler.Overflow.COALESCE
+                : DispatchScheduler.Overflow.DROP_OLDEST;
+        int freshnessSeconds = prefs.getInt(FRESHNESS_TTL_SECONDS_KEY, DEFAULT_FRESHNESS_TTL_SECONDS);
+        sender.setLoadShedding(queueCapacity, overflow, freshnessSeconds * 1000L);
+        Log.d(TAG, "Load shedding: queue " + (queueCapacity > 0 ? queueCapacity : "unbounded") + ", " + overflow
+                + (freshnessSeconds > 0 ? ", drop after " + freshnessSeconds + "s" : ""));
+    }
+
+    private void openLogRing() {
         try {
-            JSONObject json = new JSONObject();
-            json.put("message", message);
+            logRing = LogRingFile.open(new File(getFilesDir(), LOG_RING_FILE_NAME));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open log ring, log entries won't be persisted", e);
+        }
 
-            String jsonString = json.toString();
-            Log.d(TAG, "Sending to backend (attempt " + (attempt + 1) + "): " + jsonString);
+        // The log used to live in SharedPreferences as one big JSON string
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (prefs.contains("notification_logs")) {
+            prefs.edit().remove("notification_logs").apply();
+        }
+    }
 
-            MediaType JSON_TYPE = MediaType.get("application/json; charset=utf-8");
-            RequestBody body = RequestBody.create(jsonString, JSON_TYPE);
+    private void startConnectionWarmers(SharedPreferences prefs) {
+        int probeSeconds = prefs.getInt(KEEP_ALIVE_PROBE_SECONDS_KEY, DEFAULT_KEEP_ALIVE_PROBE_SECONDS);
+        List<BackendRoute> allRoutes = new ArrayList<>(routes.values());
+        allRoutes.add(defaultRoute);
+        for (BackendRoute route : allRoutes) {
+            ConnectionWarmer warmer = new ConnectionWarmer(httpClient, dns, warmExecutor, route.pool, probeSeconds * 1000L);
+            warmer.start();
+            connectionWarmers.add(warmer);
+        }
+        Log.d(TAG, "Connection warming: probe every " + probeSeconds + "s");
+    }
 
-            String endpoint = backendUrl.endsWith("/")
-                ? backendUrl + "api/notifications"
-                : backendUrl + "/api/notifications";
+    private void stopConnectionWarmers() {
+        for (ConnectionWarmer warmer : connectionWarmers) {
+            warmer.stop();
+        }
+        connectionWarmers.clear();
+    }
 
-            Request request = new Request.Builder()
-                    .url(endpoint)
-                    .post(body)
-                    .build();
+    // Flush the whole backlog the moment connectivity returns instead of waiting out backoff timers
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
 
-            httpClient.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    Log.e(TAG, "Network failure on attempt " + (attempt + 1), e);
-                    scheduleRetry(message, timestamp, notificationKey, attempt, "Network error: " + e.getMessage());
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                Log.d(TAG, "Network available, flushing backlog");
+                for (ConnectionWarmer warmer : connectionWarmers) {
+                    warmer.onNetworkChanged();
                 }
+                sender.onNetworkAvailable();
+            }
 
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    String responseBody = "";
-                    if (response.body() != null) {
-                        responseBody = response.body().string();
-                    }
-
-                    if (response.isSuccessful()) {
-                        Log.d(TAG, "Successfully sent to backend: " + response.code());
-                        broadcastLogEntry("SUCCESS (" + response.code() + ")", message, responseBody);
-                        try {
-                            cancelNotification(notificationKey);
-                            Log.d(TAG, "Dismissed notification from tray: " + notificationKey);
-                        } catch (Exception e) {
-                            Log.e(TAG, "Failed to dismiss notification", e);
-                        }
-                    } else {
-                        Log.e(TAG, "Backend error on attempt " + (attempt + 1) + ": " + response.code());
-                        scheduleRetry(message, timestamp, notificationKey, attempt, "HTTP " + response.code() + ": " + responseBody);
-                    }
-                    response.close();
-                }
-            });
+            @Override
+            public void onLost(Network network) {
+                Log.d(TAG, "Network lost");
+            }
+        };
+        try {
+            connectivityManager.registerNetworkCallback(request, networkCallback);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not register network callback", e);
+            networkCallback = null;
+        }
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Exception building request", e);
-            broadcastLogEntry("EXCEPTION", message, "Error: " + e.getMessage());
+    private void connectStreamIfEnabled() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!prefs.getBoolean(STREAMING_ENABLED_KEY, false)) {
+            return;
         }
+        sender.enableStreaming(httpClient);
+        Log.d(TAG, "Streaming transport enabled");
     }
 
-    private void scheduleRetry(String message, long timestamp, String notificationKey, int attempt, String errorDetail) {
-        if (attempt + 1 < MAX_RETRIES) {
-            long delayMs = RETRY_DELAYS_MS[attempt];
-            Log.d(TAG, "Retrying in " + delayMs + "ms (attempt " + (attempt + 2) + "/" + MAX_RETRIES + ")");
-            broadcastLogEntry("RETRYING (" + (attempt + 2) + "/" + MAX_RETRIES + ")", message, errorDetail);
-            retryExecutor.schedule(() -> sendToBackendWithRetry(message, timestamp, notificationKey, attempt + 1), delayMs, TimeUnit.MILLISECONDS);
-        } else {
-            Log.e(TAG, "All " + MAX_RETRIES + " attempts failed, giving up");
-            broadcastLogEntry("FAILED (all retries exhausted)", message, errorDetail);
+    @Override
+    public void onListenerConnected() {
+        super.onListenerConnected();
+        heartbeatReporter.setListenerBound(true);
+        long gapMs = recordReconnectGap();
+        int caughtUp = catchUpActiveNotifications();
+        if (gapMs >= 0 || caughtUp > 0) {
+            publishLogEntry("RECONNECTED", "Listener rebound" + (gapMs >= 0 ? " after " + gapMs + " ms" : ""),
+                    caughtUp + " missed notification(s) sent");
         }
     }
 
-    private void broadcastLogEntry(String status, String notificationText, String response) {
-        // Save to persistent storage
-        saveLogEntryToPersistentStorage(status, notificationText, response);
+    @Override
+    public void onListenerDisconnected() {
+        super.onListenerDisconnected();
+        heartbeatReporter.setListenerBound(false);
+        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putLong(LISTENER_DISCONNECTED_AT_KEY, System.currentTimeMillis())
+                .apply();
+        Log.d(TAG, "Listener disconnected");
+
+        // Dropped while the service is still alive (system hiccup, not a shutdown): ask to be bound again.
+        // The system ignores this if the user has revoked notification access.
+        if (!destroyed && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            try {
+                requestRebind(new ComponentName(this, FomoNotificationListener.class));
+                Log.d(TAG, "Requested rebind");
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Rebind request failed", e);
+            }
+        }
+    }
 
-        // Send broadcast for real-time UI updates (if MainActivity is visible)
-        Intent intent = new Intent(LOG_BROADCAST_ACTION);
-        intent.putExtra(EXTRA_STATUS, status);
-        intent.putExtra(EXTRA_NOTIFICATION_TEXT, notificationText);
-        intent.putExtra(EXTRA_RESPONSE, response);
-        sendBroadcast(intent);
-        Log.d(TAG, "Broadcast log entry: " + status);
+    // Length of the unbound window that just ended, -1 if the last disconnect wasn't seen
+    // (first start, or the process was killed before onListenerDisconnected ran)
+    private long recordReconnectGap() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long disconnectedAt = prefs.getLong(LISTENER_DISCONNECTED_AT_KEY, 0);
+        if (disconnectedAt <= 0) {
+            return -1;
+        }
+        long gapMs = Math.max(0, System.currentTimeMillis() - disconnectedAt);
+        prefs.edit()
+                .remove(LISTENER_DISCONNECTED_AT_KEY)
+                .putInt(LISTENER_GAP_COUNT_KEY, prefs.getInt(LISTENER_GAP_COUNT_KEY, 0) + 1)
+                .putLong(LISTENER_GAP_TOTAL_MS_KEY, prefs.getLong(LISTENER_GAP_TOTAL_MS_KEY, 0) + gapMs)
+                .putLong(LISTENER_GAP_MAX_MS_KEY, Math.max(gapMs, prefs.getLong(LISTENER_GAP_MAX_MS_KEY, 0)))
+                .apply();
+        Log.d(TAG, "Listener reconnected after " + gapMs + " ms");
+        return gapMs;
     }
 
-    private void saveLogEntryToPersistentStorage(String status, String notificationText, String response) {
+    // Anything posted while we were unbound never reached onNotificationPosted, but is usually still in
+    // the shade. Runs each active notification (oldest first) through the normal capture path, then
+    // sends whatever the backend doesn't have yet as batch requests. Returns how many were sent.
+    private int catchUpActiveNotifications() {
+        StatusBarNotification[] active;
         try {
-            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-            String logsJson = prefs.getString("notification_logs", "[]");
-
-            org.json.JSONArray logsArray = new org.json.JSONArray(logsJson);
-
-            // Create new log entry JSON
-            org.json.JSONObject logEntry = new org.json.JSONObject();
-            logEntry.put("timestamp", new java.text.SimpleDateFormat("MMM dd HH:mm:ss", java.util.Locale.US).format(new java.util.Date()));
-            logEntry.put("status", status);
-            logEntry.put("notificationText", notificationText);
-            logEntry.put("response", response);
-
-            // Add to beginning (most recent first)
-            org.json.JSONArray newLogsArray = new org.json.JSONArray();
-            newLogsArray.put(logEntry);
-
-            // Copy existing entries (limit to 50)
-            int limit = Math.min(logsArray.length(), 49);
-            for (int i = 0; i < limit; i++) {
-                newLogsArray.put(logsArray.get(i));
+            active = getActiveNotifications();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not read active notifications", e);
+            return 0;
+        }
+        if (active == null || active.length == 0) {
+            return 0;
+        }
+
+        Arrays.sort(active, new Comparator<StatusBarNotification>() {
+            @Override
+            public int compare(StatusBarNotification a, StatusBarNotification b) {
+                return Long.compare(a.getPostTime(), b.getPostTime());
             }
+        });
+
+        long now = System.currentTimeMillis();
+        List<OutboxEntry> missed = new ArrayList<>();
+        for (StatusBarNotification sbn : active) {
+            // Past the TTL the retry policy would drop it anyway
+            if (now - sbn.getPostTime() > NOTIFICATION_TTL_MS) {
+                continue;
+            }
+            capture(sbn, System.nanoTime(), missed);
+        }
 
-            // Save back to SharedPreferences
-            prefs.edit().putString("notification_logs", newLogsArray.toString()).apply();
-            Log.d(TAG, "Saved log entry to persistent storage");
+        if (!missed.isEmpty()) {
+            Log.d(TAG, "Catch-up scan: " + missed.size() + " of " + active.length + " active notification(s) missed");
+            sender.sendCatchUp(missed);
+        }
+        return missed.size();
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Error saving log entry to persistent storage", e);
+    @Override
+    public void onNotificationPosted(StatusBarNotification sbn) {
+        capture(sbn, System.nanoTime(), null);
+    }
+
+    // Matches a notification against the filter rules and forwards it. `catchUp` collects the entries
+    // instead of sending them when called from the reconnect scan, null for live notifications.
+    private void capture(StatusBarNotification sbn, long receivedAtNanos, List<OutboxEntry> catchUp) {
+        DeliveryStats.NOTIFICATIONS_SEEN.increment();
+
+        // Runs on the binder thread for every notification on the device: apps no rule covers cost one
+        // map lookup, and rejecting on channel/category/keywords doesn't allocate either
+        NotificationRule[] candidates = notificationFilter.rulesFor(sbn.getPackageName());
+        if (candidates == null) {
+            DeliveryStats.NOTIFICATIONS_FILTERED.increment();
+            return;
+        }
+
+        Notification notification = sbn.getNotification();
+        Bundle extras = notification.extras;
+        String channelId = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? notification.getChannelId() : null;
+        CharSequence titleChars = extras.getCharSequence(Notification.EXTRA_TITLE);
+        CharSequence textChars = extras.getCharSequence(Notification.EXTRA_TEXT);
+        boolean groupSummary = (notification.flags & Notification.FLAG_GROUP_SUMMARY) != 0;
+
+        // A burst collapsed into one InboxStyle/MessagingStyle notification: every entry is its own trade
+        List<NotificationLines.Line> lines = NotificationLines.expand(notification);
+        if (lines != null) {
+            captureExpanded(sbn, candidates, channelId, titleChars, lines, groupSummary, receivedAtNanos, catchUp);
+            return;
+        }
+        if (groupSummary) {
+            // "N new trades" - the children carry the actual content
+            return;
+        }
+
+        NotificationRule rule = NotificationFilter.firstMatch(candidates, channelId, notification.category, titleChars, textChars);
+        if (rule == null) {
+            DeliveryStats.NOTIFICATIONS_FILTERED.increment();
+            return;
+        }
+
+        if (catchUp == null) {
+            PipelineMetrics.POSTED_TO_CALLBACK.recordMillis(System.currentTimeMillis() - sbn.getPostTime());
         }
+
+        Log.d(TAG, "Notification matched rule " + rule.getName());
+
+        // Extract notification data
+        String title = titleChars != null ? titleChars.toString() : "";
+        String text = textChars != null ? textChars.toString() : "";
+        long timestamp = sbn.getPostTime();
+
+        Log.d(TAG, "Title: " + title);
+        Log.d(TAG, "Text: " + text);
+        Log.d(TAG, "Timestamp: " + timestamp);
+
+        // Combine title and text into single message
+        String message = title + " " + text;
+
+        // notification.when is set by FOMO and survives re-posts/updates of the same notification,
+        // unlike sbn.getPostTime() which changes every time it is posted again
+        long keyTime = notification.when > 0 ? notification.when : timestamp;
+        long idempotencyKey = IdempotencyKeys.compute(sbn.getKey(), keyTime, message);
+        lineDiffTracker.recordSent(message);
+        forward(sbn, message, idempotencyKey, rule, receivedAtNanos, catchUp);
+    }
+
+    // Sends only the lines this update added. Each line is matched against the rules on its own (as the
+    // notification text) and keyed by its content and stamp, since notification.when moves with every update.
+    private void captureExpanded(StatusBarNotification sbn, NotificationRule[] candidates, String channelId,
+                                 CharSequence title, List<NotificationLines.Line> lines, boolean groupSummary,
+                                 long receivedAtNanos, List<OutboxEntry> catchUp) {
+        List<NotificationLines.Line> fresh = lineDiffTracker.newLines(sbn.getKey(), lines, groupSummary);
+        if (fresh.isEmpty()) {
+            return;
+        }
+        if (catchUp == null) {
+            PipelineMetrics.POSTED_TO_CALLBACK.recordMillis(System.currentTimeMillis() - sbn.getPostTime());
+        }
+        Log.d(TAG, "Expanded notification: " + fresh.size() + " new of " + lines.size() + " line(s)"
+                + (groupSummary ? " (group summary)" : ""));
+
+        String category = sbn.getNotification().category;
+        boolean anyMatched = false;
+        for (NotificationLines.Line line : fresh) {
+            NotificationRule rule = NotificationFilter.firstMatch(candidates, channelId, category, title, line.text);
+            if (rule == null) {
+                continue;
+            }
+            anyMatched = true;
+            long idempotencyKey = IdempotencyKeys.compute(sbn.getKey(), line.stamp, line.text);
+            forward(sbn, line.text, idempotencyKey, rule, receivedAtNanos, catchUp);
+        }
+        if (!anyMatched) {
+            DeliveryStats.NOTIFICATIONS_FILTERED.increment();
+        }
+    }
+
+    private void forward(StatusBarNotification sbn, String message, long idempotencyKey, NotificationRule rule,
+                         long receivedAtNanos, List<OutboxEntry> catchUp) {
+        // Delivered before a restart or rebind; the in-memory dedup cache doesn't remember that far back
+        if (deliveryIndex != null && deliveryIndex.contains(idempotencyKey)) {
+            Log.d(TAG, "Already delivered: " + IdempotencyKeys.toHeaderValue(idempotencyKey));
+            return;
+        }
+        if (catchUp == null) {
+            sender.submit(sbn.getPostTime(), sbn.getKey(), message, idempotencyKey, rule.getName(), receivedAtNanos);
+            return;
+        }
+        OutboxEntry entry = sender.accept(sbn.getPostTime(), sbn.getKey(), message, idempotencyKey, rule.getName(), receivedAtNanos);
+        if (entry != null) {
+            catchUp.add(entry);
+        }
+    }
+
+    private void publishLogEntry(String status, String notificationText, String response) {
+        // Save to persistent storage
+        long logSeq = saveLogEntryToPersistentStorage(status, notificationText, response);
+
+        // Real-time UI update (MainActivity drains the bus once per frame, no-op if it isn't showing)
+        LogEventBus.get().publish(logSeq, status, notificationText, response);
+        Log.d(TAG, "Log entry: " + status);
+    }
+
+    private long saveLogEntryToPersistentStorage(String status, String notificationText, String response) {
+        // Single fixed-size slot write into the memory-mapped ring, no matter how many entries are kept
+        if (logRing == null) {
+            return 0;
+        }
+        long startNanos = System.nanoTime();
+        long logSeq = logRing.append(status, notificationText, response);
+        PipelineMetrics.LOG_WRITE.recordNanos(System.nanoTime() - startNanos);
+        return logSeq;
     }
 
     @Override
@@ -218,8 +698,38 @@ public class FomoNotificationListener extends NotificationListenerService {
 
     @Override
     public void onDestroy() {
+        destroyed = true;
         super.onDestroy();
+        if (transport != null) {
+            transport.removeListener(transportListener);
+        }
+        if (heartbeatReporter != null) {
+            heartbeatReporter.stop();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (sender != null) {
+            sender.close();
+        }
+        if (networkCallback != null) {
+            ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+            try {
+                connectivityManager.unregisterNetworkCallback(networkCallback);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not unregister network callback", e);
+            }
+        }
+        stopConnectionWarmers();
+        warmExecutor.shutdownNow();
         retryExecutor.shutdownNow();
+        if (outbox != null) {
+            try {
+                outbox.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close outbox", e);
+            }
+        }
         Log.d(TAG, "FomoNotificationListener service destroyed");
     }
 }
@@ -0,0 +1,168 @@
+package com.fomofaster.listener;
+
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+// Tells every backend that the listener is alive, and how the pipeline is doing, at a fixed interval.
+//
+// Without it the backend only hears from the listener when a trade comes in, so a dead listener looks
+// just like a quiet market. Each heartbeat is one small JSON POST over the pooled connection carrying
+// queue depth, oldest pending age, outcome counters (DeliveryStats), latency percentiles, connection
+// reuse and whether the system still has the listener bound. Nothing is retried: the next one is
+// never more than an interval away, and a gap is exactly what the backend watches for.
+//
+// The backend answers with its clock, which together with the round trip feeds the ClockOffsetEstimator.
+public class HeartbeatReporter {
+    private static final String TAG = "HeartbeatReporter";
+    private static final MediaType JSON_TYPE = MediaType.get("application/json; charset=utf-8");
+
+    private final OkHttpClient client;
+    private final ScheduledExecutorService scheduler;
+    private volatile BackendPool pool;
+    private final NotificationSender sender;
+    private final long intervalMs;
+    private final long deviceId;
+    private final ClockOffsetEstimator clock;
+    private final long startedAtNanos = System.nanoTime();
+
+    private volatile boolean listenerBound;
+    private long sequence;
+    private ScheduledFuture<?> task;
+
+    public HeartbeatReporter(OkHttpClient client, ScheduledExecutorService scheduler, BackendPool pool,
+                             NotificationSender sender, long intervalMs, long deviceId, ClockOffsetEstimator clock) {
+        this.client = client;
+        this.scheduler = scheduler;
+        this.pool = pool;
+        this.sender = sender;
+        this.intervalMs = intervalMs;
+        this.deviceId = deviceId;
+        this.clock = clock;
+    }
+
+    public synchronized void start() {
+        if (intervalMs <= 0) {
+            return;
+        }
+        task = scheduler.scheduleWithFixedDelay(this::send, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    // The backends changed; the next heartbeat goes to the new ones
+    public void setPool(BackendPool pool) {
+        this.pool = pool;
+    }
+
+    // Bound/unbound changes are sent right away instead of waiting for the next tick
+    public void setListenerBound(boolean bound) {
+        if (listenerBound == bound) {
+            return;
+        }
+        listenerBound = bound;
+        if (task != null && !scheduler.isShutdown()) {
+            scheduler.execute(this::send);
+        }
+    }
+
+    private void send() {
+        RequestBody body;
+        try {
+            body = RequestBody.create(snapshot().toString(), JSON_TYPE);
+        } catch (JSONException e) {
+            Log.e(TAG, "Could not build heartbeat", e);
+            return;
+        }
+
+        for (final BackendEndpoint endpoint : pool.all()) {
+            Request request = new Request.Builder()
+                    .url(endpoint.heartbeatUrl)
+                    .post(body)
+                    .build();
+            final long sentAtMs = System.currentTimeMillis();
+            final long sentAtNanos = System.nanoTime();
+            client.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    Log.d(TAG, "Heartbeat to " + endpoint.getBaseUrl() + " failed: " + e.getMessage());
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    long rttNanos = System.nanoTime() - sentAtNanos;
+                    try {
+                        if (!response.isSuccessful()) {
+                            Log.d(TAG, "Heartbeat to " + endpoint.getBaseUrl() + " got HTTP " + response.code());
+                        } else if (response.body() != null) {
+                            long serverTime = new JSONObject(response.body().string()).optLong("serverTime");
+                            clock.addSample(sentAtMs, rttNanos, serverTime);
+                        }
+                    } catch (IOException | JSONException e) {
+                        Log.d(TAG, "Unreadable heartbeat response from " + endpoint.getBaseUrl() + ": " + e.getMessage());
+                    } finally {
+                        response.close();
+                    }
+                }
+            });
+        }
+    }
+
+    private JSONObject snapshot() throws JSONException {
+        long now = System.currentTimeMillis();
+        long oldestPostTime = sender.oldestPendingPostTime();
+        long reused = ConnectionStats.SENDS_REUSED.sum();
+        long sends = reused + ConnectionStats.SENDS_NEW_CONNECTION.sum();
+        LatencyHistogram latency = PipelineMetrics.POSTED_TO_RESPONSE;
+
+        JSONObject json = new JSONObject();
+        json.put("device", Build.MODEL);
+        json.put("deviceId", Long.toHexString(deviceId));
+        json.put("sequence", ++sequence);
+        json.put("sentAt", now);
+        json.put("uptimeMs", (System.nanoTime() - startedAtNanos) / 1_000_000L);
+        json.put("intervalMs", intervalMs);
+        json.put("listenerBound", listenerBound);
+        json.put("queueDepth", sender.pendingCount());
+        json.put("oldestPendingAgeMs", oldestPostTime > 0 ? Math.max(0, now - oldestPostTime) : 0);
+        json.put("delivered", DeliveryStats.DELIVERED.sum());
+        json.put("retries", DeliveryStats.RETRIES.sum());
+        json.put("parked", DeliveryStats.PARKED.sum());
+        json.put("expired", DeliveryStats.EXPIRED.sum());
+        json.put("rejected", DeliveryStats.REJECTED.sum());
+        json.put("duplicates", DeliveryStats.DUPLICATES.sum());
+        json.put("shedQueueFull", DeliveryStats.SHED_QUEUE_FULL.sum());
+        json.put("shedCoalesced", DeliveryStats.SHED_COALESCED.sum());
+        json.put("shedStale", DeliveryStats.SHED_STALE.sum());
+        json.put("latencyP50Ms", latency.percentileMicros(50) / 1000);
+        json.put("latencyP90Ms", latency.percentileMicros(90) / 1000);
+        json.put("latencyP99Ms", latency.percentileMicros(99) / 1000);
+        json.put("latencySamples", latency.count());
+        json.put("connectionReuseRate", sends == 0 ? 0.0 : (double) reused / sends);
+        if (clock.isKnown()) {
+            json.put("clockOffsetMs", clock.offsetMs());
+            json.put("clockRttMs", clock.rttNanos() / 1_000_000L);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,40 @@
+package com.fomofaster.listener;
+
+// Stable 64-bit idempotency key for a notification: FNV-1a over the notification key, its post time
+// and its content. The same notification re-posted (or retried) always hashes to the same key, so both
+// the listener's RecentKeyCache and the backend can recognise it as a duplicate.
+public final class IdempotencyKeys {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private IdempotencyKeys() {
+    }
+
+    public static long compute(String notificationKey, long postTime, String content) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = mix(hash, notificationKey);
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((postTime >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        hash = mix(hash, content);
+        // 0 is used as "no key" by RecentKeyCache
+        return hash != 0 ? hash : 1;
+    }
+
+    public static String toHeaderValue(long key) {
+        return Long.toHexString(key);
+    }
+
+    private static long mix(long hash, String value) {
+        if (value == null) {
+            return hash * FNV_PRIME;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // Field separator so ("ab", "c") and ("a", "bc") hash differently
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+}
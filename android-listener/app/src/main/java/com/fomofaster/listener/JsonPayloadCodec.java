@@ -0,0 +1,43 @@
+package com.fomofaster.listener;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import okhttp3.MediaType;
+
+// The original wire format: one JSON object per notification, a JSON array for a batch.
+public class JsonPayloadCodec implements PayloadCodec {
+    private static final MediaType JSON_TYPE = MediaType.get("application/json; charset=utf-8");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public MediaType mediaType() {
+        return JSON_TYPE;
+    }
+
+    @Override
+    public byte[] encode(OutboxEntry entry) throws IOException {
+        try {
+            return entry.toJSON().toString().getBytes(UTF_8);
+        } catch (JSONException e) {
+            throw new IOException("Could not encode notification " + entry.getId(), e);
+        }
+    }
+
+    @Override
+    public byte[] encodeBatch(List<OutboxEntry> entries) throws IOException {
+        try {
+            JSONArray array = new JSONArray();
+            for (OutboxEntry entry : entries) {
+                array.put(entry.toJSON());
+            }
+            return array.toString().getBytes(UTF_8);
+        } catch (JSONException e) {
+            throw new IOException("Could not encode batch of " + entries.size(), e);
+        }
+    }
+}
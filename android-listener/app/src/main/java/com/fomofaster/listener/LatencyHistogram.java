@@ -0,0 +1,138 @@
+package com.fomofaster.listener;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Fixed-memory, lock-free latency histogram with log-linear buckets (in microseconds).
+//
+// Values below 16us get one bucket each; above that every power of two is split into 8 linear
+// sub-buckets, which keeps the relative error of a reported percentile under ~12.5% while the whole
+// histogram (up to ~9 hours) fits in a few hundred longs. record() is a bucket increment plus the
+// striped count/sum, so concurrent recorders rarely contend.
+public class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 35;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final StripedCounter total = new StripedCounter();
+    private final StripedCounter sumMicros = new StripedCounter();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMillis(long millis) {
+        recordMicros(millis * 1000);
+    }
+
+    public void recordMicros(long micros) {
+        if (micros < 0) {
+            // Clock went backwards (wall clock adjustment) - not a real measurement
+            return;
+        }
+        counts.incrementAndGet(bucketIndex(micros));
+        total.increment();
+        sumMicros.add(micros);
+
+        long currentMax;
+        while (micros > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, micros)) {
+                break;
+            }
+        }
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long sumMicros() {
+        return sumMicros.sum();
+    }
+
+    // Number of recorded values in buckets that end at or below the given value. Buckets straddling it
+    // are left out, so this can undercount by up to one bucket width (fine for Prometheus `le` buckets).
+    public long countAtOrBelow(long micros) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT && bucketUpperBound(i) <= micros; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long maxMicros() {
+        return max.get();
+    }
+
+    // Upper bound of the bucket containing the given percentile (0-100), 0 if nothing was recorded
+    public long percentileMicros(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sumMicros.reset();
+        max.set(0);
+    }
+
+    // "name  p50 / p90 / p99 / max (n)" in milliseconds
+    public String summary() {
+        return String.format(java.util.Locale.US, "%-22s %7.1f %7.1f %7.1f %7.1f  (%d)",
+                name,
+                percentileMicros(50) / 1000.0,
+                percentileMicros(90) / 1000.0,
+                percentileMicros(99) / 1000.0,
+                maxMicros() / 1000.0,
+                count());
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long bucketWidth = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * bucketWidth - 1;
+    }
+}
@@ -0,0 +1,261 @@
+package com.fomofaster.listener;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+// Diagnostics run behind the "Run diagnostics" button: sends N requests to the backend's no-op
+// /api/notifications/probe endpoint and splits each one into DNS, TCP connect, TLS, request write and
+// time to first byte with an EventListener.
+//
+// The cold round gives every probe its own empty connection pool and skips CachingDns, so each one pays
+// for the lookup (the OS resolver may still answer from its cache) and a new connection. The warm round
+// goes over the shared Transport pool after one untimed request, like a notification sent while the
+// connection is kept alive - there DNS, connect and TLS don't happen at all.
+//
+// run() blocks, call it off the main thread.
+public class LatencyProbe {
+    private static final MediaType JSON_TYPE = MediaType.get("application/json; charset=utf-8");
+
+    private static final int DNS = 0;
+    private static final int CONNECT = 1;
+    private static final int TLS = 2;
+    private static final int WRITE = 3;
+    private static final int FIRST_BYTE = 4;
+    private static final int TOTAL = 5;
+    private static final String[] PHASE_NAMES = {"dns", "connect", "tls", "write", "first byte", "total"};
+
+    private final OkHttpClient client;
+    private final BackendEndpoint endpoint;
+    private final int count;
+
+    public LatencyProbe(OkHttpClient client, BackendEndpoint endpoint, int count) {
+        this.client = client;
+        this.endpoint = endpoint;
+        this.count = Math.max(1, count);
+    }
+
+    public String run() {
+        Round cold = new Round("cold", count);
+        for (int i = 0; i < count; i++) {
+            ConnectionPool pool = new ConnectionPool();
+            OkHttpClient coldClient = client.newBuilder()
+                    .connectionPool(pool)
+                    .dns(Dns.SYSTEM)
+                    .eventListenerFactory(call -> cold.trace(call))
+                    .build();
+            send(coldClient, cold, i);
+            // Don't leave one idle socket per probe behind
+            pool.evictAll();
+        }
+
+        Round warm = new Round("warm", count);
+        OkHttpClient warmClient = client.newBuilder()
+                .eventListenerFactory(call -> warm.trace(call))
+                .build();
+        send(warmClient, null, -1);
+        for (int i = 0; i < count; i++) {
+            send(warmClient, warm, i);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(endpoint.probeUrl);
+        cold.appendTo(sb);
+        warm.appendTo(sb);
+        return sb.toString();
+    }
+
+    // round == null for the untimed warm-up request
+    private void send(OkHttpClient probeClient, Round round, int index) {
+        Request.Builder builder = new Request.Builder()
+                .url(endpoint.probeUrl)
+                .post(RequestBody.create("{\"probe\":" + index + "}", JSON_TYPE));
+        Phases phases = new Phases();
+        if (round != null) {
+            builder.tag(Phases.class, phases);
+        }
+        try (Response response = probeClient.newCall(builder.build()).execute()) {
+            if (round != null) {
+                round.finish(phases, response);
+            }
+        } catch (IOException e) {
+            if (round != null) {
+                round.fail(e.toString());
+            }
+        }
+    }
+
+    // Event timestamps (System.nanoTime) of one probe, 0 for events that didn't happen
+    static class Phases {
+        volatile long callStart;
+        volatile long dnsStart;
+        volatile long dnsEnd;
+        volatile long connectStart;
+        volatile long secureConnectStart;
+        volatile long secureConnectEnd;
+        volatile long connectEnd;
+        volatile long requestStart;
+        volatile long requestEnd;
+        volatile long responseStart;
+        volatile long callEnd;
+
+        // Phase durations in nanoseconds, -1 where the phase was skipped
+        long[] durations() {
+            long[] d = new long[PHASE_NAMES.length];
+            d[DNS] = span(dnsStart, dnsEnd);
+            d[CONNECT] = span(connectStart, secureConnectStart != 0 ? secureConnectStart : connectEnd);
+            d[TLS] = span(secureConnectStart, secureConnectEnd);
+            d[WRITE] = span(requestStart, requestEnd);
+            d[FIRST_BYTE] = span(requestEnd, responseStart);
+            d[TOTAL] = span(callStart, callEnd);
+            return d;
+        }
+
+        private static long span(long start, long end) {
+            return start != 0 && end >= start ? end - start : -1;
+        }
+    }
+
+    private static class Round {
+        private final String name;
+        private final long[][] samples;
+        private int succeeded;
+        private int failed;
+        private String lastError;
+        private Protocol protocol;
+
+        Round(String name, int count) {
+            this.name = name;
+            this.samples = new long[count][];
+        }
+
+        EventListener trace(Call call) {
+            final Phases phases = call.request().tag(Phases.class);
+            if (phases == null) {
+                return EventListener.NONE;
+            }
+            return new EventListener() {
+                @Override
+                public void callStart(Call call) {
+                    phases.callStart = System.nanoTime();
+                }
+
+                @Override
+                public void dnsStart(Call call, String domainName) {
+                    phases.dnsStart = System.nanoTime();
+                }
+
+                @Override
+                public void dnsEnd(Call call, String domainName, List<java.net.InetAddress> addresses) {
+                    phases.dnsEnd = System.nanoTime();
+                }
+
+                @Override
+                public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+                    phases.connectStart = System.nanoTime();
+                }
+
+                @Override
+                public void secureConnectStart(Call call) {
+                    phases.secureConnectStart = System.nanoTime();
+                }
+
+                @Override
+                public void secureConnectEnd(Call call, okhttp3.Handshake handshake) {
+                    phases.secureConnectEnd = System.nanoTime();
+                }
+
+                @Override
+                public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+                    phases.connectEnd = System.nanoTime();
+                }
+
+                @Override
+                public void requestHeadersStart(Call call) {
+                    phases.requestStart = System.nanoTime();
+                }
+
+                @Override
+                public void requestHeadersEnd(Call call, Request request) {
+                    // Bodyless requests never get requestBodyEnd
+                    phases.requestEnd = System.nanoTime();
+                }
+
+                @Override
+                public void requestBodyEnd(Call call, long byteCount) {
+                    phases.requestEnd = System.nanoTime();
+                }
+
+                @Override
+                public void responseHeadersStart(Call call) {
+                    phases.responseStart = System.nanoTime();
+                }
+
+                @Override
+                public void responseHeadersEnd(Call call, Response response) {
+                    // execute() returns right after the headers; the probe's empty body adds nothing
+                    phases.callEnd = System.nanoTime();
+                }
+            };
+        }
+
+        void finish(Phases phases, Response response) {
+            if (!response.isSuccessful()) {
+                fail("HTTP " + response.code());
+                return;
+            }
+            protocol = response.protocol();
+            samples[succeeded++] = phases.durations();
+        }
+
+        void fail(String error) {
+            failed++;
+            lastError = error;
+        }
+
+        void appendTo(StringBuilder sb) {
+            sb.append('\n').append('\n').append(String.format(Locale.US, "%-10s %d ok, %d failed%s",
+                    name, succeeded, failed, protocol != null ? "  " + protocol : ""));
+            if (lastError != null) {
+                sb.append('\n').append("  last error: ").append(lastError);
+            }
+            sb.append('\n').append(String.format(Locale.US, "%-10s %8s %8s %8s", "ms", "min", "median", "p99"));
+            for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+                long[] values = new long[succeeded];
+                int n = 0;
+                for (int i = 0; i < succeeded; i++) {
+                    if (samples[i][phase] >= 0) {
+                        values[n++] = samples[i][phase];
+                    }
+                }
+                sb.append('\n');
+                if (n == 0) {
+                    sb.append(String.format(Locale.US, "%-10s %8s %8s %8s", PHASE_NAMES[phase], "-", "-", "-"));
+                    continue;
+                }
+                Arrays.sort(values, 0, n);
+                sb.append(String.format(Locale.US, "%-10s %8.1f %8.1f %8.1f", PHASE_NAMES[phase],
+                        values[0] / 1e6, values[(n - 1) / 2] / 1e6, values[percentileIndex(n, 99)] / 1e6));
+            }
+        }
+
+        // Nearest rank
+        private static int percentileIndex(int n, int percentile) {
+            return Math.max(0, (int) Math.ceil(n * percentile / 100.0) - 1);
+        }
+    }
+}
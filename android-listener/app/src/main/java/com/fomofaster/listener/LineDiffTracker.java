@@ -0,0 +1,47 @@
+package com.fomofaster.listener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Diffs successive updates of an expanded notification (InboxStyle / MessagingStyle / multi-line
+// BigText) so only lines that haven't been sent before go out.
+//
+// FOMO keeps updating one notification as trades pile up: every update repeats the earlier lines plus
+// the new ones. Lines are remembered as 64-bit hashes of (sbn key, line stamp, line) in a fixed-size
+// RecentKeyCache, so memory doesn't grow with the number of notification keys, and a trade that reads
+// the same as an earlier one is still new.
+//
+// Group summaries repeat what the group's children already delivered, so summary lines are also
+// checked against the content of everything forwarded recently, whatever notification it came from.
+public class LineDiffTracker {
+    private final RecentKeyCache sentLines;
+    private final RecentKeyCache sentContent;
+
+    public LineDiffTracker(int capacity) {
+        sentLines = new RecentKeyCache(capacity);
+        sentContent = new RecentKeyCache(capacity);
+    }
+
+    // Lines of this update that weren't in an earlier update of the same notification (or, for a
+    // group summary, in any recently forwarded notification). The returned lines count as sent.
+    public List<NotificationLines.Line> newLines(String notificationKey, List<NotificationLines.Line> lines,
+                                                 boolean groupSummary) {
+        List<NotificationLines.Line> fresh = new ArrayList<>(lines.size());
+        for (NotificationLines.Line line : lines) {
+            if (!sentLines.add(IdempotencyKeys.compute(notificationKey, line.stamp, line.text))) {
+                continue;
+            }
+            long content = IdempotencyKeys.compute(null, 0, line.text);
+            if (!sentContent.add(content) && groupSummary) {
+                continue;
+            }
+            fresh.add(line);
+        }
+        return fresh;
+    }
+
+    // A notification that went out as a single message, so a summary repeating it is skipped
+    public void recordSent(String message) {
+        sentContent.add(IdempotencyKeys.compute(null, 0, message));
+    }
+}
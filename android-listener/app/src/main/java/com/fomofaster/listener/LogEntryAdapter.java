@@ -0,0 +1,137 @@
+package com.fomofaster.listener;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Newest-first notification log for MainActivity's RecyclerView.
+//
+// New entries are inserted at the top and older pages appended at the bottom with item-level
+// notifications, so only the affected rows are bound and row views are recycled. The list is capped
+// at maxEntries; anything older can be paged back in from the LogRingFile.
+public class LogEntryAdapter extends RecyclerView.Adapter<LogEntryAdapter.RowHolder> {
+    private static final int COLOR_EVEN_ROW = 0xFFF5F5F5;
+    private static final int COLOR_ODD_ROW = 0xFFFFFFFF;
+    private static final int COLOR_SUCCESS = 0xFF4CAF50;
+    private static final int COLOR_FAILURE = 0xFFF44336;
+    private static final int COLOR_PENDING = 0xFFFF9800;
+
+    private final List<NotificationLogEntry> entries = new ArrayList<>();
+    private final int maxEntries;
+
+    // Entries inserted at the top since the last reset. Row shading uses (position - insertedAtTop) so a
+    // row keeps its color when newer rows push it down and doesn't need rebinding.
+    private int insertedAtTop;
+    // Newest LogRingFile sequence number in the last page passed to replaceAll. Bus events for entries up
+    // to here can still arrive after the reload read them, and are already in the list.
+    private long reloadedUpToSeq;
+
+    public LogEntryAdapter(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public static class RowHolder extends RecyclerView.ViewHolder {
+        final TextView timestamp;
+        final TextView status;
+        final TextView notificationText;
+        final TextView response;
+
+        RowHolder(View itemView) {
+            super(itemView);
+            timestamp = itemView.findViewById(R.id.log_timestamp);
+            status = itemView.findViewById(R.id.log_status);
+            notificationText = itemView.findViewById(R.id.log_notification_text);
+            response = itemView.findViewById(R.id.log_response);
+        }
+    }
+
+    @Override
+    public RowHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_log_entry, parent, false);
+        return new RowHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(RowHolder holder, int position) {
+        NotificationLogEntry entry = entries.get(position);
+        holder.itemView.setBackgroundColor(((position - insertedAtTop) & 1) == 0 ? COLOR_EVEN_ROW : COLOR_ODD_ROW);
+        holder.timestamp.setText(entry.getTimestamp());
+        holder.status.setText(entry.getStatus());
+        holder.status.setTextColor(statusColor(entry.getStatus()));
+        holder.notificationText.setText(entry.getNotificationText());
+        holder.response.setText(entry.getResponse());
+    }
+
+    @Override
+    public int getItemCount() {
+        return entries.size();
+    }
+
+    // Inserts a frame's worth of new entries (newest first) at the top in one range update
+    public void addNewest(List<NotificationLogEntry> newestFirst) {
+        if (reloadedUpToSeq > 0) {
+            List<NotificationLogEntry> unseen = new ArrayList<>(newestFirst.size());
+            for (NotificationLogEntry entry : newestFirst) {
+                if (entry.getSeq() == 0 || entry.getSeq() > reloadedUpToSeq) {
+                    unseen.add(entry);
+                }
+            }
+            newestFirst = unseen;
+        }
+        int count = newestFirst.size();
+        if (count == 0) {
+            return;
+        }
+        entries.addAll(0, newestFirst);
+        insertedAtTop += count;
+        notifyItemRangeInserted(0, count);
+
+        int overflow = entries.size() - maxEntries;
+        if (overflow > 0) {
+            int keep = maxEntries;
+            entries.subList(keep, entries.size()).clear();
+            notifyItemRangeRemoved(keep, overflow);
+        }
+    }
+
+    // LogRingFile sequence number of the bottom row, where the next older page starts; 0 if unknown
+    public long oldestSeq() {
+        return entries.isEmpty() ? 0 : entries.get(entries.size() - 1).getSeq();
+    }
+
+    // Appends an older page at the bottom, returns how many entries were taken
+    public int addOlder(List<NotificationLogEntry> page) {
+        int room = Math.min(page.size(), maxEntries - entries.size());
+        if (room <= 0) {
+            return 0;
+        }
+        int start = entries.size();
+        entries.addAll(page.subList(0, room));
+        notifyItemRangeInserted(start, room);
+        return room;
+    }
+
+    public void replaceAll(List<NotificationLogEntry> newest) {
+        int oldSize = entries.size();
+        entries.clear();
+        insertedAtTop = 0;
+        reloadedUpToSeq = newest.isEmpty() ? 0 : newest.get(0).getSeq();
+        notifyItemRangeRemoved(0, oldSize);
+        addOlder(newest);
+    }
+
+    private static int statusColor(String status) {
+        if (status.contains("SUCCESS") || status.contains("200")) {
+            return COLOR_SUCCESS;
+        } else if (status.contains("FAIL") || status.contains("ERROR")) {
+            return COLOR_FAILURE;
+        }
+        return COLOR_PENDING;
+    }
+}
@@ -0,0 +1,21 @@
+package com.fomofaster.listener;
+
+// One status transition of a notification, as published on the LogEventBus
+public final class LogEvent {
+    final long sequence;
+    // LogRingFile sequence number of the same entry, 0 if it wasn't persisted
+    public final long logSeq;
+    public final long timeMillis;
+    public final String status;
+    public final String notificationText;
+    public final String response;
+
+    LogEvent(long sequence, long logSeq, long timeMillis, String status, String notificationText, String response) {
+        this.sequence = sequence;
+        this.logSeq = logSeq;
+        this.timeMillis = timeMillis;
+        this.status = status;
+        this.notificationText = notificationText;
+        this.response = response;
+    }
+}
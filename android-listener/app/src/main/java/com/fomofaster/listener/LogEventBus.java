@@ -0,0 +1,106 @@
+package com.fomofaster.listener;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// In-process channel for log events from the listener service to MainActivity (same process, so
+// there's no reason to marshal every status change through the system server as a broadcast).
+//
+// Producers (OkHttp callbacks, the retry executor, the binder thread) claim a sequence number with one
+// atomic increment and store the event in a fixed-size ring - never blocking, overwriting the oldest
+// event if the subscriber falls a full ring behind. The single subscriber is told at most once per
+// drain that events are waiting and drains them in one go (MainActivity does it once per frame).
+// With no subscriber attached publish() returns before allocating anything; the LogRingFile already
+// has every entry for when the UI comes back.
+public final class LogEventBus {
+    public interface Subscriber {
+        // Called from the publishing thread, at most once until the next drain()
+        void onEventsAvailable();
+    }
+
+    private static final int CAPACITY = 1024;
+    private static final LogEventBus INSTANCE = new LogEventBus(CAPACITY);
+
+    private final AtomicReferenceArray<LogEvent> slots;
+    private final int mask;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+    private volatile Subscriber subscriber;
+
+    // Only touched by the subscriber's thread
+    private long readSequence;
+
+    public static LogEventBus get() {
+        return INSTANCE;
+    }
+
+    LogEventBus(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    public void publish(long logSeq, String status, String notificationText, String response) {
+        if (subscriber == null) {
+            return;
+        }
+        long sequence = nextSequence.getAndIncrement();
+        slots.set((int) (sequence & mask), new LogEvent(sequence, logSeq, System.currentTimeMillis(),
+                status, notificationText, response));
+        requestDrain();
+    }
+
+    // Events published from now on are delivered to this subscriber (replacing any previous one)
+    public void subscribe(Subscriber subscriber) {
+        this.subscriber = subscriber;
+        skipPending();
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        if (this.subscriber == subscriber) {
+            this.subscriber = null;
+        }
+    }
+
+    // Drops everything published so far without delivering it (e.g. after reloading from the log file)
+    public void skipPending() {
+        readSequence = nextSequence.get();
+        drainRequested.set(false);
+    }
+
+    // Moves pending events into `out`, oldest first. Returns how many were overwritten before they
+    // could be drained - if that's not 0 the caller should reload from the LogRingFile.
+    public int drain(List<LogEvent> out) {
+        drainRequested.set(false);
+        long end = nextSequence.get();
+        int lost = 0;
+
+        while (readSequence < end) {
+            LogEvent event = slots.get((int) (readSequence & mask));
+            if (event == null || event.sequence < readSequence) {
+                // Sequence claimed but the event isn't stored yet - pick it up on the next drain
+                requestDrain();
+                break;
+            }
+            if (event.sequence > readSequence) {
+                // Lapped by the producers
+                long oldestAvailable = Math.max(readSequence, end - slots.length());
+                lost += (int) (oldestAvailable - readSequence);
+                readSequence = oldestAvailable;
+                continue;
+            }
+            out.add(event);
+            readSequence++;
+        }
+        return lost;
+    }
+
+    private void requestDrain() {
+        Subscriber current = subscriber;
+        if (current != null && drainRequested.compareAndSet(false, true)) {
+            current.onEventsAvailable();
+        }
+    }
+}
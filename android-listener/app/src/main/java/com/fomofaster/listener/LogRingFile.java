@@ -0,0 +1,171 @@
+package com.fomofaster.listener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+// Fixed-size, memory-mapped ring of log records for the notification log.
+//
+// Every record occupies one RECORD_SIZE slot, so appending is a single O(1) write into the mapping
+// regardless of how many entries are kept, and the oldest slot is simply overwritten once the ring
+// is full. Reads walk backwards from the newest record, so a page of recent entries can be loaded
+// without touching the rest of the file.
+//
+// Header: [int magic][int capacity][int recordSize][long nextSeq][long clearedSeq]
+// Record: [long seq][long timeMillis][short len][status][short len][text][short len][response]
+public class LogRingFile {
+    public static final int DEFAULT_CAPACITY = 20_000;
+
+    private static final int MAGIC = 0x464C4F47; // "FLOG"
+    private static final int RECORD_SIZE = 512;
+    private static final int HEADER_SIZE = 64;
+    private static final int NEXT_SEQ_OFFSET = 12;
+    private static final int CLEARED_SEQ_OFFSET = 20;
+
+    private static final int MAX_STATUS_BYTES = 64;
+    private static final int MAX_TEXT_BYTES = 300;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static LogRingFile instance;
+
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+    private long nextSeq;
+    private long clearedSeq;
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd HH:mm:ss", Locale.US);
+
+    // The service writes and the activity reads in the same process, so they share one mapping
+    public static synchronized LogRingFile open(File file) throws IOException {
+        if (instance == null) {
+            instance = new LogRingFile(file, DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    LogRingFile(File file, int capacity) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == capacity && buffer.getInt(8) == RECORD_SIZE) {
+            nextSeq = buffer.getLong(NEXT_SEQ_OFFSET);
+            clearedSeq = buffer.getLong(CLEARED_SEQ_OFFSET);
+        } else {
+            // New file (or one written with a different layout) - start over
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, capacity);
+            buffer.putInt(8, RECORD_SIZE);
+            nextSeq = 1;
+            clearedSeq = 1;
+            writeHeader();
+        }
+        this.capacity = capacity;
+    }
+
+    // Returns the record's sequence number, which LogEventBus passes on so the UI can match the two up
+    public synchronized long append(String status, String notificationText, String response) {
+        long seq = nextSeq;
+        int offset = slotOffset(seq);
+
+        ByteBuffer slot = buffer.duplicate();
+        slot.position(offset + 8);
+        slot.putLong(System.currentTimeMillis());
+        int remaining = RECORD_SIZE - 16;
+        remaining -= putString(slot, status, Math.min(MAX_STATUS_BYTES, remaining - 6));
+        remaining -= putString(slot, notificationText, Math.min(MAX_TEXT_BYTES, remaining - 4));
+        putString(slot, response, remaining - 2);
+
+        // Sequence number goes in last, so a half-written slot never looks valid
+        buffer.putLong(offset, seq);
+        nextSeq = seq + 1;
+        buffer.putLong(NEXT_SEQ_OFFSET, nextSeq);
+        return seq;
+    }
+
+    public synchronized int size() {
+        return (int) Math.min(nextSeq - clearedSeq, capacity);
+    }
+
+    // Newest-first page of the newest entries
+    public List<NotificationLogEntry> readNewest(int limit) {
+        return readOlder(Long.MAX_VALUE, limit);
+    }
+
+    // Newest-first page of the entries older than beforeSeq. Paging by sequence number rather than by
+    // position keeps pages from shifting while new entries are appended.
+    public synchronized List<NotificationLogEntry> readOlder(long beforeSeq, int limit) {
+        long oldestSeq = Math.max(clearedSeq, nextSeq - capacity);
+        long newestSeq = Math.min(nextSeq, beforeSeq) - 1;
+        int expected = (int) Math.max(0, Math.min(limit, newestSeq - oldestSeq + 1));
+        List<NotificationLogEntry> entries = new ArrayList<>(expected);
+
+        for (long seq = newestSeq; seq >= oldestSeq && entries.size() < limit; seq--) {
+            ByteBuffer slot = buffer.duplicate();
+            slot.position(slotOffset(seq));
+            if (slot.getLong() != seq) {
+                // Slot was never written completely (e.g. process killed mid-append)
+                continue;
+            }
+            long timeMillis = slot.getLong();
+            String status = getString(slot);
+            String text = getString(slot);
+            String response = getString(slot);
+            entries.add(new NotificationLogEntry(seq, dateFormat.format(new Date(timeMillis)), status, text, response));
+        }
+        return entries;
+    }
+
+    public synchronized void clear() {
+        clearedSeq = nextSeq;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        buffer.putLong(NEXT_SEQ_OFFSET, nextSeq);
+        buffer.putLong(CLEARED_SEQ_OFFSET, clearedSeq);
+    }
+
+    private int slotOffset(long seq) {
+        return HEADER_SIZE + (int) (seq % capacity) * RECORD_SIZE;
+    }
+
+    // Writes [short len][utf-8 bytes] truncated to maxBytes, returns the bytes used including the length
+    private static int putString(ByteBuffer slot, String value, int maxBytes) {
+        byte[] bytes = (value != null ? value : "").getBytes(UTF_8);
+        int length = Math.min(bytes.length, Math.max(0, maxBytes));
+        // Don't cut a multi-byte character in half
+        while (length > 0 && length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        slot.putShort((short) length);
+        slot.put(bytes, 0, length);
+        return 2 + length;
+    }
+
+    private static String getString(ByteBuffer slot) {
+        int length = slot.getShort();
+        if (length <= 0 || length > slot.remaining()) {
+            return "";
+        }
+        byte[] bytes = new byte[length];
+        slot.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -1,25 +1,26 @@
 package com.fomofaster.listener;
 
-import android.annotation.SuppressLint;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -27,113 +28,210 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
-import org.json.JSONObject;
+import org.json.JSONArray;
+import org.json.JSONException;
 
-import java.io.IOException;
-
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
     private static final String PREFS_NAME = "FomoFasterPrefs";
-    private static final String BACKEND_URL_KEY = "backend_url";
+    // The log is paged in from the LogRingFile as the user scrolls, up to this many rows in memory
+    private static final int LOG_PAGE_SIZE = 100;
+    private static final int LOG_PAGE_PREFETCH = 20;
+    private static final int MAX_LOG_ENTRIES_IN_MEMORY = 5000;
+    private static final long LATENCY_REFRESH_INTERVAL_MS = 1000;
+    private static final int DIAGNOSTICS_PROBE_COUNT = 10;
 
     private EditText backendUrlInput;
+    private CheckBox streamingCheckbox;
+    private EditText filterRulesInput;
+    private CheckBox hedgingCheckbox;
+    private CheckBox adaptiveConcurrencyCheckbox;
+    private CheckBox metricsServerCheckbox;
+    private EditText heartbeatIntervalInput;
+    private EditText metricsPortInput;
+    private EditText laneFreshConcurrencyInput;
+    private EditText laneRetryConcurrencyInput;
+    private EditText laneReplayConcurrencyInput;
+    private EditText priorityTradersInput;
+    private EditText priorityMinAmountInput;
+    private CheckBox coalesceCheckbox;
+    private EditText queueCapacityInput;
+    private EditText freshnessTtlInput;
+    private CheckBox structuredCheckbox;
+    private CheckBox binaryPayloadCheckbox;
+    private CheckBox gzipCheckbox;
+    private CheckBox batchingCheckbox;
+    private EditText batchLingerInput;
+    private EditText batchMaxSizeInput;
+    private EditText poolKeepAliveInput;
+    private EditText keepAliveProbeInput;
     private Button saveButton;
     private Button enableListenerButton;
     private Button testButton;
     private Button clearLogButton;
     private TextView statusText;
     private TextView instructionsText;
-    private LinearLayout logEntriesContainer;
+    private TextView latencyText;
+    private TextView connectionStatsText;
+    private TextView diagnosticsText;
+    private RecyclerView logRecyclerView;
+    private LinearLayoutManager logLayoutManager;
+    private TextView logEmptyText;
 
     private OkHttpClient httpClient;
-    private List<NotificationLogEntry> logEntries;
+    private LogEntryAdapter logAdapter;
+    private LogRingFile logRing;
+    private boolean allLogEntriesLoaded;
     private SimpleDateFormat dateFormat;
-    private BroadcastReceiver logReceiver;
+    private Choreographer choreographer;
+    private final List<LogEvent> pendingLogEvents = new ArrayList<>();
+
+    // Log events are applied to the list at most once per frame, however many arrive in between
+    private final Choreographer.FrameCallback logFrameCallback = frameTimeNanos -> drainLogEvents();
+    private final LogEventBus.Subscriber logEventSubscriber = () -> choreographer.postFrameCallback(logFrameCallback);
+
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private final Runnable latencyRefresher = new Runnable() {
+        @Override
+        public void run() {
+            refreshLatencyDisplay();
+            uiHandler.postDelayed(this, LATENCY_REFRESH_INTERVAL_MS);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        // Initialize HTTP client
-        httpClient = new OkHttpClient();
+        // Same client and connection pool the listener service sends over
+        httpClient = Transport.get(this).client();
 
         // Initialize log
-        logEntries = new ArrayList<>();
         dateFormat = new SimpleDateFormat("MMM dd HH:mm:ss", Locale.US);
 
         // Find views
         backendUrlInput = findViewById(R.id.backend_url_input);
+        streamingCheckbox = findViewById(R.id.streaming_checkbox);
+        filterRulesInput = findViewById(R.id.filter_rules_input);
+        hedgingCheckbox = findViewById(R.id.hedging_checkbox);
+        adaptiveConcurrencyCheckbox = findViewById(R.id.adaptive_concurrency_checkbox);
+        metricsServerCheckbox = findViewById(R.id.metrics_server_checkbox);
+        heartbeatIntervalInput = findViewById(R.id.heartbeat_interval_input);
+        metricsPortInput = findViewById(R.id.metrics_port_input);
+        structuredCheckbox = findViewById(R.id.structured_checkbox);
+        binaryPayloadCheckbox = findViewById(R.id.binary_payload_checkbox);
+        gzipCheckbox = findViewById(R.id.gzip_checkbox);
+        batchingCheckbox = findViewById(R.id.batching_checkbox);
+        batchLingerInput = findViewById(R.id.batch_linger_input);
+        batchMaxSizeInput = findViewById(R.id.batch_max_size_input);
+        poolKeepAliveInput = findViewById(R.id.pool_keep_alive_input);
+        keepAliveProbeInput = findViewById(R.id.keep_alive_probe_input);
+        laneFreshConcurrencyInput = findViewById(R.id.lane_fresh_concurrency_input);
+        laneRetryConcurrencyInput = findViewById(R.id.lane_retry_concurrency_input);
+        laneReplayConcurrencyInput = findViewById(R.id.lane_replay_concurrency_input);
+        priorityTradersInput = findViewById(R.id.priority_traders_input);
+        priorityMinAmountInput = findViewById(R.id.priority_min_amount_input);
+        coalesceCheckbox = findViewById(R.id.coalesce_checkbox);
+        queueCapacityInput = findViewById(R.id.queue_capacity_input);
+        freshnessTtlInput = findViewById(R.id.freshness_ttl_input);
         saveButton = findViewById(R.id.save_button);
         enableListenerButton = findViewById(R.id.enable_listener_button);
         testButton = findViewById(R.id.test_button);
         clearLogButton = findViewById(R.id.clear_log_button);
         statusText = findViewById(R.id.status_text);
         instructionsText = findViewById(R.id.instructions_text);
-        logEntriesContainer = findViewById(R.id.log_entries_container);
+        latencyText = findViewById(R.id.latency_text);
+        connectionStatsText = findViewById(R.id.connection_stats_text);
+        diagnosticsText = findViewById(R.id.diagnostics_text);
+        logRecyclerView = findViewById(R.id.log_recycler_view);
+        logEmptyText = findViewById(R.id.log_empty_text);
 
         // Load saved backend URL
         loadBackendUrl();
 
-        // Load saved log entries from persistent storage (after views are initialized)
-        loadSavedLogEntries();
+        // Log entries themselves are (re)loaded in onResume
+        choreographer = Choreographer.getInstance();
+        setupLogList();
 
         // Set up button listeners
         saveButton.setOnClickListener(v -> saveBackendUrl());
         enableListenerButton.setOnClickListener(v -> openNotificationSettings());
-        testButton.setOnClickListener(v -> testConnection());
+        testButton.setOnClickListener(v -> runDiagnostics());
         clearLogButton.setOnClickListener(v -> clearLog());
 
-        // Set up broadcast receiver for log updates
-        setupLogReceiver();
-
         // Update status
         updateListenerStatus();
     }
 
-    @SuppressLint("UnspecifiedRegisterReceiverFlag")
     @Override
     protected void onResume() {
         super.onResume();
         // Update status when returning from settings
         updateListenerStatus();
 
-        // Re-register receiver
-        if (logReceiver != null) {
-            IntentFilter filter = new IntentFilter(FomoNotificationListener.LOG_BROADCAST_ACTION);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                registerReceiver(logReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
-            } else {
-                registerReceiver(logReceiver, filter);
-            }
-        }
+        // Subscribe first, then reload the newest page (which covers anything logged while paused)
+        LogEventBus.get().subscribe(logEventSubscriber);
+        loadSavedLogEntries();
+
+        // Live percentiles from the listener (same process, so read straight from PipelineMetrics)
+        uiHandler.post(latencyRefresher);
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        // Unregister receiver to avoid memory leaks
-        if (logReceiver != null) {
-            try {
-                unregisterReceiver(logReceiver);
-            } catch (IllegalArgumentException e) {
-                // Receiver was not registered
-            }
-        }
+        uiHandler.removeCallbacks(latencyRefresher);
+
+        // Stop receiving log events - publishing becomes a no-op for the listener
+        LogEventBus.get().unsubscribe(logEventSubscriber);
+        choreographer.removeFrameCallback(logFrameCallback);
     }
 
     private void loadBackendUrl() {
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String url = prefs.getString(BACKEND_URL_KEY, "http://10.0.2.2:8000");
-        backendUrlInput.setText(url);
+        backendUrlInput.setText(Transport.get(this).config().backendUrls);
+
+        streamingCheckbox.setChecked(prefs.getBoolean(FomoNotificationListener.STREAMING_ENABLED_KEY, false));
+        filterRulesInput.setText(formatRules(prefs.getString(FomoNotificationListener.FILTER_RULES_KEY,
+                NotificationFilter.DEFAULT_RULES_JSON)));
+        hedgingCheckbox.setChecked(prefs.getBoolean(FomoNotificationListener.HEDGING_ENABLED_KEY, false));
+        adaptiveConcurrencyCheckbox.setChecked(prefs.getBoolean(FomoNotificationListener.ADAPTIVE_CONCURRENCY_ENABLED_KEY, true));
+        metricsServerCheckbox.setChecked(prefs.getBoolean(FomoNotificationListener.METRICS_SERVER_ENABLED_KEY, false));
+        heartbeatIntervalInput.setText(String.valueOf(prefs.getInt(FomoNotificationListener.HEARTBEAT_INTERVAL_SECONDS_KEY,
+                FomoNotificationListener.DEFAULT_HEARTBEAT_INTERVAL_SECONDS)));
+        int metricsPort = prefs.getInt(FomoNotificationListener.METRICS_PORT_KEY, FomoNotificationListener.DEFAULT_METRICS_PORT);
+        metricsPortInput.setText(String.valueOf(metricsPort));
+        metricsServerCheckbox.setText(getString(R.string.metrics_server_label, metricsPort));
+        structuredCheckbox.setChecked(prefs.getBoolean(FomoNotificationListener.STRUCTURED_ENABLED_KEY, false));
+        binaryPayloadCheckbox.setChecked(FomoNotificationListener.PAYLOAD_CODEC_BINARY.equals(
+                prefs.getString(FomoNotificationListener.PAYLOAD_CODEC_KEY, FomoNotificationListener.PAYLOAD_CODEC_JSON)));
+        gzipCheckbox.setChecked(prefs.getBoolean(FomoNotificationListener.GZIP_ENABLED_KEY, false));
+        batchingCheckbox.setChecked(prefs.getBoolean(FomoNotificationListener.BATCHING_ENABLED_KEY, false));
+        batchLingerInput.setText(String.valueOf(prefs.getInt(FomoNotificationListener.BATCH_LINGER_MS_KEY,
+                FomoNotificationListener.DEFAULT_BATCH_LINGER_MS)));
+        batchMaxSizeInput.setText(String.valueOf(prefs.getInt(FomoNotificationListener.BATCH_MAX_SIZE_KEY,
+                FomoNotificationListener.DEFAULT_BATCH_MAX_SIZE)));
+        poolKeepAliveInput.setText(String.valueOf(prefs.getInt(FomoNotificationListener.POOL_KEEP_ALIVE_SECONDS_KEY,
+                FomoNotificationListener.DEFAULT_POOL_KEEP_ALIVE_SECONDS)));
+        keepAliveProbeInput.setText(String.valueOf(prefs.getInt(FomoNotificationListener.KEEP_ALIVE_PROBE_SECONDS_KEY,
+                FomoNotificationListener.DEFAULT_KEEP_ALIVE_PROBE_SECONDS)));
+        laneFreshConcurrencyInput.setText(String.valueOf(prefs.getInt(FomoNotificationListener.LANE_FRESH_CONCURRENCY_KEY,
+                NotificationSender.DEFAULT_FRESH_CONCURRENCY)));
+        laneRetryConcurrencyInput.setText(String.valueOf(prefs.getInt(FomoNotificationListener.LANE_RETRY_CONCURRENCY_KEY,
+                NotificationSender.DEFAULT_RETRY_CONCURRENCY)));
+        laneReplayConcurrencyInput.setText(String.valueOf(prefs.getInt(FomoNotificationListener.LANE_REPLAY_CONCURRENCY_KEY,
+                NotificationSender.DEFAULT_REPLAY_CONCURRENCY)));
+        priorityTradersInput.setText(prefs.getString(FomoNotificationListener.PRIORITY_TRADERS_KEY, ""));
+        priorityMinAmountInput.setText(formatAmount(prefs.getFloat(FomoNotificationListener.PRIORITY_MIN_AMOUNT_KEY, 0f)));
+        coalesceCheckbox.setChecked(FomoNotificationListener.OVERFLOW_COALESCE.equals(
+                prefs.getString(FomoNotificationListener.OVERFLOW_POLICY_KEY, FomoNotificationListener.OVERFLOW_DROP_OLDEST)));
+        queueCapacityInput.setText(String.valueOf(prefs.getInt(FomoNotificationListener.QUEUE_CAPACITY_KEY,
+                NotificationSender.DEFAULT_QUEUE_CAPACITY)));
+        freshnessTtlInput.setText(String.valueOf(prefs.getInt(FomoNotificationListener.FRESHNESS_TTL_SECONDS_KEY,
+                FomoNotificationListener.DEFAULT_FRESHNESS_TTL_SECONDS)));
     }
 
     private void saveBackendUrl() {
@@ -144,14 +242,117 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        // Save to preferences
+        // Compiled here too, so a typo is reported now rather than silently ignored by the service
+        String rules = filterRulesInput.getText().toString().trim();
+        try {
+            NotificationFilter.parse(rules);
+        } catch (JSONException e) {
+            Toast.makeText(this, getString(R.string.filter_rules_invalid, e.getMessage()), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        int heartbeatSeconds = parseIntOrDefault(heartbeatIntervalInput, FomoNotificationListener.DEFAULT_HEARTBEAT_INTERVAL_SECONDS);
+        int metricsPort = parseIntOrDefault(metricsPortInput, FomoNotificationListener.DEFAULT_METRICS_PORT);
+        // The listener runs unprivileged, so it can't bind below 1024
+        if (metricsPort < 1024 || metricsPort > 65535) {
+            metricsPort = FomoNotificationListener.DEFAULT_METRICS_PORT;
+        }
+        int lingerMs = parseIntOrDefault(batchLingerInput, FomoNotificationListener.DEFAULT_BATCH_LINGER_MS);
+        int maxBatchSize = parseIntOrDefault(batchMaxSizeInput, FomoNotificationListener.DEFAULT_BATCH_MAX_SIZE);
+        int keepAliveSeconds = parseIntOrDefault(poolKeepAliveInput, FomoNotificationListener.DEFAULT_POOL_KEEP_ALIVE_SECONDS);
+        int probeSeconds = parseIntOrDefault(keepAliveProbeInput, FomoNotificationListener.DEFAULT_KEEP_ALIVE_PROBE_SECONDS);
+        int freshConcurrency = parseIntOrDefault(laneFreshConcurrencyInput, NotificationSender.DEFAULT_FRESH_CONCURRENCY);
+        int retryConcurrency = parseIntOrDefault(laneRetryConcurrencyInput, NotificationSender.DEFAULT_RETRY_CONCURRENCY);
+        int replayConcurrency = parseIntOrDefault(laneReplayConcurrencyInput, NotificationSender.DEFAULT_REPLAY_CONCURRENCY);
+        String priorityTraders = priorityTradersInput.getText().toString().trim();
+        float priorityMinAmount = parseFloatOrDefault(priorityMinAmountInput, 0f);
+        int queueCapacity = parseIntOrDefault(queueCapacityInput, NotificationSender.DEFAULT_QUEUE_CAPACITY);
+        int freshnessSeconds = parseIntOrDefault(freshnessTtlInput, FomoNotificationListener.DEFAULT_FRESHNESS_TTL_SECONDS);
+
+        // Save to preferences. Backend URLs, hedging and filter rules reach the running listener right
+        // away through Transport; the other settings apply the next time the listener service starts.
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        prefs.edit().putString(BACKEND_URL_KEY, url).apply();
+        prefs.edit()
+                .putString(FomoNotificationListener.BACKEND_URL_KEY, url)
+                .putBoolean(FomoNotificationListener.STREAMING_ENABLED_KEY, streamingCheckbox.isChecked())
+                .putString(FomoNotificationListener.FILTER_RULES_KEY, rules)
+                .putBoolean(FomoNotificationListener.HEDGING_ENABLED_KEY, hedgingCheckbox.isChecked())
+                .putBoolean(FomoNotificationListener.ADAPTIVE_CONCURRENCY_ENABLED_KEY, adaptiveConcurrencyCheckbox.isChecked())
+                .putBoolean(FomoNotificationListener.METRICS_SERVER_ENABLED_KEY, metricsServerCheckbox.isChecked())
+                .putInt(FomoNotificationListener.HEARTBEAT_INTERVAL_SECONDS_KEY, Math.max(0, heartbeatSeconds))
+                .putInt(FomoNotificationListener.METRICS_PORT_KEY, metricsPort)
+                .putBoolean(FomoNotificationListener.STRUCTURED_ENABLED_KEY, structuredCheckbox.isChecked())
+                .putString(FomoNotificationListener.PAYLOAD_CODEC_KEY, binaryPayloadCheckbox.isChecked()
+                        ? FomoNotificationListener.PAYLOAD_CODEC_BINARY
+                        : FomoNotificationListener.PAYLOAD_CODEC_JSON)
+                .putBoolean(FomoNotificationListener.GZIP_ENABLED_KEY, gzipCheckbox.isChecked())
+                .putBoolean(FomoNotificationListener.BATCHING_ENABLED_KEY, batchingCheckbox.isChecked())
+                .putInt(FomoNotificationListener.BATCH_LINGER_MS_KEY, Math.max(0, Math.min(lingerMs, 20)))
+                .putInt(FomoNotificationListener.BATCH_MAX_SIZE_KEY, Math.max(1, maxBatchSize))
+                .putInt(FomoNotificationListener.POOL_KEEP_ALIVE_SECONDS_KEY, Math.max(1, keepAliveSeconds))
+                .putInt(FomoNotificationListener.KEEP_ALIVE_PROBE_SECONDS_KEY, Math.max(0, probeSeconds))
+                .putInt(FomoNotificationListener.LANE_FRESH_CONCURRENCY_KEY, Math.max(1, freshConcurrency))
+                .putInt(FomoNotificationListener.LANE_RETRY_CONCURRENCY_KEY, Math.max(1, retryConcurrency))
+                .putInt(FomoNotificationListener.LANE_REPLAY_CONCURRENCY_KEY, Math.max(1, replayConcurrency))
+                .putString(FomoNotificationListener.PRIORITY_TRADERS_KEY, priorityTraders)
+                .putFloat(FomoNotificationListener.PRIORITY_MIN_AMOUNT_KEY, Math.max(0f, priorityMinAmount))
+                .putString(FomoNotificationListener.OVERFLOW_POLICY_KEY, coalesceCheckbox.isChecked()
+                        ? FomoNotificationListener.OVERFLOW_COALESCE
+                        : FomoNotificationListener.OVERFLOW_DROP_OLDEST)
+                .putInt(FomoNotificationListener.QUEUE_CAPACITY_KEY, Math.max(0, queueCapacity))
+                .putInt(FomoNotificationListener.FRESHNESS_TTL_SECONDS_KEY, Math.max(0, freshnessSeconds))
+                .apply();
+        metricsPortInput.setText(String.valueOf(metricsPort));
+        metricsServerCheckbox.setText(getString(R.string.metrics_server_label, metricsPort));
 
         Toast.makeText(this, R.string.config_saved, Toast.LENGTH_SHORT).show();
         Log.d(TAG, "Backend URL saved: " + url);
     }
 
+    // One rule per line is easier to edit on a phone than the stored single-line JSON
+    private static String formatRules(String json) {
+        try {
+            JSONArray rules = new JSONArray(json);
+            StringBuilder sb = new StringBuilder("[\n");
+            for (int i = 0; i < rules.length(); i++) {
+                sb.append("  ").append(rules.get(i)).append(i < rules.length() - 1 ? ",\n" : "\n");
+            }
+            return sb.append("]").toString();
+        } catch (JSONException e) {
+            return json;
+        }
+    }
+
+    private int parseIntOrDefault(EditText input, int defaultValue) {
+        try {
+            return Integer.parseInt(input.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private float parseFloatOrDefault(EditText input, float defaultValue) {
+        try {
+            return Float.parseFloat(input.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // "5000" rather than "5000.0" for the usual whole-dollar thresholds
+    private static String formatAmount(float amount) {
+        return amount == (long) amount ? String.valueOf((long) amount) : String.valueOf(amount);
+    }
+
+    private void refreshLatencyDisplay() {
+        connectionStatsText.setText(ConnectionStats.summary());
+        if (PipelineMetrics.POSTED_TO_CALLBACK.count() == 0) {
+            latencyText.setText(R.string.latency_empty);
+            return;
+        }
+        latencyText.setText(PipelineMetrics.summary());
+    }
+
     private void openNotificationSettings() {
         // Open notification listener settings
         Intent intent = new Intent(Settings.ACTION_NOTIFICATION_LISTENER_SETTINGS);
@@ -187,221 +388,132 @@ public class MainActivity extends AppCompatActivity {
         return false;
     }
 
-    private void testConnection() {
-        String url = backendUrlInput.getText().toString().trim();
+    private void runDiagnostics() {
+        // Probes the first (preferred) backend
+        List<String> urls = BackendEndpoint.splitUrls(backendUrlInput.getText().toString());
+        BackendEndpoint endpoint = urls.isEmpty() ? null : BackendEndpoint.create(0, urls.get(0));
 
-        if (url.isEmpty()) {
+        if (endpoint == null) {
             Toast.makeText(this, "Please enter a backend URL first", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        // Show testing message
-        Toast.makeText(this, "Testing connection...", Toast.LENGTH_SHORT).show();
         testButton.setEnabled(false);
-
-        // Build test payload
-        try {
-            JSONObject json = new JSONObject();
-            json.put("message", "TEST This is a test notification from FomoFaster Listener");
-
-            String jsonString = json.toString();
-            Log.d(TAG, "Sending test request: " + jsonString);
-
-            // Build HTTP request
-            MediaType JSON_TYPE = MediaType.get("application/json; charset=utf-8");
-            RequestBody body = RequestBody.create(jsonString, JSON_TYPE);
-
-            String endpoint = url.endsWith("/")
-                    ? url + "api/notifications"
-                    : url + "/api/notifications";
-
-            Request request = new Request.Builder()
-                    .url(endpoint)
-                    .post(body)
-                    .build();
-
-            // Send async request
-            httpClient.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    Log.e(TAG, "Test connection failed", e);
-                    runOnUiThread(() -> {
-                        Toast.makeText(MainActivity.this, R.string.test_failed, Toast.LENGTH_LONG).show();
-                        testButton.setEnabled(true);
-                    });
-                }
-
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    final int code = response.code();
-                    response.close();
-
-                    runOnUiThread(() -> {
-                        if (code >= 200 && code < 300) {
-                            Toast.makeText(MainActivity.this, R.string.test_success, Toast.LENGTH_SHORT).show();
-                        } else {
-                            Toast.makeText(MainActivity.this,
-                                    "Server responded with code: " + code,
-                                    Toast.LENGTH_LONG).show();
-                        }
-                        testButton.setEnabled(true);
-                    });
-
-                    Log.d(TAG, "Test response code: " + code);
-                }
+        diagnosticsText.setText(getString(R.string.diagnostics_running, DIAGNOSTICS_PROBE_COUNT));
+
+        // Synchronous calls, one after another, so keep them off the main thread
+        LatencyProbe probe = new LatencyProbe(httpClient, endpoint, DIAGNOSTICS_PROBE_COUNT);
+        Thread thread = new Thread(() -> {
+            String report = probe.run();
+            Log.d(TAG, "Diagnostics:\n" + report);
+            runOnUiThread(() -> {
+                diagnosticsText.setText(report);
+                testButton.setEnabled(true);
             });
-
-        } catch (Exception e) {
-            Log.e(TAG, "Error building test request", e);
-            Toast.makeText(this, R.string.test_failed, Toast.LENGTH_SHORT).show();
-            testButton.setEnabled(true);
-        }
+        }, "latency-probe");
+        thread.start();
     }
 
-    @SuppressWarnings("UnspecifiedRegisterReceiverFlag")
-    private void setupLogReceiver() {
-        logReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                String status = intent.getStringExtra(FomoNotificationListener.EXTRA_STATUS);
-                String notificationText = intent.getStringExtra(FomoNotificationListener.EXTRA_NOTIFICATION_TEXT);
-                String response = intent.getStringExtra(FomoNotificationListener.EXTRA_RESPONSE);
+    private void setupLogList() {
+        logAdapter = new LogEntryAdapter(MAX_LOG_ENTRIES_IN_MEMORY);
+        logLayoutManager = new LinearLayoutManager(this);
+        logRecyclerView.setLayoutManager(logLayoutManager);
+        logRecyclerView.setAdapter(logAdapter);
+        // Fixed-height list, and no insert animations to run through during a burst
+        logRecyclerView.setHasFixedSize(true);
+        logRecyclerView.setItemAnimator(null);
 
-                Log.d(TAG, "Received log broadcast: " + status);
-                addLogEntryToUI(status, notificationText, response);
+        logRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && logLayoutManager.findLastVisibleItemPosition() >= logAdapter.getItemCount() - LOG_PAGE_PREFETCH) {
+                    loadOlderLogEntries();
+                }
             }
-        };
-
-        IntentFilter filter = new IntentFilter(FomoNotificationListener.LOG_BROADCAST_ACTION);
-
-        // Register receiver with appropriate flags for Android 13+
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            registerReceiver(logReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
-        } else {
-            registerReceiver(logReceiver, filter);
-        }
+        });
     }
 
     private void loadSavedLogEntries() {
         try {
-            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-            String logsJson = prefs.getString("notification_logs", "[]");
-
-            org.json.JSONArray logsArray = new org.json.JSONArray(logsJson);
-
-            for (int i = 0; i < logsArray.length(); i++) {
-                org.json.JSONObject logJson = logsArray.getJSONObject(i);
-                NotificationLogEntry entry = NotificationLogEntry.fromJSON(logJson);
-                logEntries.add(entry);
+            // Only the newest page is read, the ring itself can hold tens of thousands of entries
+            if (logRing == null) {
+                logRing = LogRingFile.open(new java.io.File(getFilesDir(), FomoNotificationListener.LOG_RING_FILE_NAME));
             }
+            // Skipped before reading, so everything already on the bus is in the page. An event published
+            // in between can end up in both; the adapter drops that copy by its ring sequence number.
+            LogEventBus.get().skipPending();
+            logAdapter.replaceAll(logRing.readNewest(LOG_PAGE_SIZE));
+            allLogEntriesLoaded = false;
 
-            Log.d(TAG, "Loaded " + logEntries.size() + " log entries from persistent storage");
-            refreshLogDisplay();
-
+            Log.d(TAG, "Loaded " + logAdapter.getItemCount() + " of " + logRing.size() + " log entries from persistent storage");
         } catch (Exception e) {
             Log.e(TAG, "Error loading saved log entries", e);
         }
+        updateLogEmptyView();
     }
 
-    private void clearLog() {
-        logEntries.clear();
+    private void loadOlderLogEntries() {
+        if (logRing == null || allLogEntriesLoaded) {
+            return;
+        }
+        // Continue below the bottom row's sequence number. A row count would be thrown off by entries
+        // already in the ring but not yet drained from the bus.
+        long oldestSeq = logAdapter.oldestSeq();
+        if (oldestSeq <= 0) {
+            allLogEntriesLoaded = true;
+            return;
+        }
+        List<NotificationLogEntry> page = logRing.readOlder(oldestSeq, LOG_PAGE_SIZE);
+        if (page.isEmpty() || logAdapter.addOlder(page) == 0) {
+            allLogEntriesLoaded = true;
+        }
+    }
 
+    private void clearLog() {
         // Also clear from persistent storage
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        prefs.edit().putString("notification_logs", "[]").apply();
+        if (logRing != null) {
+            logRing.clear();
+        }
+        logAdapter.replaceAll(new ArrayList<NotificationLogEntry>());
+        allLogEntriesLoaded = true;
+        updateLogEmptyView();
 
-        refreshLogDisplay();
         Toast.makeText(this, "Log cleared", Toast.LENGTH_SHORT).show();
     }
 
-    private void addLogEntryToUI(String status, String notificationText, String response) {
-        String timestamp = dateFormat.format(new Date());
-        NotificationLogEntry entry = new NotificationLogEntry(timestamp, status, notificationText, response);
-        logEntries.add(0, entry); // Add to beginning (most recent first)
-
-        // Limit to 50 entries
-        if (logEntries.size() > 50) {
-            logEntries.remove(logEntries.size() - 1);
+    // Runs on the main thread once per frame while events are arriving
+    private void drainLogEvents() {
+        pendingLogEvents.clear();
+        int lost = LogEventBus.get().drain(pendingLogEvents);
+        if (lost > 0) {
+            // Fell a whole ring behind - the log file has everything
+            Log.d(TAG, lost + " log events overwritten before the UI caught up, reloading");
+            loadSavedLogEntries();
+            return;
+        }
+        if (pendingLogEvents.isEmpty()) {
+            return;
         }
 
-        refreshLogDisplay();
-    }
-
-    private void refreshLogDisplay() {
-        runOnUiThread(() -> {
-            logEntriesContainer.removeAllViews();
-
-            if (logEntries.isEmpty()) {
-                TextView emptyView = new TextView(this);
-                emptyView.setText("No notifications logged yet");
-                emptyView.setTextSize(12);
-                emptyView.setPadding(8, 8, 8, 8);
-                emptyView.setGravity(android.view.Gravity.CENTER);
-                emptyView.setTextColor(0xFF999999);
-                logEntriesContainer.addView(emptyView);
-                return;
-            }
+        // Bus order is oldest first, the list is newest first
+        List<NotificationLogEntry> newestFirst = new ArrayList<>(pendingLogEvents.size());
+        for (int i = pendingLogEvents.size() - 1; i >= 0; i--) {
+            LogEvent event = pendingLogEvents.get(i);
+            newestFirst.add(new NotificationLogEntry(event.logSeq, dateFormat.format(new Date(event.timeMillis)),
+                    event.status, event.notificationText, event.response));
+        }
+        pendingLogEvents.clear();
 
-            for (NotificationLogEntry entry : logEntries) {
-                LinearLayout row = new LinearLayout(this);
-                row.setOrientation(LinearLayout.HORIZONTAL);
-                row.setPadding(8, 8, 8, 8);
-
-                // Alternate row colors
-                int bgColor = (logEntries.indexOf(entry) % 2 == 0) ? 0xFFF5F5F5 : 0xFFFFFFFF;
-                row.setBackgroundColor(bgColor);
-
-                // Timestamp
-                TextView timestampView = new TextView(this);
-                timestampView.setText(entry.getTimestamp());
-                timestampView.setTextSize(11);
-                timestampView.setWidth(dpToPx(150));
-                timestampView.setPadding(0, 0, dpToPx(8), 0);
-                row.addView(timestampView);
-
-                // Status
-                TextView statusView = new TextView(this);
-                statusView.setText(entry.getStatus());
-                statusView.setTextSize(11);
-                statusView.setWidth(dpToPx(100));
-                statusView.setPadding(0, 0, dpToPx(8), 0);
-
-                // Color code status
-                if (entry.getStatus().contains("SUCCESS") || entry.getStatus().contains("200")) {
-                    statusView.setTextColor(0xFF4CAF50); // Green
-                } else if (entry.getStatus().contains("FAIL") || entry.getStatus().contains("ERROR")) {
-                    statusView.setTextColor(0xFFF44336); // Red
-                } else {
-                    statusView.setTextColor(0xFFFF9800); // Orange
-                }
-                row.addView(statusView);
-
-                // Notification Text
-                TextView notificationView = new TextView(this);
-                notificationView.setText(entry.getNotificationText());
-                notificationView.setTextSize(11);
-                notificationView.setWidth(dpToPx(400));
-                notificationView.setPadding(0, 0, dpToPx(8), 0);
-                notificationView.setMaxLines(2);
-                notificationView.setEllipsize(android.text.TextUtils.TruncateAt.END);
-                row.addView(notificationView);
-
-                // Response
-                TextView responseView = new TextView(this);
-                responseView.setText(entry.getResponse());
-                responseView.setTextSize(11);
-                responseView.setWidth(dpToPx(300));
-                responseView.setMaxLines(2);
-                responseView.setEllipsize(android.text.TextUtils.TruncateAt.END);
-                row.addView(responseView);
-
-                logEntriesContainer.addView(row);
-            }
-        });
+        // Stay pinned to the newest entry unless the user has scrolled down
+        boolean atTop = logLayoutManager.findFirstCompletelyVisibleItemPosition() <= 0;
+        logAdapter.addNewest(newestFirst);
+        if (atTop) {
+            logRecyclerView.scrollToPosition(0);
+        }
+        updateLogEmptyView();
     }
 
-    private int dpToPx(int dp) {
-        float density = getResources().getDisplayMetrics().density;
-        return Math.round(dp * density);
+    private void updateLogEmptyView() {
+        logEmptyText.setVisibility(logAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 }
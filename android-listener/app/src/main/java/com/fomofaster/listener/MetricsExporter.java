@@ -0,0 +1,156 @@
+package com.fomofaster.listener;
+
+import java.util.Locale;
+
+// Renders the pipeline's counters, gauges and latency histograms in the Prometheus text exposition
+// format (version 0.0.4), for MetricsServer.
+//
+// Everything is read from the process-wide DeliveryStats / ConnectionStats / PipelineMetrics, plus the
+// sender's queue gauges, at scrape time - nothing is copied on the hot path.
+public class MetricsExporter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // Histogram bucket bounds in seconds
+    private static final double[] BUCKETS_SECONDS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30,
+    };
+
+    private final NotificationSender sender;
+
+    public MetricsExporter(NotificationSender sender) {
+        this.sender = sender;
+    }
+
+    public String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+
+        counter(out, "fomo_notifications_seen_total", "Notifications handed to the listener", DeliveryStats.NOTIFICATIONS_SEEN.sum());
+        counter(out, "fomo_notifications_filtered_total", "Notifications no filter rule matched", DeliveryStats.NOTIFICATIONS_FILTERED.sum());
+        counter(out, "fomo_notifications_duplicate_total", "Notifications suppressed as duplicates", DeliveryStats.DUPLICATES.sum());
+
+        header(out, "fomo_sends_total", "Send attempts by outcome and attempt number", "counter");
+        for (int outcome = 0; outcome < DeliveryStats.OUTCOME_NAMES.length; outcome++) {
+            for (int attempt = 0; attempt < DeliveryStats.ATTEMPT_NAMES.length; attempt++) {
+                out.append("fomo_sends_total{outcome=\"").append(DeliveryStats.OUTCOME_NAMES[outcome])
+                        .append("\",attempt=\"").append(DeliveryStats.ATTEMPT_NAMES[attempt]).append("\"} ")
+                        .append(DeliveryStats.sends(outcome, attempt)).append('\n');
+            }
+        }
+
+        counter(out, "fomo_delivered_total", "Notifications acknowledged by the backend", DeliveryStats.DELIVERED.sum());
+        counter(out, "fomo_retries_total", "Retries scheduled", DeliveryStats.RETRIES.sum());
+        counter(out, "fomo_parked_total", "Notifications left in the outbox while the circuit was open", DeliveryStats.PARKED.sum());
+        counter(out, "fomo_expired_total", "Notifications dropped after the TTL", DeliveryStats.EXPIRED.sum());
+        counter(out, "fomo_rejected_total", "Notifications refused by the backend", DeliveryStats.REJECTED.sum());
+
+        header(out, "fomo_shed_total", "Notifications dropped under load, by reason", "counter");
+        out.append("fomo_shed_total{reason=\"queue_full\"} ").append(DeliveryStats.SHED_QUEUE_FULL.sum()).append('\n');
+        out.append("fomo_shed_total{reason=\"coalesced\"} ").append(DeliveryStats.SHED_COALESCED.sum()).append('\n');
+        out.append("fomo_shed_total{reason=\"stale\"} ").append(DeliveryStats.SHED_STALE.sum()).append('\n');
+
+        long oldestPostTime = sender.oldestPendingPostTime();
+        gauge(out, "fomo_pending_notifications", "Notifications accepted but not yet acknowledged", sender.pendingCount());
+        gauge(out, "fomo_retry_queue_depth", "Notifications waiting on a retry timer", sender.retryQueueDepth());
+        gauge(out, "fomo_oldest_pending_age_seconds", "Age of the oldest unacknowledged notification",
+                oldestPostTime > 0 ? Math.max(0, System.currentTimeMillis() - oldestPostTime) / 1000.0 : 0);
+
+        DispatchScheduler scheduler = sender.getScheduler();
+        header(out, "fomo_lane_queued", "Requests waiting for a slot in their dispatch lane", "gauge");
+        for (DispatchScheduler.Lane lane : DispatchScheduler.Lane.values()) {
+            laneSample(out, "fomo_lane_queued", lane, scheduler.queued(lane));
+        }
+        header(out, "fomo_lane_in_flight", "Requests on the network per dispatch lane", "gauge");
+        for (DispatchScheduler.Lane lane : DispatchScheduler.Lane.values()) {
+            laneSample(out, "fomo_lane_in_flight", lane, scheduler.running(lane));
+        }
+        header(out, "fomo_lane_limit", "Concurrency limit per dispatch lane", "gauge");
+        for (DispatchScheduler.Lane lane : DispatchScheduler.Lane.values()) {
+            laneSample(out, "fomo_lane_limit", lane, scheduler.limit(lane));
+        }
+
+        gauge(out, "fomo_in_flight_requests", "Backend requests on the network across all lanes", scheduler.inFlight());
+        AdaptiveConcurrencyLimit concurrencyLimit = sender.getConcurrencyLimit();
+        if (concurrencyLimit != null) {
+            gauge(out, "fomo_concurrency_limit", "Current adaptive limit on concurrent backend requests", concurrencyLimit.getLimit());
+            gauge(out, "fomo_latency_baseline_seconds", "Lowest recent round trip the adaptive limit compares against",
+                    concurrencyLimit.getBaselineNanos() / 1e9);
+        }
+
+        header(out, "fomo_queue_wait_seconds", "Time a request waited for a slot in its dispatch lane", "histogram");
+        for (DispatchScheduler.Lane lane : DispatchScheduler.Lane.values()) {
+            histogram(out, "fomo_queue_wait_seconds", "lane=\"" + lane.name().toLowerCase(Locale.US) + "\"",
+                    PipelineMetrics.queueWait(lane));
+        }
+
+        header(out, "fomo_connection_sends_total", "Sends by whether they reused a pooled connection", "counter");
+        out.append("fomo_connection_sends_total{connection=\"reused\"} ").append(ConnectionStats.SENDS_REUSED.sum()).append('\n');
+        out.append("fomo_connection_sends_total{connection=\"new\"} ").append(ConnectionStats.SENDS_NEW_CONNECTION.sum()).append('\n');
+        counter(out, "fomo_dns_lookups_total", "DNS lookups through CachingDns", ConnectionStats.DNS_LOOKUPS.sum());
+        counter(out, "fomo_dns_cache_hits_total", "DNS lookups answered from the cache", ConnectionStats.DNS_CACHE_HITS.sum());
+        counter(out, "fomo_keepalive_probes_total", "Keep-alive probes sent", ConnectionStats.PROBES_SENT.sum());
+        counter(out, "fomo_keepalive_probe_failures_total", "Keep-alive probes that failed", ConnectionStats.PROBES_FAILED.sum());
+
+        header(out, "fomo_stage_latency_seconds", "Per-stage latency of a notification's first send attempt", "histogram");
+        LatencyHistogram[] stages = PipelineMetrics.stages();
+        for (LatencyHistogram stage : stages) {
+            histogram(out, "fomo_stage_latency_seconds", "stage=\"" + labelOf(stage.getName()) + "\"", stage);
+        }
+
+        header(out, "fomo_attempt_latency_seconds", "Enqueue to response latency by attempt number", "histogram");
+        for (int attempt = 0; attempt < DeliveryStats.ATTEMPT_NAMES.length; attempt++) {
+            histogram(out, "fomo_attempt_latency_seconds", "attempt=\"" + DeliveryStats.ATTEMPT_NAMES[attempt] + "\"",
+                    PipelineMetrics.attempt(attempt));
+        }
+
+        header(out, "fomo_log_write_seconds", "Time to append an entry to the notification log", "histogram");
+        histogram(out, "fomo_log_write_seconds", null, PipelineMetrics.LOG_WRITE);
+
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void laneSample(StringBuilder out, String name, DispatchScheduler.Lane lane, int value) {
+        out.append(name).append("{lane=\"").append(lane.name().toLowerCase(Locale.US)).append("\"} ")
+                .append(value).append('\n');
+    }
+
+    // Cumulative `le` buckets taken from the histogram's finer log-linear buckets
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels != null ? labels + "," : "";
+        for (double bound : BUCKETS_SECONDS) {
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(format(bound)).append("\"} ")
+                    .append(histogram.countAtOrBelow((long) (bound * 1_000_000))).append('\n');
+        }
+        long count = histogram.count();
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(count).append('\n');
+        String suffix = labels != null ? "{" + labels + "}" : "";
+        out.append(name).append("_sum").append(suffix).append(' ').append(format(histogram.sumMicros() / 1_000_000.0)).append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(count).append('\n');
+    }
+
+    // "posted -> callback" -> "posted_to_callback"
+    private static String labelOf(String name) {
+        return name.replace(" -> ", "_to_").replace(' ', '_');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.US, "%.6f", value).replaceAll("0+$", "");
+    }
+}
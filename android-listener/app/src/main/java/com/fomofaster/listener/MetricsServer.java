@@ -0,0 +1,141 @@
+package com.fomofaster.listener;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+// Minimal HTTP server on 127.0.0.1 that answers GET /metrics with MetricsExporter's output.
+//
+// Meant to be scraped from the host through `adb forward tcp:<port> tcp:<port>` (9464 unless changed in
+// settings), without involving the backend. It's bound to loopback only, handles one connection at a
+// time on its own thread and closes every connection after the response - plenty for a scraper polling
+// every few seconds.
+public class MetricsServer {
+    private static final String TAG = "MetricsServer";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int READ_TIMEOUT_MS = 2000;
+
+    private final int port;
+    private final MetricsExporter exporter;
+
+    private ServerSocket serverSocket;
+    private Thread thread;
+
+    public MetricsServer(int port, MetricsExporter exporter) {
+        this.port = port;
+        this.exporter = exporter;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        // Binding happens on the server thread, not the caller's (usually the main thread)
+        thread = new Thread(this::serve, "metrics-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (serverSocket != null) {
+            closeQuietly(serverSocket);
+            serverSocket = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void serve() {
+        ServerSocket socket;
+        try {
+            socket = new ServerSocket(port, 4, InetAddress.getByName("127.0.0.1"));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not bind metrics server to port " + port, e);
+            return;
+        }
+        synchronized (this) {
+            // stop() ran while we were binding and had no socket to close yet
+            if (thread != Thread.currentThread()) {
+                closeQuietly(socket);
+                return;
+            }
+            serverSocket = socket;
+        }
+        Log.d(TAG, "Serving metrics on 127.0.0.1:" + port + "/metrics");
+
+        while (!Thread.currentThread().isInterrupted()) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (IOException e) {
+                // Closed by stop()
+                break;
+            }
+            try {
+                handle(client);
+            } catch (IOException e) {
+                Log.d(TAG, "Metrics request failed: " + e.getMessage());
+            } finally {
+                try {
+                    client.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(ServerSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close metrics server socket", e);
+        }
+    }
+
+    private void handle(Socket client) throws IOException {
+        client.setSoTimeout(READ_TIMEOUT_MS);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), UTF_8));
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        // Skip the headers, nothing in them matters here
+        String header;
+        while ((header = reader.readLine()) != null && !header.isEmpty()) {
+            // ignore
+        }
+
+        String[] parts = requestLine.split(" ");
+        String path = parts.length > 1 ? parts[1] : "";
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        if (!"GET".equals(parts[0]) || !("/metrics".equals(path) || "/".equals(path))) {
+            respond(client.getOutputStream(), "404 Not Found", "text/plain; charset=utf-8", "Not found\n");
+            return;
+        }
+        respond(client.getOutputStream(), "200 OK", MetricsExporter.CONTENT_TYPE, exporter.scrape());
+    }
+
+    private static void respond(OutputStream out, String status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + bytes.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(head.getBytes(UTF_8));
+        out.write(bytes);
+        out.flush();
+    }
+}
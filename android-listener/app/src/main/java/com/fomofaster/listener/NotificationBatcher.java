@@ -0,0 +1,92 @@
+package com.fomofaster.listener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Coalesces notifications that arrive close together into a single request.
+//
+// A notification that arrives when no burst is in progress is sent on its own straight away, so an
+// isolated trade never waits for the linger timer. Anything arriving within lingerMs of the previous
+// notification is collected and flushed together once the linger time passes or maxBatchSize is hit.
+public class NotificationBatcher {
+
+    public interface Sink {
+        void sendSingle(OutboxEntry entry);
+
+        void sendBatch(List<OutboxEntry> entries);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Sink sink;
+    private final long lingerMs;
+    private final int maxBatchSize;
+
+    private List<OutboxEntry> openBatch = new ArrayList<>();
+    private ScheduledFuture<?> pendingFlush;
+    private long lastArrivalNanos;
+
+    public NotificationBatcher(ScheduledExecutorService scheduler, Sink sink, long lingerMs, int maxBatchSize) {
+        this.scheduler = scheduler;
+        this.sink = sink;
+        this.lingerMs = Math.max(0, lingerMs);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public void submit(OutboxEntry entry) {
+        List<OutboxEntry> toFlush = null;
+        boolean sendNow = false;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            boolean inBurst = now - lastArrivalNanos < TimeUnit.MILLISECONDS.toNanos(lingerMs);
+            lastArrivalNanos = now;
+
+            if (lingerMs == 0 || maxBatchSize == 1 || (!inBurst && openBatch.isEmpty())) {
+                // Fast path: nothing else going on, don't make this one wait
+                sendNow = true;
+            } else {
+                openBatch.add(entry);
+                if (openBatch.size() >= maxBatchSize) {
+                    toFlush = takeBatch();
+                } else if (pendingFlush == null) {
+                    pendingFlush = scheduler.schedule(this::flush, lingerMs, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        if (sendNow) {
+            sink.sendSingle(entry);
+        } else if (toFlush != null) {
+            dispatch(toFlush);
+        }
+    }
+
+    public void flush() {
+        List<OutboxEntry> toFlush;
+        synchronized (this) {
+            toFlush = takeBatch();
+        }
+        dispatch(toFlush);
+    }
+
+    private List<OutboxEntry> takeBatch() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        List<OutboxEntry> batch = openBatch;
+        openBatch = new ArrayList<>();
+        return batch;
+    }
+
+    private void dispatch(List<OutboxEntry> batch) {
+        if (batch.size() == 1) {
+            sink.sendSingle(batch.get(0));
+        } else if (!batch.isEmpty()) {
+            sink.sendBatch(batch);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.fomofaster.listener;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Decides which posted notifications get forwarded, and by which rule.
+//
+// Rules are compiled once into a table keyed by package name, so a notification from an app nobody
+// listens to costs one HashMap lookup (String caches its hash) and nothing else. Within a package,
+// rules are tried in configuration order and the first match wins. Immutable - the listener swaps in a
+// new instance when the configuration changes.
+public class NotificationFilter {
+    public static final String FOMO_PACKAGE_NAME = "family.fomo.app";
+
+    // What the listener did before rules were configurable: every FOMO notification, default backend
+    public static final String DEFAULT_RULES_JSON = "[{\"name\":\"fomo\",\"package\":\"" + FOMO_PACKAGE_NAME + "\"}]";
+
+    private final Map<String, NotificationRule[]> rulesByPackage;
+    private final List<NotificationRule> rules;
+
+    public NotificationFilter(List<NotificationRule> rules) {
+        Map<String, List<NotificationRule>> grouped = new HashMap<>();
+        for (NotificationRule rule : rules) {
+            List<NotificationRule> forPackage = grouped.get(rule.getPackageName());
+            if (forPackage == null) {
+                forPackage = new ArrayList<>();
+                grouped.put(rule.getPackageName(), forPackage);
+            }
+            forPackage.add(rule);
+        }
+
+        rulesByPackage = new HashMap<>();
+        for (Map.Entry<String, List<NotificationRule>> entry : grouped.entrySet()) {
+            rulesByPackage.put(entry.getKey(), entry.getValue().toArray(new NotificationRule[0]));
+        }
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+    }
+
+    public static NotificationFilter parse(String json) throws JSONException {
+        JSONArray array = new JSONArray(json);
+        List<NotificationRule> rules = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            rules.add(NotificationRule.fromJSON(array.getJSONObject(i), i));
+        }
+        return new NotificationFilter(rules);
+    }
+
+    public static NotificationFilter defaults() {
+        try {
+            return parse(DEFAULT_RULES_JSON);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Cheap pre-check before any notification extras are read. Null if no rule covers the package.
+    public NotificationRule[] rulesFor(String packageName) {
+        return packageName != null ? rulesByPackage.get(packageName) : null;
+    }
+
+    // First matching rule, or null to drop the notification
+    public static NotificationRule firstMatch(NotificationRule[] candidates, String channelId, String category,
+                                              CharSequence title, CharSequence text) {
+        for (NotificationRule rule : candidates) {
+            if (rule.matches(channelId, category, title, text)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    public List<NotificationRule> getRules() {
+        return rules;
+    }
+}
@@ -0,0 +1,114 @@
+package com.fomofaster.listener;
+
+import android.app.Notification;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Pulls the individual entries out of a notification that bundles several of them:
+//   InboxStyle       EXTRA_TEXT_LINES, one trade per line
+//   MessagingStyle   EXTRA_MESSAGES, one Bundle per message ("text" is the trade)
+//   BigTextStyle     EXTRA_BIG_TEXT with several lines
+// Returns null for an ordinary notification, which the listener handles as title + text.
+public final class NotificationLines {
+    // Keys of the per-message Bundles in EXTRA_MESSAGES (Notification.MessagingStyle.Message)
+    private static final String MESSAGE_TEXT_KEY = "text";
+    private static final String MESSAGE_TIME_KEY = "time";
+
+    // One entry. Two trades can read exactly the same, so `stamp` tells them apart: the message's own
+    // timestamp for MessagingStyle, otherwise how many identical lines came before this one.
+    public static final class Line {
+        public final String text;
+        public final long stamp;
+
+        Line(String text, long stamp) {
+            this.text = text;
+            this.stamp = stamp;
+        }
+    }
+
+    private NotificationLines() {
+    }
+
+    public static List<Line> expand(Notification notification) {
+        Bundle extras = notification.extras;
+        if (extras == null) {
+            return null;
+        }
+
+        List<Line> lines = new ArrayList<>();
+
+        Parcelable[] messages = messagesOf(extras);
+        if (messages != null) {
+            for (Parcelable message : messages) {
+                if (message instanceof Bundle) {
+                    Bundle bundle = (Bundle) message;
+                    long time = bundle.getLong(MESSAGE_TIME_KEY);
+                    addLine(lines, bundle.getCharSequence(MESSAGE_TEXT_KEY), time != 0 ? time : -1);
+                }
+            }
+        }
+
+        if (lines.isEmpty()) {
+            CharSequence[] textLines = extras.getCharSequenceArray(Notification.EXTRA_TEXT_LINES);
+            if (textLines != null) {
+                for (CharSequence line : textLines) {
+                    addLine(lines, line, -1);
+                }
+            }
+        }
+
+        if (lines.isEmpty()) {
+            CharSequence bigText = extras.getCharSequence(Notification.EXTRA_BIG_TEXT);
+            if (bigText != null && indexOf(bigText, '\n') >= 0) {
+                for (String line : bigText.toString().split("\n")) {
+                    addLine(lines, line, -1);
+                }
+            }
+        }
+
+        return lines.isEmpty() ? null : lines;
+    }
+
+    // The typed getter replaces the untyped one from API 33. Asking for Parcelable rather than Bundle
+    // matches the array type the platform stores, which the API 33 implementation casts to as-is.
+    @SuppressWarnings("deprecation")
+    private static Parcelable[] messagesOf(Bundle extras) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            return extras.getParcelableArray(Notification.EXTRA_MESSAGES, Parcelable.class);
+        }
+        return extras.getParcelableArray(Notification.EXTRA_MESSAGES);
+    }
+
+    // stamp < 0: the entry has no timestamp of its own, number it among identical lines instead
+    private static void addLine(List<Line> lines, CharSequence line, long stamp) {
+        if (line == null) {
+            return;
+        }
+        String trimmed = line.toString().trim();
+        if (trimmed.isEmpty()) {
+            return;
+        }
+        if (stamp < 0) {
+            stamp = 0;
+            for (Line earlier : lines) {
+                if (earlier.text.equals(trimmed)) {
+                    stamp++;
+                }
+            }
+        }
+        lines.add(new Line(trimmed, stamp));
+    }
+
+    private static int indexOf(CharSequence s, char c) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
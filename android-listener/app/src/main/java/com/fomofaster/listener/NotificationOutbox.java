@@ -0,0 +1,346 @@
+package com.fomofaster.listener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Append-only, segmented on-disk outbox for notifications the backend hasn't acknowledged yet.
+// Every notification is appended here before the first send attempt and stays until ack() is called.
+// Records go straight to the OS (so they survive a process kill) and are fsync'd in batches by sync(),
+// which the listener calls on a timer. A segment file is deleted once all its entries are acked.
+//
+// Record layout: [int bodyLength][int crc32(body)][body], body = [byte type][fields...]
+// A torn record at the tail of a segment (crash mid-write) fails the length/CRC check and is ignored.
+//
+// Segments are only ever deleted from the head: an ACK record can live in a later segment than the
+// entry it acknowledges, so a segment is safe to drop once every older segment is gone too.
+//
+// Entries are numbered when they are first sent (assignSequence), one sequence per route, so the
+// backend of a route sees every number and a gap means a notification was lost on the way. Every new
+// segment starts with a NEXT_SEQUENCE record per route, and the newest segment is never deleted, so
+// numbering carries on across restarts even after everything older has been acked and dropped.
+public class NotificationOutbox {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final long MAX_SEGMENT_BYTES = 256 * 1024;
+
+    // [long id]
+    private static final byte RECORD_ACK = 2;
+    // [long id][long postTime][utf key][long string message][long idempotencyKey][utf route]
+    private static final byte RECORD_ENTRY = 3;
+    // [long id][utf route][long sequence]: the number an entry got when it was first sent
+    private static final byte RECORD_SEQUENCE = 4;
+    // [utf route][long next]: next sequence number of a route, at the start of every segment
+    private static final byte RECORD_NEXT_SEQUENCE = 5;
+
+    private final File dir;
+
+    // Unacknowledged entries in append (= delivery) order
+    private final LinkedHashMap<Long, OutboxEntry> pending = new LinkedHashMap<>();
+
+    private long nextId = 1;
+    // Next sequence number per route name; routes not in here start at 1
+    private final Map<String, Long> nextSequences = new HashMap<>();
+    private long firstSegmentId;
+    private long currentSegmentId;
+    private long currentSegmentBytes;
+    private FileOutputStream segmentOut;
+    private boolean dirty;
+
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(512);
+    private final CRC32 crc = new CRC32();
+
+    public NotificationOutbox(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create outbox directory " + dir);
+        }
+        recover();
+    }
+
+    // Persists a new notification and returns it with its outbox id assigned.
+    public synchronized OutboxEntry append(long postTime, String notificationKey, String message, long idempotencyKey,
+                                           String route) throws IOException {
+        OutboxEntry entry = new OutboxEntry(nextId++, postTime, notificationKey, message, idempotencyKey, route);
+
+        DataOutputStream body = beginRecord(RECORD_ENTRY);
+        body.writeLong(entry.getId());
+        body.writeLong(entry.getPostTime());
+        body.writeUTF(entry.getNotificationKey() != null ? entry.getNotificationKey() : "");
+        writeLongString(body, entry.getMessage());
+        body.writeLong(idempotencyKey);
+        body.writeUTF(route);
+        writeRecord();
+
+        entry.segmentId = currentSegmentId;
+        pending.put(entry.getId(), entry);
+        return entry;
+    }
+
+    // Marks an entry as delivered. Segments older than the oldest pending entry are deleted.
+    public synchronized void ack(long id) throws IOException {
+        OutboxEntry entry = pending.remove(id);
+        if (entry == null) {
+            return;
+        }
+
+        DataOutputStream body = beginRecord(RECORD_ACK);
+        body.writeLong(id);
+        writeRecord();
+
+        deleteDrainedSegments();
+    }
+
+    // Gives a pending entry the next sequence number of the route it is sent on, unless it already has
+    // one: a retry, a failover or a resend after a restart carries the number of the first attempt.
+    public synchronized void assignSequence(OutboxEntry entry, String route) throws IOException {
+        if (entry.sequence != 0 || !pending.containsKey(entry.getId())) {
+            return;
+        }
+        Long next = nextSequences.get(route);
+        long sequence = next != null ? next : 1;
+
+        DataOutputStream body = beginRecord(RECORD_SEQUENCE);
+        body.writeLong(entry.getId());
+        body.writeUTF(route);
+        body.writeLong(sequence);
+        writeRecord();
+
+        nextSequences.put(route, sequence + 1);
+        entry.sequence = sequence;
+    }
+
+    public synchronized boolean isPending(long id) {
+        return pending.containsKey(id);
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    // Snapshot of pending entries, oldest first.
+    public synchronized List<OutboxEntry> pendingEntries() {
+        return new ArrayList<>(pending.values());
+    }
+
+    // Oldest pending entry, or null if the outbox is empty.
+    public synchronized OutboxEntry oldest() {
+        Iterator<OutboxEntry> it = pending.values().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    // Flushes appended records to the storage device (group commit).
+    public synchronized void sync() throws IOException {
+        if (dirty && segmentOut != null) {
+            segmentOut.getFD().sync();
+            dirty = false;
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (segmentOut != null) {
+            sync();
+            segmentOut.close();
+            segmentOut = null;
+        }
+    }
+
+    private DataOutputStream beginRecord(byte type) throws IOException {
+        recordBuffer.reset();
+        DataOutputStream body = new DataOutputStream(recordBuffer);
+        body.writeByte(type);
+        return body;
+    }
+
+    private void writeRecord() throws IOException {
+        if (segmentOut == null || currentSegmentBytes >= MAX_SEGMENT_BYTES) {
+            rollSegment();
+        }
+
+        appendRecord(recordBuffer.toByteArray());
+    }
+
+    private void appendRecord(byte[] body) throws IOException {
+        crc.reset();
+        crc.update(body, 0, body.length);
+
+        byte[] record = new byte[8 + body.length];
+        putInt(record, 0, body.length);
+        putInt(record, 4, (int) crc.getValue());
+        System.arraycopy(body, 0, record, 8, body.length);
+
+        // Single write() straight to the file descriptor: survives a process kill, fsync'd later
+        segmentOut.write(record);
+        currentSegmentBytes += record.length;
+        dirty = true;
+    }
+
+    private void rollSegment() throws IOException {
+        if (segmentOut != null) {
+            segmentOut.getFD().sync();
+            segmentOut.close();
+        }
+        currentSegmentId++;
+        currentSegmentBytes = 0;
+        segmentOut = new FileOutputStream(segmentFile(currentSegmentId), true);
+        dirty = false;
+
+        // Not through recordBuffer: this can run in the middle of writeRecord
+        for (Map.Entry<String, Long> next : nextSequences.entrySet()) {
+            ByteArrayOutputStream marker = new ByteArrayOutputStream(32);
+            DataOutputStream body = new DataOutputStream(marker);
+            body.writeByte(RECORD_NEXT_SEQUENCE);
+            body.writeUTF(next.getKey());
+            body.writeLong(next.getValue());
+            appendRecord(marker.toByteArray());
+        }
+
+        deleteDrainedSegments();
+    }
+
+    private void deleteDrainedSegments() {
+        OutboxEntry head = oldest();
+        long keepFrom = head != null ? head.segmentId : currentSegmentId;
+        while (firstSegmentId < keepFrom) {
+            //noinspection ResultOfMethodCallIgnored
+            segmentFile(firstSegmentId).delete();
+            firstSegmentId++;
+        }
+    }
+
+    private void recover() throws IOException {
+        long[] segmentIds = listSegmentIds();
+        for (long segmentId : segmentIds) {
+            replaySegment(segmentId);
+            currentSegmentId = Math.max(currentSegmentId, segmentId);
+        }
+        firstSegmentId = segmentIds.length > 0 ? segmentIds[0] : 1;
+
+        // Always start appending to a fresh segment so a torn tail is never appended to
+        rollSegment();
+    }
+
+    private void replaySegment(long segmentId) throws IOException {
+        InputStream in = new FileInputStream(segmentFile(segmentId));
+        try {
+            DataInputStream data = new DataInputStream(new java.io.BufferedInputStream(in));
+            while (true) {
+                byte[] body;
+                try {
+                    int length = data.readInt();
+                    int expectedCrc = data.readInt();
+                    if (length <= 0 || length > MAX_SEGMENT_BYTES) {
+                        break;
+                    }
+                    body = new byte[length];
+                    data.readFully(body);
+                    crc.reset();
+                    crc.update(body, 0, body.length);
+                    if ((int) crc.getValue() != expectedCrc) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                applyRecord(segmentId, body);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void applyRecord(long segmentId, byte[] bytes) throws IOException {
+        DataInputStream body = new DataInputStream(new java.io.ByteArrayInputStream(bytes));
+        byte type = body.readByte();
+        if (type == RECORD_ENTRY) {
+            long id = body.readLong();
+            long postTime = body.readLong();
+            String key = body.readUTF();
+            String message = readLongString(body);
+            long idempotencyKey = body.readLong();
+            String route = body.readUTF();
+            OutboxEntry entry = new OutboxEntry(id, postTime, key.isEmpty() ? null : key, message, idempotencyKey, route);
+            entry.segmentId = segmentId;
+            pending.put(id, entry);
+            nextId = Math.max(nextId, id + 1);
+        } else if (type == RECORD_ACK) {
+            pending.remove(body.readLong());
+        } else if (type == RECORD_SEQUENCE) {
+            OutboxEntry entry = pending.get(body.readLong());
+            String route = body.readUTF();
+            long sequence = body.readLong();
+            if (entry != null) {
+                entry.sequence = sequence;
+            }
+            advanceSequence(route, sequence + 1);
+        } else if (type == RECORD_NEXT_SEQUENCE) {
+            advanceSequence(body.readUTF(), body.readLong());
+        }
+    }
+
+    private void advanceSequence(String route, long next) {
+        Long current = nextSequences.get(route);
+        if (current == null || current < next) {
+            nextSequences.put(route, next);
+        }
+    }
+
+    private long[] listSegmentIds() {
+        String[] names = dir.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] ids = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    ids[count++] = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException ignored) {
+                    // Not one of ours
+                }
+            }
+        }
+        long[] result = Arrays.copyOf(ids, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private File segmentFile(long segmentId) {
+        return new File(dir, SEGMENT_PREFIX + segmentId + SEGMENT_SUFFIX);
+    }
+
+    // writeUTF is capped at 64KB, notification text can in theory be longer
+    private static void writeLongString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
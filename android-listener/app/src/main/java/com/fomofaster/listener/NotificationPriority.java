@@ -0,0 +1,59 @@
+package com.fomofaster.listener;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+// Content-based send priority: trades by followed traders and trades above a size threshold jump ahead
+// of other requests in the same DispatchScheduler lane. Lanes still come first - a big trade being
+// retried doesn't overtake a fresh one.
+public class NotificationPriority {
+    public static final int NORMAL = 0;
+    public static final int LARGE_TRADE = 1;
+    public static final int FOLLOWED_TRADER = 2;
+
+    public static final NotificationPriority NONE = new NotificationPriority(new HashSet<String>(), Double.NaN);
+
+    private final Set<String> followedTraders;
+    private final double minLargeAmount;
+
+    private NotificationPriority(Set<String> followedTraders, double minLargeAmount) {
+        this.followedTraders = followedTraders;
+        this.minLargeAmount = minLargeAmount;
+    }
+
+    // traders: handles separated by commas or whitespace, with or without '@' (case-insensitive).
+    // minLargeAmount: trade size in USD from which a trade counts as large, <= 0 to disable.
+    public static NotificationPriority parse(String traders, double minLargeAmount) {
+        Set<String> followed = new HashSet<>();
+        if (traders != null) {
+            for (String part : traders.split("[,\\s]+")) {
+                String handle = part.startsWith("@") ? part.substring(1) : part;
+                if (!handle.isEmpty()) {
+                    followed.add(handle.toLowerCase(Locale.US));
+                }
+            }
+        }
+        return new NotificationPriority(followed, minLargeAmount > 0 ? minLargeAmount : Double.NaN);
+    }
+
+    public boolean isEnabled() {
+        return !followedTraders.isEmpty() || !Double.isNaN(minLargeAmount);
+    }
+
+    // Uses the fields structured mode already extracted, otherwise parses the message here
+    public int of(OutboxEntry entry) {
+        if (!isEnabled()) {
+            return NORMAL;
+        }
+        ParsedTrade trade = entry.trade != null ? entry.trade : TradeParser.parse(entry.getMessage());
+        int priority = NORMAL;
+        if (trade.getTrader() != null && followedTraders.contains(trade.getTrader().toLowerCase(Locale.US))) {
+            priority += FOLLOWED_TRADER;
+        }
+        if (!Double.isNaN(trade.getAmount()) && trade.getAmount() >= minLargeAmount) {
+            priority += LARGE_TRADE;
+        }
+        return priority;
+    }
+}
@@ -0,0 +1,165 @@
+package com.fomofaster.listener;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+// One compiled filter rule: which notifications of a package to forward, and where to.
+//
+// JSON form (everything but "package" is optional; a list matches if any entry matches):
+//   {"name": "fomo-trades", "package": "family.fomo.app", "channels": ["trades"],
+//    "categories": ["social"], "titleContains": ["..."], "textContains": ["bought", "sold"],
+//    "backend": "https://a.example, https://b.example"}
+// Title/text matching is a case-insensitive substring check. The keywords are lower-cased once here,
+// so matches() compares chars in place and never allocates.
+public class NotificationRule {
+    private final String name;
+    private final String packageName;
+    private final String[] channels;
+    private final String[] categories;
+    private final String[] titleContains;
+    private final String[] textContains;
+    private final String backend;
+
+    public NotificationRule(String name, String packageName, String[] channels, String[] categories,
+                            String[] titleContains, String[] textContains, String backend) {
+        this.name = name;
+        this.packageName = packageName;
+        this.channels = channels;
+        this.categories = categories;
+        this.titleContains = lowerCase(titleContains);
+        this.textContains = lowerCase(textContains);
+        this.backend = backend;
+    }
+
+    public static NotificationRule fromJSON(JSONObject json, int index) throws JSONException {
+        String packageName = json.getString("package");
+        return new NotificationRule(
+                json.optString("name", packageName + "#" + index),
+                packageName,
+                optStrings(json, "channels"),
+                optStrings(json, "categories"),
+                optStrings(json, "titleContains"),
+                optStrings(json, "textContains"),
+                json.optString("backend", ""));
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("name", name);
+        json.put("package", packageName);
+        putStrings(json, "channels", channels);
+        putStrings(json, "categories", categories);
+        putStrings(json, "titleContains", titleContains);
+        putStrings(json, "textContains", textContains);
+        if (!backend.isEmpty()) {
+            json.put("backend", backend);
+        }
+        return json;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    // Backend base URL(s) for this rule's notifications, empty to use the default backend
+    public String getBackend() {
+        return backend;
+    }
+
+    // Package is already known to match (NotificationFilter dispatches on it)
+    public boolean matches(String channelId, String category, CharSequence title, CharSequence text) {
+        return anyEquals(channels, channelId)
+                && anyEquals(categories, category)
+                && anyContained(titleContains, title)
+                && anyContained(textContains, text);
+    }
+
+    // null = no constraint
+    private static boolean anyEquals(String[] allowed, String value) {
+        if (allowed == null) {
+            return true;
+        }
+        if (value == null) {
+            return false;
+        }
+        for (String candidate : allowed) {
+            if (candidate.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyContained(String[] keywords, CharSequence haystack) {
+        if (keywords == null) {
+            return true;
+        }
+        if (haystack == null) {
+            return false;
+        }
+        for (String keyword : keywords) {
+            if (containsLowerCase(haystack, keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Case-insensitive indexOf over a CharSequence (a Spanned title shouldn't have to be copied to a String)
+    private static boolean containsLowerCase(CharSequence haystack, String lowerNeedle) {
+        int last = haystack.length() - lowerNeedle.length();
+        for (int i = 0; i <= last; i++) {
+            int j = 0;
+            while (j < lowerNeedle.length()
+                    && Character.toLowerCase(haystack.charAt(i + j)) == lowerNeedle.charAt(j)) {
+                j++;
+            }
+            if (j == lowerNeedle.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] lowerCase(String[] values) {
+        if (values == null) {
+            return null;
+        }
+        String[] lower = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            lower[i] = values[i].toLowerCase(Locale.ROOT);
+        }
+        return lower;
+    }
+
+    // Missing or empty list = no constraint
+    private static String[] optStrings(JSONObject json, String key) throws JSONException {
+        JSONArray array = json.optJSONArray(key);
+        if (array == null || array.length() == 0) {
+            return null;
+        }
+        String[] values = new String[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.getString(i);
+        }
+        return values;
+    }
+
+    private static void putStrings(JSONObject json, String key, String[] values) throws JSONException {
+        if (values == null) {
+            return;
+        }
+        JSONArray array = new JSONArray();
+        for (String value : values) {
+            array.put(value);
+        }
+        json.put(key, array);
+    }
+}
@@ -0,0 +1,1068 @@
+package com.fomofaster.listener;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// The listener's delivery pipeline, free of Android APIs so it can also be driven on a plain JVM
+// (see the bench module's ReplayHarness).
+//
+// A submitted notification is de-duplicated, appended to the outbox, then sent over the stream, the
+// batcher or a single POST, on the route its filter rule picked. Failures are retried with backoff
+// until the TTL runs out, parked in the outbox while the route's circuit is open, and replayed by
+// drainOutbox() / flushBacklog(). Everything the UI needs to hear about goes through Events.
+public class NotificationSender {
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    // Keeps a catch-up request comparable in size to an ordinary batch
+    private static final int CATCH_UP_BATCH_SIZE = 50;
+
+    // Concurrent requests per DispatchScheduler lane unless configured otherwise. With an adaptive limit
+    // these are only caps - the adaptive limit decides how many requests all lanes get together.
+    public static final int DEFAULT_FRESH_CONCURRENCY = 16;
+    public static final int DEFAULT_RETRY_CONCURRENCY = 4;
+    public static final int DEFAULT_REPLAY_CONCURRENCY = 4;
+    // Requests each lane may hold waiting for a slot, and retries waiting on a backoff timer. 0 = unbounded:
+    // a shed notification is acked out of the outbox and never sent, so shedding is opt-in like the freshness TTL
+    public static final int DEFAULT_QUEUE_CAPACITY = 0;
+
+    public interface Events {
+        // Acknowledged by the backend (the listener dismisses it from the tray)
+        void onDelivered(OutboxEntry entry);
+
+        // User-visible log entry: SUCCESS / RETRYING / QUEUED / FAILED ...
+        void onLogEntry(String status, String message, String detail);
+
+        void debug(String message);
+
+        void error(String message, Throwable t);
+    }
+
+    private final ScheduledExecutorService executor;
+    private final NotificationOutbox outbox;
+    // Swapped as a whole by setRoutes, so a send never sees the default route of one config and the
+    // rule routes of another
+    private volatile RouteTable routeTable;
+    private final RetryPolicy retryPolicy;
+    private final RecentKeyCache recentKeys;
+    private final Events events;
+
+    private PayloadCodec payloadCodec = new JsonPayloadCodec();
+    private int gzipThresholdBytes = -1;
+    private boolean structuredEnabled;
+    private NotificationBatcher batcher;
+    private volatile BackendSocket backendSocket;
+    private NotificationPriority priority = NotificationPriority.NONE;
+    private AdaptiveConcurrencyLimit concurrencyLimit;
+    // 0: payloads carry no device id / clock offset
+    private long deviceId;
+    private ClockOffsetEstimator clock;
+
+    // Every HTTP send goes through here: first attempts, retries and replayed backlog each get their own lane
+    private final DispatchScheduler scheduler = new DispatchScheduler(
+            DEFAULT_FRESH_CONCURRENCY, DEFAULT_RETRY_CONCURRENCY, DEFAULT_REPLAY_CONCURRENCY);
+
+    private int queueCapacity = Integer.MAX_VALUE;
+    private boolean coalescing;
+    // 0: notifications are only dropped once the retry policy's TTL runs out
+    private long freshnessTtlMs;
+
+    // Outbox ids currently being sent (by the live retry chain or the drain loop)
+    private final Set<Long> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    // Retries waiting on their backoff timer, so they can be fired early when the network comes back
+    private final Map<Long, PendingRetry> pendingRetries = new ConcurrentHashMap<>();
+
+    private static class RouteTable {
+        final BackendRoute defaultRoute;
+        final Map<String, BackendRoute> byRule;
+
+        RouteTable(BackendRoute defaultRoute, Map<String, BackendRoute> byRule) {
+            this.defaultRoute = defaultRoute;
+            this.byRule = byRule;
+        }
+    }
+
+    private static class PendingRetry {
+        final OutboxEntry entry;
+        final int attempt;
+
+        PendingRetry(OutboxEntry entry, int attempt) {
+            this.entry = entry;
+            this.attempt = attempt;
+        }
+    }
+    private volatile boolean draining;
+
+    // outbox may be null (notifications are then only kept in memory). Routes are keyed by rule name.
+    public NotificationSender(ScheduledExecutorService executor, NotificationOutbox outbox, BackendRoute defaultRoute,
+                              Map<String, BackendRoute> routes, RetryPolicy retryPolicy, RecentKeyCache recentKeys,
+                              Events events) {
+        this.executor = executor;
+        this.outbox = outbox;
+        this.routeTable = new RouteTable(defaultRoute, routes);
+        this.retryPolicy = retryPolicy;
+        this.recentKeys = recentKeys;
+        this.events = events;
+        setLoadShedding(DEFAULT_QUEUE_CAPACITY, DispatchScheduler.Overflow.DROP_OLDEST, 0);
+    }
+
+    // New backends or filter rules. Requests already on the network finish on the routes they started
+    // on; everything sent from now on - queued requests, retries and the outbox backlog included - goes
+    // through the new ones. Routes are looked up by rule name, so entries of a removed rule fall back to
+    // the default route.
+    public void setRoutes(BackendRoute defaultRoute, Map<String, BackendRoute> routes) {
+        routeTable = new RouteTable(defaultRoute, routes);
+    }
+
+    public void setPayloadCodec(PayloadCodec payloadCodec, int gzipThresholdBytes) {
+        this.payloadCodec = payloadCodec;
+        this.gzipThresholdBytes = gzipThresholdBytes;
+    }
+
+    public void setStructuredEnabled(boolean structuredEnabled) {
+        this.structuredEnabled = structuredEnabled;
+    }
+
+    public void setLaneConcurrency(int fresh, int retry, int replay) {
+        scheduler.setLimits(fresh, retry, replay);
+    }
+
+    // queueCapacity <= 0 leaves the lanes unbounded; freshnessTtlMs <= 0 turns staleness shedding off
+    public void setLoadShedding(int queueCapacity, DispatchScheduler.Overflow overflow, long freshnessTtlMs) {
+        this.queueCapacity = queueCapacity > 0 ? queueCapacity : Integer.MAX_VALUE;
+        this.coalescing = overflow == DispatchScheduler.Overflow.COALESCE;
+        this.freshnessTtlMs = Math.max(0, freshnessTtlMs);
+        scheduler.setCapacity(queueCapacity, overflow);
+    }
+
+    // null: the lanes' own limits are the only bound
+    public void setConcurrencyLimit(AdaptiveConcurrencyLimit concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+        scheduler.setTotalLimit(concurrencyLimit);
+    }
+
+    public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    public void setPriority(NotificationPriority priority) {
+        this.priority = priority;
+    }
+
+    // Identifies this device to the backend when several listeners forward the same notifications.
+    // clock (may be null) supplies the device -> backend clock offset sent along with each post time.
+    public void setDeviceOrigin(long deviceId, ClockOffsetEstimator clock) {
+        this.deviceId = deviceId;
+        this.clock = clock;
+    }
+
+    public DispatchScheduler getScheduler() {
+        return scheduler;
+    }
+
+    // Anything left over from a previous run: remember its key (so a re-post isn't sent twice) and
+    // leave it for the drain loop to replay
+    public void recoverOutbox() {
+        if (outbox == null) {
+            return;
+        }
+        for (OutboxEntry entry : outbox.pendingEntries()) {
+            recentKeys.add(entry.getIdempotencyKey());
+            if (structuredEnabled) {
+                entry.trade = TradeParser.parse(entry.getMessage());
+            }
+            entry.priority = priority.of(entry);
+            stampOrigin(entry);
+        }
+    }
+
+    // Taken once when the entry is accepted, so every retry reports the same corrected post time
+    private void stampOrigin(OutboxEntry entry) {
+        entry.deviceId = deviceId;
+        ClockOffsetEstimator estimator = clock;
+        if (estimator != null && estimator.isKnown()) {
+            entry.clockOffsetMs = estimator.offsetMs();
+        }
+    }
+
+    public void enableBatching(int lingerMs, int maxBatchSize) {
+        batcher = new NotificationBatcher(executor, new NotificationBatcher.Sink() {
+            @Override
+            public void sendSingle(OutboxEntry entry) {
+                sendToBackendWithRetry(entry, 0);
+            }
+
+            @Override
+            public void sendBatch(List<OutboxEntry> entries) {
+                sendBatchesByRoute(entries, DispatchScheduler.Lane.FRESH);
+            }
+        }, lingerMs, maxBatchSize);
+    }
+
+    public void enableStreaming(OkHttpClient client) {
+        BackendEndpoint primary = routeTable.defaultRoute.pool.primary();
+        if (primary == null) {
+            events.error("No valid backend URL, streaming disabled", null);
+            return;
+        }
+
+        // The stream carries default-route notifications only, and stays on whichever backend was best when it
+        // connected; the HTTP paths fail over per request
+        backendSocket = new BackendSocket(client, primary.streamUrl.toString(), executor, new BackendSocket.Listener() {
+            @Override
+            public void onConnected() {
+                events.debug("Stream connected to backend");
+            }
+
+            @Override
+            public void onAck(OutboxEntry entry, int statusCode, String body) {
+                DeliveryStats.recordSend(DeliveryStats.outcomeOf(statusCode), 0);
+                if (statusCode >= 200 && statusCode < 300) {
+                    events.debug("Stream ack for " + entry.getId() + ": " + statusCode);
+                    onDelivered(entry);
+                    events.onLogEntry("SUCCESS (" + statusCode + ", stream)", entry.getMessage(), body);
+                } else if (!RetryPolicy.isRetryableStatus(statusCode)) {
+                    reject(entry, "HTTP " + statusCode + " (stream): " + body);
+                } else {
+                    events.error("Backend error on stream: " + statusCode, null);
+                    scheduleRetry(entry, 0, "HTTP " + statusCode + " (stream): " + body);
+                }
+            }
+
+            @Override
+            public void onUnacked(List<OutboxEntry> entries, String reason) {
+                // Socket dropped before the backend answered - push these through the POST path instead
+                events.error(reason + ", resending " + entries.size() + " unacked notification(s) over HTTP", null);
+                for (OutboxEntry entry : entries) {
+                    sendToBackendWithRetry(entry, 0);
+                }
+            }
+
+            @Override
+            public void onAckTimeout(List<OutboxEntry> entries, String reason) {
+                // Socket is up but the backend never answered these - back off like any other failed send
+                events.error(reason + ", retrying " + entries.size() + " notification(s)", null);
+                for (OutboxEntry entry : entries) {
+                    DeliveryStats.recordSend(DeliveryStats.OUTCOME_NETWORK_ERROR, 0);
+                    scheduleRetry(entry, 0, reason);
+                }
+            }
+        });
+        backendSocket.connect();
+    }
+
+    public void close() {
+        if (backendSocket != null) {
+            backendSocket.close();
+        }
+    }
+
+    // Moves the stream to the default route's current primary. Frames the old socket still has awaiting an
+    // ack are handed back before it's replaced and resent over HTTP on the current routes, like after any
+    // other disconnect. (close() is only for shutdown and drops them, leaving them to the next start's replay.)
+    public void restartStreaming(OkHttpClient client) {
+        if (backendSocket == null) {
+            return;
+        }
+        BackendSocket previous = backendSocket;
+        backendSocket = null;
+        previous.closeAndHandBack("Backend changed");
+        enableStreaming(client);
+    }
+
+    // Network came back: give every route's backend another chance straight away
+    public void onNetworkAvailable() {
+        RouteTable table = routeTable;
+        table.defaultRoute.breaker.reset();
+        for (BackendRoute route : table.byRule.values()) {
+            route.breaker.reset();
+        }
+        if (!executor.isShutdown()) {
+            executor.execute(this::flushBacklog);
+        }
+    }
+
+    // Returns null if the same notification was accepted recently (re-post or update of an unchanged one)
+    public OutboxEntry submit(long postTime, String notificationKey, String message, long idempotencyKey,
+                              String route, long receivedAtNanos) {
+        OutboxEntry entry = accept(postTime, notificationKey, message, idempotencyKey, route, receivedAtNanos);
+        if (entry == null) {
+            return null;
+        }
+
+        // Send to backend immediately: over the stream if it's up, otherwise HTTP (batched when enabled)
+        BackendSocket socket = backendSocket;
+        if (socket != null && socket.isOpen() && routeFor(entry) == routeTable.defaultRoute
+                && sendOverStream(socket, entry)) {
+            events.debug("Pushed notification " + entry.getId() + " over stream");
+        } else if (batcher != null) {
+            batcher.submit(entry);
+        } else {
+            sendToBackendWithRetry(entry, 0);
+        }
+        return entry;
+    }
+
+    private boolean sendOverStream(BackendSocket socket, OutboxEntry entry) {
+        assignSequences(Collections.singletonList(entry), routeTable.defaultRoute);
+        return socket.send(entry);
+    }
+
+    // Dedups and persists a notification without sending it, for callers that collect several entries
+    // and hand them to sendCatchUp. Returns null for a duplicate.
+    public OutboxEntry accept(long postTime, String notificationKey, String message, long idempotencyKey,
+                              String route, long receivedAtNanos) {
+        if (!recentKeys.add(idempotencyKey)) {
+            DeliveryStats.DUPLICATES.increment();
+            events.debug("Duplicate notification suppressed: " + IdempotencyKeys.toHeaderValue(idempotencyKey));
+            return null;
+        }
+        // Posted too long ago to be worth anything (a late catch-up scan, or the system delivered it late)
+        if (isStale(postTime, System.currentTimeMillis())) {
+            DeliveryStats.SHED_STALE.increment();
+            events.onLogEntry("DROPPED (" + staleReason(postTime) + ")", message, "");
+            return null;
+        }
+
+        // Persist before the first send attempt so nothing is lost if the service dies mid-retry.
+        // Marked in-flight under the same lock the drain loop uses so it can't grab the entry too.
+        OutboxEntry entry;
+        synchronized (inFlight) {
+            entry = appendToOutbox(postTime, notificationKey, message, idempotencyKey, route);
+            inFlight.add(entry.getId());
+        }
+        entry.receivedAtNanos = receivedAtNanos;
+        if (structuredEnabled) {
+            entry.trade = TradeParser.parse(message);
+        }
+        entry.priority = priority.of(entry);
+        stampOrigin(entry);
+        return entry;
+    }
+
+    // Sends entries picked up by the reconnect scan straight away as batch requests, whether or not
+    // batching is on: they're already late, so there's no point lingering or going one at a time.
+    public void sendCatchUp(List<OutboxEntry> entries) {
+        for (int from = 0; from < entries.size(); from += CATCH_UP_BATCH_SIZE) {
+            List<OutboxEntry> chunk = entries.subList(from, Math.min(entries.size(), from + CATCH_UP_BATCH_SIZE));
+            if (chunk.size() == 1) {
+                send(chunk.get(0), 0, DispatchScheduler.Lane.REPLAY);
+            } else {
+                sendBatchesByRoute(new ArrayList<>(chunk), DispatchScheduler.Lane.REPLAY);
+            }
+        }
+    }
+
+    private OutboxEntry appendToOutbox(long timestamp, String notificationKey, String message, long idempotencyKey, String route) {
+        if (outbox != null) {
+            try {
+                return outbox.append(timestamp, notificationKey, message, idempotencyKey, route);
+            } catch (IOException e) {
+                events.error("Failed to append to outbox, sending without durability", e);
+            }
+        }
+        // Negative ids never collide with outbox ids
+        return new OutboxEntry(-System.nanoTime(), timestamp, notificationKey, message, idempotencyKey, route);
+    }
+
+    // Entries whose rule was removed (or never had its own backend) go to the default route
+    private BackendRoute routeFor(OutboxEntry entry) {
+        RouteTable table = routeTable;
+        BackendRoute route = table.byRule.get(entry.getRoute());
+        return route != null ? route : table.defaultRoute;
+    }
+
+    public void sendToBackendWithRetry(OutboxEntry entry, int attempt) {
+        send(entry, attempt, attempt == 0 ? DispatchScheduler.Lane.FRESH : DispatchScheduler.Lane.RETRY);
+    }
+
+    private void send(OutboxEntry entry, int attempt, DispatchScheduler.Lane lane) {
+        String message = entry.getMessage();
+        CircuitBreaker circuitBreaker = routeFor(entry).breaker;
+        if (!circuitBreaker.allowRequest()) {
+            park(entry, attempt, "Circuit open, backend considered down");
+            return;
+        }
+
+        try {
+            events.debug("Sending to backend (attempt " + (attempt + 1) + "): " + message);
+
+            postToBackend(entry, lane, circuitBreaker::onAbandoned, new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    events.error("Network failure on attempt " + (attempt + 1), e);
+                    DeliveryStats.recordSend(DeliveryStats.OUTCOME_NETWORK_ERROR, attempt);
+                    circuitBreaker.onFailure();
+                    scheduleRetry(entry, attempt, "Network error: " + e.getMessage());
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try {
+                        String responseBody;
+                        try {
+                            responseBody = readBody(response);
+                        } catch (IOException e) {
+                            // OkHttp won't call onFailure once onResponse has started
+                            onFailure(call, e);
+                            return;
+                        }
+
+                        recordAttemptLatency(SendTrace.of(call), attempt);
+
+                        int code = response.code();
+                        DeliveryStats.recordSend(DeliveryStats.outcomeOf(code), attempt);
+                        if (response.isSuccessful()) {
+                            events.debug("Successfully sent to backend: " + code);
+                            circuitBreaker.onSuccess();
+                            onDelivered(entry);
+                            events.onLogEntry("SUCCESS (" + code + ")", message, responseBody);
+                        } else if (!RetryPolicy.isRetryableStatus(code)) {
+                            // Backend is up but won't accept this payload
+                            circuitBreaker.onSuccess();
+                            reject(entry, "HTTP " + code + ": " + responseBody);
+                        } else {
+                            events.error("Backend error on attempt " + (attempt + 1) + ": " + code, null);
+                            circuitBreaker.onFailure();
+                            scheduleRetry(entry, attempt, "HTTP " + code + ": " + responseBody);
+                        }
+                    } finally {
+                        response.close();
+                    }
+                }
+            });
+
+        } catch (Exception e) {
+            events.error("Exception building request", e);
+            circuitBreaker.onAbandoned();
+            inFlight.remove(entry.getId());
+            events.onLogEntry("EXCEPTION", message, "Error: " + e.getMessage());
+        }
+    }
+
+    // Encodes once, when the request starts (after dispatch has numbered the entry); the router builds a
+    // request per backend it tries, all with the same idempotency key.
+    // onShed (may be null) runs after the entry was shed instead of being sent
+    private void postToBackend(final OutboxEntry entry, DispatchScheduler.Lane lane,
+                               Runnable onShed, Callback callback) throws Exception {
+        final String idempotencyKey = IdempotencyKeys.toHeaderValue(entry.getIdempotencyKey());
+
+        dispatch(lane, entry.priority, coalesceKeyOf(entry), Collections.singletonList(entry), onShed,
+                new BackendRouter.RequestFactory() {
+            private EncodedPayload payload;
+
+            @Override
+            public synchronized Request build(BackendEndpoint endpoint) throws IOException {
+                if (payload == null) {
+                    payload = EncodedPayload.of(payloadCodec, entry, gzipThresholdBytes);
+                }
+                long enqueuedNanos = System.nanoTime();
+                // Includes any wait for a free slot in the lane
+                recordEnqueued(entry, enqueuedNanos);
+                return payload.applyTo(new Request.Builder())
+                        .url(endpoint.notificationsUrl)
+                        .header(IDEMPOTENCY_KEY_HEADER, idempotencyKey)
+                        .tag(SendTrace.class, new SendTrace(enqueuedNanos))
+                        .build();
+            }
+        }, callback);
+    }
+
+    // Queues the request in its lane; the router call starts when the lane has a free slot, and the
+    // slot is held until the callback has run. If the lane sheds the request, or its newest entry has
+    // gone stale by the time a slot frees up, the entries are dropped instead. Every outcome is fed to
+    // the adaptive concurrency limit before the slot is released. The route is looked up when the
+    // request starts (all entries share one), so requests queued across a setRoutes use the new backends.
+    private void dispatch(DispatchScheduler.Lane lane, int priority, String coalesceKey, final List<OutboxEntry> entries,
+                          final Runnable onShed, final BackendRouter.RequestFactory factory, final Callback callback) {
+        scheduler.submit(lane, priority, coalesceKey, new DispatchScheduler.Job() {
+            @Override
+            public void start(final Runnable done) {
+                long newestPostTime = 0;
+                for (OutboxEntry entry : entries) {
+                    newestPostTime = Math.max(newestPostTime, entry.getPostTime());
+                }
+                if (isStale(newestPostTime, System.currentTimeMillis())) {
+                    done.run();
+                    shedAll(DeliveryStats.SHED_STALE, staleReason(newestPostTime));
+                    return;
+                }
+
+                final BackendRoute route = routeFor(entries.get(0));
+                assignSequences(entries, route);
+                final long startNanos = System.nanoTime();
+                route.inFlight.incrementAndGet();
+                try {
+                    route.router.enqueue(factory, new Callback() {
+                        @Override
+                        public void onFailure(Call call, IOException e) {
+                            try {
+                                recordConcurrencySample(startNanos, true, entries.size());
+                                callback.onFailure(call, e);
+                            } finally {
+                                route.inFlight.decrementAndGet();
+                                done.run();
+                            }
+                        }
+
+                        @Override
+                        public void onResponse(Call call, Response response) throws IOException {
+                            try {
+                                int code = response.code();
+                                recordConcurrencySample(startNanos, code >= 500 || code == 429, entries.size());
+                                callback.onResponse(call, response);
+                            } finally {
+                                route.inFlight.decrementAndGet();
+                                done.run();
+                            }
+                        }
+                    });
+                } catch (IOException e) {
+                    // No backend to send to - handled like a failed call
+                    route.inFlight.decrementAndGet();
+                    done.run();
+                    callback.onFailure(null, e);
+                }
+            }
+
+            @Override
+            public void shed(boolean superseded) {
+                if (superseded) {
+                    shedAll(DeliveryStats.SHED_COALESCED, "superseded by a newer trade");
+                } else {
+                    shedAll(DeliveryStats.SHED_QUEUE_FULL, "queue full");
+                }
+            }
+
+            private void shedAll(StripedCounter counter, String reason) {
+                for (OutboxEntry entry : entries) {
+                    shedEntry(entry, counter, reason);
+                }
+                if (onShed != null) {
+                    onShed.run();
+                }
+            }
+        });
+    }
+
+    // Entries are numbered as they go on the wire rather than when accepted: one that is shed or expires
+    // before its first send never takes a number, so a gap the route's backend sees is a lost send
+    private void assignSequences(List<OutboxEntry> entries, BackendRoute route) {
+        if (outbox == null) {
+            return;
+        }
+        for (OutboxEntry entry : entries) {
+            try {
+                outbox.assignSequence(entry, route.name);
+            } catch (IOException e) {
+                events.error("Failed to number outbox entry " + entry.getId(), e);
+            }
+        }
+    }
+
+    private void recordConcurrencySample(long startNanos, boolean overloaded, int entryCount) {
+        AdaptiveConcurrencyLimit limit = concurrencyLimit;
+        if (limit == null) {
+            return;
+        }
+        long endNanos = System.nanoTime();
+        if (overloaded) {
+            limit.onOverload(startNanos, endNanos);
+        } else if (entryCount == 1) {
+            limit.onResponse(startNanos, endNanos, scheduler.inFlight());
+        }
+    }
+
+    // Only single sends are coalesced, keyed by route, trader and token; null when coalescing is off
+    // or the message doesn't name both
+    private String coalesceKeyOf(OutboxEntry entry) {
+        if (!coalescing) {
+            return null;
+        }
+        ParsedTrade trade = entry.trade != null ? entry.trade : TradeParser.parse(entry.getMessage());
+        if (trade.getTrader() == null || trade.getTicker() == null) {
+            return null;
+        }
+        return entry.getRoute() + "|" + trade.getTrader().toLowerCase(Locale.US) + "|" + trade.getTicker().toLowerCase(Locale.US);
+    }
+
+    private boolean isStale(long postTime, long now) {
+        return freshnessTtlMs > 0 && now - postTime > freshnessTtlMs;
+    }
+
+    private static String staleReason(long postTime) {
+        return "stale, " + Math.max(0, System.currentTimeMillis() - postTime) / 1000 + "s old";
+    }
+
+    // Only the entry's first request build counts: failover and hedged builds, retries and replays of the
+    // same entry would each add another, ever larger, sample
+    private static void recordEnqueued(OutboxEntry entry, long enqueuedNanos) {
+        long receivedAtNanos = entry.receivedAtNanos;
+        if (receivedAtNanos == 0) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.enqueueRecorded) {
+                return;
+            }
+            entry.enqueueRecorded = true;
+        }
+        PipelineMetrics.CALLBACK_TO_ENQUEUED.recordNanos(enqueuedNanos - receivedAtNanos);
+    }
+
+    // The body can still fail to arrive after the status line has
+    private static String readBody(Response response) throws IOException {
+        return response.body() != null ? response.body().string() : "";
+    }
+
+    private void recordAttemptLatency(SendTrace trace, int attempt) {
+        if (trace == null) {
+            return;
+        }
+        long responseNanos = trace.responseNanos != 0 ? trace.responseNanos : System.nanoTime();
+        PipelineMetrics.attempt(attempt).recordNanos(responseNanos - trace.enqueuedNanos);
+        if (attempt == 0 && trace.writtenNanos != 0) {
+            PipelineMetrics.ENQUEUED_TO_WRITTEN.recordNanos(trace.writtenNanos - trace.enqueuedNanos);
+            PipelineMetrics.WRITTEN_TO_RESPONSE.recordNanos(responseNanos - trace.writtenNanos);
+        }
+    }
+
+    // One request per route; a burst normally comes from a single app, so this is one group
+    private void sendBatchesByRoute(List<OutboxEntry> entries, DispatchScheduler.Lane lane) {
+        Map<BackendRoute, List<OutboxEntry>> byRoute = new LinkedHashMap<>();
+        for (OutboxEntry entry : entries) {
+            BackendRoute route = routeFor(entry);
+            List<OutboxEntry> group = byRoute.get(route);
+            if (group == null) {
+                group = new ArrayList<>();
+                byRoute.put(route, group);
+            }
+            group.add(entry);
+        }
+        for (Map.Entry<BackendRoute, List<OutboxEntry>> group : byRoute.entrySet()) {
+            sendBatchToBackend(group.getKey(), group.getValue(), lane);
+        }
+    }
+
+    // Sends a burst as one JSON array. The backend answers with a per-item status code, so items are
+    // acked or retried individually; if the whole request fails every item falls back to single retries.
+    private void sendBatchToBackend(BackendRoute route, List<OutboxEntry> entries, DispatchScheduler.Lane lane) {
+        CircuitBreaker circuitBreaker = route.breaker;
+        if (!circuitBreaker.allowRequest()) {
+            for (OutboxEntry entry : entries) {
+                park(entry, 0, "Circuit open, backend considered down");
+            }
+            return;
+        }
+
+        try {
+            int batchPriority = NotificationPriority.NORMAL;
+            for (OutboxEntry entry : entries) {
+                batchPriority = Math.max(batchPriority, entry.priority);
+            }
+
+            dispatch(lane, batchPriority, null, entries, circuitBreaker::onAbandoned, new BackendRouter.RequestFactory() {
+                // Encoded when the request starts, after dispatch has numbered the entries
+                private EncodedPayload payload;
+
+                @Override
+                public synchronized Request build(BackendEndpoint endpoint) throws IOException {
+                    if (payload == null) {
+                        payload = EncodedPayload.ofBatch(payloadCodec, entries, gzipThresholdBytes);
+                        events.debug("Sending batch of " + entries.size() + " notifications to backend ("
+                                + payload.rawBytes + " bytes" + (payload.gzipped ? ", gzipped" : "") + ")");
+                    }
+                    return payload.applyTo(new Request.Builder())
+                            .url(endpoint.batchUrl)
+                            .build();
+                }
+            }, new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    events.error("Network failure sending batch", e);
+                    circuitBreaker.onFailure();
+                    for (OutboxEntry entry : entries) {
+                        DeliveryStats.recordSend(DeliveryStats.OUTCOME_NETWORK_ERROR, 0);
+                        scheduleRetry(entry, 0, "Network error (batch): " + e.getMessage());
+                    }
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    String responseBody;
+                    try {
+                        responseBody = readBody(response);
+                    } catch (IOException e) {
+                        // OkHttp won't call onFailure once onResponse has started
+                        onFailure(call, e);
+                        return;
+                    } finally {
+                        response.close();
+                    }
+                    int code = response.code();
+
+                    if (!response.isSuccessful()) {
+                        events.error("Backend error on batch: " + code, null);
+                        circuitBreaker.onFailure();
+                        for (OutboxEntry entry : entries) {
+                            DeliveryStats.recordSend(DeliveryStats.OUTCOME_RETRYABLE, 0);
+                            scheduleRetry(entry, 0, "HTTP " + code + " (batch): " + responseBody);
+                        }
+                        return;
+                    }
+
+                    circuitBreaker.onSuccess();
+                    JSONArray results;
+                    try {
+                        results = new JSONObject(responseBody).getJSONArray("results");
+                    } catch (Exception e) {
+                        events.error("Unreadable batch response, retrying items individually", e);
+                        results = new JSONArray();
+                    }
+
+                    for (int i = 0; i < entries.size(); i++) {
+                        OutboxEntry entry = entries.get(i);
+                        JSONObject result = results.optJSONObject(i);
+                        int itemCode = result != null ? result.optInt("statusCode", 500) : 500;
+                        String itemBody = result != null ? String.valueOf(result.opt("body")) : responseBody;
+                        DeliveryStats.recordSend(DeliveryStats.outcomeOf(itemCode), 0);
+
+                        if (itemCode >= 200 && itemCode < 300) {
+                            onDelivered(entry);
+                            events.onLogEntry("SUCCESS (" + itemCode + ", batch of " + entries.size() + ")", entry.getMessage(), itemBody);
+                        } else if (!RetryPolicy.isRetryableStatus(itemCode)) {
+                            reject(entry, "HTTP " + itemCode + " (batch): " + itemBody);
+                        } else {
+                            scheduleRetry(entry, 0, "HTTP " + itemCode + " (batch): " + itemBody);
+                        }
+                    }
+                }
+            });
+        } catch (Exception e) {
+            events.error("Exception building batch request, sending individually", e);
+            circuitBreaker.onAbandoned();
+            for (OutboxEntry entry : entries) {
+                sendToBackendWithRetry(entry, 0);
+            }
+        }
+    }
+
+    private void scheduleRetry(OutboxEntry entry, int attempt, String errorDetail) {
+        if (retryPolicy.isExpired(entry.getPostTime(), System.currentTimeMillis())) {
+            expire(entry, errorDetail);
+            return;
+        }
+        if (isStale(entry.getPostTime(), System.currentTimeMillis())) {
+            shedEntry(entry, DeliveryStats.SHED_STALE, staleReason(entry.getPostTime()));
+            return;
+        }
+        if (routeFor(entry).breaker.getState() == CircuitBreaker.State.OPEN) {
+            park(entry, attempt, errorDetail);
+            return;
+        }
+
+        long delayMs = retryPolicy.nextDelayMs(attempt);
+        DeliveryStats.RETRIES.increment();
+        events.debug("Retrying in " + delayMs + "ms (attempt " + (attempt + 2) + ")");
+        events.onLogEntry("RETRYING (" + (attempt + 2) + ", in " + delayMs + "ms)", entry.getMessage(), errorDetail);
+        scheduleRetryTimer(entry, attempt + 1, delayMs);
+    }
+
+    private void scheduleRetryTimer(OutboxEntry entry, int attempt, long delayMs) {
+        if (pendingRetries.size() >= queueCapacity) {
+            shedOldestRetry();
+        }
+        pendingRetries.put(entry.getId(), new PendingRetry(entry, attempt));
+        executor.schedule(() -> {
+            // flushBacklog() may already have taken it
+            PendingRetry retry = pendingRetries.remove(entry.getId());
+            if (retry != null) {
+                sendToBackendWithRetry(retry.entry, retry.attempt);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Makes room for a new retry timer: the retry with the oldest notification is dropped (its timer
+    // finds nothing to send when it fires)
+    private void shedOldestRetry() {
+        PendingRetry oldest = null;
+        for (PendingRetry retry : pendingRetries.values()) {
+            if (oldest == null || retry.entry.getPostTime() < oldest.entry.getPostTime()) {
+                oldest = retry;
+            }
+        }
+        if (oldest != null && pendingRetries.remove(oldest.entry.getId()) != null) {
+            shedEntry(oldest.entry, DeliveryStats.SHED_QUEUE_FULL, "retry queue full");
+        }
+    }
+
+    // Backend is down: leave the notification in the outbox (no timer) until a probe gets through
+    private void park(OutboxEntry entry, int attempt, String errorDetail) {
+        if (outbox == null || !outbox.isPending(entry.getId())) {
+            // Not durable - it only survives on a timer
+            scheduleRetryTimer(entry, attempt, retryPolicy.nextDelayMs(attempt));
+            return;
+        }
+        inFlight.remove(entry.getId());
+        DeliveryStats.PARKED.increment();
+        events.debug("Parked notification " + entry.getId() + " in outbox: " + errorDetail);
+        events.onLogEntry("QUEUED (backend down, " + outbox.size() + " pending)", entry.getMessage(), errorDetail);
+    }
+
+    private void expire(OutboxEntry entry, String errorDetail) {
+        DeliveryStats.EXPIRED.increment();
+        events.error("Notification " + entry.getId() + " older than " + (retryPolicy.getTtlMs() / 1000) + "s, dropping", null);
+        discard(entry);
+        // Never delivered, so a re-post of the same notification should get another chance
+        recentKeys.remove(entry.getIdempotencyKey());
+        events.onLogEntry("FAILED (expired after " + (retryPolicy.getTtlMs() / 1000) + "s)", entry.getMessage(), errorDetail);
+    }
+
+    private void reject(OutboxEntry entry, String errorDetail) {
+        DeliveryStats.REJECTED.increment();
+        events.error("Backend rejected notification " + entry.getId() + ", not retrying: " + errorDetail, null);
+        discard(entry);
+        events.onLogEntry("FAILED (rejected)", entry.getMessage(), errorDetail);
+    }
+
+    // Load shedding: dropped for good, outbox included, so fresher notifications get through first.
+    // The idempotency key stays remembered - a re-post of it is no fresher.
+    private void shedEntry(OutboxEntry entry, StripedCounter counter, String reason) {
+        counter.increment();
+        events.debug("Shed notification " + entry.getId() + ": " + reason);
+        discard(entry);
+        events.onLogEntry("DROPPED (" + reason + ")", entry.getMessage(), "");
+    }
+
+    // Removes an undeliverable notification from the outbox without dismissing it from the tray
+    private void discard(OutboxEntry entry) {
+        if (outbox != null) {
+            try {
+                outbox.ack(entry.getId());
+            } catch (IOException e) {
+                events.error("Failed to remove outbox entry " + entry.getId(), e);
+            }
+        }
+        inFlight.remove(entry.getId());
+        pendingRetries.remove(entry.getId());
+    }
+
+    // Sends everything that is waiting right now, oldest first: retries still on their backoff timer
+    // and notifications parked in the outbox while the circuit was open.
+    public void flushBacklog() {
+        List<PendingRetry> retries = new ArrayList<>();
+        for (Long id : new ArrayList<>(pendingRetries.keySet())) {
+            PendingRetry retry = pendingRetries.remove(id);
+            if (retry != null) {
+                retries.add(retry);
+            }
+        }
+
+        List<OutboxEntry> parked = new ArrayList<>();
+        if (outbox != null) {
+            synchronized (inFlight) {
+                for (OutboxEntry entry : outbox.pendingEntries()) {
+                    if (inFlight.add(entry.getId())) {
+                        parked.add(entry);
+                    }
+                }
+            }
+        }
+
+        if (!retries.isEmpty() || !parked.isEmpty()) {
+            events.debug("Flushing backlog: " + parked.size() + " parked, " + retries.size() + " waiting on retry timers");
+        }
+        for (OutboxEntry entry : parked) {
+            send(entry, 1, DispatchScheduler.Lane.REPLAY);
+        }
+        for (PendingRetry retry : retries) {
+            send(retry.entry, retry.attempt, DispatchScheduler.Lane.RETRY);
+        }
+    }
+
+    private void onDelivered(OutboxEntry entry) {
+        long deliveredAtNanos = System.nanoTime();
+        DeliveryStats.DELIVERED.increment();
+        PipelineMetrics.POSTED_TO_RESPONSE.recordMillis(System.currentTimeMillis() - entry.getPostTime());
+
+        if (outbox != null) {
+            try {
+                outbox.ack(entry.getId());
+            } catch (IOException e) {
+                events.error("Failed to ack outbox entry " + entry.getId(), e);
+            }
+        }
+        inFlight.remove(entry.getId());
+
+        events.onDelivered(entry);
+        PipelineMetrics.RESPONSE_TO_DISMISSED.recordNanos(System.nanoTime() - deliveredAtNanos);
+    }
+
+    // Notifications accepted but not acknowledged yet (being sent, waiting for a retry, or parked)
+    public int pendingCount() {
+        if (outbox != null) {
+            return outbox.size();
+        }
+        return inFlight.size() + pendingRetries.size();
+    }
+
+    // Notifications waiting on a backoff timer
+    public int retryQueueDepth() {
+        return pendingRetries.size();
+    }
+
+    // Post time of the oldest pending notification, 0 when nothing is pending.
+    // Without an outbox only the retry timers are known, which is where anything old would be anyway.
+    public long oldestPendingPostTime() {
+        if (outbox != null) {
+            OutboxEntry oldest = outbox.oldest();
+            return oldest != null ? oldest.getPostTime() : 0;
+        }
+        long oldest = 0;
+        for (PendingRetry retry : pendingRetries.values()) {
+            long postTime = retry.entry.getPostTime();
+            if (oldest == 0 || postTime < oldest) {
+                oldest = postTime;
+            }
+        }
+        return oldest;
+    }
+
+    public void syncOutbox() {
+        if (outbox == null) {
+            return;
+        }
+        try {
+            outbox.sync();
+        } catch (IOException e) {
+            events.error("Outbox fsync failed", e);
+        }
+    }
+
+    // Safety net for the outbox: drops expired entries, then replays the oldest undelivered one as a probe.
+    // If the probe gets through, the rest of the backlog is flushed right away.
+    // Entries still owned by a live retry chain are skipped.
+    public void drainOutbox() {
+        if (outbox == null || draining || outbox.size() == 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        OutboxEntry next = null;
+        List<OutboxEntry> expired = new ArrayList<>();
+        List<OutboxEntry> stale = new ArrayList<>();
+        synchronized (inFlight) {
+            for (OutboxEntry entry : outbox.pendingEntries()) {
+                if (inFlight.contains(entry.getId())) {
+                    continue;
+                }
+                if (retryPolicy.isExpired(entry.getPostTime(), now)) {
+                    expired.add(entry);
+                } else if (isStale(entry.getPostTime(), now)) {
+                    stale.add(entry);
+                } else if (next == null) {
+                    next = entry;
+                }
+            }
+            if (next != null) {
+                inFlight.add(next.getId());
+            }
+        }
+
+        for (OutboxEntry entry : expired) {
+            expire(entry, "Still undelivered when the TTL ran out");
+        }
+        for (OutboxEntry entry : stale) {
+            shedEntry(entry, DeliveryStats.SHED_STALE, staleReason(entry.getPostTime()));
+        }
+        if (next == null) {
+            return;
+        }
+        if (!routeFor(next).breaker.allowRequest()) {
+            inFlight.remove(next.getId());
+            return;
+        }
+        draining = true;
+        replayEntry(next);
+    }
+
+    private void replayEntry(OutboxEntry entry) {
+        CircuitBreaker circuitBreaker = routeFor(entry).breaker;
+        events.debug("Replaying outbox entry " + entry.getId() + " (" + outbox.size() + " pending)");
+        try {
+            Runnable onShed = () -> {
+                circuitBreaker.onAbandoned();
+                finishReplay(entry, false);
+            };
+            postToBackend(entry, DispatchScheduler.Lane.REPLAY, onShed, new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    events.error("Outbox replay failed, will retry on next drain", e);
+                    circuitBreaker.onFailure();
+                    finishReplay(entry, false);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    String responseBody;
+                    try {
+                        responseBody = readBody(response);
+                    } catch (IOException e) {
+                        // OkHttp won't call onFailure once onResponse has started
+                        onFailure(call, e);
+                        return;
+                    } finally {
+                        response.close();
+                    }
+                    int code = response.code();
+
+                    if (response.isSuccessful()) {
+                        circuitBreaker.onSuccess();
+                        onDelivered(entry);
+                        events.onLogEntry("SUCCESS (" + code + ", replayed)", entry.getMessage(), responseBody);
+                        finishReplay(entry, true);
+                    } else if (!RetryPolicy.isRetryableStatus(code)) {
+                        circuitBreaker.onSuccess();
+                        reject(entry, "HTTP " + code + ": " + responseBody);
+                        finishReplay(entry, true);
+                    } else {
+                        events.error("Outbox replay got HTTP " + code + ", will retry on next drain", null);
+                        circuitBreaker.onFailure();
+                        finishReplay(entry, false);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            events.error("Exception building replay request", e);
+            circuitBreaker.onAbandoned();
+            finishReplay(entry, false);
+        }
+    }
+
+    private void finishReplay(OutboxEntry entry, boolean backendReachable) {
+        inFlight.remove(entry.getId());
+        draining = false;
+        if (backendReachable && !executor.isShutdown()) {
+            // Backend is reachable again - send the whole backlog right away
+            executor.execute(this::flushBacklog);
+        }
+    }
+}
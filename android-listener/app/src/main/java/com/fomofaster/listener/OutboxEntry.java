@@ -0,0 +1,107 @@
+package com.fomofaster.listener;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class OutboxEntry {
+    // clockOffsetMs before the first heartbeat came back
+    public static final long NO_CLOCK_OFFSET = Long.MIN_VALUE;
+
+    private final long id;
+    private final long postTime;
+    private final String notificationKey;
+    private final String message;
+    private final long idempotencyKey;
+    // Name of the filter rule that accepted it, which picks the backend route
+    private final String route;
+
+    // Segment this entry was written to (used to know when a segment can be deleted)
+    long segmentId;
+
+    // Sequence number within the route it was sent on, assigned by the outbox on the first send (0 until
+    // then, and for entries that never made it to disk). Lets the backend spot notifications a device lost.
+    long sequence;
+
+    // Stamped by NotificationSender when it accepts the entry (not persisted): which device sent it and
+    // how far that device's clock was from the backend's at the time, for cross-device dedup
+    volatile long deviceId;
+    volatile long clockOffsetMs = NO_CLOCK_OFFSET;
+
+    // System.nanoTime() when onNotificationPosted picked it up (0 for entries replayed after a restart)
+    volatile long receivedAtNanos;
+
+    // Whether the callback -> enqueued latency has been recorded, guarded by the entry's lock (not persisted)
+    boolean enqueueRecorded;
+
+    // Fields extracted on the device when structured mode is on (null otherwise, not persisted)
+    volatile ParsedTrade trade;
+
+    // NotificationPriority of the content, orders requests within a DispatchScheduler lane (not persisted)
+    volatile int priority;
+
+    public OutboxEntry(long id, long postTime, String notificationKey, String message, long idempotencyKey) {
+        this(id, postTime, notificationKey, message, idempotencyKey, BackendRoute.DEFAULT);
+    }
+
+    public OutboxEntry(long id, long postTime, String notificationKey, String message, long idempotencyKey, String route) {
+        this.id = id;
+        this.postTime = postTime;
+        this.notificationKey = notificationKey;
+        this.message = message;
+        this.idempotencyKey = idempotencyKey;
+        this.route = route;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getPostTime() {
+        return postTime;
+    }
+
+    public String getNotificationKey() {
+        return notificationKey;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public long getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Payload sent to the backend. postTime lets the backend measure post -> Telegram latency,
+    // the structured fields (when present) let it skip parsing the message. deviceId, sequence and
+    // clockOffsetMs let it pick the first copy when several devices forward the same notification.
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("message", message);
+        json.put("postTime", postTime);
+        json.put("idempotencyKey", IdempotencyKeys.toHeaderValue(idempotencyKey));
+        if (deviceId != 0) {
+            json.put("deviceId", Long.toHexString(deviceId));
+            if (sequence > 0) {
+                json.put("sequence", sequence);
+            }
+            long offset = clockOffsetMs;
+            if (offset != NO_CLOCK_OFFSET) {
+                json.put("clockOffsetMs", offset);
+            }
+        }
+        ParsedTrade parsed = trade;
+        if (parsed != null) {
+            parsed.writeTo(json);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,70 @@
+package com.fomofaster.listener;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Typed fields extracted on the device by TradeParser. Sent next to the raw message so the backend
+// can skip its own parsing; anything the parser couldn't find is left out of the payload.
+public class ParsedTrade {
+    // Names match the backend's NotificationType enum
+    public static final String SIDE_BUY = "Buy";
+    public static final String SIDE_SELL = "Sell";
+    public static final String SIDE_DEPOSIT = "Deposit";
+    public static final String SIDE_THESIS = "Thesis";
+    public static final String SIDE_VERIFIED = "Verified";
+    public static final String SIDE_UNKNOWN = "Unknown";
+
+    public static final long NO_MARKET_CAP = -1;
+
+    private final String side;
+    private final String trader;
+    private final String ticker;
+    private final long marketCap;
+    private final double amount;
+
+    public ParsedTrade(String side, String trader, String ticker, long marketCap, double amount) {
+        this.side = side;
+        this.trader = trader;
+        this.ticker = ticker;
+        this.marketCap = marketCap;
+        this.amount = amount;
+    }
+
+    public String getSide() {
+        return side;
+    }
+
+    public String getTrader() {
+        return trader;
+    }
+
+    public String getTicker() {
+        return ticker;
+    }
+
+    // Market cap in USD, NO_MARKET_CAP if the notification doesn't carry one
+    public long getMarketCap() {
+        return marketCap;
+    }
+
+    // Trade size in USD, NaN if the notification doesn't carry one
+    public double getAmount() {
+        return amount;
+    }
+
+    public void writeTo(JSONObject json) throws JSONException {
+        json.put("side", side);
+        if (trader != null) {
+            json.put("trader", trader);
+        }
+        if (ticker != null) {
+            json.put("ticker", ticker);
+        }
+        if (marketCap != NO_MARKET_CAP) {
+            json.put("marketCap", marketCap);
+        }
+        if (!Double.isNaN(amount)) {
+            json.put("amount", amount);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.fomofaster.listener;
+
+import java.io.IOException;
+import java.util.List;
+
+import okhttp3.MediaType;
+
+// Encodes outbox entries into request bodies. The backend picks the decoder by Content-Type,
+// so codecs can be switched on the listener without touching the endpoints.
+public interface PayloadCodec {
+    MediaType mediaType();
+
+    byte[] encode(OutboxEntry entry) throws IOException;
+
+    byte[] encodeBatch(List<OutboxEntry> entries) throws IOException;
+}
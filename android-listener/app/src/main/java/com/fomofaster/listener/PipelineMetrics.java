@@ -0,0 +1,79 @@
+package com.fomofaster.listener;
+
+// Process-wide latency histograms for the notification pipeline.
+// The listener records into these and MainActivity renders summary() - both run in the same process.
+public final class PipelineMetrics {
+    // Per-stage latencies of a notification's first send attempt
+    public static final LatencyHistogram POSTED_TO_CALLBACK = new LatencyHistogram("posted -> callback");
+    public static final LatencyHistogram CALLBACK_TO_ENQUEUED = new LatencyHistogram("callback -> enqueued");
+    public static final LatencyHistogram ENQUEUED_TO_WRITTEN = new LatencyHistogram("enqueued -> written");
+    public static final LatencyHistogram WRITTEN_TO_RESPONSE = new LatencyHistogram("written -> response");
+    public static final LatencyHistogram RESPONSE_TO_DISMISSED = new LatencyHistogram("response -> dismissed");
+    public static final LatencyHistogram POSTED_TO_RESPONSE = new LatencyHistogram("posted -> response");
+
+    // Appending one entry to the notification log ring
+    public static final LatencyHistogram LOG_WRITE = new LatencyHistogram("log write");
+
+    // Enqueue -> response per attempt number (the last one collects every attempt beyond it)
+    private static final LatencyHistogram[] ATTEMPTS = {
+            new LatencyHistogram("attempt 1"),
+            new LatencyHistogram("attempt 2"),
+            new LatencyHistogram("attempt 3+"),
+    };
+
+    // Submitted -> started per DispatchScheduler lane: time spent waiting for a free slot
+    private static final LatencyHistogram[] QUEUE_WAIT = {
+            new LatencyHistogram("queue wait fresh"),
+            new LatencyHistogram("queue wait retry"),
+            new LatencyHistogram("queue wait replay"),
+    };
+
+    private static final LatencyHistogram[] STAGES = {
+            POSTED_TO_CALLBACK, CALLBACK_TO_ENQUEUED, ENQUEUED_TO_WRITTEN,
+            WRITTEN_TO_RESPONSE, RESPONSE_TO_DISMISSED, POSTED_TO_RESPONSE,
+    };
+
+    private PipelineMetrics() {
+    }
+
+    public static LatencyHistogram[] stages() {
+        return STAGES.clone();
+    }
+
+    public static LatencyHistogram attempt(int attempt) {
+        return ATTEMPTS[Math.min(attempt, ATTEMPTS.length - 1)];
+    }
+
+    public static LatencyHistogram queueWait(DispatchScheduler.Lane lane) {
+        return QUEUE_WAIT[lane.ordinal()];
+    }
+
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(java.util.Locale.US, "%-22s %7s %7s %7s %7s", "ms", "p50", "p90", "p99", "max"));
+        for (LatencyHistogram histogram : STAGES) {
+            sb.append('\n').append(histogram.summary());
+        }
+        for (LatencyHistogram histogram : ATTEMPTS) {
+            sb.append('\n').append(histogram.summary());
+        }
+        for (LatencyHistogram histogram : QUEUE_WAIT) {
+            sb.append('\n').append(histogram.summary());
+        }
+        sb.append('\n').append(LOG_WRITE.summary());
+        return sb.toString();
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : STAGES) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : ATTEMPTS) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : QUEUE_WAIT) {
+            histogram.reset();
+        }
+        LOG_WRITE.reset();
+    }
+}
@@ -0,0 +1,107 @@
+package com.fomofaster.listener;
+
+// Bounded set of recently seen 64-bit keys with no per-operation allocation.
+//
+// Keys live in an open-addressed long[] table (linear probing, at most 50% full) and a ring buffer
+// that remembers insertion order. Once the cache holds `capacity` keys, adding a new one evicts the
+// oldest, so memory stays fixed however many notifications go through.
+public class RecentKeyCache {
+    private static final long EMPTY = 0;
+
+    private final long[] table;
+    // Ring position of the key in the same table slot, so remove() can clear it
+    private final int[] positions;
+    private final int mask;
+    private final long[] ring;
+    private int ringHead;
+    private int size;
+
+    public RecentKeyCache(int capacity) {
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        table = new long[tableSize];
+        positions = new int[tableSize];
+        mask = tableSize - 1;
+        ring = new long[capacity];
+    }
+
+    public synchronized boolean contains(long key) {
+        return key != EMPTY && indexOf(key) >= 0;
+    }
+
+    // Adds the key, returns false if it was already present
+    public synchronized boolean add(long key) {
+        if (key == EMPTY || indexOf(key) >= 0) {
+            return false;
+        }
+
+        if (size == ring.length) {
+            long evicted = ring[ringHead];
+            if (evicted != EMPTY) {
+                removeFromTable(indexOf(evicted));
+            }
+            size--;
+        }
+        int position = ringHead;
+        ring[position] = key;
+        ringHead = (ringHead + 1) % ring.length;
+        size++;
+
+        int slot = slotFor(key);
+        while (table[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+        positions[slot] = position;
+        return true;
+    }
+
+    // Forgets a key early. Its ring slot is emptied too - left behind, it would evict the key again
+    // once the ring came round to it, even if the key had been added back since.
+    public synchronized void remove(long key) {
+        if (key == EMPTY) {
+            return;
+        }
+        int slot = indexOf(key);
+        if (slot >= 0) {
+            ring[positions[slot]] = EMPTY;
+            removeFromTable(slot);
+        }
+    }
+
+    private int indexOf(long key) {
+        int slot = slotFor(key);
+        while (table[slot] != EMPTY) {
+            if (table[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void removeFromTable(int slot) {
+        if (slot < 0) {
+            return;
+        }
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        table[slot] = EMPTY;
+        int next = (slot + 1) & mask;
+        while (table[next] != EMPTY) {
+            long moved = table[next];
+            int movedPosition = positions[next];
+            table[next] = EMPTY;
+            int target = slotFor(moved);
+            while (table[target] != EMPTY) {
+                target = (target + 1) & mask;
+            }
+            table[target] = moved;
+            positions[target] = movedPosition;
+            next = (next + 1) & mask;
+        }
+    }
+
+    private int slotFor(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+}
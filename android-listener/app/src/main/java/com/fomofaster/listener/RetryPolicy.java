@@ -0,0 +1,42 @@
+package com.fomofaster.listener;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Exponential backoff with jitter, bounded by a per-notification time-to-live instead of an attempt count.
+// A notification keeps being retried until it is older than ttlMs (measured from its post time).
+public class RetryPolicy {
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long ttlMs;
+
+    public RetryPolicy(long baseDelayMs, long maxDelayMs, long ttlMs) {
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.ttlMs = ttlMs;
+    }
+
+    // Delay before retry number `attempt` (0 = first retry): "equal jitter", i.e. uniformly in [cap/2, cap]
+    // where cap doubles per attempt. Keeps retries from a burst from hitting the backend in lockstep.
+    public long nextDelayMs(int attempt) {
+        long cap = baseDelayMs << Math.min(attempt, 20);
+        if (cap <= 0 || cap > maxDelayMs) {
+            cap = maxDelayMs;
+        }
+        long half = cap / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    public boolean isExpired(long postTimeMillis, long nowMillis) {
+        return nowMillis - postTimeMillis > ttlMs;
+    }
+
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    // 4xx means the backend understood and rejected the payload - sending it again won't help.
+    // 408 (timeout) and 429 (throttled) are the exceptions.
+    public static boolean isRetryableStatus(int statusCode) {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+}
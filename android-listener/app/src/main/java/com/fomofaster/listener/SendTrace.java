@@ -0,0 +1,71 @@
+package com.fomofaster.listener;
+
+import java.io.IOException;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Response;
+
+// Timestamps (System.nanoTime) of a single HTTP send attempt, attached to the OkHttp Request as a tag.
+// EVENT_LISTENER_FACTORY fills in the network-level stages as OkHttp reaches them and counts
+// connection reuse in ConnectionStats.
+public class SendTrace {
+    public final long enqueuedNanos;
+    public volatile long writtenNanos;
+    public volatile long responseNanos;
+
+    // Set when this attempt had to open a TCP connection instead of reusing a pooled one
+    public volatile boolean newConnection;
+
+    public SendTrace(long enqueuedNanos) {
+        this.enqueuedNanos = enqueuedNanos;
+    }
+
+    public static SendTrace of(Call call) {
+        return call.request().tag(SendTrace.class);
+    }
+
+    public static final EventListener.Factory EVENT_LISTENER_FACTORY = call -> {
+        final SendTrace trace = of(call);
+        if (trace == null) {
+            return EventListener.NONE;
+        }
+        return new EventListener() {
+            @Override
+            public void connectStart(Call call, java.net.InetSocketAddress inetSocketAddress, java.net.Proxy proxy) {
+                trace.newConnection = true;
+            }
+
+            @Override
+            public void connectionAcquired(Call call, okhttp3.Connection connection) {
+                ConnectionStats.lastSendNanos = System.nanoTime();
+                if (trace.newConnection) {
+                    ConnectionStats.SENDS_NEW_CONNECTION.increment();
+                } else {
+                    ConnectionStats.SENDS_REUSED.increment();
+                }
+            }
+
+            @Override
+            public void requestHeadersEnd(Call call, okhttp3.Request request) {
+                // Bodyless requests never get requestBodyEnd
+                trace.writtenNanos = System.nanoTime();
+            }
+
+            @Override
+            public void requestBodyEnd(Call call, long byteCount) {
+                trace.writtenNanos = System.nanoTime();
+            }
+
+            @Override
+            public void responseHeadersEnd(Call call, Response response) {
+                trace.responseNanos = System.nanoTime();
+            }
+
+            @Override
+            public void callFailed(Call call, IOException ioe) {
+                trace.responseNanos = System.nanoTime();
+            }
+        };
+    };
+}
@@ -0,0 +1,46 @@
+package com.fomofaster.listener;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free counter for hot paths that several threads bump at once (binder thread, OkHttp dispatcher
+// threads, the sender executor).
+//
+// A single AtomicLong makes every increment fight over one cache line. Here each thread adds into one of
+// STRIPES cells picked from its thread id, with the cells a cache line apart, so concurrent increments
+// rarely touch the same line. Reads add the cells up, which is fine for metrics that are scraped every
+// few seconds. (LongAdder does the same but needs API 24.)
+public final class StripedCounter {
+    private static final int STRIPES = 16;
+    // Longs per 64-byte cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        cells.getAndIncrement(cellIndex());
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd(cellIndex(), delta);
+    }
+
+    // Not an atomic snapshot: increments racing with the read may or may not be included
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+    private static int cellIndex() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 4)) & (STRIPES - 1)) * PADDING;
+    }
+}
@@ -0,0 +1,277 @@
+package com.fomofaster.listener;
+
+import java.util.Locale;
+
+// On-device extraction of side / trader / ticker / market cap / amount from a FOMO notification.
+//
+// Mirrors the backend's parsing in NotificationIngestService (same rules, same edge cases) but is a
+// single hand-written scan over the message: no regex, no intermediate strings except the extracted
+// fields themselves. Formats handled:
+//   "KLED at $31.2m MC 🟢 @frankdegods bought $9,955.55"
+//   "Blobby thesis by 0xuberM I tailed nosanity I have no idea what's happening"
+//   "... is now verified on fomo"
+public final class TradeParser {
+    private static final String[] SIDE_WORDS = {"bought", "sold", "deposited"};
+
+    private TradeParser() {
+    }
+
+    public static ParsedTrade parse(String message) {
+        boolean thesis = isThesis(message);
+        String side;
+        String ticker;
+        String trader;
+        double amount = Double.NaN;
+
+        if (thesis) {
+            side = ParsedTrade.SIDE_THESIS;
+            ticker = tickerBefore(message, " thesis by");
+            trader = thesisTrader(message);
+        } else {
+            side = classify(message);
+            ticker = tickerBefore(message, " at $");
+            trader = tradeTrader(message);
+            amount = tradeAmount(message);
+        }
+
+        long marketCap = ticker != null ? marketCap(message) : ParsedTrade.NO_MARKET_CAP;
+        return new ParsedTrade(side, trader, ticker, marketCap, amount);
+    }
+
+    private static boolean isThesis(String message) {
+        return indexOfIgnoreCase(message, "thesis", 0) >= 0 && !hasAllTradeWords(message);
+    }
+
+    private static String classify(String message) {
+        if (indexOfIgnoreCase(message, "is now verified on fomo", 0) >= 0 && !hasAllTradeWords(message)) {
+            return ParsedTrade.SIDE_VERIFIED;
+        }
+        if (indexOfIgnoreCase(message, "bought", 0) >= 0) {
+            return ParsedTrade.SIDE_BUY;
+        }
+        if (indexOfIgnoreCase(message, "sold", 0) >= 0) {
+            return ParsedTrade.SIDE_SELL;
+        }
+        if (indexOfIgnoreCase(message, "deposited", 0) >= 0) {
+            return ParsedTrade.SIDE_DEPOSIT;
+        }
+        return ParsedTrade.SIDE_UNKNOWN;
+    }
+
+    // Same guard the backend uses against "thesis"/"verified" appearing inside a trade message
+    private static boolean hasAllTradeWords(String message) {
+        return indexOfIgnoreCase(message, "MC", 0) >= 0
+                && indexOfIgnoreCase(message, "bought", 0) >= 0
+                && indexOfIgnoreCase(message, "sold", 0) >= 0
+                && indexOfIgnoreCase(message, "deposited", 0) >= 0;
+    }
+
+    // "TICKER<marker>..." -> "TICKER"
+    private static String tickerBefore(String message, String marker) {
+        int index = indexOfIgnoreCase(message, marker, 0);
+        if (index <= 0) {
+            return null;
+        }
+        return message.substring(0, index).trim().toUpperCase(Locale.US);
+    }
+
+    // thesis by\s+@?(\w+)
+    private static String thesisTrader(String message) {
+        int from = 0;
+        int index;
+        while ((index = indexOfIgnoreCase(message, "thesis by", from)) >= 0) {
+            from = index + 1;
+            int pos = skipWhitespace(message, index + "thesis by".length());
+            if (pos == index + "thesis by".length()) {
+                continue;
+            }
+            if (pos < message.length() && message.charAt(pos) == '@') {
+                pos++;
+            }
+            int end = skipWord(message, pos);
+            if (end > pos) {
+                return message.substring(pos, end);
+            }
+        }
+        return null;
+    }
+
+    // MC\s+\S+\s+@(\w+)\s+(?:bought|sold|deposited)
+    private static String tradeTrader(String message) {
+        int from = 0;
+        int index;
+        while ((index = indexOfIgnoreCase(message, "MC", from)) >= 0) {
+            from = index + 1;
+            int pos = index + 2;
+
+            int next = skipWhitespace(message, pos);
+            if (next == pos) {
+                continue;
+            }
+            pos = next;
+            next = skipNonWhitespace(message, pos);
+            if (next == pos) {
+                continue;
+            }
+            pos = next;
+            next = skipWhitespace(message, pos);
+            if (next == pos || next >= message.length() || message.charAt(next) != '@') {
+                continue;
+            }
+
+            int nameStart = next + 1;
+            int nameEnd = skipWord(message, nameStart);
+            if (nameEnd == nameStart) {
+                continue;
+            }
+            pos = skipWhitespace(message, nameEnd);
+            if (pos == nameEnd) {
+                continue;
+            }
+            if (startsWithSideWord(message, pos)) {
+                return message.substring(nameStart, nameEnd);
+            }
+        }
+        return null;
+    }
+
+    // "... bought $9,955.55" -> 9955.55
+    private static double tradeAmount(String message) {
+        for (String word : SIDE_WORDS) {
+            int index = indexOfIgnoreCase(message, word, 0);
+            if (index < 0) {
+                continue;
+            }
+            int pos = skipWhitespace(message, index + word.length());
+            if (pos < message.length() && message.charAt(pos) == '$') {
+                return parseNumber(message, pos + 1, message.length(), false);
+            }
+        }
+        return Double.NaN;
+    }
+
+    // "$31.2m MC" -> 31200000, matching the backend's ExtractMarketCap
+    private static long marketCap(String message) {
+        int mcIndex = message.indexOf(" MC");
+        if (mcIndex == -1) {
+            return ParsedTrade.NO_MARKET_CAP;
+        }
+        int dollarIndex = message.lastIndexOf('$', mcIndex);
+        if (dollarIndex == -1) {
+            return ParsedTrade.NO_MARKET_CAP;
+        }
+
+        int start = skipWhitespace(message, dollarIndex + 1);
+        int end = mcIndex;
+        while (end > start && Character.isWhitespace(message.charAt(end - 1))) {
+            end--;
+        }
+        if (end - start < 2) {
+            return ParsedTrade.NO_MARKET_CAP;
+        }
+
+        long multiplier;
+        switch (message.charAt(end - 1)) {
+            case 'k':
+                multiplier = 1_000L;
+                break;
+            case 'm':
+                multiplier = 1_000_000L;
+                break;
+            case 'b':
+                multiplier = 1_000_000_000L;
+                break;
+            default:
+                return ParsedTrade.NO_MARKET_CAP;
+        }
+
+        double value = parseNumber(message, start, end - 1, true);
+        if (Double.isNaN(value)) {
+            return ParsedTrade.NO_MARKET_CAP;
+        }
+        return (long) (value * multiplier);
+    }
+
+    // Parses [digits , .] from `start` up to `limit` or the first other character, without allocating.
+    // Thousands separators are skipped. NaN if there are no digits, or if wholeRange is set and
+    // something other than a number sits before `limit` (like double.TryParse on the backend).
+    private static double parseNumber(String s, int start, int limit, boolean wholeRange) {
+        long integerPart = 0;
+        long fraction = 0;
+        long fractionScale = 1;
+        boolean inFraction = false;
+        boolean anyDigit = false;
+
+        int pos = start;
+        for (; pos < limit; pos++) {
+            char c = s.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (inFraction) {
+                    if (fractionScale < 1_000_000_000L) {
+                        fraction = fraction * 10 + (c - '0');
+                        fractionScale *= 10;
+                    }
+                } else {
+                    integerPart = integerPart * 10 + (c - '0');
+                }
+            } else if (c == ',' && !inFraction) {
+                // thousands separator
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (!anyDigit || (wholeRange && pos != limit)) {
+            return Double.NaN;
+        }
+        return integerPart + (double) fraction / fractionScale;
+    }
+
+    private static boolean startsWithSideWord(String s, int pos) {
+        for (String word : SIDE_WORDS) {
+            if (s.regionMatches(true, pos, word, 0, word.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOfIgnoreCase(String s, String needle, int from) {
+        int last = s.length() - needle.length();
+        for (int i = Math.max(0, from); i <= last; i++) {
+            if (s.regionMatches(true, i, needle, 0, needle.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(String s, int pos) {
+        while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipNonWhitespace(String s, int pos) {
+        while (pos < s.length() && !Character.isWhitespace(s.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    // \w: letters, digits and underscore
+    private static int skipWord(String s, int pos) {
+        while (pos < s.length()) {
+            char c = s.charAt(pos);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,146 @@
+package com.fomofaster.listener;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+
+// The process-wide HTTP transport: one OkHttpClient (connection pool, dispatcher threads, cached DNS)
+// shared by the listener service and MainActivity, so the diagnostics probe goes over the same warm pool
+// as real notifications.
+//
+// It also owns the routing settings - backend URLs, hedging and filter rules - as an immutable Config
+// snapshot. Saving them from the activity swaps the snapshot atomically and tells every ConfigListener,
+// so the service picks up a new backend without being restarted. The client itself is built once;
+// pool keep-alive and the other connection settings still apply from the next process start.
+public final class Transport implements SharedPreferences.OnSharedPreferenceChangeListener {
+    private static final String TAG = "Transport";
+
+    public static final String DEFAULT_BACKEND_URL = "http://10.0.2.2:8000";
+
+    private static final long DNS_CACHE_TTL_MS = 10 * 60 * 1000;
+    private static final int POOL_MAX_IDLE_CONNECTIONS = 5;
+    // The dispatch lanes do the limiting, OkHttp's own per-host cap of 5 would only add a second queue
+    public static final int MAX_REQUESTS_PER_HOST = 32;
+
+    public interface ConfigListener {
+        // Called on the thread that saved the preferences (usually the main thread) - hand real work off
+        void onTransportConfigChanged(Config previous, Config current);
+    }
+
+    // What the routes are built from. Never modified, a change produces a new snapshot.
+    public static final class Config {
+        public final String backendUrls;
+        public final boolean hedging;
+        public final String filterRulesJson;
+
+        Config(String backendUrls, boolean hedging, String filterRulesJson) {
+            this.backendUrls = backendUrls;
+            this.hedging = hedging;
+            this.filterRulesJson = filterRulesJson;
+        }
+
+        static Config from(SharedPreferences prefs) {
+            return new Config(
+                    prefs.getString(FomoNotificationListener.BACKEND_URL_KEY, DEFAULT_BACKEND_URL),
+                    prefs.getBoolean(FomoNotificationListener.HEDGING_ENABLED_KEY, false),
+                    prefs.getString(FomoNotificationListener.FILTER_RULES_KEY, NotificationFilter.DEFAULT_RULES_JSON));
+        }
+
+        boolean sameAs(Config other) {
+            return backendUrls.equals(other.backendUrls)
+                    && hedging == other.hedging
+                    && filterRulesJson.equals(other.filterRulesJson);
+        }
+    }
+
+    private static Transport instance;
+
+    private final SharedPreferences prefs;
+    private final CachingDns dns;
+    private final OkHttpClient client;
+    private final CopyOnWriteArrayList<ConfigListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Config config;
+
+    public static synchronized Transport get(Context context) {
+        if (instance == null) {
+            instance = new Transport(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private Transport(Context context) {
+        prefs = context.getSharedPreferences(FomoNotificationListener.PREFS_NAME, Context.MODE_PRIVATE);
+        int keepAliveSeconds = prefs.getInt(FomoNotificationListener.POOL_KEEP_ALIVE_SECONDS_KEY,
+                FomoNotificationListener.DEFAULT_POOL_KEEP_ALIVE_SECONDS);
+
+        // Timeouts, a long-lived connection pool and cached DNS
+        dns = new CachingDns(Dns.SYSTEM, DNS_CACHE_TTL_MS);
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(POOL_MAX_IDLE_CONNECTIONS, keepAliveSeconds, TimeUnit.SECONDS))
+                .dns(dns)
+                .eventListenerFactory(SendTrace.EVENT_LISTENER_FACTORY)
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build();
+
+        config = Config.from(prefs);
+        // SharedPreferences only keeps a weak reference to its listeners; the singleton keeps this one alive
+        prefs.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    public OkHttpClient client() {
+        return client;
+    }
+
+    public CachingDns dns() {
+        return dns;
+    }
+
+    public Config config() {
+        return config;
+    }
+
+    public void addListener(ConfigListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ConfigListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // One save touches several keys and fires once per key; the first call already sees all of them
+        if (!FomoNotificationListener.BACKEND_URL_KEY.equals(key)
+                && !FomoNotificationListener.HEDGING_ENABLED_KEY.equals(key)
+                && !FomoNotificationListener.FILTER_RULES_KEY.equals(key)) {
+            return;
+        }
+
+        Config previous;
+        Config current = Config.from(sharedPreferences);
+        synchronized (this) {
+            previous = config;
+            if (previous.sameAs(current)) {
+                return;
+            }
+            config = current;
+        }
+        Log.d(TAG, "Transport config changed: " + previous.backendUrls + " -> " + current.backendUrls);
+        for (ConfigListener listener : listeners) {
+            listener.onTransportConfigChanged(previous, current);
+        }
+    }
+}
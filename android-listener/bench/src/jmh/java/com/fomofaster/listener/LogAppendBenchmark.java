@@ -0,0 +1,84 @@
+package com.fomofaster.listener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// The two appends on every notification's path: the log ring entry and the outbox record (write only;
+// fsync is batched on a timer in the listener, so it is benchmarked separately with a sync every 64 appends).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogAppendBenchmark {
+    private static final String STATUS = "SUCCESS (200)";
+    private static final String MESSAGE = "KLED at $31.2m MC 🟢 @frankdegods bought $9,955.55";
+    private static final String RESPONSE = "{\"success\":true,\"message\":\"Notification forwarded\"}";
+
+    private File dir;
+    private LogRingFile logRing;
+    private NotificationOutbox outbox;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = File.createTempFile("log-append-bench", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        logRing = new LogRingFile(new File(dir, "log.ring"), LogRingFile.DEFAULT_CAPACITY);
+        outbox = new NotificationOutbox(new File(dir, "outbox"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        outbox.close();
+        deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void logRingAppend() {
+        logRing.append(STATUS, MESSAGE, RESPONSE);
+    }
+
+    // Append + ack, so the outbox stays small and old segments keep getting deleted as in production
+    @Benchmark
+    public void outboxAppendAndAck() throws IOException {
+        long n = sequence++;
+        OutboxEntry entry = outbox.append(1_700_000_000_000L + n, "0|family.fomo.app|" + n, MESSAGE, n + 1, BackendRoute.DEFAULT);
+        outbox.ack(entry.getId());
+    }
+
+    @Benchmark
+    public void outboxAppendAndAckSyncEvery64() throws IOException {
+        outboxAppendAndAck();
+        if ((sequence & 63) == 0) {
+            outbox.sync();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
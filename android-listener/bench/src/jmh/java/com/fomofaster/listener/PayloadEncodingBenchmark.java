@@ -0,0 +1,98 @@
+package com.fomofaster.listener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// What the send path pays to turn notifications into a request body, and how many bytes that body
+// is: every codec, plain and structured, with and without gzip. Run with ./gradlew :bench:jmh
+// (results in bench/build/results/jmh); each parameter combination also prints its raw and on-the-wire
+// sizes once the trial ends.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadEncodingBenchmark {
+    private static final String[] SAMPLE_MESSAGES = {
+            "KLED at $31.2m MC 🟢 @frankdegods bought $9,955.55",
+            "PUMP at $1.44b MC 🔴 @cented sold $12,400.00",
+            "WIF at $2.1b MC 🟢 @ansem bought $51,020.13",
+            "Blobby thesis by 0xuberM I tailed nosanity I have no idea what's happening",
+            "BONK at $980.5m MC 🟢 @theunipcs deposited $4,000",
+    };
+    private static final int BATCH_SIZE = 20;
+
+    @Param({"json", "binary"})
+    public String codecName;
+
+    @Param({"false", "true"})
+    public boolean structured;
+
+    // -1 = gzip off, 512 = the listener's threshold
+    @Param({"-1", "512"})
+    public int gzipThreshold;
+
+    private PayloadCodec codec;
+    private List<OutboxEntry> batch;
+    private OutboxEntry single;
+
+    @Setup
+    public void setUp() {
+        codec = "binary".equals(codecName) ? new BinaryPayloadCodec() : new JsonPayloadCodec();
+        batch = new ArrayList<>(BATCH_SIZE);
+        long postTime = 1_700_000_000_000L;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            String message = SAMPLE_MESSAGES[i % SAMPLE_MESSAGES.length];
+            String key = "0|family.fomo.app|" + i;
+            OutboxEntry entry = new OutboxEntry(i + 1, postTime + i, key, message,
+                    IdempotencyKeys.compute(key, postTime + i, message));
+            if (structured) {
+                entry.trade = TradeParser.parse(message);
+            }
+            batch.add(entry);
+        }
+        single = batch.get(0);
+    }
+
+    @Benchmark
+    public EncodedPayload encodeSingle() throws IOException {
+        return EncodedPayload.of(codec, single, gzipThreshold);
+    }
+
+    @Benchmark
+    public EncodedPayload encodeBatch() throws IOException {
+        return EncodedPayload.ofBatch(codec, batch, gzipThreshold);
+    }
+
+    @TearDown
+    public void printSizes() throws IOException {
+        EncodedPayload one = EncodedPayload.of(codec, single, gzipThreshold);
+        EncodedPayload many = EncodedPayload.ofBatch(codec, batch, gzipThreshold);
+        System.out.println(String.format(Locale.US,
+                "%n%s%s%s: single %d B raw / %d B wire, batch of %d %d B raw / %d B wire",
+                codecName, structured ? " structured" : "", gzipThreshold >= 0 ? " +gzip" : "",
+                one.rawBytes, one.body.contentLength(), BATCH_SIZE, many.rawBytes, many.body.contentLength()));
+    }
+
+    @Benchmark
+    public ParsedTrade parseTrade() {
+        return TradeParser.parse(single.getMessage());
+    }
+}
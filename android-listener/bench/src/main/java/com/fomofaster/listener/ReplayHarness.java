@@ -0,0 +1,382 @@
+package com.fomofaster.listener;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+// Replays a notification stream through the real send pipeline (NotificationSender, outbox, retries,
+// circuit breaker, log ring) against a local MockWebServer that injects latency and failures, then
+// reports throughput, delivered/dropped counts and latency percentiles.
+//
+//   ./gradlew :bench:replay
+//   ./gradlew :bench:replay --args="--rate=200 --count=5000 --latency-ms=40 --failure-rate=0.1"
+//   ./gradlew :bench:replay --args="--recording=notifications.txt --batch --codec=binary"
+//
+// Options:
+//   --count=N            notifications to replay (default 1000; a recording is looped to reach it)
+//   --rate=N             notifications per second (default 100)
+//   --recording=FILE     one notification message per line, '#' starts a comment
+//   --latency-ms=N       backend response delay (default 20) plus up to --jitter-ms=N (default 10)
+//   --failure-rate=P     share of requests answered with 503 (default 0.05)
+//   --disconnect-rate=P  share of requests whose connection is dropped (default 0.01)
+//   --codec=json|binary  --gzip  --batch  --structured
+//   --ttl-s=N            give up on a notification after N seconds (default 30)
+//   --fixed-concurrency  only the lane limits bound concurrent requests, no adaptive limit
+public class ReplayHarness {
+    private static final String[] SYNTHETIC_MESSAGES = {
+            "KLED at $31.2m MC 🟢 @frankdegods bought $9,955.55",
+            "PUMP at $1.44b MC 🔴 @cented sold $12,400.00",
+            "WIF at $2.1b MC 🟢 @ansem bought $51,020.13",
+            "Blobby thesis by 0xuberM I tailed nosanity I have no idea what's happening",
+            "BONK at $980.5m MC 🟢 @theunipcs deposited $4,000",
+    };
+
+    // Same values the listener uses, except the TTL which is an option here
+    private static final long RETRY_BASE_DELAY_MS = 200;
+    private static final long RETRY_MAX_DELAY_MS = 30_000;
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long BREAKER_MIN_OPEN_MS = 1000;
+    private static final long BREAKER_MAX_OPEN_MS = 30_000;
+    private static final long OUTBOX_SYNC_INTERVAL_MS = 100;
+    private static final long OUTBOX_DRAIN_INTERVAL_MS = 2000;
+    private static final int HTTP_MAX_REQUESTS_PER_HOST = 32;
+    private static final int CONCURRENCY_INITIAL_LIMIT = 4;
+    private static final int CONCURRENCY_MIN_LIMIT = 1;
+    private static final double CONCURRENCY_LATENCY_TOLERANCE = 2.0;
+    private static final double CONCURRENCY_BACKOFF_RATIO = 0.9;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int count = Integer.parseInt(option(options, "count", "1000"));
+        double rate = Double.parseDouble(option(options, "rate", "100"));
+        long latencyMs = Long.parseLong(option(options, "latency-ms", "20"));
+        long jitterMs = Long.parseLong(option(options, "jitter-ms", "10"));
+        double failureRate = Double.parseDouble(option(options, "failure-rate", "0.05"));
+        double disconnectRate = Double.parseDouble(option(options, "disconnect-rate", "0.01"));
+        long ttlMs = Long.parseLong(option(options, "ttl-s", "30")) * 1000;
+        boolean binary = "binary".equals(option(options, "codec", "json"));
+        List<String> messages = options.containsKey("recording")
+                ? readRecording(new File(options.get("recording")))
+                : Arrays.asList(SYNTHETIC_MESSAGES);
+
+        FaultyBackend backend = new FaultyBackend(latencyMs, jitterMs, failureRate, disconnectRate);
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(backend);
+        server.start();
+
+        File workDir = createTempDir();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        okhttp3.Dispatcher httpDispatcher = new okhttp3.Dispatcher();
+        httpDispatcher.setMaxRequestsPerHost(HTTP_MAX_REQUESTS_PER_HOST);
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(httpDispatcher)
+                .eventListenerFactory(SendTrace.EVENT_LISTENER_FACTORY)
+                .build();
+
+        BackendPool pool = new BackendPool(Collections.singletonList(server.url("/").toString()));
+        BackendRoute route = new BackendRoute(BackendRoute.DEFAULT, pool,
+                new BackendRouter(client, pool, executor, false),
+                new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_MIN_OPEN_MS, BREAKER_MAX_OPEN_MS));
+
+        CountingEvents events = new CountingEvents(count, new LogRingFile(new File(workDir, "log.ring"), LogRingFile.DEFAULT_CAPACITY));
+        NotificationOutbox outbox = new NotificationOutbox(new File(workDir, "outbox"));
+        NotificationSender sender = new NotificationSender(executor, outbox, route, new HashMap<String, BackendRoute>(),
+                new RetryPolicy(RETRY_BASE_DELAY_MS, RETRY_MAX_DELAY_MS, ttlMs), new RecentKeyCache(4096), events);
+        sender.setPayloadCodec(binary ? new BinaryPayloadCodec() : new JsonPayloadCodec(),
+                options.containsKey("gzip") ? 512 : -1);
+        sender.setStructuredEnabled(options.containsKey("structured"));
+        if (options.containsKey("batch")) {
+            sender.enableBatching(10, 20);
+        }
+        if (!options.containsKey("fixed-concurrency")) {
+            sender.setConcurrencyLimit(new AdaptiveConcurrencyLimit(CONCURRENCY_INITIAL_LIMIT, CONCURRENCY_MIN_LIMIT,
+                    HTTP_MAX_REQUESTS_PER_HOST, CONCURRENCY_LATENCY_TOLERANCE, CONCURRENCY_BACKOFF_RATIO));
+        }
+        executor.scheduleWithFixedDelay(sender::syncOutbox, OUTBOX_SYNC_INTERVAL_MS, OUTBOX_SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(sender::drainOutbox, OUTBOX_DRAIN_INTERVAL_MS, OUTBOX_DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        System.out.println(String.format(Locale.US,
+                "Replaying %d notifications at %.0f/s against %s (latency %d+%dms, 503 %.0f%%, disconnect %.0f%%)",
+                count, rate, server.url("/"), latencyMs, jitterMs, failureRate * 100, disconnectRate * 100));
+
+        // Feeder runs on its own thread so a slow submit shows up as missed rate, not as skewed timing
+        ScheduledExecutorService feeder = Executors.newSingleThreadScheduledExecutor();
+        AtomicInteger submitted = new AtomicInteger();
+        long periodNanos = (long) (1_000_000_000L / rate);
+        long startNanos = System.nanoTime();
+        ScheduledFuture<?> feed = feeder.scheduleAtFixedRate(() -> {
+            int i = submitted.getAndIncrement();
+            if (i >= count) {
+                return;
+            }
+            String message = messages.get(i % messages.size()) + " #" + i;
+            String key = "0|family.fomo.app|" + i + "|null|10123";
+            long postTime = System.currentTimeMillis();
+            long idempotencyKey = IdempotencyKeys.compute(key, postTime, message);
+            sender.submit(postTime, key, message, idempotencyKey, BackendRoute.DEFAULT, System.nanoTime());
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+
+        boolean finished = events.done.await(ttlMs + (long) (count / rate * 1000) + 5000, TimeUnit.MILLISECONDS);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        feed.cancel(false);
+        feeder.shutdownNow();
+        executor.shutdownNow();
+        outbox.close();
+        server.shutdown();
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.println(String.format(Locale.US, "elapsed            %.2fs%s", seconds, finished ? "" : " (timed out)"));
+        System.out.println(String.format(Locale.US, "throughput         %.1f delivered/s", events.delivered.get() / seconds));
+        System.out.println(String.format(Locale.US, "delivered          %d / %d", events.delivered.get(), count));
+        System.out.println(String.format(Locale.US, "dropped            %d (expired %d, rejected %d, shed %d)",
+                events.expired.get() + events.rejected.get() + events.shed.get(),
+                events.expired.get(), events.rejected.get(), events.shed.get()));
+        System.out.println(String.format(Locale.US, "retries            %d (parked %d)", events.retries.get(), events.parked.get()));
+        System.out.println(String.format(Locale.US, "backend requests   %d (503 %d, dropped %d, duplicate items %d)",
+                backend.requests.get(), backend.failures.get(), backend.disconnects.get(), backend.duplicates.get()));
+        System.out.println(String.format(Locale.US, "log entries        %d", events.log.size()));
+        if (sender.getConcurrencyLimit() != null) {
+            System.out.println(String.format(Locale.US, "concurrency limit  %d (baseline %.1fms)",
+                    sender.getConcurrencyLimit().getLimit(), sender.getConcurrencyLimit().getBaselineNanos() / 1e6));
+        }
+        System.out.println();
+        System.out.println(events.latency.summary());
+        System.out.println(PipelineMetrics.summary());
+        System.exit(0);
+    }
+
+    // Answers like the real backend (single POST, batch with per-item results) after an injected delay,
+    // or fails the request on purpose
+    private static class FaultyBackend extends Dispatcher {
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong disconnects = new AtomicLong();
+        final AtomicLong duplicates = new AtomicLong();
+
+        private final long latencyMs;
+        private final long jitterMs;
+        private final double failureRate;
+        private final double disconnectRate;
+        private final Random random = new Random(42);
+        private final Set<String> seenKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        FaultyBackend(long latencyMs, long jitterMs, double failureRate, double disconnectRate) {
+            this.latencyMs = latencyMs;
+            this.jitterMs = jitterMs;
+            this.failureRate = failureRate;
+            this.disconnectRate = disconnectRate;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            requests.incrementAndGet();
+            double roll;
+            long delayMs;
+            synchronized (random) {
+                roll = random.nextDouble();
+                delayMs = latencyMs + (jitterMs > 0 ? (long) (random.nextDouble() * jitterMs) : 0);
+            }
+
+            if (roll < disconnectRate) {
+                disconnects.incrementAndGet();
+                return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START);
+            }
+            MockResponse response = new MockResponse().setHeadersDelay(delayMs, TimeUnit.MILLISECONDS);
+            if (roll < disconnectRate + failureRate) {
+                failures.incrementAndGet();
+                return response.setResponseCode(503).setBody("injected failure");
+            }
+
+            String path = request.getPath();
+            if (path != null && path.endsWith("/batch")) {
+                int items = countBatchItems(request);
+                JSONArray results = new JSONArray();
+                for (int i = 0; i < items; i++) {
+                    results.put(new JSONObject(Collections.singletonMap("statusCode", 200)));
+                }
+                return response.setBody(new JSONObject(Collections.singletonMap("results", results)).toString());
+            }
+
+            String key = request.getHeader(NotificationSender.IDEMPOTENCY_KEY_HEADER);
+            if (key != null && !seenKeys.add(key)) {
+                // Delivered before but the answer was lost - the real backend would dedup this
+                duplicates.incrementAndGet();
+            }
+            return response.setBody("{\"success\":true}");
+        }
+
+        private static int countBatchItems(RecordedRequest request) {
+            try {
+                byte[] body = request.getBody().readByteArray();
+                if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+                    body = gunzip(body);
+                }
+                String contentType = request.getHeader("Content-Type");
+                if (contentType != null && contentType.startsWith(BinaryPayloadCodec.BINARY_TYPE.toString())) {
+                    // [version][varint count]...
+                    int count = 0;
+                    int shift = 0;
+                    for (int i = 1; i < body.length; i++) {
+                        count |= (body[i] & 0x7f) << shift;
+                        if ((body[i] & 0x80) == 0) {
+                            break;
+                        }
+                        shift += 7;
+                    }
+                    return count;
+                }
+                return new JSONArray(new String(body, "UTF-8")).length();
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+
+        private static byte[] gunzip(byte[] body) throws IOException {
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static class CountingEvents implements NotificationSender.Events {
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong expired = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong parked = new AtomicLong();
+        final AtomicLong shed = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram("submitted -> delivered");
+        final CountDownLatch done;
+        final LogRingFile log;
+
+        CountingEvents(int expected, LogRingFile log) {
+            this.done = new CountDownLatch(expected);
+            this.log = log;
+        }
+
+        @Override
+        public void onDelivered(OutboxEntry entry) {
+            delivered.incrementAndGet();
+            if (entry.receivedAtNanos != 0) {
+                latency.recordNanos(System.nanoTime() - entry.receivedAtNanos);
+            }
+            done.countDown();
+        }
+
+        @Override
+        public void onLogEntry(String status, String message, String detail) {
+            log.append(status, message, detail);
+            if (status.startsWith("FAILED (expired")) {
+                expired.incrementAndGet();
+                done.countDown();
+            } else if (status.startsWith("FAILED")) {
+                rejected.incrementAndGet();
+                done.countDown();
+            } else if (status.startsWith("DROPPED")) {
+                shed.incrementAndGet();
+                done.countDown();
+            } else if (status.startsWith("RETRYING")) {
+                retries.incrementAndGet();
+            } else if (status.startsWith("QUEUED")) {
+                parked.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void debug(String message) {
+        }
+
+        @Override
+        public void error(String message, Throwable t) {
+        }
+    }
+
+    private static List<String> readRecording(File file) throws IOException {
+        List<String> messages = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    messages.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (messages.isEmpty()) {
+            throw new IOException("No notifications in " + file);
+        }
+        return messages;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("replay-harness", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        dir.deleteOnExit();
+        return dir;
+    }
+}
@@ -0,0 +1,249 @@
+package com.fomofaster.listener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BackendRouterTest {
+    private static final MediaType JSON_TYPE = MediaType.get("application/json; charset=utf-8");
+
+    private final MockWebServer primary = new MockWebServer();
+    private final MockWebServer backup = new MockWebServer();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .connectTimeout(2, TimeUnit.SECONDS)
+            .readTimeout(2, TimeUnit.SECONDS)
+            .retryOnConnectionFailure(false)
+            .build();
+
+    // Collects the single outcome the router promises
+    private static final class Outcome implements Callback {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        volatile int code = -1;
+        volatile String body;
+        volatile IOException failure;
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            failure = e;
+            calls.incrementAndGet();
+            latch.countDown();
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            try {
+                code = response.code();
+                body = response.body() != null ? response.body().string() : null;
+            } finally {
+                response.close();
+            }
+            calls.incrementAndGet();
+            latch.countDown();
+        }
+
+        Outcome await() throws InterruptedException {
+            assertTrue("callback never ran", latch.await(5, TimeUnit.SECONDS));
+            // Give a second (wrong) invocation the chance to show up
+            Thread.sleep(100);
+            assertEquals(1, calls.get());
+            return this;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        primary.start();
+        backup.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        scheduler.shutdownNow();
+        primary.shutdown();
+        backup.shutdown();
+    }
+
+    private BackendRouter router(boolean hedging, String... urls) {
+        return new BackendRouter(client, new BackendPool(Arrays.asList(urls)), scheduler, hedging);
+    }
+
+    private static BackendRouter.RequestFactory post() {
+        return endpoint -> new Request.Builder()
+                .url(endpoint.notificationsUrl)
+                .post(RequestBody.create("{}", JSON_TYPE))
+                .build();
+    }
+
+    @Test
+    public void primaryAnswerIsDeliveredWithoutTouchingTheBackup() throws Exception {
+        primary.enqueue(new MockResponse().setBody("primary"));
+        Outcome outcome = new Outcome();
+        router(false, primary.url("/").toString(), backup.url("/").toString()).enqueue(post(), outcome);
+
+        assertEquals(200, outcome.await().code);
+        assertEquals("primary", outcome.body);
+        assertEquals(0, backup.getRequestCount());
+    }
+
+    @Test
+    public void retryableStatusFailsOverToBackup() throws Exception {
+        primary.enqueue(new MockResponse().setResponseCode(503));
+        backup.enqueue(new MockResponse().setBody("backup"));
+        Outcome outcome = new Outcome();
+        router(false, primary.url("/").toString(), backup.url("/").toString()).enqueue(post(), outcome);
+
+        assertEquals(200, outcome.await().code);
+        assertEquals("backup", outcome.body);
+        assertEquals("/api/notifications", backup.takeRequest().getPath());
+    }
+
+    @Test
+    public void nonRetryableStatusIsDeliveredAsIs() throws Exception {
+        primary.enqueue(new MockResponse().setResponseCode(400).setBody("rejected"));
+        Outcome outcome = new Outcome();
+        router(false, primary.url("/").toString(), backup.url("/").toString()).enqueue(post(), outcome);
+
+        assertEquals(400, outcome.await().code);
+        assertEquals(0, backup.getRequestCount());
+    }
+
+    @Test
+    public void networkErrorFailsOverToBackup() throws Exception {
+        String deadUrl = primary.url("/").toString();
+        primary.shutdown();
+        backup.enqueue(new MockResponse().setBody("backup"));
+        Outcome outcome = new Outcome();
+        router(false, deadUrl, backup.url("/").toString()).enqueue(post(), outcome);
+
+        assertEquals(200, outcome.await().code);
+        assertNull(outcome.failure);
+    }
+
+    @Test
+    public void lastFailureIsDeliveredWhenEveryBackendFails() throws Exception {
+        primary.enqueue(new MockResponse().setResponseCode(503));
+        backup.enqueue(new MockResponse().setResponseCode(502).setBody("backup down"));
+        Outcome outcome = new Outcome();
+        router(false, primary.url("/").toString(), backup.url("/").toString()).enqueue(post(), outcome);
+
+        assertEquals(502, outcome.await().code);
+        assertEquals("backup down", outcome.body);
+    }
+
+    @Test
+    public void networkErrorWithoutBackupIsDeliveredAsFailure() throws Exception {
+        String deadUrl = primary.url("/").toString();
+        primary.shutdown();
+        Outcome outcome = new Outcome();
+        router(false, deadUrl).enqueue(post(), outcome);
+
+        assertNotNull(outcome.await().failure);
+    }
+
+    @Test
+    public void slowPrimaryIsHedged() throws Exception {
+        primary.enqueue(new MockResponse().setBody("primary").setHeadersDelay(1500, TimeUnit.MILLISECONDS));
+        backup.enqueue(new MockResponse().setBody("backup"));
+        Outcome outcome = new Outcome();
+        router(true, primary.url("/").toString(), backup.url("/").toString()).enqueue(post(), outcome);
+
+        assertEquals("backup", outcome.await().body);
+    }
+
+    // Throws for the given backend, builds a normal request for the others
+    private static BackendRouter.RequestFactory failingFor(final String baseUrl) {
+        final BackendRouter.RequestFactory post = post();
+        return endpoint -> {
+            if (endpoint.getBaseUrl().equals(baseUrl)) {
+                throw new IOException("payload could not be encoded");
+            }
+            return post.build(endpoint);
+        };
+    }
+
+    @Test
+    public void primaryBuildFailureFailsOverToBackup() throws Exception {
+        backup.enqueue(new MockResponse().setBody("backup"));
+        String primaryUrl = primary.url("/").toString();
+        Outcome outcome = new Outcome();
+        router(false, primaryUrl, backup.url("/").toString()).enqueue(failingFor(primaryUrl), outcome);
+
+        assertEquals("backup", outcome.await().body);
+        assertEquals(0, primary.getRequestCount());
+    }
+
+    @Test
+    public void buildFailureWithoutBackupIsDelivered() throws Exception {
+        String primaryUrl = primary.url("/").toString();
+        Outcome outcome = new Outcome();
+        router(false, primaryUrl).enqueue(failingFor(primaryUrl), outcome);
+
+        assertEquals("payload could not be encoded", outcome.await().failure.getMessage());
+    }
+
+    @Test
+    public void runtimeExceptionFromFactoryIsDeliveredAsFailure() throws Exception {
+        Outcome outcome = new Outcome();
+        router(false, primary.url("/").toString()).enqueue(endpoint -> {
+            throw new IllegalArgumentException("bad header");
+        }, outcome);
+
+        assertTrue(outcome.await().failure.getCause() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void backupBuildFailureDeliversThePrimaryAnswer() throws Exception {
+        primary.enqueue(new MockResponse().setResponseCode(503).setBody("primary down"));
+        String backupUrl = backup.url("/").toString();
+        Outcome outcome = new Outcome();
+        router(false, primary.url("/").toString(), backupUrl).enqueue(failingFor(backupUrl), outcome);
+
+        assertEquals(503, outcome.await().code);
+        assertEquals("primary down", outcome.body);
+    }
+
+    @Test
+    public void hedgeBuildFailureStillDeliversThePrimary() throws Exception {
+        primary.enqueue(new MockResponse().setBody("primary").setHeadersDelay(600, TimeUnit.MILLISECONDS));
+        String backupUrl = backup.url("/").toString();
+        Outcome outcome = new Outcome();
+        router(true, primary.url("/").toString(), backupUrl).enqueue(failingFor(backupUrl), outcome);
+
+        assertEquals("primary", outcome.await().body);
+    }
+
+    @Test
+    public void everyBuildFailingStillDeliversOnce() throws Exception {
+        Outcome outcome = new Outcome();
+        router(true, primary.url("/").toString(), backup.url("/").toString()).enqueue(endpoint -> {
+            throw new IOException("nothing to send");
+        }, outcome);
+
+        assertNotNull(outcome.await().failure);
+    }
+}
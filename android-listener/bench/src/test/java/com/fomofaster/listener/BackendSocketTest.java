@@ -0,0 +1,176 @@
+package com.fomofaster.listener;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BackendSocketTest {
+    private final MockWebServer server = new MockWebServer();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private BackendSocket socket;
+
+    // Records what the socket hands back to the sender
+    private static final class Recorder implements BackendSocket.Listener {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final List<Long> acked = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Long> timedOut = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Long> unacked = Collections.synchronizedList(new ArrayList<Long>());
+        volatile CountDownLatch timeouts = new CountDownLatch(1);
+
+        @Override
+        public void onConnected() {
+            connected.countDown();
+        }
+
+        @Override
+        public void onAck(OutboxEntry entry, int statusCode, String body) {
+            acked.add(entry.getId());
+        }
+
+        @Override
+        public void onUnacked(List<OutboxEntry> entries, String reason) {
+            for (OutboxEntry entry : entries) {
+                unacked.add(entry.getId());
+            }
+        }
+
+        @Override
+        public void onAckTimeout(List<OutboxEntry> entries, String reason) {
+            for (OutboxEntry entry : entries) {
+                timedOut.add(entry.getId());
+            }
+            timeouts.countDown();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (socket != null) {
+            socket.close();
+        }
+        scheduler.shutdownNow();
+        server.shutdown();
+    }
+
+    private static OutboxEntry entry(long id) {
+        return new OutboxEntry(id, System.currentTimeMillis(), "key-" + id, "message " + id, id);
+    }
+
+    // Backend stand-in: acks frame 1, never answers frame 2, answers frame 3 with an ack it can't match
+    private void serveStream() {
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                try {
+                    long id = new JSONObject(text).getLong("id");
+                    if (id == 1) {
+                        webSocket.send("{\"ack\":1,\"statusCode\":200,\"body\":{}}");
+                    } else if (id == 3) {
+                        webSocket.send("{\"ack\":0,\"statusCode\":400,\"body\":{}}");
+                        webSocket.send("not json");
+                    }
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                webSocket.close(1000, null);
+            }
+        }));
+    }
+
+    @Test
+    public void framesWithoutAMatchingAckAreTakenBackAfterTheirDeadline() throws Exception {
+        serveStream();
+        Recorder recorder = new Recorder();
+        socket = new BackendSocket(new OkHttpClient(), server.url("/api/notifications/stream").toString(),
+                scheduler, recorder, 300);
+        socket.connect();
+        assertTrue(recorder.connected.await(5, TimeUnit.SECONDS));
+
+        assertTrue(socket.send(entry(1)));
+        assertTrue(socket.send(entry(2)));
+        assertTrue(socket.send(entry(3)));
+
+        assertTrue(recorder.timeouts.await(5, TimeUnit.SECONDS));
+        // Let a second sweep run in case the two frames weren't due in the same one
+        Thread.sleep(1500);
+        assertEquals(Collections.singletonList(1L), recorder.acked);
+        List<Long> timedOut = new ArrayList<>(recorder.timedOut);
+        Collections.sort(timedOut);
+        assertEquals(Arrays.asList(2L, 3L), timedOut);
+    }
+
+    @Test
+    public void ackedFramesNeverTimeOut() throws Exception {
+        serveStream();
+        Recorder recorder = new Recorder();
+        socket = new BackendSocket(new OkHttpClient(), server.url("/api/notifications/stream").toString(),
+                scheduler, recorder, 200);
+        socket.connect();
+        assertTrue(recorder.connected.await(5, TimeUnit.SECONDS));
+
+        assertTrue(socket.send(entry(1)));
+        Thread.sleep(1500);
+        assertEquals(Collections.singletonList(1L), recorder.acked);
+        assertTrue(recorder.timedOut.isEmpty());
+    }
+
+    @Test
+    public void closeForgetsFramesInsteadOfHandingThemBack() throws Exception {
+        serveStream();
+        Recorder recorder = new Recorder();
+        socket = new BackendSocket(new OkHttpClient(), server.url("/api/notifications/stream").toString(),
+                scheduler, recorder, 300);
+        socket.connect();
+        assertTrue(recorder.connected.await(5, TimeUnit.SECONDS));
+
+        assertTrue(socket.send(entry(2)));
+        socket.close();
+        // Long enough for the backend's close frame to come back and for the old deadline to pass
+        Thread.sleep(1500);
+        assertTrue(recorder.unacked.isEmpty());
+        assertTrue(recorder.timedOut.isEmpty());
+    }
+
+    @Test
+    public void closeAndHandBackReturnsUnackedFramesBeforeReturning() throws Exception {
+        serveStream();
+        Recorder recorder = new Recorder();
+        socket = new BackendSocket(new OkHttpClient(), server.url("/api/notifications/stream").toString(),
+                scheduler, recorder, 300);
+        socket.connect();
+        assertTrue(recorder.connected.await(5, TimeUnit.SECONDS));
+
+        assertTrue(socket.send(entry(2)));
+        socket.closeAndHandBack("Backend changed");
+        assertEquals(Collections.singletonList(2L), recorder.unacked);
+        assertFalse(socket.send(entry(4)));
+
+        // Nothing more comes back once the close frame round-trips or the old deadline passes
+        Thread.sleep(1500);
+        assertEquals(Collections.singletonList(2L), recorder.unacked);
+        assertTrue(recorder.timedOut.isEmpty());
+    }
+}
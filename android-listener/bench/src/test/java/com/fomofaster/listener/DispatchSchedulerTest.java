@@ -0,0 +1,168 @@
+package com.fomofaster.listener;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DispatchSchedulerTest {
+    // Records what happened to it; holds its slot until finish() is called
+    private static final class TestJob implements DispatchScheduler.Job {
+        final String name;
+        final List<String> log;
+        Runnable done;
+        Boolean shedSuperseded;
+
+        TestJob(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+
+        @Override
+        public void start(Runnable done) {
+            this.done = done;
+            log.add("start " + name);
+        }
+
+        @Override
+        public void shed(boolean superseded) {
+            shedSuperseded = superseded;
+            log.add((superseded ? "superseded " : "shed ") + name);
+        }
+
+        void finish() {
+            done.run();
+        }
+    }
+
+    private final List<String> log = new ArrayList<>();
+
+    private TestJob job(String name) {
+        return new TestJob(name, log);
+    }
+
+    @Test
+    public void lanesAreServedInOrderAndByPriority() {
+        DispatchScheduler scheduler = new DispatchScheduler(1, 1, 1);
+        TestJob blockerFresh = job("blocker-fresh");
+        TestJob blockerRetry = job("blocker-retry");
+        TestJob blockerReplay = job("blocker-replay");
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, blockerFresh);
+        scheduler.submit(DispatchScheduler.Lane.RETRY, 0, null, blockerRetry);
+        scheduler.submit(DispatchScheduler.Lane.REPLAY, 0, null, blockerReplay);
+
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, job("low"));
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 5, null, job("high"));
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, job("low-later"));
+        assertEquals(3, scheduler.queued(DispatchScheduler.Lane.FRESH));
+        assertEquals(3, scheduler.inFlight());
+
+        log.clear();
+        blockerFresh.finish();
+        assertEquals(Arrays.asList("start high"), log);
+    }
+
+    @Test
+    public void doneIsIdempotent() {
+        DispatchScheduler scheduler = new DispatchScheduler(1, 1, 1);
+        TestJob first = job("first");
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, first);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, job("second"));
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, job("third"));
+
+        first.finish();
+        first.finish();
+        assertEquals(1, scheduler.running(DispatchScheduler.Lane.FRESH));
+        assertEquals(1, scheduler.queued(DispatchScheduler.Lane.FRESH));
+    }
+
+    @Test
+    public void dropOldestShedsLowestPriorityThenOldest() {
+        DispatchScheduler scheduler = new DispatchScheduler(1, 1, 1);
+        scheduler.setCapacity(2, DispatchScheduler.Overflow.DROP_OLDEST);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, job("running"));
+
+        TestJob oldLow = job("old-low");
+        TestJob newLow = job("new-low");
+        TestJob high = job("high");
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, oldLow);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, newLow);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 3, null, high);
+
+        assertEquals(Boolean.FALSE, oldLow.shedSuperseded);
+        assertNull(newLow.shedSuperseded);
+        assertNull(high.shedSuperseded);
+        assertEquals(2, scheduler.queued(DispatchScheduler.Lane.FRESH));
+    }
+
+    @Test
+    public void dropOldestShedsIncomingJobWhenEverythingQueuedOutranksIt() {
+        DispatchScheduler scheduler = new DispatchScheduler(1, 1, 1);
+        scheduler.setCapacity(1, DispatchScheduler.Overflow.DROP_OLDEST);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, job("running"));
+
+        TestJob queued = job("queued");
+        TestJob incoming = job("incoming");
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 5, null, queued);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 1, null, incoming);
+
+        assertNull(queued.shedSuperseded);
+        assertEquals(Boolean.FALSE, incoming.shedSuperseded);
+        assertEquals(1, scheduler.queued(DispatchScheduler.Lane.FRESH));
+    }
+
+    @Test
+    public void coalesceReplacesQueuedJobWithSameKey() {
+        DispatchScheduler scheduler = new DispatchScheduler(1, 1, 1);
+        scheduler.setCapacity(2, DispatchScheduler.Overflow.COALESCE);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, job("running"));
+
+        TestJob alice = job("alice-1");
+        TestJob bob = job("bob-1");
+        TestJob aliceAgain = job("alice-2");
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 5, "alice", alice);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, "bob", bob);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, "alice", aliceAgain);
+
+        // bob has the lowest priority, but alice-1 is superseded by the newer job for the same key
+        assertEquals(Boolean.TRUE, alice.shedSuperseded);
+        assertNull(bob.shedSuperseded);
+        assertNull(aliceAgain.shedSuperseded);
+    }
+
+    @Test
+    public void coalesceFallsBackToDropOldestWithoutAMatchingKey() {
+        DispatchScheduler scheduler = new DispatchScheduler(1, 1, 1);
+        scheduler.setCapacity(1, DispatchScheduler.Overflow.COALESCE);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, job("running"));
+
+        TestJob alice = job("alice");
+        TestJob bob = job("bob");
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, "alice", alice);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, "bob", bob);
+
+        assertEquals(Boolean.FALSE, alice.shedSuperseded);
+        assertNull(bob.shedSuperseded);
+    }
+
+    @Test
+    public void capacityIsPerLaneAndUnboundedByDefault() {
+        DispatchScheduler scheduler = new DispatchScheduler(1, 1, 1);
+        scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, job("running"));
+        for (int i = 0; i < 1000; i++) {
+            scheduler.submit(DispatchScheduler.Lane.FRESH, 0, null, job("queued-" + i));
+        }
+        assertEquals(1000, scheduler.queued(DispatchScheduler.Lane.FRESH));
+
+        scheduler.setCapacity(1, DispatchScheduler.Overflow.DROP_OLDEST);
+        scheduler.submit(DispatchScheduler.Lane.RETRY, 0, null, job("retry-running"));
+        scheduler.submit(DispatchScheduler.Lane.RETRY, 0, null, job("retry-queued"));
+        assertEquals(1, scheduler.queued(DispatchScheduler.Lane.RETRY));
+        assertTrue(log.contains("start retry-running"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.fomofaster.listener;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogRingFileTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> texts(List<NotificationLogEntry> entries) {
+        List<String> texts = new ArrayList<>();
+        for (NotificationLogEntry entry : entries) {
+            texts.add(entry.getNotificationText());
+        }
+        return texts;
+    }
+
+    @Test
+    public void pagesDontShiftWhenEntriesAreAppendedInBetween() throws Exception {
+        LogRingFile ring = new LogRingFile(new File(folder.getRoot(), "log.ring"), 100);
+        for (int i = 1; i <= 5; i++) {
+            ring.append("SENT", "n" + i, "");
+        }
+
+        List<NotificationLogEntry> first = ring.readNewest(2);
+        assertEquals(Arrays.asList("n5", "n4"), texts(first));
+
+        // Appended after the first page was shown but before the next one is read
+        ring.append("SENT", "n6", "");
+        ring.append("SENT", "n7", "");
+
+        List<NotificationLogEntry> second = ring.readOlder(first.get(first.size() - 1).getSeq(), 2);
+        assertEquals(Arrays.asList("n3", "n2"), texts(second));
+        List<NotificationLogEntry> third = ring.readOlder(second.get(second.size() - 1).getSeq(), 2);
+        assertEquals(Arrays.asList("n1"), texts(third));
+        assertTrue(ring.readOlder(third.get(0).getSeq(), 2).isEmpty());
+    }
+
+    @Test
+    public void readOlderStopsAtOverwrittenAndClearedEntries() throws Exception {
+        LogRingFile ring = new LogRingFile(new File(folder.getRoot(), "log.ring"), 3);
+        for (int i = 1; i <= 5; i++) {
+            ring.append("SENT", "n" + i, "");
+        }
+        assertEquals(Arrays.asList("n5", "n4", "n3"), texts(ring.readNewest(10)));
+
+        ring.clear();
+        long seq = ring.append("SENT", "n6", "");
+        assertEquals(Arrays.asList("n6"), texts(ring.readNewest(10)));
+        assertTrue(ring.readOlder(seq, 10).isEmpty());
+    }
+}
@@ -0,0 +1,241 @@
+package com.fomofaster.listener;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationOutboxTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private OutboxEntry append(NotificationOutbox outbox, String message) throws IOException {
+        return outbox.append(1_700_000_000_000L, "key-" + message, message, message.hashCode(), BackendRoute.DEFAULT);
+    }
+
+    private static List<Long> ids(NotificationOutbox outbox) {
+        List<Long> ids = new ArrayList<>();
+        for (OutboxEntry entry : outbox.pendingEntries()) {
+            ids.add(entry.getId());
+        }
+        return ids;
+    }
+
+    private File segment(File dir, long segmentId) {
+        return new File(dir, "segment-" + segmentId + ".log");
+    }
+
+    @Test
+    public void pendingEntriesSurviveRestart() throws IOException {
+        File dir = folder.newFolder();
+        NotificationOutbox outbox = new NotificationOutbox(dir);
+        OutboxEntry first = append(outbox, "first");
+        append(outbox, "second");
+        outbox.ack(first.getId());
+        outbox.close();
+
+        NotificationOutbox reopened = new NotificationOutbox(dir);
+        assertEquals(1, reopened.size());
+        OutboxEntry entry = reopened.oldest();
+        assertEquals("second", entry.getMessage());
+        assertEquals("key-second", entry.getNotificationKey());
+        assertEquals(1_700_000_000_000L, entry.getPostTime());
+        assertEquals("second".hashCode(), entry.getIdempotencyKey());
+        assertEquals(BackendRoute.DEFAULT, entry.getRoute());
+        assertEquals(3, append(reopened, "third").getId());
+    }
+
+    @Test
+    public void tornTailIsIgnored() throws IOException {
+        File dir = folder.newFolder();
+        NotificationOutbox outbox = new NotificationOutbox(dir);
+        append(outbox, "first");
+        append(outbox, "second");
+        append(outbox, "third");
+        outbox.close();
+
+        // Crash in the middle of writing the last record
+        File file = segment(dir, 1);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 5);
+        } finally {
+            raf.close();
+        }
+
+        NotificationOutbox reopened = new NotificationOutbox(dir);
+        assertEquals(Arrays.asList(1L, 2L), ids(reopened));
+        // Appends go to a fresh segment, never after the torn record
+        OutboxEntry next = append(reopened, "next");
+        reopened.close();
+
+        NotificationOutbox again = new NotificationOutbox(dir);
+        assertEquals(Arrays.asList(1L, 2L, next.getId()), ids(again));
+    }
+
+    @Test
+    public void corruptRecordEndsReplayOfItsSegment() throws IOException {
+        File dir = folder.newFolder();
+        NotificationOutbox outbox = new NotificationOutbox(dir);
+        append(outbox, "first");
+        outbox.close();
+
+        FileOutputStream out = new FileOutputStream(segment(dir, 1), true);
+        try {
+            // Plausible length, wrong CRC
+            out.write(new byte[]{0, 0, 0, 8, 1, 2, 3, 4, 9, 9, 9, 9, 9, 9, 9, 9});
+        } finally {
+            out.close();
+        }
+
+        NotificationOutbox reopened = new NotificationOutbox(dir);
+        assertEquals(Arrays.asList(1L), ids(reopened));
+    }
+
+    @Test
+    public void ackInLaterSegmentIsApplied() throws IOException {
+        File dir = folder.newFolder();
+        NotificationOutbox outbox = new NotificationOutbox(dir);
+        append(outbox, "first");
+        OutboxEntry second = append(outbox, "second");
+        outbox.close();
+
+        // Recovery starts segment 2; the ACK for an entry of segment 1 lands there
+        NotificationOutbox reopened = new NotificationOutbox(dir);
+        reopened.ack(second.getId());
+        reopened.close();
+        assertTrue(segment(dir, 1).exists());
+        assertTrue(segment(dir, 2).exists());
+
+        NotificationOutbox again = new NotificationOutbox(dir);
+        assertEquals(Arrays.asList(1L), ids(again));
+        assertFalse(again.isPending(second.getId()));
+    }
+
+    @Test
+    public void drainedSegmentsAreDeletedFromTheHead() throws IOException {
+        File dir = folder.newFolder();
+        NotificationOutbox outbox = new NotificationOutbox(dir);
+        OutboxEntry first = append(outbox, "first");
+        outbox.close();
+
+        outbox = new NotificationOutbox(dir);
+        OutboxEntry second = append(outbox, "second");
+        outbox.close();
+
+        outbox = new NotificationOutbox(dir);
+        // Segment 2 is drained first, but stays until segment 1 is gone too
+        outbox.ack(second.getId());
+        assertTrue(segment(dir, 1).exists());
+        assertTrue(segment(dir, 2).exists());
+
+        outbox.ack(first.getId());
+        assertFalse(segment(dir, 1).exists());
+        assertFalse(segment(dir, 2).exists());
+        assertTrue(segment(dir, 3).exists());
+        outbox.close();
+
+        assertEquals(0, new NotificationOutbox(dir).size());
+    }
+
+    @Test
+    public void largeBacklogRollsSegments() throws IOException {
+        File dir = folder.newFolder();
+        char[] filler = new char[16 * 1024];
+        Arrays.fill(filler, 'x');
+        String message = new String(filler);
+
+        NotificationOutbox outbox = new NotificationOutbox(dir);
+        List<OutboxEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            entries.add(append(outbox, message + i));
+        }
+        assertTrue(segment(dir, 3).exists());
+
+        // Ack everything but the last entry; only its segment and later ones may remain
+        for (int i = 0; i < entries.size() - 1; i++) {
+            outbox.ack(entries.get(i).getId());
+        }
+        assertFalse(segment(dir, 1).exists());
+        outbox.close();
+
+        NotificationOutbox reopened = new NotificationOutbox(dir);
+        assertEquals(Arrays.asList(entries.get(entries.size() - 1).getId()), ids(reopened));
+    }
+
+    @Test
+    public void sequenceNumbersAreAssignedOnFirstSendPerRoute() throws IOException {
+        NotificationOutbox outbox = new NotificationOutbox(folder.newFolder());
+        OutboxEntry first = append(outbox, "first");
+        OutboxEntry neverSent = append(outbox, "never sent");
+        OutboxEntry other = append(outbox, "other route");
+        OutboxEntry second = append(outbox, "second");
+        assertEquals(0, first.getSequence());
+
+        outbox.assignSequence(first, BackendRoute.DEFAULT);
+        outbox.assignSequence(other, "whales");
+        outbox.assignSequence(second, BackendRoute.DEFAULT);
+        // A retry keeps its number
+        outbox.assignSequence(first, BackendRoute.DEFAULT);
+
+        assertEquals(1, first.getSequence());
+        assertEquals(2, second.getSequence());
+        assertEquals(1, other.getSequence());
+        assertEquals(0, neverSent.getSequence());
+    }
+
+    @Test
+    public void assignedSequencesSurviveRestart() throws IOException {
+        File dir = folder.newFolder();
+        NotificationOutbox outbox = new NotificationOutbox(dir);
+        OutboxEntry first = append(outbox, "first");
+        OutboxEntry second = append(outbox, "second");
+        outbox.assignSequence(first, BackendRoute.DEFAULT);
+        outbox.assignSequence(second, BackendRoute.DEFAULT);
+        outbox.ack(first.getId());
+        outbox.close();
+
+        NotificationOutbox reopened = new NotificationOutbox(dir);
+        OutboxEntry recovered = reopened.oldest();
+        assertEquals(2, recovered.getSequence());
+        reopened.assignSequence(recovered, BackendRoute.DEFAULT);
+        assertEquals(2, recovered.getSequence());
+    }
+
+    @Test
+    public void sequenceNumbersContinueAfterDrainedRestart() throws IOException {
+        File dir = folder.newFolder();
+        NotificationOutbox outbox = new NotificationOutbox(dir);
+        OutboxEntry first = append(outbox, "first");
+        OutboxEntry second = append(outbox, "second");
+        outbox.assignSequence(first, BackendRoute.DEFAULT);
+        outbox.assignSequence(second, "whales");
+        outbox.ack(first.getId());
+        outbox.ack(second.getId());
+        outbox.close();
+
+        // Everything acked: only the segment started on the last open is left
+        NotificationOutbox reopened = new NotificationOutbox(dir);
+        reopened.close();
+        assertFalse(segment(dir, 1).exists());
+
+        reopened = new NotificationOutbox(dir);
+        OutboxEntry third = append(reopened, "third");
+        OutboxEntry fourth = append(reopened, "fourth");
+        reopened.assignSequence(third, BackendRoute.DEFAULT);
+        reopened.assignSequence(fourth, "whales");
+        assertEquals(2, third.getSequence());
+        assertEquals(2, fourth.getSequence());
+    }
+}
@@ -0,0 +1,312 @@
+package com.fomofaster.listener;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationSenderTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<MockWebServer> servers = new ArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .connectTimeout(2, TimeUnit.SECONDS)
+            .readTimeout(2, TimeUnit.SECONDS)
+            .retryOnConnectionFailure(false)
+            .build();
+    private NotificationOutbox outbox;
+    private NotificationSender sender;
+
+    // Records what the sender reports
+    private static final class Recorder implements NotificationSender.Events {
+        final List<Long> delivered = Collections.synchronizedList(new ArrayList<Long>());
+        volatile CountDownLatch deliveries = new CountDownLatch(1);
+        final CountDownLatch streamConnected = new CountDownLatch(1);
+        final CountDownLatch dropped = new CountDownLatch(1);
+
+        @Override
+        public void onDelivered(OutboxEntry entry) {
+            delivered.add(entry.getId());
+            deliveries.countDown();
+        }
+
+        @Override
+        public void onLogEntry(String status, String message, String detail) {
+            if (status.startsWith("DROPPED")) {
+                dropped.countDown();
+            }
+        }
+
+        @Override
+        public void debug(String message) {
+            if (message.startsWith("Stream connected")) {
+                streamConnected.countDown();
+            }
+        }
+
+        @Override
+        public void error(String message, Throwable t) {
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sender != null) {
+            sender.close();
+        }
+        executor.shutdownNow();
+        if (outbox != null) {
+            outbox.close();
+        }
+        for (MockWebServer server : servers) {
+            server.shutdown();
+        }
+    }
+
+    private MockWebServer startServer(Dispatcher dispatcher) throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        servers.add(server);
+        return server;
+    }
+
+    private BackendRoute route(MockWebServer server) {
+        BackendPool pool = new BackendPool(Collections.singletonList(server.url("/").toString()));
+        return new BackendRoute(BackendRoute.DEFAULT, pool, new BackendRouter(client, pool, executor, false),
+                new CircuitBreaker(5, 1000, 30_000));
+    }
+
+    private NotificationSender newSender(BackendRoute defaultRoute, Recorder recorder) throws Exception {
+        outbox = new NotificationOutbox(new File(folder.getRoot(), "outbox"));
+        sender = new NotificationSender(executor, outbox, defaultRoute, new HashMap<String, BackendRoute>(),
+                new RetryPolicy(50, 200, 60_000), new RecentKeyCache(64), recorder);
+        return sender;
+    }
+
+    private static OutboxEntry submit(NotificationSender sender, String message) {
+        return submit(sender, message, BackendRoute.DEFAULT, System.currentTimeMillis());
+    }
+
+    private static OutboxEntry submit(NotificationSender sender, String message, String route, long postTime) {
+        String key = "0|family.fomo.app|" + message;
+        return sender.submit(postTime, key, message, IdempotencyKeys.compute(key, postTime, message),
+                route, System.nanoTime());
+    }
+
+    // Takes stream frames and never acks them
+    private static Dispatcher silentStream(final CountDownLatch framesReceived) {
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+                    @Override
+                    public void onMessage(WebSocket webSocket, String text) {
+                        framesReceived.countDown();
+                    }
+
+                    @Override
+                    public void onClosing(WebSocket webSocket, int code, String reason) {
+                        webSocket.close(1000, null);
+                    }
+                });
+            }
+        };
+    }
+
+    // Answers every POST with 200, refuses the stream
+    private static Dispatcher acceptingHttp() {
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("POST".equals(request.getMethod())) {
+                    return new MockResponse().setResponseCode(200).setBody("{}");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        };
+    }
+
+    // Answers every request with 200 after holding it for delayMs
+    private static Dispatcher slowHttp(final long delayMs) {
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(200).setBody("{}")
+                        .setHeadersDelay(delayMs, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    // Cuts the first `truncated` responses to `path` off halfway through the body; everything else gets a 200
+    private static Dispatcher truncatingFirst(final String path, final int truncated) {
+        final AtomicInteger posts = new AtomicInteger();
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse response = new MockResponse().setResponseCode(200)
+                        .setBody("{\"status\":\"ok\",\"padding\":\"" + new String(new char[4096]).replace('\0', 'x') + "\"}");
+                if (path.equals(request.getPath()) && posts.incrementAndGet() <= truncated) {
+                    response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+                }
+                return response;
+            }
+        };
+    }
+
+    @Test
+    public void sendWhoseResponseBodyFailsIsRetried() throws Exception {
+        MockWebServer backend = startServer(truncatingFirst("/api/notifications", 1));
+        Recorder recorder = new Recorder();
+        NotificationSender sender = newSender(route(backend), recorder);
+
+        OutboxEntry entry = submit(sender, "trade");
+
+        assertTrue(recorder.deliveries.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(entry.getId()), recorder.delivered);
+        assertEquals(2, backend.getRequestCount());
+    }
+
+    @Test
+    public void batchWhoseResponseBodyFailsRetriesEveryItem() throws Exception {
+        MockWebServer backend = startServer(truncatingFirst("/api/notifications/batch", 1));
+        Recorder recorder = new Recorder();
+        recorder.deliveries = new CountDownLatch(3);
+        NotificationSender sender = newSender(route(backend), recorder);
+        sender.enableBatching(20, 10);
+
+        // The first of a burst goes out on its own, the rest are batched
+        OutboxEntry first = submit(sender, "trade one");
+        OutboxEntry second = submit(sender, "trade two");
+        OutboxEntry third = submit(sender, "trade three");
+
+        // Both batched items go back to single sends, which the backend answers with plain 200s
+        assertTrue(recorder.deliveries.await(5, TimeUnit.SECONDS));
+        List<Long> delivered = new ArrayList<>(recorder.delivered);
+        Collections.sort(delivered);
+        assertEquals(Arrays.asList(first.getId(), second.getId(), third.getId()), delivered);
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void probeShedBeforeItIsSentFreesTheHalfOpenCircuit() throws Exception {
+        MockWebServer slowBackend = startServer(slowHttp(500));
+        MockWebServer downBackend = startServer(acceptingHttp());
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, 1);
+        BackendPool pool = new BackendPool(Collections.singletonList(downBackend.url("/").toString()));
+        BackendRoute defaultRoute = new BackendRoute(BackendRoute.DEFAULT, pool,
+                new BackendRouter(client, pool, executor, false), breaker);
+        Recorder recorder = new Recorder();
+        NotificationSender sender = newSender(defaultRoute, recorder);
+        HashMap<String, BackendRoute> routes = new HashMap<>();
+        routes.put("slow", route(slowBackend));
+        sender.setRoutes(defaultRoute, routes);
+        sender.setLaneConcurrency(1, 1, 1);
+        sender.setLoadShedding(0, DispatchScheduler.Overflow.DROP_OLDEST, 200);
+
+        breaker.onFailure();
+        Thread.sleep(5);
+
+        // Holds the only fresh slot until the probe queued behind it has gone stale
+        submit(sender, "slow trade", "slow", System.currentTimeMillis());
+        submit(sender, "probe trade", BackendRoute.DEFAULT, System.currentTimeMillis() - 150);
+
+        assertTrue(recorder.dropped.await(5, TimeUnit.SECONDS));
+        assertEquals(0, downBackend.getRequestCount());
+        // The breaker is released just after the drop is logged
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        boolean allowed = breaker.allowRequest();
+        while (!allowed && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            allowed = breaker.allowRequest();
+        }
+        assertTrue(allowed);
+    }
+
+    @Test
+    public void pickupLatencyIsRecordedOnceWhenTheRequestFailsOver() throws Exception {
+        MockWebServer deadBackend = startServer(acceptingHttp());
+        String deadUrl = deadBackend.url("/").toString();
+        deadBackend.shutdown();
+        MockWebServer backup = startServer(acceptingHttp());
+        BackendPool pool = new BackendPool(Arrays.asList(deadUrl, backup.url("/").toString()));
+        BackendRoute defaultRoute = new BackendRoute(BackendRoute.DEFAULT, pool,
+                new BackendRouter(client, pool, executor, false), new CircuitBreaker(5, 1000, 30_000));
+        Recorder recorder = new Recorder();
+        NotificationSender sender = newSender(defaultRoute, recorder);
+        PipelineMetrics.CALLBACK_TO_ENQUEUED.reset();
+
+        submit(sender, "trade");
+
+        assertTrue(recorder.deliveries.await(5, TimeUnit.SECONDS));
+        assertEquals(1, backup.getRequestCount());
+        assertEquals(1, PipelineMetrics.CALLBACK_TO_ENQUEUED.count());
+    }
+
+    @Test
+    public void replayWhoseResponseBodyFailsDoesNotStopLaterDrains() throws Exception {
+        MockWebServer backend = startServer(truncatingFirst("/api/notifications", 1));
+        Recorder recorder = new Recorder();
+        NotificationSender sender = newSender(route(backend), recorder);
+        long postTime = System.currentTimeMillis();
+        OutboxEntry entry = outbox.append(postTime, "key", "backlog trade",
+                IdempotencyKeys.compute("key", postTime, "backlog trade"), BackendRoute.DEFAULT);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (recorder.deliveries.getCount() > 0 && System.nanoTime() < deadline) {
+            sender.drainOutbox();
+            recorder.deliveries.await(100, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(Collections.singletonList(entry.getId()), recorder.delivered);
+        assertEquals(2, backend.getRequestCount());
+    }
+
+    @Test
+    public void framesAwaitingAnAckAreResentWhenTheRouteIsReloaded() throws Exception {
+        CountDownLatch framesReceived = new CountDownLatch(1);
+        MockWebServer oldBackend = startServer(silentStream(framesReceived));
+        MockWebServer newBackend = startServer(acceptingHttp());
+        Recorder recorder = new Recorder();
+        NotificationSender sender = newSender(route(oldBackend), recorder);
+
+        // Until the socket is open the entry would go over HTTP instead
+        sender.enableStreaming(client);
+        assertTrue(recorder.streamConnected.await(5, TimeUnit.SECONDS));
+        OutboxEntry entry = submit(sender, "trade over the stream");
+        assertTrue(framesReceived.await(5, TimeUnit.SECONDS));
+
+        sender.setRoutes(route(newBackend), new HashMap<String, BackendRoute>());
+        sender.restartStreaming(client);
+
+        assertTrue(recorder.deliveries.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(entry.getId()), recorder.delivered);
+        assertEquals(0, outbox.size());
+    }
+}
@@ -0,0 +1,149 @@
+package com.fomofaster.listener;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecentKeyCacheTest {
+    @Test
+    public void addReportsDuplicates() {
+        RecentKeyCache cache = new RecentKeyCache(4);
+        assertTrue(cache.add(42));
+        assertFalse(cache.add(42));
+        assertTrue(cache.contains(42));
+        assertFalse(cache.contains(43));
+    }
+
+    @Test
+    public void zeroIsNeverStored() {
+        RecentKeyCache cache = new RecentKeyCache(4);
+        assertFalse(cache.add(0));
+        assertFalse(cache.contains(0));
+    }
+
+    @Test
+    public void evictsOldestOnceFull() {
+        RecentKeyCache cache = new RecentKeyCache(3);
+        cache.add(1);
+        cache.add(2);
+        cache.add(3);
+        cache.add(4);
+        assertFalse(cache.contains(1));
+        assertTrue(cache.contains(2));
+        assertTrue(cache.contains(3));
+        assertTrue(cache.contains(4));
+    }
+
+    @Test
+    public void removeForgetsKey() {
+        RecentKeyCache cache = new RecentKeyCache(3);
+        cache.add(1);
+        cache.add(2);
+        cache.remove(1);
+        assertFalse(cache.contains(1));
+        assertTrue(cache.contains(2));
+        assertTrue(cache.add(1));
+    }
+
+    // Colliding keys share probe chains; deleting from the middle of one must not hide the keys after it
+    @Test
+    public void probeChainsSurviveEviction() {
+        RecentKeyCache cache = new RecentKeyCache(64);
+        for (long key = 1; key <= 1000; key++) {
+            cache.add(key * 1024);
+        }
+        for (long key = 1; key <= 1000; key++) {
+            boolean recent = key > 1000 - 64;
+            assertTrue("key " + key, cache.contains(key * 1024) == recent);
+        }
+    }
+
+    // The removed key's old ring slot must not evict it again after it was re-added
+    @Test
+    public void reAddedKeySurvivesItsOldRingSlot() {
+        RecentKeyCache cache = new RecentKeyCache(4);
+        cache.add(1);
+        cache.add(2);
+        cache.remove(1);
+        assertTrue(cache.add(1));
+        // Fill the ring until its head comes back round to where 1 first went
+        cache.add(3);
+        cache.add(4);
+        assertTrue(cache.contains(1));
+        assertTrue(cache.contains(2));
+        assertTrue(cache.contains(3));
+        assertTrue(cache.contains(4));
+
+        // From here on 1 ages out in its own turn: after 2, before 3
+        cache.add(5);
+        assertTrue(cache.contains(1));
+        assertFalse(cache.contains(2));
+        cache.add(6);
+        assertFalse(cache.contains(1));
+        assertTrue(cache.contains(3));
+    }
+
+    // Same eviction rules, written the slow and obvious way
+    private static final class ReferenceCache {
+        final Long[] ring;
+        final Set<Long> keys = new HashSet<>();
+        int head;
+        int size;
+
+        ReferenceCache(int capacity) {
+            ring = new Long[capacity];
+        }
+
+        boolean add(long key) {
+            if (keys.contains(key)) {
+                return false;
+            }
+            if (size == ring.length) {
+                if (ring[head] != null) {
+                    keys.remove(ring[head]);
+                }
+                size--;
+            }
+            ring[head] = key;
+            head = (head + 1) % ring.length;
+            size++;
+            keys.add(key);
+            return true;
+        }
+
+        void remove(long key) {
+            if (keys.remove(key)) {
+                for (int i = 0; i < ring.length; i++) {
+                    if (ring[i] != null && ring[i] == key) {
+                        ring[i] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void removeAndReAddUnderChurnMatchesAReferenceModel() {
+        RecentKeyCache cache = new RecentKeyCache(16);
+        ReferenceCache model = new ReferenceCache(16);
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            long key = 1 + random.nextInt(48);
+            if (random.nextInt(4) == 0) {
+                cache.remove(key);
+                model.remove(key);
+            } else {
+                assertEquals("step " + i, model.add(key), cache.add(key));
+            }
+            for (long k = 1; k <= 48; k++) {
+                assertEquals("step " + i + " key " + k, model.keys.contains(k), cache.contains(k));
+            }
+        }
+    }
+}
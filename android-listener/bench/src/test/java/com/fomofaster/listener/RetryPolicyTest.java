@@ -0,0 +1,51 @@
+package com.fomofaster.listener;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    private final RetryPolicy policy = new RetryPolicy(500, 30_000, 60_000);
+
+    @Test
+    public void delayStaysWithinEqualJitterBounds() {
+        for (int attempt = 0; attempt < 8; attempt++) {
+            long cap = Math.min(500L << attempt, 30_000);
+            for (int i = 0; i < 200; i++) {
+                long delay = policy.nextDelayMs(attempt);
+                assertTrue("attempt " + attempt + ": " + delay, delay >= cap / 2 && delay <= cap);
+            }
+        }
+    }
+
+    @Test
+    public void delayIsCappedForLargeAttemptCounts() {
+        for (int attempt : new int[]{10, 20, 63, 64, Integer.MAX_VALUE}) {
+            long delay = policy.nextDelayMs(attempt);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= 15_000 && delay <= 30_000);
+        }
+    }
+
+    @Test
+    public void expiresOnlyPastTheTtl() {
+        long postTime = 1_000_000;
+        assertFalse(policy.isExpired(postTime, postTime));
+        assertFalse(policy.isExpired(postTime, postTime + 60_000));
+        assertTrue(policy.isExpired(postTime, postTime + 60_001));
+        assertEquals(60_000, policy.getTtlMs());
+    }
+
+    @Test
+    public void retriesServerErrorsTimeoutsAndThrottling() {
+        assertTrue(RetryPolicy.isRetryableStatus(500));
+        assertTrue(RetryPolicy.isRetryableStatus(503));
+        assertTrue(RetryPolicy.isRetryableStatus(408));
+        assertTrue(RetryPolicy.isRetryableStatus(429));
+        assertFalse(RetryPolicy.isRetryableStatus(200));
+        assertFalse(RetryPolicy.isRetryableStatus(400));
+        assertFalse(RetryPolicy.isRetryableStatus(404));
+        assertFalse(RetryPolicy.isRetryableStatus(422));
+    }
+}
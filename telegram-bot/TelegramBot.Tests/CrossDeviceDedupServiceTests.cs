@@ -0,0 +1,76 @@
+using System.Text.Json;
+using Microsoft.Extensions.Logging.Abstractions;
+using TelegramBot.Models;
+using TelegramBot.Services;
+
+namespace TelegramBot.Tests;
+
+public class CrossDeviceDedupServiceTests
+{
+    private const string Device = "1f2e3d";
+
+    private readonly CrossDeviceDedupService _dedup = new(NullLogger<CrossDeviceDedupService>.Instance);
+
+    [Fact]
+    public async Task RetriedSequenceIsCountedOnce()
+    {
+        await ArriveAsync(1, 2, 2, 3, 3, 3);
+
+        Assert.Equal(0, MissingSequences());
+    }
+
+    [Fact]
+    public async Task GapIsCountedAsMissing()
+    {
+        await ArriveAsync(1, 2, 5);
+
+        Assert.Equal(2, MissingSequences());
+    }
+
+    [Fact]
+    public async Task LateSequenceFillsItsGap()
+    {
+        await ArriveAsync(1, 3, 4, 2);
+
+        Assert.Equal(0, MissingSequences());
+    }
+
+    [Fact]
+    public async Task SequenceOlderThanTheWindowIsIgnored()
+    {
+        // Far enough back that it can't be told apart from a repeat, so it neither fills a gap nor counts twice
+        await ArriveAsync(1, 3, 10_000, 2);
+
+        Assert.Equal(10_000 - 3, MissingSequences());
+    }
+
+    [Fact]
+    public async Task FirstSequenceNeedNotBeOne()
+    {
+        // A listener restarted with an older outbox, or a backend added to a running listener, starts mid-way
+        await ArriveAsync(40, 41, 42);
+
+        Assert.Equal(0, MissingSequences());
+    }
+
+    // Each sequence number carries its own text, so no arrival is matched as a copy of another
+    private async Task ArriveAsync(params long[] sequences)
+    {
+        foreach (var sequence in sequences)
+        {
+            var noti = new NotificationRequest
+            {
+                Message = $"notification {sequence}",
+                DeviceId = Device,
+                Sequence = sequence
+            };
+            await _dedup.RunFirstAsync(noti, () => Task.FromResult(new NotificationIngestResult(200, new { })));
+        }
+    }
+
+    private long MissingSequences()
+    {
+        var snapshot = JsonSerializer.SerializeToElement(_dedup.Snapshot(Device));
+        return snapshot.GetProperty("missingSequences").GetInt64();
+    }
+}
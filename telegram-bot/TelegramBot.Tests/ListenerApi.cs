@@ -0,0 +1,82 @@
+using System.Collections.Concurrent;
+using System.Net.WebSockets;
+using Microsoft.AspNetCore.Builder;
+using Microsoft.AspNetCore.Hosting;
+using Microsoft.AspNetCore.TestHost;
+using Microsoft.Extensions.DependencyInjection;
+using TelegramBot.Controllers;
+using TelegramBot.Models;
+using TelegramBot.Services;
+
+namespace TelegramBot.Tests;
+
+// The listener-facing endpoints hosted in memory, with the ingest pipeline (database, parsing, Telegram)
+// replaced by a FakeIngestService
+public static class ListenerApi
+{
+    public static TestServer CreateServer(INotificationIngestService ingestService)
+    {
+        var builder = new WebHostBuilder()
+            .ConfigureServices(services =>
+            {
+                services.AddSingleton(ingestService);
+                services.AddSingleton<CrossDeviceDedupService>();
+                services.AddSingleton<ListenerHealthService>();
+                services.AddSignalR();
+                services.AddControllers().AddApplicationPart(typeof(NotificationsController).Assembly);
+            })
+            .Configure(app =>
+            {
+                app.UseWebSockets();
+                app.UseRouting();
+                app.UseEndpoints(endpoints => endpoints.MapControllers());
+            });
+        return new TestServer(builder);
+    }
+
+    public static Task<WebSocket> ConnectStreamAsync(TestServer server)
+    {
+        var uri = new UriBuilder(server.BaseAddress) { Scheme = "ws", Path = "api/notifications/stream" }.Uri;
+        return server.CreateWebSocketClient().ConnectAsync(uri, CancellationToken.None);
+    }
+}
+
+// Answers each notification with the status code handle picks and records what it was given.
+// With a NotificationDedupService it goes through the idempotency cache first, as NotificationIngestService does.
+public class FakeIngestService : INotificationIngestService
+{
+    private readonly Func<NotificationRequest, Task<int>> _handle;
+    private readonly NotificationDedupService? _dedup;
+    private int _processedCount;
+
+    public ConcurrentQueue<NotificationRequest> Processed { get; } = new();
+    public int ProcessedCount => Volatile.Read(ref _processedCount);
+
+    public FakeIngestService(Func<NotificationRequest, int> handle, NotificationDedupService? dedup = null)
+        : this(noti => Task.FromResult(handle(noti)), dedup)
+    {
+    }
+
+    public FakeIngestService(Func<NotificationRequest, Task<int>> handle, NotificationDedupService? dedup = null)
+    {
+        _handle = handle;
+        _dedup = dedup;
+    }
+
+    public Task<NotificationIngestResult> ProcessAsync(NotificationRequest noti)
+    {
+        if (_dedup == null || string.IsNullOrEmpty(noti.IdempotencyKey))
+        {
+            return ProcessOnceAsync(noti);
+        }
+        return _dedup.RunOnceAsync(noti.IdempotencyKey, () => ProcessOnceAsync(noti));
+    }
+
+    private async Task<NotificationIngestResult> ProcessOnceAsync(NotificationRequest noti)
+    {
+        int run = Interlocked.Increment(ref _processedCount);
+        Processed.Enqueue(noti);
+        int statusCode = await _handle(noti);
+        return new NotificationIngestResult(statusCode, new { message = noti.Message, run });
+    }
+}
@@ -0,0 +1,85 @@
+using Microsoft.Extensions.Logging.Abstractions;
+using TelegramBot.Services;
+
+namespace TelegramBot.Tests;
+
+public class NotificationDedupServiceTests
+{
+    private readonly NotificationDedupService _dedup = new(NullLogger<NotificationDedupService>.Instance);
+
+    [Fact]
+    public async Task ReplayGetsTheCachedResult()
+    {
+        int calls = 0;
+        var first = await _dedup.RunOnceAsync("key", () => Result(++calls, 200));
+        var replay = await _dedup.RunOnceAsync("key", () => Result(++calls, 200));
+
+        Assert.Same(first, replay);
+        Assert.Equal(1, calls);
+    }
+
+    [Fact]
+    public async Task DuplicateArrivingWhileTheFirstRunsWaitsForIt()
+    {
+        int calls = 0;
+        var release = new TaskCompletionSource<NotificationIngestResult>(TaskCreationOptions.RunContinuationsAsynchronously);
+        var first = _dedup.RunOnceAsync("key", () => { calls++; return release.Task; });
+        var duplicate = _dedup.RunOnceAsync("key", () => Result(++calls, 200));
+
+        Assert.False(duplicate.IsCompleted);
+        var result = new NotificationIngestResult(200, "done");
+        release.SetResult(result);
+
+        Assert.Same(result, await first);
+        Assert.Same(result, await duplicate);
+        Assert.Equal(1, calls);
+    }
+
+    [Fact]
+    public async Task ServerErrorIsNotCached()
+    {
+        int calls = 0;
+        var failed = await _dedup.RunOnceAsync("key", () => Result(++calls, 503));
+        var retry = await _dedup.RunOnceAsync("key", () => Result(++calls, 200));
+        var replay = await _dedup.RunOnceAsync("key", () => Result(++calls, 200));
+
+        Assert.Equal(503, failed.StatusCode);
+        Assert.Equal(200, retry.StatusCode);
+        Assert.Same(retry, replay);
+        Assert.Equal(2, calls);
+    }
+
+    [Fact]
+    public async Task ClientErrorIsCached()
+    {
+        int calls = 0;
+        var rejected = await _dedup.RunOnceAsync("key", () => Result(++calls, 400));
+        var replay = await _dedup.RunOnceAsync("key", () => Result(++calls, 200));
+
+        Assert.Same(rejected, replay);
+        Assert.Equal(1, calls);
+    }
+
+    [Fact]
+    public async Task ThrowingProcessIsNotCached()
+    {
+        await Assert.ThrowsAsync<InvalidOperationException>(() =>
+            _dedup.RunOnceAsync("key", () => throw new InvalidOperationException("db down")));
+        var retry = await _dedup.RunOnceAsync("key", () => Result(1, 200));
+
+        Assert.Equal(200, retry.StatusCode);
+    }
+
+    [Fact]
+    public async Task KeysAreIndependent()
+    {
+        int calls = 0;
+        await _dedup.RunOnceAsync("a", () => Result(++calls, 200));
+        await _dedup.RunOnceAsync("b", () => Result(++calls, 200));
+
+        Assert.Equal(2, calls);
+    }
+
+    private static Task<NotificationIngestResult> Result(int run, int statusCode) =>
+        Task.FromResult(new NotificationIngestResult(statusCode, new { run }));
+}
@@ -0,0 +1,192 @@
+using System.Net;
+using System.Net.WebSockets;
+using System.Text;
+using System.Text.Json;
+using Microsoft.Extensions.Logging.Abstractions;
+using TelegramBot.Services;
+
+namespace TelegramBot.Tests;
+
+// The api/notifications/stream protocol as the listener's BackendSocket speaks it: each frame is an outbox entry's
+// JSON with an "id" added, and each ack is {"ack": id, "statusCode", "body"}. BackendSocket matches acks to frames
+// on the id alone, so every frame it can read must come back with its own id.
+public class NotificationStreamTests
+{
+    private static readonly TimeSpan AckTimeout = TimeSpan.FromSeconds(10);
+
+    private sealed record Ack(long Id, int StatusCode, string Body);
+
+    [Fact]
+    public async Task EveryFrameIsAckedWithItsOwnIdAndStatus()
+    {
+        var ingest = new FakeIngestService(noti => noti.Message == "flaky" ? 503 : 200);
+        using var server = ListenerApi.CreateServer(ingest);
+        using var socket = await ListenerApi.ConnectStreamAsync(server);
+
+        await SendAsync(socket, Frame(41, "ok", "key-41"));
+        await SendAsync(socket, Frame(42, "flaky", "key-42"));
+        await SendAsync(socket, Frame(43, "also ok", "key-43"));
+        var acks = await ReceiveAcksAsync(socket, 3);
+
+        Assert.Equal(200, acks[41].StatusCode);
+        Assert.Equal(503, acks[42].StatusCode);
+        Assert.Equal(200, acks[43].StatusCode);
+        Assert.Contains("\"flaky\"", acks[42].Body);
+        await CloseAsync(socket);
+    }
+
+    [Fact]
+    public async Task FrameFieldsReachTheIngestService()
+    {
+        var ingest = new FakeIngestService(_ => 200);
+        using var server = ListenerApi.CreateServer(ingest);
+        using var socket = await ListenerApi.ConnectStreamAsync(server);
+
+        await SendAsync(socket, Frame(7, "trade", "key-7", sequence: 12));
+        await ReceiveAcksAsync(socket, 1);
+
+        var noti = Assert.Single(ingest.Processed);
+        Assert.Equal("trade", noti.Message);
+        Assert.Equal("key-7", noti.IdempotencyKey);
+        Assert.Equal("1f2e3d", noti.DeviceId);
+        Assert.Equal(12, noti.Sequence);
+        Assert.Equal(-40, noti.ClockOffsetMs);
+        await CloseAsync(socket);
+    }
+
+    [Fact]
+    public async Task SlowFrameDoesNotHoldBackLaterAcks()
+    {
+        var slow = new TaskCompletionSource<int>(TaskCreationOptions.RunContinuationsAsynchronously);
+        var ingest = new FakeIngestService(noti => noti.Message == "slow" ? slow.Task : Task.FromResult(200));
+        using var server = ListenerApi.CreateServer(ingest);
+        using var socket = await ListenerApi.ConnectStreamAsync(server);
+
+        await SendAsync(socket, Frame(1, "slow", "key-1"));
+        await SendAsync(socket, Frame(2, "fast", "key-2"));
+        var fast = await ReceiveAcksAsync(socket, 1);
+        slow.SetResult(200);
+        var late = await ReceiveAcksAsync(socket, 1);
+
+        Assert.Equal(2, Assert.Single(fast.Keys));
+        Assert.Equal(1, Assert.Single(late.Keys));
+        await CloseAsync(socket);
+    }
+
+    [Fact]
+    public async Task UnreadableFrameIsAckedWithZeroAndTheStreamCarriesOn()
+    {
+        var ingest = new FakeIngestService(_ => 200);
+        using var server = ListenerApi.CreateServer(ingest);
+        using var socket = await ListenerApi.ConnectStreamAsync(server);
+
+        await SendAsync(socket, "{\"message\":\"no id\"}");
+        var noId = await ReceiveAcksAsync(socket, 1);
+        await SendAsync(socket, "not json");
+        var notJson = await ReceiveAcksAsync(socket, 1);
+        await SendAsync(socket, Frame(5, "trade", "key-5"));
+        var next = await ReceiveAcksAsync(socket, 1);
+
+        // 0 is never a frame id (outbox ids start at 1), so BackendSocket drops these acks and the deadline takes
+        // the frame back
+        Assert.Equal(400, noId[0].StatusCode);
+        Assert.Equal(400, notJson[0].StatusCode);
+        Assert.Equal(200, next[5].StatusCode);
+        Assert.Equal(1, ingest.ProcessedCount);
+        await CloseAsync(socket);
+    }
+
+    [Fact]
+    public async Task FailureWhileProcessingIsAckedAsRetryable()
+    {
+        var ingest = new FakeIngestService(noti => noti.Message == "boom" ? throw new InvalidOperationException("database down") : 200);
+        using var server = ListenerApi.CreateServer(ingest);
+        using var socket = await ListenerApi.ConnectStreamAsync(server);
+
+        await SendAsync(socket, Frame(7, "boom", "key-7"));
+        var failed = await ReceiveAcksAsync(socket, 1);
+        await SendAsync(socket, Frame(8, "trade", "key-8"));
+        var next = await ReceiveAcksAsync(socket, 1);
+
+        // A 400 would make the listener drop the trade; a 500 sends it back through its retries
+        Assert.Equal(500, failed[7].StatusCode);
+        Assert.Equal(200, next[8].StatusCode);
+        await CloseAsync(socket);
+    }
+
+    [Fact]
+    public async Task FrameResentUnderANewIdGetsTheCachedResult()
+    {
+        var ingest = new FakeIngestService(_ => 200,
+            new NotificationDedupService(NullLogger<NotificationDedupService>.Instance));
+        using var server = ListenerApi.CreateServer(ingest);
+        using var socket = await ListenerApi.ConnectStreamAsync(server);
+
+        // A frame taken back after its ack deadline is sent again with the same idempotency key
+        await SendAsync(socket, Frame(10, "trade", "key-10"));
+        var first = await ReceiveAcksAsync(socket, 1);
+        await SendAsync(socket, Frame(11, "trade", "key-10"));
+        var resent = await ReceiveAcksAsync(socket, 1);
+
+        Assert.Equal(200, resent[11].StatusCode);
+        Assert.Equal(first[10].Body, resent[11].Body);
+        Assert.Equal(1, ingest.ProcessedCount);
+        await CloseAsync(socket);
+    }
+
+    [Fact]
+    public async Task PlainGetIsRejected()
+    {
+        using var server = ListenerApi.CreateServer(new FakeIngestService(_ => 200));
+        using var client = server.CreateClient();
+
+        var response = await client.GetAsync("api/notifications/stream");
+
+        Assert.Equal(HttpStatusCode.BadRequest, response.StatusCode);
+    }
+
+    // Same fields and names as OutboxEntry.toJSON(), plus the id BackendSocket.send() adds
+    private static string Frame(long id, string message, string idempotencyKey, long sequence = 1) =>
+        JsonSerializer.Serialize(new
+        {
+            message,
+            postTime = 1_700_000_000_000L,
+            idempotencyKey,
+            deviceId = "1f2e3d",
+            sequence,
+            clockOffsetMs = -40L,
+            id
+        });
+
+    private static Task SendAsync(WebSocket socket, string frame) =>
+        socket.SendAsync(new ArraySegment<byte>(Encoding.UTF8.GetBytes(frame)), WebSocketMessageType.Text, true, CancellationToken.None);
+
+    private static async Task<Dictionary<long, Ack>> ReceiveAcksAsync(WebSocket socket, int count)
+    {
+        using var timeout = new CancellationTokenSource(AckTimeout);
+        var acks = new Dictionary<long, Ack>();
+        var buffer = new byte[4096];
+        while (acks.Count < count)
+        {
+            using var message = new MemoryStream();
+            WebSocketReceiveResult received;
+            do
+            {
+                received = await socket.ReceiveAsync(new ArraySegment<byte>(buffer), timeout.Token);
+                message.Write(buffer, 0, received.Count);
+            } while (!received.EndOfMessage);
+
+            Assert.Equal(WebSocketMessageType.Text, received.MessageType);
+            using var json = JsonDocument.Parse(message.ToArray());
+            var ack = new Ack(
+                json.RootElement.GetProperty("ack").GetInt64(),
+                json.RootElement.GetProperty("statusCode").GetInt32(),
+                json.RootElement.GetProperty("body").GetRawText());
+            Assert.True(acks.TryAdd(ack.Id, ack), $"Frame {ack.Id} acked twice");
+        }
+        return acks;
+    }
+
+    private static Task CloseAsync(WebSocket socket) =>
+        socket.CloseAsync(WebSocketCloseStatus.NormalClosure, "Listener stopped", CancellationToken.None);
+}
@@ -0,0 +1,115 @@
+using System.Net;
+using System.Net.Http.Json;
+using System.Text.Json;
+using Microsoft.Extensions.Logging.Abstractions;
+using TelegramBot.Services;
+
+namespace TelegramBot.Tests;
+
+public class NotificationsControllerTests
+{
+    [Fact]
+    public async Task BatchReportsEachItemsOwnStatusCode()
+    {
+        var ingest = new FakeIngestService(noti => noti.Message switch
+        {
+            "bad" => 400,
+            "flaky" => 503,
+            _ => 200
+        });
+        using var server = ListenerApi.CreateServer(ingest);
+        using var client = server.CreateClient();
+
+        var response = await client.PostAsJsonAsync("api/notifications/batch", new[]
+        {
+            new { message = "ok one", idempotencyKey = "k1" },
+            new { message = "bad", idempotencyKey = "k2" },
+            new { message = "flaky", idempotencyKey = "k3" },
+            new { message = "ok two", idempotencyKey = "k4" }
+        });
+
+        // One item failing doesn't fail the batch, the listener acks or retries each item on its own
+        Assert.Equal(HttpStatusCode.OK, response.StatusCode);
+        var results = await ResultsOf(response);
+        Assert.Equal(new[] { 200, 400, 503, 200 }, results.Select(r => r.GetProperty("statusCode").GetInt32()));
+        Assert.Equal(new[] { "ok one", "bad", "flaky", "ok two" },
+            results.Select(r => r.GetProperty("body").GetProperty("message").GetString()));
+        Assert.Equal(4, ingest.ProcessedCount);
+    }
+
+    [Fact]
+    public async Task RetriedBatchOnlyReprocessesItemsThatFailedWithServerErrors()
+    {
+        bool backendUp = false;
+        var ingest = new FakeIngestService(noti => noti.Message == "flaky" && !backendUp ? 503 : 200,
+            new NotificationDedupService(NullLogger<NotificationDedupService>.Instance));
+        using var server = ListenerApi.CreateServer(ingest);
+        using var client = server.CreateClient();
+        var batch = new[]
+        {
+            new { message = "ok", idempotencyKey = "k1" },
+            new { message = "flaky", idempotencyKey = "k2" }
+        };
+
+        var first = await ResultsOf(await client.PostAsJsonAsync("api/notifications/batch", batch));
+        backendUp = true;
+        var retry = await ResultsOf(await client.PostAsJsonAsync("api/notifications/batch", batch));
+
+        Assert.Equal(503, first[1].GetProperty("statusCode").GetInt32());
+        Assert.Equal(new[] { 200, 200 }, retry.Select(r => r.GetProperty("statusCode").GetInt32()));
+        // The item that went through is answered from the cache, the one that failed is processed again
+        Assert.Equal(first[0].GetProperty("body").ToString(), retry[0].GetProperty("body").ToString());
+        Assert.Equal(new[] { "ok", "flaky", "flaky" }, ingest.Processed.Select(n => n.Message));
+    }
+
+    [Fact]
+    public async Task ReplayedNotificationGetsTheCachedResult()
+    {
+        var ingest = new FakeIngestService(_ => 200,
+            new NotificationDedupService(NullLogger<NotificationDedupService>.Instance));
+        using var server = ListenerApi.CreateServer(ingest);
+        using var client = server.CreateClient();
+
+        var first = await PostWithKeyAsync(client, "trade", "key-1");
+        var replay = await PostWithKeyAsync(client, "trade", "key-1");
+
+        Assert.Equal(HttpStatusCode.OK, first.StatusCode);
+        Assert.Equal(HttpStatusCode.OK, replay.StatusCode);
+        Assert.Equal(await first.Content.ReadAsStringAsync(), await replay.Content.ReadAsStringAsync());
+        Assert.Equal(1, ingest.ProcessedCount);
+        Assert.Equal("key-1", Assert.Single(ingest.Processed).IdempotencyKey);
+    }
+
+    [Fact]
+    public async Task ServerErrorIsNotCached()
+    {
+        int calls = 0;
+        var ingest = new FakeIngestService(_ => ++calls == 1 ? 503 : 200,
+            new NotificationDedupService(NullLogger<NotificationDedupService>.Instance));
+        using var server = ListenerApi.CreateServer(ingest);
+        using var client = server.CreateClient();
+
+        var first = await PostWithKeyAsync(client, "trade", "key-1");
+        var retry = await PostWithKeyAsync(client, "trade", "key-1");
+
+        Assert.Equal(HttpStatusCode.ServiceUnavailable, first.StatusCode);
+        Assert.Equal(HttpStatusCode.OK, retry.StatusCode);
+        Assert.Equal(2, ingest.ProcessedCount);
+    }
+
+    private static Task<HttpResponseMessage> PostWithKeyAsync(HttpClient client, string message, string idempotencyKey)
+    {
+        var request = new HttpRequestMessage(HttpMethod.Post, "api/notifications")
+        {
+            Content = JsonContent.Create(new { message })
+        };
+        request.Headers.Add("Idempotency-Key", idempotencyKey);
+        return client.SendAsync(request);
+    }
+
+    private static async Task<List<JsonElement>> ResultsOf(HttpResponseMessage response)
+    {
+        using var json = JsonDocument.Parse(await response.Content.ReadAsStringAsync());
+        return json.RootElement.GetProperty("results").EnumerateArray().Select(r => r.Clone()).ToList();
+    }
+}
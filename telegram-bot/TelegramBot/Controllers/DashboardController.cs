@@ -16,19 +16,33 @@ public class DashboardController : ControllerBase
     private readonly ITelegramService _telegramService;
     private readonly ISolanaService _solanaService;
     private readonly AppConfigService _appConfig;
+    private readonly ListenerHealthService _listenerHealth;
 
     public DashboardController(
         AppDbContext dbContext,
         ILogger<DashboardController> logger,
         ITelegramService telegramService,
         ISolanaService solanaService,
-        AppConfigService appConfig)
+        AppConfigService appConfig,
+        ListenerHealthService listenerHealth)
     {
         _dbContext = dbContext;
         _logger = logger;
         _telegramService = telegramService;
         _solanaService = solanaService;
         _appConfig = appConfig;
+        _listenerHealth = listenerHealth;
+    }
+
+    // Latest heartbeat and recent history of every listener, for the dashboard's Listener tab
+    [HttpGet("listener-health")]
+    public IActionResult GetListenerHealth()
+    {
+        return Ok(new
+        {
+            status = "success",
+            listeners = _listenerHealth.Snapshot()
+        });
     }
 
     [HttpGet("notifications")]
@@ -2,6 +2,7 @@ using Microsoft.AspNetCore.Mvc;
 using Microsoft.EntityFrameworkCore;
 using TelegramBot.Data;
 using TelegramBot.Models;
+using TelegramBot.Services;
 
 namespace TelegramBot.Controllers;
 
@@ -58,7 +59,7 @@ public class KnownTokensController : ControllerBase
             await _dbContext.SaveChangesAsync();
 
             // Refresh the cache so new token is immediately available
-            NotificationsController.RefreshKnownTokensCache();
+            NotificationIngestService.RefreshKnownTokensCache();
 
             _logger.LogInformation("Added known token: {Symbol} with contract {Contract}", knownToken.Symbol, knownToken.ContractAddress);
 
@@ -92,7 +93,7 @@ public class KnownTokensController : ControllerBase
             await _dbContext.SaveChangesAsync();
 
             // Refresh the cache so updates are immediately reflected
-            NotificationsController.RefreshKnownTokensCache();
+            NotificationIngestService.RefreshKnownTokensCache();
 
             _logger.LogInformation("Updated known token: {Symbol}", token.Symbol);
 
@@ -121,7 +122,7 @@ public class KnownTokensController : ControllerBase
             await _dbContext.SaveChangesAsync();
 
             // Refresh the cache so deletions are immediately reflected
-            NotificationsController.RefreshKnownTokensCache();
+            NotificationIngestService.RefreshKnownTokensCache();
 
             _logger.LogInformation("Deleted known token: {Symbol}", token.Symbol);
 
@@ -138,7 +139,7 @@ public class KnownTokensController : ControllerBase
     [HttpPost("refresh-cache")]
     public IActionResult RefreshCache()
     {
-        NotificationsController.RefreshKnownTokensCache();
+        NotificationIngestService.RefreshKnownTokensCache();
         _logger.LogInformation("Manually refreshed known tokens cache");
         return Ok(new { message = "Cache refreshed successfully" });
     }
@@ -1,7 +1,7 @@
-using System.Text.RegularExpressions;
+using System.Net.WebSockets;
+using System.Text;
+using System.Text.Json;
 using Microsoft.AspNetCore.Mvc;
-using Microsoft.EntityFrameworkCore;
-using TelegramBot.Data;
 using TelegramBot.Models;
 using TelegramBot.Services;
 
@@ -11,353 +11,202 @@ namespace TelegramBot.Controllers;
 [Route("api/[controller]")]
 public class NotificationsController : ControllerBase
 {
-    private readonly ITelegramService _telegramService;
-    private readonly ISolanaService _solanaService;
-    private readonly ITraderService _traderService;
-    private readonly AppDbContext _dbContext;
+    private readonly INotificationIngestService _ingestService;
+    private readonly IServiceScopeFactory _scopeFactory;
+    private readonly ListenerHealthService _listenerHealth;
     private readonly ILogger<NotificationsController> _logger;
 
-    // Cache of known token symbols - loaded once and refreshed on table updates
-    private static HashSet<string>? _knownTokenSymbolsCache;
-    private static Dictionary<string, KnownToken>? _knownTokensCache;
-    private static readonly SemaphoreSlim _cacheLock = new SemaphoreSlim(1, 1);
+    private static readonly JsonSerializerOptions StreamJsonOptions = new JsonSerializerOptions(JsonSerializerDefaults.Web);
 
     public NotificationsController(
-        ITelegramService telegramService,
-        ISolanaService solanaService,
-        ITraderService traderService,
-        AppDbContext dbContext,
+        INotificationIngestService ingestService,
+        IServiceScopeFactory scopeFactory,
+        ListenerHealthService listenerHealth,
         ILogger<NotificationsController> logger)
     {
-        _telegramService = telegramService;
-        _solanaService = solanaService;
-        _traderService = traderService;
-        _dbContext = dbContext;
+        _ingestService = ingestService;
+        _scopeFactory = scopeFactory;
+        _listenerHealth = listenerHealth;
         _logger = logger;
     }
 
-    // Public method to refresh cache (called when KnownTokens table is updated)
-    public static void RefreshKnownTokensCache()
+    [HttpPost]
+    public async Task<IActionResult> ReceiveNotification(
+        [FromBody] NotificationRequest noti,
+        [FromHeader(Name = "Idempotency-Key")] string? idempotencyKey = null)
     {
-        _knownTokenSymbolsCache = null;
-        _knownTokensCache = null;
+        noti.IdempotencyKey ??= idempotencyKey;
+        var result = await _ingestService.ProcessAsync(noti);
+        return StatusCode(result.StatusCode, result.Body);
     }
 
-    private async Task<Dictionary<string, KnownToken>> GetKnownTokensCacheAsync()
+    // Burst of notifications coalesced by the listener into one request.
+    // Items are processed in order and each gets its own status code so the listener can ack/retry them individually.
+    [HttpPost("batch")]
+    public async Task<IActionResult> ReceiveNotificationBatch([FromBody] List<NotificationRequest> notis)
     {
-        if (_knownTokensCache != null && _knownTokenSymbolsCache != null)
-        {
-            return _knownTokensCache;
-        }
+        _logger.LogInformation("📦 FOMO NOTIFICATION BATCH RECEIVED ({Count} notifications)", notis.Count);
 
-        await _cacheLock.WaitAsync();
-        try
+        var results = new List<object>(notis.Count);
+        foreach (var noti in notis)
         {
-            // Double-check after acquiring lock
-            if (_knownTokensCache != null && _knownTokenSymbolsCache != null)
+            var result = await _ingestService.ProcessAsync(noti);
+            results.Add(new
             {
-                return _knownTokensCache;
-            }
-
-            // Load from database
-            var knownTokens = await _dbContext.KnownTokens.ToListAsync();
-            _knownTokensCache = knownTokens.ToDictionary(kt => kt.Symbol, kt => kt);
-            _knownTokenSymbolsCache = knownTokens.Select(kt => kt.Symbol).ToHashSet();
-
-            _logger.LogInformation("Loaded {Count} known tokens into cache", knownTokens.Count);
-
-            return _knownTokensCache;
+                statusCode = result.StatusCode,
+                body = result.Body
+            });
         }
-        finally
+
+        return Ok(new
         {
-            _cacheLock.Release();
-        }
+            status = "success",
+            results
+        });
     }
 
-    [HttpPost]
-    public async Task<IActionResult> ReceiveNotification([FromBody] NotificationRequest noti)
-     {
-        try
+    // Periodic health snapshot from the listener, forwarded to the dashboard.
+    // Answered with the server clock so the listener can see how far its own clock is off.
+    [HttpPost("heartbeat")]
+    public async Task<IActionResult> ReceiveHeartbeat([FromBody] ListenerHeartbeat heartbeat)
+    {
+        await _listenerHealth.RecordAsync(heartbeat, HttpContext.Connection.RemoteIpAddress?.ToString());
+        return Ok(new
         {
-            _logger.LogInformation("📱 FOMO NOTIFICATION RECEIVED");
-            _logger.LogInformation("Message: {Message}", noti.Message);
-
-            // Validate message is not empty
-            if (string.IsNullOrWhiteSpace(noti.Message))
-            {
-                _logger.LogWarning("Received empty notification message, skipping");
-                return BadRequest(new
-                {
-                    status = "error",
-                    message = "Notification message cannot be empty"
-                });
-            }
-
-            string? ticker = null;
-            string? trader = null;
-            ContractLookupResult? lookupResult = null;
-
-            var notificationType = ClassifyNotification(noti.Message);
+            status = "success",
+            serverTime = DateTimeOffset.UtcNow.ToUnixTimeMilliseconds()
+        });
+    }
 
-            // Check if this is a thesis notification
-            if (IsThesisNotification(noti.Message))
-            {
-                _logger.LogInformation("📝 Detected THESIS notification");
-                ticker = ExtractThesisTicker(noti.Message);
-                trader = ExtractThesisTrader(noti.Message);
-            }
-            else
-            {
-                // Regular buy/sell notification
-                ticker = ExtractTicker(noti.Message);
-                trader = ExtractTrader(noti.Message);
-            }
+    // No-op target for the listener's latency diagnostics. The body is read and thrown away and nothing
+    // is parsed, stored or logged, so the timings show the network and the framework and nothing else.
+    [HttpPost("probe")]
+    public async Task<IActionResult> Probe()
+    {
+        await Request.Body.CopyToAsync(System.IO.Stream.Null, HttpContext.RequestAborted);
+        return NoContent();
+    }
 
-            // Save trader to database if found
-            if (!string.IsNullOrEmpty(trader))
-            {
-                _logger.LogInformation("Extracted trader: {Trader}", trader);
-                await _traderService.AddOrUpdateTraderAsync(trader);
-            }
-            else
-            {
-                _logger.LogWarning("Could not extract trader from message");
-            }
+    // Long-lived WebSocket used by the listener's streaming transport.
+    // Client frames: {"id": 42, "message": "..."} - server replies {"ack": 42, "statusCode": 200, "body": {...}}
+    // Frames are processed concurrently (each in its own DI scope), acks are sent back as each one finishes.
+    [HttpGet("stream")]
+    [ApiExplorerSettings(IgnoreApi = true)]
+    public async Task Stream()
+    {
+        if (!HttpContext.WebSockets.IsWebSocketRequest)
+        {
+            HttpContext.Response.StatusCode = StatusCodes.Status400BadRequest;
+            return;
+        }
 
-            // Extract market cap once (will be used for retry if needed)
-            long? marketCap = null;
+        using var socket = await HttpContext.WebSockets.AcceptWebSocketAsync();
+        var sendLock = new SemaphoreSlim(1, 1);
+        var inFlight = new List<Task>();
+        _logger.LogInformation("🔌 Listener stream connected from {Remote}", HttpContext.Connection.RemoteIpAddress);
 
-            if (!string.IsNullOrEmpty(ticker))
+        try
+        {
+            while (socket.State == WebSocketState.Open)
             {
-                _logger.LogInformation("Extracted ticker: {Ticker}", ticker);
-
-                // Extract market cap from the notification
-                marketCap = ExtractMarketCap(noti.Message);
-
-                // Load known tokens cache
-                var knownTokensCache = await GetKnownTokensCacheAsync();
-
-                // Check if this ticker is in the known tokens list
-                if (knownTokensCache.ContainsKey(ticker))
+                var frame = await ReceiveFrameAsync(socket, HttpContext.RequestAborted);
+                if (frame == null)
                 {
-                    _logger.LogInformation("Ticker {Ticker} found in known tokens list, checking market cap", ticker);
-
-                    if (marketCap.HasValue)
-                    {
-                        var knownToken = knownTokensCache[ticker];
-                        _logger.LogInformation("Extracted market cap: ${0:N0}, Min expected: ${1:N0}", marketCap.Value, knownToken.MinMarketCap);
-
-                        // Check if market cap matches the expected range
-                        if (marketCap.Value >= knownToken.MinMarketCap)
-                        {
-                            _logger.LogInformation("✅ Market cap matches! Using hardcoded contract: {Address} (Chain: {Chain})", knownToken.ContractAddress, knownToken.Chain);
-                            // Create a manual lookup result for known tokens
-                            lookupResult = new ContractLookupResult
-                            {
-                                ContractAddress = knownToken.ContractAddress,
-                                Chain = knownToken.Chain,
-                                Source = ContractAddressSource.KnownToken,
-                                TimesCacheHit = 0,
-                                TimesDexScreenerApiHit = 0,
-                                TimesHeliusApiHit = 0,
-                                LookupDuration = TimeSpan.Zero
-                            };
-                        }
-                        else
-                        {
-                            _logger.LogInformation("⚠️  Market cap too low (${0:N0} < ${1:N0}), falling back to lookup", marketCap.Value, knownToken.MinMarketCap);
-                            lookupResult = await _solanaService.GetContractAddressWithTrackingAsync(ticker, marketCap);
-                        }
-                    }
-                    else
-                    {
-                        // No market cap found (thesis notifications don't have MC)
-                        _logger.LogInformation("No market cap found in message, trying lookup without marketcap");
-                        lookupResult = await _solanaService.GetContractAddressWithTrackingAsync(ticker, null);
-                    }
-                }
-                else
-                {
-                    // Not a known token, use extracted MC
-                    _logger.LogInformation("Ticker not in known tokens list, trying lookup (MarketCap: ${MarketCap:N0})", marketCap);
-                    lookupResult = await _solanaService.GetContractAddressWithTrackingAsync(ticker, marketCap);
+                    break;
                 }
 
-                if (!string.IsNullOrEmpty(lookupResult?.ContractAddress))
-                {
-                    _logger.LogInformation("✅ Resolved contract address: {Address} (Chain: {Chain}) via {Source} in {Duration}ms",
-                        lookupResult.ContractAddress, lookupResult.Chain, lookupResult.Source, lookupResult.LookupDuration.TotalMilliseconds);
-                }
-                else
-                {
-                    _logger.LogWarning("⚠️  Could not resolve contract address for ticker: {Ticker}", ticker);
-                }
-            }
-            else
-            {
-                _logger.LogWarning("Could not extract ticker from message");
+                inFlight.RemoveAll(t => t.IsCompleted);
+                inFlight.Add(ProcessStreamFrameAsync(socket, sendLock, frame));
             }
-
-            // Send to users following this trader (or all if no trader extracted)
-            // Pass lookupResult which contains tracking data
-            await _telegramService.SendNotificationToAllUsersAsync(noti, lookupResult, trader, ticker, marketCap, notificationType);
-
-            return Ok(new
-            {
-                status = "success",
-                message = "Notification sent to Telegram",
-                ticker = ticker ?? "",
-                trader = trader ?? "",
-                contractAddress = lookupResult?.ContractAddress ?? ""
-            });
         }
-        catch (Exception ex)
+        catch (Exception ex) when (ex is WebSocketException || ex is OperationCanceledException)
         {
-            _logger.LogError(ex, "Error processing notification");
-            return StatusCode(500, new
-            {
-                status = "error",
-                message = "Internal server error"
-            });
+            _logger.LogWarning("Listener stream dropped: {Message}", ex.Message);
         }
-    }
-
-    private static NotificationType ClassifyNotification(string message)
-    {
-        if (IsThesisNotification(message))
-            return NotificationType.Thesis;
-
-        if (IsVerifiedNotification(message))
-            return NotificationType.Verified;
 
-        if (message.Contains("bought", StringComparison.OrdinalIgnoreCase)) return NotificationType.Buy;
-        if (message.Contains("sold", StringComparison.OrdinalIgnoreCase)) return NotificationType.Sell;
-        if (message.Contains("deposited", StringComparison.OrdinalIgnoreCase)) return NotificationType.Deposit;
-        return NotificationType.Unknown;
-    }
+        await Task.WhenAll(inFlight);
 
-    private string? ExtractTicker(string message)
-    {
-        // Format: "TICKER at $XXm MC ..." or "TICKER at $XXk MC ..."
-        // Example: "KLED at $31.2m MC 🟢 @frankdegods bought $9,955.55"
-        int atIndex = message.IndexOf(" at $", StringComparison.OrdinalIgnoreCase);
-        if (atIndex > 0)
+        if (socket.State == WebSocketState.Open || socket.State == WebSocketState.CloseReceived)
         {
-            // Extract everything before " at" and trim whitespace
-            string ticker = message.Substring(0, atIndex).Trim();
-            return ticker.ToUpper();
+            await socket.CloseAsync(WebSocketCloseStatus.NormalClosure, "bye", CancellationToken.None);
         }
-        return null;
+        _logger.LogInformation("🔌 Listener stream closed");
     }
 
-    private string? ExtractTrader(string message)
+    private async Task ProcessStreamFrameAsync(WebSocket socket, SemaphoreSlim sendLock, string frame)
     {
-        // Format: "TICKER at $XXm MC 🟢 @trader bought/sold $XXX"
-        // Example: "KLED at $31.2m MC 🟢 @frankdegods bought $9,955.55"
-        // Look for @ symbol after "MC" and before "bought" or "sold"
-        var match = Regex.Match(message, @"MC\s+\S+\s+@(\w+)\s+(?:bought|sold|deposited)", RegexOptions.IgnoreCase);
-        if (match.Success)
+        long id = 0;
+        NotificationRequest? noti = null;
+        NotificationIngestResult result;
+        try
         {
-            return match.Groups[1].Value; // Returns "frankdegods" without the @
+            using var json = JsonDocument.Parse(frame);
+            id = json.RootElement.GetProperty("id").GetInt64();
+            noti = json.RootElement.Deserialize<NotificationRequest>(StreamJsonOptions) ?? new NotificationRequest();
+        }
+        catch (Exception ex) when (ex is JsonException || ex is KeyNotFoundException || ex is InvalidOperationException || ex is FormatException)
+        {
+            _logger.LogWarning("Unreadable stream frame: {Message}", ex.Message);
         }
-        return null;
-    }
-
-    private static bool IsThesisNotification(string message)
-    {
-        // Thesis notifications contain "thesis" but NOT "MC" and NOT "bought" or "sold"
-        // Examples:
-        // "Blobby thesis by 0xuberM I tailed nosanity I have no idea what's happening"
-        // "BANGERS thesis by jotagezin AND I KNOW BANGERS"
-        var hasThesisStr = message.Contains("thesis", StringComparison.OrdinalIgnoreCase);
-
-        var hasMcBoughtSoldDepositedStrs = message.Contains("MC", StringComparison.OrdinalIgnoreCase) &&
-                          (message.Contains("bought", StringComparison.OrdinalIgnoreCase) &&
-                           message.Contains("sold", StringComparison.OrdinalIgnoreCase) &&
-                           message.Contains("deposited", StringComparison.OrdinalIgnoreCase));
-
-        // Can result in false positive if noti is "thesis by {traderHandle} satoshi bought @ 500k MC and sold the bottom AND HE DEPOSITED TOO"
-        // But there's no fucking way
-        return hasThesisStr && !hasMcBoughtSoldDepositedStrs;
-    }
-
-    private static bool IsVerifiedNotification(string message)
-    {
-        var hasVerifiedStr = message.Contains("is now verified on fomo", StringComparison.OrdinalIgnoreCase);
 
-        var hasMcBoughtSoldDepositedStrs = message.Contains("MC", StringComparison.OrdinalIgnoreCase) &&
-                          (message.Contains("bought", StringComparison.OrdinalIgnoreCase) &&
-                           message.Contains("sold", StringComparison.OrdinalIgnoreCase) &&
-                           message.Contains("deposited", StringComparison.OrdinalIgnoreCase));
+        if (noti == null)
+        {
+            // The listener won't retry a 400, which is right for a frame it can't fix by resending
+            result = new NotificationIngestResult(400, new { status = "error", message = "Invalid frame" });
+        }
+        else
+        {
+            try
+            {
+                using var scope = _scopeFactory.CreateScope();
+                var ingestService = scope.ServiceProvider.GetRequiredService<INotificationIngestService>();
+                result = await ingestService.ProcessAsync(noti);
+            }
+            catch (Exception ex)
+            {
+                // Our failure, not the frame's - a 500 makes the listener retry, as on the HTTP path
+                _logger.LogError(ex, "Error processing stream frame {Id}", id);
+                result = new NotificationIngestResult(500, new { status = "error", message = "Internal server error" });
+            }
+        }
 
-        return hasVerifiedStr && !hasMcBoughtSoldDepositedStrs;
-    }
+        var ack = JsonSerializer.SerializeToUtf8Bytes(new { ack = id, statusCode = result.StatusCode, body = result.Body }, StreamJsonOptions);
 
-    private string? ExtractThesisTicker(string message)
-    {
-        // Format: "TICKER thesis by trader ..."
-        // Example: "Blobby thesis by 0xuberM I tailed nosanity I have no idea what's happening"
-        int thesisIndex = message.IndexOf(" thesis by", StringComparison.OrdinalIgnoreCase);
-        if (thesisIndex > 0)
+        await sendLock.WaitAsync();
+        try
         {
-            // Extract everything before " thesis by" and trim whitespace
-            string ticker = message.Substring(0, thesisIndex).Trim();
-            return ticker.ToUpper();
+            if (socket.State == WebSocketState.Open)
+            {
+                await socket.SendAsync(new ArraySegment<byte>(ack), WebSocketMessageType.Text, true, CancellationToken.None);
+            }
         }
-        return null;
-    }
-
-    private string? ExtractThesisTrader(string message)
-    {
-        // Format: "TICKER thesis by [@]trader ..."
-        // Examples: "Blobby thesis by 0xuberM ...", "Shadow thesis by @mystayor ..."
-        // Trader name may or may not have a leading @ — @? handles both cases
-        var match = Regex.Match(message, @"thesis by\s+@?(\w+)", RegexOptions.IgnoreCase);
-        if (match.Success)
+        catch (WebSocketException ex)
+        {
+            _logger.LogWarning("Could not ack stream frame {Id}: {Message}", id, ex.Message);
+        }
+        finally
         {
-            return match.Groups[1].Value; // Returns "0xuberM"
+            sendLock.Release();
         }
-        return null;
     }
 
-    private long? ExtractMarketCap(string message)
+    private static async Task<string?> ReceiveFrameAsync(WebSocket socket, CancellationToken cancellationToken)
     {
-        // Format: "$XXm MC" or "$XX.XXb MC" or "$XXk MC"
-        // Example: "PUMP at $1.44b MC 🟢 trader bought $1000"
-
-        // Find " MC" in the message
-        int mcIndex = message.IndexOf(" MC");
-        if (mcIndex == -1) return null;
-
-        // Work backwards to find the $ sign
-        int dollarIndex = message.LastIndexOf('$', mcIndex);
-        if (dollarIndex == -1) return null;
-
-        // Extract the string between $ and MC (e.g., "2.60m")
-        string mcString = message.Substring(dollarIndex + 1, mcIndex - dollarIndex - 1).Trim();
-
-        if (mcString.Length == 0) return null;
-
-        // Get the last character (unit: k, m, or b)
-        char unit = mcString[mcString.Length - 1];
-
-        // Get the number part (everything except last char)
-        string numberPart = mcString.Substring(0, mcString.Length - 1);
-
-        // Parse the number
-        if (!double.TryParse(numberPart, out double value)) return null;
-
-        // Multiply by unit
-        long multiplier = unit switch
+        var buffer = new byte[4096];
+        using var frame = new MemoryStream();
+        while (true)
         {
-            'k' => 1_000,
-            'm' => 1_000_000,
-            'b' => 1_000_000_000,
-            _ => 0
-        };
-
-        if (multiplier == 0) return null;
+            var received = await socket.ReceiveAsync(new ArraySegment<byte>(buffer), cancellationToken);
+            if (received.MessageType == WebSocketMessageType.Close)
+            {
+                return null;
+            }
 
-        return (long)(value * multiplier);
+            frame.Write(buffer, 0, received.Count);
+            if (received.EndOfMessage)
+            {
+                return Encoding.UTF8.GetString(frame.GetBuffer(), 0, (int)frame.Length);
+            }
+        }
     }
 }
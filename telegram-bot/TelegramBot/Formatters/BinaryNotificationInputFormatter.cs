@@ -0,0 +1,104 @@
+using System.Text;
+using Microsoft.AspNetCore.Mvc.Formatters;
+using Microsoft.Net.Http.Headers;
+using TelegramBot.Models;
+
+namespace TelegramBot.Formatters;
+
+// Reads the listener's compact binary payload (application/x-fomofaster-notification) into a
+// NotificationRequest, or a List<NotificationRequest> for api/notifications/batch.
+//
+// Little-endian, strings are [7-bit encoded length][UTF-8] (what BinaryReader.ReadString expects).
+// Notification: [byte version][byte flags][long postTime][long idempotencyKey][string message]
+//               then, if structured: [byte side][string trader]? [string ticker]? [long marketCap][double amount]
+//               then, if origin: [long deviceId][long sequence][long clockOffsetMs (long.MinValue: unknown)]
+// Batch:        [byte version][7-bit count] followed by count notifications
+public class BinaryNotificationInputFormatter : InputFormatter
+{
+    public const string ContentType = "application/x-fomofaster-notification";
+
+    private const byte Version = 1;
+    private const int FlagStructured = 1;
+    private const int FlagTrader = 2;
+    private const int FlagTicker = 4;
+    private const int FlagOrigin = 8;
+
+    public BinaryNotificationInputFormatter()
+    {
+        SupportedMediaTypes.Add(MediaTypeHeaderValue.Parse(ContentType));
+    }
+
+    protected override bool CanReadType(Type type)
+    {
+        return type == typeof(NotificationRequest) || type == typeof(List<NotificationRequest>);
+    }
+
+    public override async Task<InputFormatterResult> ReadRequestBodyAsync(InputFormatterContext context)
+    {
+        using var body = new MemoryStream();
+        await context.HttpContext.Request.Body.CopyToAsync(body, context.HttpContext.RequestAborted);
+        body.Position = 0;
+
+        try
+        {
+            using var reader = new BinaryReader(body, Encoding.UTF8);
+            if (reader.ReadByte() != Version)
+            {
+                context.ModelState.AddModelError(context.ModelName, "Unsupported payload version");
+                return await InputFormatterResult.FailureAsync();
+            }
+
+            if (context.ModelType == typeof(NotificationRequest))
+            {
+                return await InputFormatterResult.SuccessAsync(ReadNotification(reader));
+            }
+
+            int count = reader.Read7BitEncodedInt();
+            var notis = new List<NotificationRequest>(count);
+            for (int i = 0; i < count; i++)
+            {
+                notis.Add(ReadNotification(reader));
+            }
+            return await InputFormatterResult.SuccessAsync(notis);
+        }
+        catch (Exception ex) when (ex is EndOfStreamException || ex is FormatException || ex is IOException)
+        {
+            context.ModelState.AddModelError(context.ModelName, "Malformed binary payload: " + ex.Message);
+            return await InputFormatterResult.FailureAsync();
+        }
+    }
+
+    private static NotificationRequest ReadNotification(BinaryReader reader)
+    {
+        int flags = reader.ReadByte();
+        var noti = new NotificationRequest
+        {
+            PostTime = reader.ReadInt64(),
+            IdempotencyKey = ((ulong)reader.ReadInt64()).ToString("x"),
+            Message = reader.ReadString()
+        };
+
+        if ((flags & FlagStructured) != 0)
+        {
+            var side = (NotificationType)reader.ReadByte();
+            noti.Side = Enum.IsDefined(side) ? side.ToString() : null;
+            noti.Trader = (flags & FlagTrader) != 0 ? reader.ReadString() : null;
+            noti.Ticker = (flags & FlagTicker) != 0 ? reader.ReadString() : null;
+
+            long marketCap = reader.ReadInt64();
+            noti.MarketCap = marketCap >= 0 ? marketCap : null;
+            double amount = reader.ReadDouble();
+            noti.Amount = double.IsFinite(amount) ? (decimal)amount : null;
+        }
+
+        if ((flags & FlagOrigin) != 0)
+        {
+            noti.DeviceId = ((ulong)reader.ReadInt64()).ToString("x");
+            long sequence = reader.ReadInt64();
+            noti.Sequence = sequence > 0 ? sequence : null;
+            long clockOffsetMs = reader.ReadInt64();
+            noti.ClockOffsetMs = clockOffsetMs != long.MinValue ? clockOffsetMs : null;
+        }
+        return noti;
+    }
+}
@@ -0,0 +1,57 @@
+namespace TelegramBot.Models;
+
+// Periodic health snapshot posted by the android listener (api/notifications/heartbeat).
+// Counters are cumulative since the listener service started; a drop back to zero means it restarted.
+public class ListenerHeartbeat
+{
+    // Build.MODEL of the device, shown on the dashboard
+    public string? Device { get; set; }
+
+    // Random id generated by the listener on first start; tells apart several listeners on the same model
+    public string? DeviceId { get; set; }
+
+    // Increments with every heartbeat of one service instance
+    public long Sequence { get; set; }
+
+    // Device clock when the heartbeat was sent (Unix epoch ms)
+    public long SentAt { get; set; }
+
+    public long UptimeMs { get; set; }
+
+    // How often the listener sends these; the backend flags it as stale after a few missed intervals
+    public long IntervalMs { get; set; }
+
+    // Whether the system currently has the notification listener bound
+    public bool ListenerBound { get; set; }
+
+    // Notifications accepted but not yet acknowledged, and how long the oldest of them has waited
+    public int QueueDepth { get; set; }
+    public long OldestPendingAgeMs { get; set; }
+
+    public long Delivered { get; set; }
+    public long Retries { get; set; }
+    public long Parked { get; set; }
+    public long Expired { get; set; }
+    public long Rejected { get; set; }
+    public long Duplicates { get; set; }
+
+    // Dropped on the device under load: pushed out of a full send queue, replaced by a newer trade for
+    // the same trader/token, or older than the listener's freshness TTL
+    public long ShedQueueFull { get; set; }
+    public long ShedCoalesced { get; set; }
+    public long ShedStale { get; set; }
+
+    // Posted -> backend response latency percentiles over the service's lifetime
+    public long LatencyP50Ms { get; set; }
+    public long LatencyP90Ms { get; set; }
+    public long LatencyP99Ms { get; set; }
+    public long LatencySamples { get; set; }
+
+    // Share of sends that went out on an already open connection (0..1)
+    public double ConnectionReuseRate { get; set; }
+
+    // Our clock minus the device's, and the round trip of the heartbeat it was measured on (null until the
+    // listener got its first heartbeat answer)
+    public long? ClockOffsetMs { get; set; }
+    public long? ClockRttMs { get; set; }
+}
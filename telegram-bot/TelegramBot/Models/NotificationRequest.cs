@@ -3,4 +3,31 @@ namespace TelegramBot.Models;
 public class NotificationRequest
 {
     public string Message { get; set; } = string.Empty;
+
+    // When the notification was posted on the device (Unix epoch ms), sent by the listener
+    public long? PostTime { get; set; }
+
+    // Stable per-notification key from the listener, used to drop retried/re-posted duplicates
+    public string? IdempotencyKey { get; set; }
+
+    // Structured fields extracted on the device (optional). When Side is present the backend trusts
+    // these instead of parsing Message. Side uses the NotificationType names (Buy, Sell, Thesis, ...).
+    public string? Side { get; set; }
+    public string? Trader { get; set; }
+    public string? Ticker { get; set; }
+    public long? MarketCap { get; set; }
+    public decimal? Amount { get; set; }
+
+    // Which listener sent it, when several forward the same notifications (hex id generated on the device)
+    public string? DeviceId { get; set; }
+
+    // Numbers the device's notifications for this backend's route in the order they were first sent; a retry
+    // keeps its number, so a number that never arrives is a notification lost on the way
+    public long? Sequence { get; set; }
+
+    // Our clock minus the device's, estimated by the listener from heartbeat round trips
+    public long? ClockOffsetMs { get; set; }
+
+    // PostTime moved onto the backend clock, so post times from different devices can be compared
+    public long? ServerPostTime() => PostTime.HasValue ? PostTime.Value + (ClockOffsetMs ?? 0) : null;
 }
@@ -1,5 +1,6 @@
 ﻿using Microsoft.EntityFrameworkCore;
 using TelegramBot.Data;
+using TelegramBot.Formatters;
 using TelegramBot.Models;
 using TelegramBot.Services;
 using TelegramBot.Hubs;
@@ -16,7 +17,11 @@ builder.Logging.AddSimpleConsole(options =>
 });
 
 // Add services to the container
-builder.Services.AddControllers()
+builder.Services.AddControllers(options =>
+    {
+        // Compact binary payloads from the listener (JSON stays the default)
+        options.InputFormatters.Add(new BinaryNotificationInputFormatter());
+    })
     .AddJsonOptions(options =>
     {
         options.JsonSerializerOptions.Converters.Add(new System.Text.Json.Serialization.JsonStringEnumConverter());
@@ -24,6 +29,7 @@ builder.Services.AddControllers()
 builder.Services.AddEndpointsApiExplorer();
 builder.Services.AddSwaggerGen();
 builder.Services.AddSignalR();
+builder.Services.AddRequestDecompression(); // Content-Encoding: gzip from the listener
 
 // Add database
 builder.Services.AddDbContext<AppDbContext>(options =>
@@ -45,11 +51,16 @@ builder.Services.AddCors(options =>
 // Register services
 builder.Services.AddScoped<IUserService, UserService>();
 builder.Services.AddScoped<ITraderService, TraderService>();
+builder.Services.AddScoped<INotificationIngestService, NotificationIngestService>();
 builder.Services.AddSingleton<ITelegramService, TelegramService>();
 builder.Services.AddSingleton<ISolanaService, SolanaService>();
 builder.Services.AddSingleton<IDexScreenerService, DexScreenerService>();
 builder.Services.AddSingleton<ContractAddressRetryService>();
 builder.Services.AddSingleton<AppConfigService>();
+builder.Services.AddSingleton<NotificationDedupService>();
+builder.Services.AddSingleton<CrossDeviceDedupService>();
+builder.Services.AddSingleton<ListenerHealthService>();
+builder.Services.AddHostedService(provider => provider.GetRequiredService<ListenerHealthService>()); // Listener heartbeat watchdog
 builder.Services.AddHostedService<TelegramBotPollingService>(); // Background polling service
 builder.Services.AddHostedService(provider => provider.GetRequiredService<ContractAddressRetryService>()); // CA retry service
 builder.Services.AddSingleton<PaymentPollerService>();
@@ -100,6 +111,15 @@ if (app.Environment.IsDevelopment())
 app.UseStaticFiles();
 
 app.UseCors("AllowAll");
+
+app.UseRequestDecompression();
+
+// WebSockets for the listener's streaming transport (api/notifications/stream)
+app.UseWebSockets(new WebSocketOptions
+{
+    KeepAliveInterval = TimeSpan.FromSeconds(15)
+});
+
 app.UseAuthorization();
 app.MapControllers();
 
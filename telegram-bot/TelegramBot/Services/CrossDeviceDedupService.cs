@@ -0,0 +1,323 @@
+using System.Collections.Concurrent;
+using TelegramBot.Models;
+
+namespace TelegramBot.Services;
+
+// First-arrival-wins dedup for several listeners forwarding the same FOMO notifications.
+// Running the listener on two or more devices means whichever sees a notification first gets it to Telegram,
+// and one device dying or lagging costs nothing as long as another is up.
+//
+// Idempotency keys can't match across devices (they hash the device's own notification key and post time), so
+// copies are matched on the message text, with post times - moved onto our clock with the offset each listener
+// estimates from its heartbeats - within MatchWindow of each other. The first copy is processed; later ones wait
+// for its result and return it, like an idempotency hit, so every listener acks. Per device this records how
+// often it was first, how far ahead of the next device it was (lead), how far behind the first it was (lag) and
+// how many of its sequence numbers never arrived. A listener numbers notifications per route as it first sends
+// them, so this assumes each of a device's routes points at its own backend.
+public class CrossDeviceDedupService
+{
+    private static readonly TimeSpan MatchWindow = TimeSpan.FromSeconds(30);
+    // Races are kept a while past the window for copies whose post time matches but that arrive very late
+    private static readonly TimeSpan RaceTtl = MatchWindow * 2;
+    private static readonly TimeSpan SweepInterval = TimeSpan.FromSeconds(10);
+    // Lead/lag samples kept per device for the percentiles
+    private const int SamplesKept = 256;
+    // Sequence numbers remembered per device, for counting each one once; a number further back than this
+    // behind the highest is too late to tell apart from a repeat and is ignored
+    private const int SequenceWindow = 4096;
+
+    private readonly object _lock = new();
+    private readonly Dictionary<string, Race> _races = new();
+    private readonly ConcurrentDictionary<string, DeviceStats> _devices = new();
+    private readonly ILogger<CrossDeviceDedupService> _logger;
+    private DateTime _lastSweep = DateTime.UtcNow;
+
+    private sealed class Race
+    {
+        public string Key { get; }
+        public string Winner { get; }
+        public DateTime FirstArrival { get; }
+        public long? ServerPostTime { get; }
+        public Task<NotificationIngestResult> Result { get; }
+        public HashSet<string> Devices { get; } = new();
+        public bool LeadRecorded { get; set; }
+
+        public Race(string key, string winner, DateTime firstArrival, long? serverPostTime, Task<NotificationIngestResult> result)
+        {
+            Key = key;
+            Winner = winner;
+            FirstArrival = firstArrival;
+            ServerPostTime = serverPostTime;
+            Result = result;
+            Devices.Add(winner);
+        }
+    }
+
+    private sealed class DeviceStats
+    {
+        public long First;
+        public long Beaten;
+        // Won with no other device delivering a copy within the window
+        public long OnlyCopy;
+        public readonly Queue<long> LeadMs = new();
+        public readonly Queue<long> LagMs = new();
+        public long FirstSequence;
+        public long HighestSequence;
+        // Distinct sequence numbers seen
+        public long SequencesReceived;
+        // Bit (sequence % SequenceWindow) is set if that number arrived, for the last SequenceWindow numbers
+        public readonly System.Collections.BitArray SequencesSeen = new(SequenceWindow);
+        public long? ClockOffsetMs;
+        public DateTime LastSeen;
+    }
+
+    public CrossDeviceDedupService(ILogger<CrossDeviceDedupService> logger)
+    {
+        _logger = logger;
+    }
+
+    // Runs process for the first copy only; copies from other devices get its result.
+    // Notifications without a device id (older listeners) are processed as they come.
+    public async Task<NotificationIngestResult> RunFirstAsync(NotificationRequest noti, Func<Task<NotificationIngestResult>> process)
+    {
+        if (string.IsNullOrEmpty(noti.DeviceId) || string.IsNullOrWhiteSpace(noti.Message))
+        {
+            return await process();
+        }
+
+        var now = DateTime.UtcNow;
+        var device = noti.DeviceId;
+        RecordArrival(device, noti, now);
+
+        var key = noti.Message.Trim();
+        var postTime = noti.ServerPostTime();
+        var completion = new TaskCompletionSource<NotificationIngestResult>(TaskCreationOptions.RunContinuationsAsynchronously);
+        var mine = new Race(key, device, now, postTime, completion.Task);
+        Race? earlier = null;
+        long lagMs = 0;
+        lock (_lock)
+        {
+            SweepExpired(now);
+
+            // The same device sending the same text again is a new notification, not a copy
+            if (_races.TryGetValue(key, out var race) && !race.Devices.Contains(device) && IsSameNotification(race, postTime, now))
+            {
+                race.Devices.Add(device);
+                earlier = race;
+                lagMs = (long)(now - race.FirstArrival).TotalMilliseconds;
+                RecordLag(race, device, lagMs);
+            }
+            else
+            {
+                _races[key] = mine;
+            }
+        }
+
+        if (earlier != null)
+        {
+            _logger.LogInformation("🏁 {Device} was beaten by {Winner} by {Lag}ms, copy suppressed", device, earlier.Winner, lagMs);
+            return await earlier.Result;
+        }
+
+        var stats = Stats(device);
+        lock (stats)
+        {
+            stats.First++;
+        }
+
+        NotificationIngestResult result;
+        try
+        {
+            result = await process();
+        }
+        catch (Exception ex)
+        {
+            Forget(mine);
+            completion.SetException(ex);
+            throw;
+        }
+
+        // Let a copy from another device have a go instead of handing it our failure
+        if (result.StatusCode >= 500)
+        {
+            Forget(mine);
+        }
+        completion.SetResult(result);
+        return result;
+    }
+
+    // Per-device race results for the dashboard, keyed by device id
+    public Dictionary<string, object> Snapshot()
+    {
+        var devices = new Dictionary<string, object>();
+        foreach (var pair in _devices)
+        {
+            devices[pair.Key] = SnapshotOf(pair.Value);
+        }
+        return devices;
+    }
+
+    public object? Snapshot(string? deviceId)
+    {
+        if (deviceId == null || !_devices.TryGetValue(deviceId, out var stats))
+        {
+            return null;
+        }
+        return SnapshotOf(stats);
+    }
+
+    private static object SnapshotOf(DeviceStats stats)
+    {
+        lock (stats)
+        {
+            long expected = stats.HighestSequence - stats.FirstSequence + 1;
+            return new
+            {
+                first = stats.First,
+                beaten = stats.Beaten,
+                onlyCopy = stats.OnlyCopy,
+                leadP50Ms = Percentile(stats.LeadMs, 50),
+                leadP95Ms = Percentile(stats.LeadMs, 95),
+                lagP50Ms = Percentile(stats.LagMs, 50),
+                lagP95Ms = Percentile(stats.LagMs, 95),
+                missingSequences = stats.SequencesReceived > 0 ? Math.Max(0, expected - stats.SequencesReceived) : 0,
+                clockOffsetMs = stats.ClockOffsetMs,
+                lastSeen = stats.LastSeen
+            };
+        }
+    }
+
+    private bool IsSameNotification(Race race, long? postTime, DateTime now)
+    {
+        if (race.ServerPostTime.HasValue && postTime.HasValue)
+        {
+            return Math.Abs(race.ServerPostTime.Value - postTime.Value) <= MatchWindow.TotalMilliseconds;
+        }
+        return now - race.FirstArrival <= MatchWindow;
+    }
+
+    // The winner's lead is how far it was ahead of the first device to deliver a copy after it
+    private void RecordLag(Race race, string device, long lagMs)
+    {
+        var loser = Stats(device);
+        lock (loser)
+        {
+            loser.Beaten++;
+            AddSample(loser.LagMs, lagMs);
+        }
+
+        if (!race.LeadRecorded)
+        {
+            race.LeadRecorded = true;
+            var winner = Stats(race.Winner);
+            lock (winner)
+            {
+                AddSample(winner.LeadMs, lagMs);
+            }
+        }
+    }
+
+    // A device numbers what it sends, and keeps the number on retries. Retries do get here (after a 5xx, which
+    // isn't cached, or once the idempotency entry has expired), so each number is counted once; every number
+    // between the lowest and highest seen that never arrived was lost on the way.
+    private void RecordArrival(string device, NotificationRequest noti, DateTime now)
+    {
+        var stats = Stats(device);
+        lock (stats)
+        {
+            stats.LastSeen = now;
+            stats.ClockOffsetMs = noti.ClockOffsetMs ?? stats.ClockOffsetMs;
+            if (noti.Sequence is long sequence && sequence > 0)
+            {
+                RecordSequence(stats, sequence);
+            }
+        }
+    }
+
+    // Called under the stats lock
+    private static void RecordSequence(DeviceStats stats, long sequence)
+    {
+        if (stats.SequencesReceived == 0)
+        {
+            stats.FirstSequence = sequence;
+            stats.HighestSequence = sequence;
+        }
+        else if (sequence > stats.HighestSequence)
+        {
+            // Numbers the window moves past are forgotten; their bits are reused for the new ones
+            long clearFrom = Math.Max(stats.HighestSequence + 1, sequence - SequenceWindow + 1);
+            for (long cleared = clearFrom; cleared < sequence; cleared++)
+            {
+                stats.SequencesSeen[(int)(cleared % SequenceWindow)] = false;
+            }
+            stats.HighestSequence = sequence;
+        }
+        else if (sequence <= stats.HighestSequence - SequenceWindow || stats.SequencesSeen[(int)(sequence % SequenceWindow)])
+        {
+            return;
+        }
+        else if (sequence < stats.FirstSequence)
+        {
+            stats.FirstSequence = sequence;
+        }
+
+        stats.SequencesSeen[(int)(sequence % SequenceWindow)] = true;
+        stats.SequencesReceived++;
+    }
+
+    private void Forget(Race race)
+    {
+        lock (_lock)
+        {
+            if (_races.TryGetValue(race.Key, out var current) && current == race)
+            {
+                _races.Remove(race.Key);
+            }
+        }
+    }
+
+    // Called under _lock
+    private void SweepExpired(DateTime now)
+    {
+        if (now - _lastSweep < SweepInterval)
+        {
+            return;
+        }
+        _lastSweep = now;
+
+        foreach (var race in _races.Values.Where(r => now - r.FirstArrival > RaceTtl).ToList())
+        {
+            _races.Remove(race.Key);
+            if (race.Devices.Count == 1)
+            {
+                var winner = Stats(race.Winner);
+                lock (winner)
+                {
+                    winner.OnlyCopy++;
+                }
+            }
+        }
+    }
+
+    private DeviceStats Stats(string device) => _devices.GetOrAdd(device, _ => new DeviceStats());
+
+    private static void AddSample(Queue<long> samples, long value)
+    {
+        samples.Enqueue(value);
+        while (samples.Count > SamplesKept)
+        {
+            samples.Dequeue();
+        }
+    }
+
+    private static long? Percentile(Queue<long> samples, int percentile)
+    {
+        if (samples.Count == 0)
+        {
+            return null;
+        }
+        var sorted = samples.OrderBy(v => v).ToList();
+        int index = Math.Max(0, (int)Math.Ceiling(sorted.Count * percentile / 100.0) - 1);
+        return sorted[index];
+    }
+}
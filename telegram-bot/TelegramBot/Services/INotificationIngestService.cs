@@ -0,0 +1,20 @@
+using TelegramBot.Models;
+
+namespace TelegramBot.Services;
+
+public class NotificationIngestResult
+{
+    public int StatusCode { get; }
+    public object Body { get; }
+
+    public NotificationIngestResult(int statusCode, object body)
+    {
+        StatusCode = statusCode;
+        Body = body;
+    }
+}
+
+public interface INotificationIngestService
+{
+    Task<NotificationIngestResult> ProcessAsync(NotificationRequest noti);
+}
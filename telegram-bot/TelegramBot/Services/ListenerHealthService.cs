@@ -0,0 +1,221 @@
+using System.Collections.Concurrent;
+using Microsoft.AspNetCore.SignalR;
+using TelegramBot.Hubs;
+using TelegramBot.Models;
+
+namespace TelegramBot.Services;
+
+// Tracks the heartbeats of every android listener so a dead or stuck listener can be told apart from a quiet market.
+// Each heartbeat is pushed to the dashboard as it arrives; the background loop flags listeners that stop
+// sending them, so the dashboard turns red within a few seconds of a stall rather than at the next missed trade.
+public class ListenerHealthService : BackgroundService
+{
+    public const string StatusOk = "ok";
+    public const string StatusBacklogged = "backlogged";
+    public const string StatusUnbound = "unbound";
+    public const string StatusStale = "stale";
+
+    // Points kept per listener for the dashboard charts (an hour at the default 10s interval)
+    private const int HistoryLength = 360;
+    private const int MissedIntervalsBeforeStale = 3;
+    private static readonly TimeSpan MinStaleAfter = TimeSpan.FromSeconds(15);
+    private static readonly TimeSpan BackloggedAfter = TimeSpan.FromSeconds(30);
+    private static readonly TimeSpan CheckInterval = TimeSpan.FromSeconds(2);
+
+    private readonly ConcurrentDictionary<string, ListenerState> _listeners = new();
+    private readonly IHubContext<DashboardHub> _hubContext;
+    private readonly CrossDeviceDedupService _crossDeviceDedup;
+    private readonly ILogger<ListenerHealthService> _logger;
+
+    private sealed class ListenerState
+    {
+        public ListenerHeartbeat Last { get; set; } = new();
+        public DateTime ReceivedAt { get; set; }
+        public string Status { get; set; } = StatusOk;
+        public Queue<object> History { get; } = new();
+    }
+
+    public ListenerHealthService(IHubContext<DashboardHub> hubContext, CrossDeviceDedupService crossDeviceDedup,
+        ILogger<ListenerHealthService> logger)
+    {
+        _hubContext = hubContext;
+        _crossDeviceDedup = crossDeviceDedup;
+        _logger = logger;
+    }
+
+    public async Task RecordAsync(ListenerHeartbeat heartbeat, string? remoteAddress)
+    {
+        // Emulators all report the same model, the device id keeps them apart
+        var device = string.IsNullOrWhiteSpace(heartbeat.DeviceId)
+            ? heartbeat.Device
+            : $"{heartbeat.Device} {heartbeat.DeviceId}";
+        var source = string.IsNullOrWhiteSpace(device)
+            ? remoteAddress ?? "unknown"
+            : $"{device} ({remoteAddress ?? "unknown"})";
+        var now = DateTime.UtcNow;
+        var state = _listeners.GetOrAdd(source, _ => new ListenerState { ReceivedAt = now });
+
+        string previousStatus;
+        string status;
+        object point;
+        long shedSinceLast;
+        lock (state)
+        {
+            previousStatus = state.Status;
+            shedSinceLast = ShedTotal(heartbeat) - ShedTotal(state.Last);
+            state.Last = heartbeat;
+            state.ReceivedAt = now;
+            state.Status = status = ComputeStatus(state, now);
+
+            point = ToPoint(heartbeat, now);
+            state.History.Enqueue(point);
+            while (state.History.Count > HistoryLength)
+            {
+                state.History.Dequeue();
+            }
+        }
+
+        if (status != previousStatus)
+        {
+            LogTransition(source, previousStatus, status);
+        }
+        // Negative after a listener restart (counters start over)
+        if (shedSinceLast > 0)
+        {
+            _logger.LogWarning("⚠️ Listener {Source} shed {Count} notification(s) under load (queue full {QueueFull}, coalesced {Coalesced}, stale {Stale} so far)",
+                source, shedSinceLast, heartbeat.ShedQueueFull, heartbeat.ShedCoalesced, heartbeat.ShedStale);
+        }
+
+        await _hubContext.Clients.All.SendAsync("ListenerHeartbeat", new
+        {
+            source,
+            status,
+            receivedAt = now,
+            heartbeat,
+            race = _crossDeviceDedup.Snapshot(heartbeat.DeviceId),
+            point
+        });
+    }
+
+    // Latest state and chart history of every listener seen since the backend started
+    public List<object> Snapshot()
+    {
+        var now = DateTime.UtcNow;
+        var listeners = new List<object>();
+        foreach (var pair in _listeners.OrderBy(p => p.Key))
+        {
+            var state = pair.Value;
+            lock (state)
+            {
+                listeners.Add(new
+                {
+                    source = pair.Key,
+                    status = ComputeStatus(state, now),
+                    receivedAt = state.ReceivedAt,
+                    heartbeat = state.Last,
+                    race = _crossDeviceDedup.Snapshot(state.Last.DeviceId),
+                    history = state.History.ToList()
+                });
+            }
+        }
+        return listeners;
+    }
+
+    protected override async Task ExecuteAsync(CancellationToken stoppingToken)
+    {
+        _logger.LogInformation("ListenerHealthService started");
+
+        while (!stoppingToken.IsCancellationRequested)
+        {
+            try
+            {
+                await CheckForStallsAsync();
+            }
+            catch (Exception ex)
+            {
+                _logger.LogError(ex, "Error in ListenerHealthService loop");
+            }
+
+            await Task.Delay(CheckInterval, stoppingToken);
+        }
+    }
+
+    // Heartbeats that stopped arriving don't trigger RecordAsync, so staleness has to be noticed here
+    private async Task CheckForStallsAsync()
+    {
+        var now = DateTime.UtcNow;
+        foreach (var pair in _listeners)
+        {
+            var state = pair.Value;
+            string previousStatus;
+            string status;
+            lock (state)
+            {
+                previousStatus = state.Status;
+                state.Status = status = ComputeStatus(state, now);
+            }
+
+            if (status == previousStatus)
+            {
+                continue;
+            }
+
+            LogTransition(pair.Key, previousStatus, status);
+            await _hubContext.Clients.All.SendAsync("ListenerStatus", new
+            {
+                source = pair.Key,
+                status,
+                receivedAt = state.ReceivedAt
+            });
+        }
+    }
+
+    private static string ComputeStatus(ListenerState state, DateTime now)
+    {
+        var interval = TimeSpan.FromMilliseconds(Math.Max(0, state.Last.IntervalMs));
+        var staleAfter = interval * MissedIntervalsBeforeStale;
+        if (staleAfter < MinStaleAfter)
+        {
+            staleAfter = MinStaleAfter;
+        }
+
+        if (now - state.ReceivedAt > staleAfter)
+        {
+            return StatusStale;
+        }
+        if (!state.Last.ListenerBound)
+        {
+            return StatusUnbound;
+        }
+        if (state.Last.QueueDepth > 0 && state.Last.OldestPendingAgeMs > BackloggedAfter.TotalMilliseconds)
+        {
+            return StatusBacklogged;
+        }
+        return StatusOk;
+    }
+
+    private static long ShedTotal(ListenerHeartbeat heartbeat) =>
+        heartbeat.ShedQueueFull + heartbeat.ShedCoalesced + heartbeat.ShedStale;
+
+    private static object ToPoint(ListenerHeartbeat heartbeat, DateTime receivedAt) => new
+    {
+        t = receivedAt,
+        queueDepth = heartbeat.QueueDepth,
+        oldestPendingAgeMs = heartbeat.OldestPendingAgeMs,
+        p50 = heartbeat.LatencyP50Ms,
+        p99 = heartbeat.LatencyP99Ms,
+        bound = heartbeat.ListenerBound
+    };
+
+    private void LogTransition(string source, string previousStatus, string status)
+    {
+        if (status == StatusOk)
+        {
+            _logger.LogInformation("💓 Listener {Source} recovered ({Previous} -> ok)", source, previousStatus);
+        }
+        else
+        {
+            _logger.LogWarning("🚨 Listener {Source} is {Status} (was {Previous})", source, status, previousStatus);
+        }
+    }
+}
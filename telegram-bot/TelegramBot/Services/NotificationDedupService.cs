@@ -0,0 +1,88 @@
+using System.Collections.Concurrent;
+
+namespace TelegramBot.Services;
+
+// Short-TTL idempotency cache for incoming notifications.
+// The listener stamps every notification with a stable idempotency key; if the same key shows up again
+// (a retry after a timed-out POST, a re-sent WebSocket frame, a re-posted notification) within the TTL,
+// the original result is returned instead of sending the Telegram messages a second time.
+public class NotificationDedupService
+{
+    private static readonly TimeSpan Ttl = TimeSpan.FromMinutes(10);
+    private static readonly TimeSpan SweepInterval = TimeSpan.FromMinutes(1);
+
+    private readonly ConcurrentDictionary<string, DedupEntry> _entries = new();
+    private readonly ILogger<NotificationDedupService> _logger;
+    private DateTime _lastSweep = DateTime.UtcNow;
+
+    private sealed class DedupEntry
+    {
+        public Task<NotificationIngestResult> Result { get; }
+        public DateTime ExpiresAt { get; }
+
+        public DedupEntry(Task<NotificationIngestResult> result, DateTime expiresAt)
+        {
+            Result = result;
+            ExpiresAt = expiresAt;
+        }
+    }
+
+    public NotificationDedupService(ILogger<NotificationDedupService> logger)
+    {
+        _logger = logger;
+    }
+
+    // Runs process once per key; duplicates (including ones arriving while the first is still running) get its result.
+    // Server errors aren't cached so the listener's retry actually gets processed again.
+    public async Task<NotificationIngestResult> RunOnceAsync(string key, Func<Task<NotificationIngestResult>> process)
+    {
+        var now = DateTime.UtcNow;
+        SweepExpired(now);
+
+        var completion = new TaskCompletionSource<NotificationIngestResult>(TaskCreationOptions.RunContinuationsAsynchronously);
+        var mine = new DedupEntry(completion.Task, now + Ttl);
+        var entry = _entries.AddOrUpdate(key, mine, (_, existing) => existing.ExpiresAt < now ? mine : existing);
+
+        if (entry != mine)
+        {
+            _logger.LogInformation("♻️ Duplicate notification {Key} suppressed", key);
+            return await entry.Result;
+        }
+
+        NotificationIngestResult result;
+        try
+        {
+            result = await process();
+        }
+        catch (Exception ex)
+        {
+            _entries.TryRemove(new KeyValuePair<string, DedupEntry>(key, mine));
+            completion.SetException(ex);
+            throw;
+        }
+
+        if (result.StatusCode >= 500)
+        {
+            _entries.TryRemove(new KeyValuePair<string, DedupEntry>(key, mine));
+        }
+        completion.SetResult(result);
+        return result;
+    }
+
+    private void SweepExpired(DateTime now)
+    {
+        if (now - _lastSweep < SweepInterval)
+        {
+            return;
+        }
+        _lastSweep = now;
+
+        foreach (var pair in _entries)
+        {
+            if (pair.Value.ExpiresAt < now)
+            {
+                _entries.TryRemove(pair);
+            }
+        }
+    }
+}